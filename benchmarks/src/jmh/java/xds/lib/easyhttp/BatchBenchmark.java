@@ -0,0 +1,71 @@
+package xds.lib.easyhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.exception.ParseException;
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.transport.NioTransport;
+
+/**
+ * A number of small GET requests to one origin, pipelined as an {@link HttpBatch} or executed
+ * one after the other on the same {@link NioTransport}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BatchBenchmark {
+
+    @Param({"8", "32"})
+    public int requests;
+
+    private LoopbackServer server;
+    private NioTransport transport;
+    private HttpClient client;
+    private String url;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new LoopbackServer();
+        transport = new NioTransport();
+        client = new HttpClient.Builder().transport(transport).build();
+        url = server.url("/text?size=512");
+    }
+
+    @TearDown
+    public void tearDown() {
+        transport.close();
+        server.close();
+    }
+
+    @Benchmark
+    public List<HttpBatch.Result<?>> batch() {
+        final HttpBatch.Builder batch = new HttpBatch.Builder().client(client);
+        for (int i = 0; i < requests; i++) {
+            batch.add(new ExecuteBenchmark.TextRequest(client, url));
+        }
+        return batch.build().execute();
+    }
+
+    @Benchmark
+    public List<String> sequential() throws RequestException, ResponseException, ParseException {
+        final List<String> results = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            results.add(new ExecuteBenchmark.TextRequest(client, url).execute());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,119 @@
+package xds.lib.easyhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the request URL from a map of query parameters, half of which need encoding, and
+ * the wire-level request of a polling request with and without a {@link RequestTemplate}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BuildRequestUrlBenchmark {
+
+    private static final String URL = "https://api.example.com/v1/search";
+
+    @Param({"1", "10", "100", "1000"})
+    public int parameters;
+
+    private TestRequest request;
+    private TestRequest pollRequest;
+    private TestRequest templatePollRequest;
+
+    @Setup
+    public void setUp() {
+        final Map<String, String> query = new LinkedHashMap<>();
+        for (int i = 0; i < parameters; i++) {
+            query.put("key" + i, i % 2 == 0 ? "value" + i : "v\u00e4lue " + i + "&x=/?");
+        }
+        request = new TestRequest(URL, null, query, null);
+
+        // A polling request: static parameters and headers, plus a cursor which changes
+        final Map<String, String> cursor = Collections.singletonMap("cursor", "1700000000 42");
+        final Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Accept", "application/json");
+        headers.put("User-Agent", "EasyHttp benchmark");
+        final Map<String, String> pollQuery = new LinkedHashMap<>(query);
+        pollQuery.putAll(cursor);
+        pollRequest = new TestRequest(URL, null, pollQuery, headers);
+
+        final RequestTemplate.Builder template = new RequestTemplate.Builder(URL);
+        for (Map.Entry<String, String> parameter : query.entrySet()) {
+            template.queryParameter(parameter.getKey(), parameter.getValue());
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            template.header(header.getKey(), header.getValue());
+        }
+        templatePollRequest = new TestRequest(null, template.build(), cursor, null);
+    }
+
+    @Benchmark
+    public String buildRequestUrl() throws IOException {
+        return request.buildRequestUrl(URL);
+    }
+
+    @Benchmark
+    public RawRequest newRawRequest() throws IOException {
+        return pollRequest.newRawRequest(pollRequest.buildRequestUrl(URL), null);
+    }
+
+    @Benchmark
+    public RawRequest newTemplateRawRequest() throws IOException {
+        final String url = templatePollRequest.getUrl();
+        return templatePollRequest.newRawRequest(templatePollRequest.buildRequestUrl(url), null);
+    }
+
+    private static final class TestRequest extends HttpRequest<Void> {
+        private final String url;
+        private final RequestTemplate template;
+        private final Map<String, String> query;
+        private final Map<String, String> headers;
+
+        TestRequest(String url, RequestTemplate template, Map<String, String> query,
+                Map<String, String> headers) {
+            this.url = url;
+            this.template = template;
+            this.query = query;
+            this.headers = headers;
+        }
+
+        @Override
+        protected RequestTemplate getRequestTemplate() {
+            return template;
+        }
+
+        @Override
+        protected String getUrl() {
+            return url != null ? url : template.getUrl();
+        }
+
+        @Override
+        protected Map<String, String> getQueryParameters() {
+            return query;
+        }
+
+        @Override
+        protected Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        @Override
+        protected Void parseResponse(InputStream inputStream, String contentType) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package xds.lib.easyhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import xds.lib.easyhttp.util.ContentCodings;
+
+/**
+ * Decoding a {@code gzip} or {@code deflate} body the way responses are decoded, with the
+ * pooled inflaters of {@link ContentCodings}, next to the streams of {@code java.util.zip}
+ * which allocate an inflater each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentDecodingBenchmark {
+
+    @Param({"gzip", "deflate"})
+    public String coding;
+
+    @Param({"1024", "65536", "2097152"})
+    public int size;
+
+    private final byte[] buffer = new byte[8192];
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream encoding = ContentCodings.getDefault().get(coding).encode(out)) {
+            encoding.write(LoopbackServer.content(size));
+        }
+        encoded = out.toByteArray();
+    }
+
+    @Benchmark
+    public long contentCodings() throws IOException {
+        return drain(ContentCodings.getDefault().decode(coding,
+                new ByteArrayInputStream(encoded)));
+    }
+
+    @Benchmark
+    public long javaUtilZip() throws IOException {
+        final InputStream in = new ByteArrayInputStream(encoded);
+        return drain(coding.equals("gzip") ? new GZIPInputStream(in) :
+                new InflaterInputStream(in));
+    }
+
+    private long drain(InputStream in) throws IOException {
+        try (InputStream decoded = in) {
+            long total = 0;
+            int read;
+            while ((read = decoded.read(buffer)) >= 0) {
+                total += read;
+            }
+            return total;
+        }
+    }
+}
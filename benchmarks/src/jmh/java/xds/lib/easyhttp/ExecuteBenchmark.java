@@ -0,0 +1,110 @@
+package xds.lib.easyhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.exception.ParseException;
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.transport.NioTransport;
+import xds.lib.easyhttp.util.IOUtils;
+
+/**
+ * End-to-end {@link HttpRequest#execute()} against a {@link LoopbackServer}, over kept-alive
+ * connections, with a body announced by {@code Content-Length}, gzipped, or chunked.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExecuteBenchmark {
+
+    @Param({"urlconnection", "nio"})
+    public String transport;
+
+    @Param({"plain", "gzip", "chunked"})
+    public String body;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private LoopbackServer server;
+    private NioTransport nioTransport;
+    private HttpClient client;
+    private String url;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new LoopbackServer();
+        final HttpClient.Builder builder = new HttpClient.Builder();
+        if (transport.equals("nio")) {
+            nioTransport = new NioTransport();
+            builder.transport(nioTransport);
+        }
+        client = builder.build();
+        url = server.url("/text?size=" + size
+                + (body.equals("gzip") ? "&gzip=true" : "")
+                + (body.equals("chunked") ? "&chunked=true" : ""));
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (nioTransport != null) {
+            nioTransport.close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public String execute() throws RequestException, ResponseException, ParseException {
+        return new TextRequest(client, url).execute();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String executeConcurrently()
+            throws RequestException, ResponseException, ParseException {
+        return new TextRequest(client, url).execute();
+    }
+
+    /**
+     * GET request reading the body as a string.
+     */
+    static final class TextRequest extends HttpRequest<String> {
+        private final HttpClient client;
+        private final String url;
+
+        TextRequest(HttpClient client, String url) {
+            this.client = client;
+            this.url = url;
+        }
+
+        @Override
+        protected HttpClient getHttpClient() {
+            return client;
+        }
+
+        @Override
+        protected String getUrl() {
+            return url;
+        }
+
+        @Override
+        protected String parseResponse(InputStream inputStream, String contentType)
+                throws IOException {
+            return IOUtils.inputStreamToString(inputStream, StandardCharsets.UTF_8);
+        }
+    }
+}
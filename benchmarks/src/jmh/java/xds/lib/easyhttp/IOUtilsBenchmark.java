@@ -0,0 +1,73 @@
+package xds.lib.easyhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import xds.lib.easyhttp.util.IOUtils;
+import xds.lib.easyhttp.util.SizedInputStream;
+
+/**
+ * Reading a body with {@link IOUtils}, with and without an announced length, next to the
+ * line-by-line reader {@code inputStreamToString} used before bodies were read in one pass.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IOUtilsBenchmark {
+
+    @Param({"1024", "65536", "2097152"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean sized;
+
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        body = LoopbackServer.content(size);
+    }
+
+    @Benchmark
+    public String inputStreamToString() throws IOException {
+        return IOUtils.inputStreamToString(newBody(), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() throws IOException {
+        return IOUtils.toByteArray(newBody());
+    }
+
+    @Benchmark
+    public CharSequence toCharSequence() throws IOException {
+        return IOUtils.toCharSequence(newBody(), StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String bufferedReaderLines() throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(newBody(), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.joining());
+        }
+    }
+
+    private InputStream newBody() {
+        final InputStream in = new ByteArrayInputStream(body);
+        return sized ? new SizedInputStream(in, body.length) : in;
+    }
+}
@@ -0,0 +1,410 @@
+package xds.lib.easyhttp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import xds.lib.easyhttp.async.ResponseListener;
+import xds.lib.easyhttp.transport.NioTransport;
+import xds.lib.easyhttp.util.IOUtils;
+import xds.lib.easyhttp.util.LatencyHistogram;
+import xds.lib.easyhttp.util.RetryPolicy;
+
+/**
+ * Load and soak test keeping a number of requests in flight through
+ * {@link HttpRequest#executeAsync} against the {@code /load} endpoint of a
+ * {@link LoopbackServer}, and reporting per interval the throughput, the latency percentiles,
+ * the live threads, the open sockets and the allocation rate of the client.
+ * <p>
+ * Options, as {@code --name value}:
+ * <ul>
+ *     <li>{@code concurrency} requests in flight, 1000 by default.</li>
+ *     <li>{@code duration} and {@code warmup} in seconds, 60 and 10 by default;
+ *     {@code interval} between reports, 10 seconds by default.</li>
+ *     <li>{@code executor} {@code fixed:N}, {@code cached} or {@code client} for the executor
+ *     of the client, {@code fixed:64} by default.</li>
+ *     <li>{@code transport} {@code urlconnection} or {@code nio}.</li>
+ *     <li>{@code latency}, {@code errors}, {@code redirect}, {@code rate} and {@code size},
+ *     the faults and body of the server, see {@link LoopbackServer}.</li>
+ *     <li>{@code retries} retries of 5xx responses with {@link RetryPolicy#create50x}.</li>
+ *     <li>{@code target} base URL of a server in another process, such as
+ *     {@code http://127.0.0.1:8080}, so the threads and sockets of the server aren't
+ *     counted; by default the server runs in this process.</li>
+ *     <li>{@code out} file to write the summary to as JSON.</li>
+ * </ul>
+ */
+public final class LoadTest {
+
+    private static final String PROC_FD = "/proc/self/fd";
+
+    private final Map<String, String> options;
+    private final int concurrency;
+    private final String url;
+    private final HttpClient client;
+    private final Executor executor;
+    private final int retries;
+    private final byte[] uploadBody = LoopbackServer.content(4096);
+
+    private final Semaphore inFlight;
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile LatencyHistogram interval = new LatencyHistogram();
+    private volatile LatencyHistogram total = new LatencyHistogram();
+
+    private LoadTest(Map<String, String> options, String baseUrl, HttpClient client,
+            Executor executor) {
+        this.options = options;
+        this.concurrency = intOption("concurrency", 1000);
+        this.retries = intOption("retries", 0);
+        this.url = baseUrl + "/load?size=" + intOption("size", 1024)
+                + "&latency=" + intOption("latency", 0)
+                + "&errors=" + options.getOrDefault("errors", "0")
+                + "&redirect=" + intOption("redirect", 0)
+                + "&rate=" + intOption("rate", 0);
+        this.client = client;
+        this.executor = executor;
+        this.inFlight = new Semaphore(concurrency);
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @param args the options, see the class documentation.
+     */
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = parseOptions(args);
+        final String target = options.get("target");
+        final LoopbackServer server = target == null ? new LoopbackServer() : null;
+        final String baseUrl = server != null ? server.url("") : target;
+
+        final HttpClient.Builder builder = new HttpClient.Builder();
+        final NioTransport nioTransport =
+                "nio".equals(options.get("transport")) ? new NioTransport() : null;
+        if (nioTransport != null) {
+            builder.transport(nioTransport);
+        }
+        final String executorOption = options.getOrDefault("executor", "fixed:64");
+        final ExecutorService executorService = newExecutor(executorOption);
+        if (executorService != null) {
+            builder.executor(executorService);
+        }
+        final HttpClient client = builder.build();
+
+        final LoadTest test = new LoadTest(options, baseUrl, client, client.getExecutor());
+        try {
+            test.run(System.out);
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
+            if (nioTransport != null) {
+                nioTransport.close();
+            }
+            if (server != null) {
+                server.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    private void run(PrintStream out) throws InterruptedException, IOException {
+        final long warmupNanos = TimeUnit.SECONDS.toNanos(intOption("warmup", 10));
+        final long durationNanos = TimeUnit.SECONDS.toNanos(intOption("duration", 60));
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(intOption("interval", 10));
+        out.println("Load test of " + url + " with " + concurrency + " requests in flight, "
+                + options.getOrDefault("executor", "fixed:64") + " executor, "
+                + options.getOrDefault("transport", "urlconnection") + " transport"
+                + (options.containsKey("target") ? "" : ", server in process"));
+        out.println("    time   req/s  failed     p50     p99    p999     max  threads"
+                + "  sockets  alloc MB/s");
+
+        final Thread driver = new Thread(this::drive, "LoadTest-driver");
+        driver.setDaemon(true);
+        driver.start();
+
+        final long start = System.nanoTime();
+        final AllocationMeter allocation = new AllocationMeter();
+        long measuredStart = 0;
+        long measuredAllocated = 0;
+        long last = start;
+        long lastCompleted = 0;
+        long lastFailed = 0;
+        boolean measuring = false;
+        while (true) {
+            Thread.sleep(TimeUnit.NANOSECONDS.toMillis(intervalNanos));
+            final long now = System.nanoTime();
+            final long done = completed.sum();
+            final long failures = failed.sum();
+            final LatencyHistogram latencies = interval;
+            interval = new LatencyHistogram();
+            final double seconds = (now - last) / 1e9;
+            final long allocated = allocation.sample();
+            out.printf(Locale.US, "%7.0fs %7.0f %7d %s %8d %8d %11.1f%s%n",
+                    (now - start) / 1e9, (done - lastCompleted) / seconds,
+                    failures - lastFailed, percentiles(latencies), liveClientThreads(),
+                    openSockets(), allocated / seconds / (1024 * 1024),
+                    measuring ? "" : "  warmup");
+            last = now;
+            lastCompleted = done;
+            lastFailed = failures;
+
+            if (!measuring && now - start >= warmupNanos) {
+                measuring = true;
+                measuredStart = now;
+                measuredAllocated = 0;
+                completed.reset();
+                failed.reset();
+                lastCompleted = 0;
+                lastFailed = 0;
+                total = new LatencyHistogram();
+            } else if (measuring) {
+                measuredAllocated += allocated;
+                if (now - measuredStart >= durationNanos) {
+                    break;
+                }
+            }
+        }
+        driver.interrupt();
+
+        final double seconds = (last - measuredStart) / 1e9;
+        final LatencyHistogram latencies = total;
+        out.printf(Locale.US, "%nTotal: %d requests, %d failed, %.0f req/s, %s%n",
+                completed.sum(), failed.sum(), completed.sum() / seconds, latencies);
+        final String output = options.get("out");
+        if (output != null) {
+            writeSummary(new File(output), seconds, latencies, measuredAllocated / seconds);
+        }
+    }
+
+    /**
+     * Starts a request each time one completes, until interrupted.
+     */
+    private void drive() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                inFlight.acquire();
+                final long startNanos = System.nanoTime();
+                final ResponseListener<String> listener = new ResponseListener<String>() {
+                    @Override
+                    public void onSuccess(String response, String requestId) {
+                        complete(startNanos, true);
+                    }
+
+                    @Override
+                    public void onFailed(Throwable exception, String requestId) {
+                        complete(startNanos, false);
+                    }
+                };
+                try {
+                    newRequest().executeAsync(executor, null, listener);
+                } catch (RuntimeException e) {
+                    // Rejected by the executor
+                    complete(startNanos, false);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void complete(long startNanos, boolean successful) {
+        final long nanos = System.nanoTime() - startNanos;
+        interval.record(nanos);
+        total.record(nanos);
+        (successful ? completed : failed).increment();
+        inFlight.release();
+    }
+
+    /**
+     * Alternates GET requests and POST requests with a 4 KB body.
+     */
+    private HttpRequest<String> newRequest() {
+        return sequence.incrementAndGet() % 2 == 0 ? new GetRequest() : new PostRequest();
+    }
+
+    private void writeSummary(File file, double seconds, LatencyHistogram latencies,
+            double allocationRate) throws IOException {
+        final String json = String.format(Locale.US, "{\"url\":\"%s\",\"concurrency\":%d,"
+                        + "\"executor\":\"%s\",\"transport\":\"%s\",\"seconds\":%.1f,"
+                        + "\"requests\":%d,\"failures\":%d,\"throughput\":%.1f,"
+                        + "\"p50Micros\":%d,\"p99Micros\":%d,\"p999Micros\":%d,"
+                        + "\"maxMicros\":%d,\"threads\":%d,\"sockets\":%d,"
+                        + "\"allocationBytesPerSecond\":%.0f}%n",
+                url, concurrency, options.getOrDefault("executor", "fixed:64"),
+                options.getOrDefault("transport", "urlconnection"), seconds,
+                completed.sum(), failed.sum(), completed.sum() / seconds,
+                latencies.getPercentile(50, TimeUnit.MICROSECONDS),
+                latencies.getPercentile(99, TimeUnit.MICROSECONDS),
+                latencies.getPercentile(99.9, TimeUnit.MICROSECONDS),
+                latencies.getMax(TimeUnit.MICROSECONDS), liveClientThreads(), openSockets(),
+                allocationRate);
+        Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String percentiles(LatencyHistogram latencies) {
+        return String.format(Locale.US, "%7s %7s %7s %7s",
+                millis(latencies.getPercentile(50, TimeUnit.MICROSECONDS)),
+                millis(latencies.getPercentile(99, TimeUnit.MICROSECONDS)),
+                millis(latencies.getPercentile(99.9, TimeUnit.MICROSECONDS)),
+                millis(latencies.getMax(TimeUnit.MICROSECONDS)));
+    }
+
+    private static String millis(long micros) {
+        return String.format(Locale.US, "%.1fms", micros / 1000.0);
+    }
+
+    /**
+     * Returns the number of live threads, those of an in-process server excluded.
+     */
+    private static int liveClientThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!thread.getName().startsWith(LoopbackServer.THREAD_NAME)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of open sockets of the process on Linux, -1 elsewhere. With the
+     * server in process, each connection counts twice.
+     */
+    private static int openSockets() {
+        final File[] descriptors = new File(PROC_FD).listFiles();
+        if (descriptors == null) {
+            return -1;
+        }
+        int count = 0;
+        for (File descriptor : descriptors) {
+            try {
+                if (Files.readSymbolicLink(descriptor.toPath()).toString()
+                        .startsWith("socket:")) {
+                    count++;
+                }
+            } catch (IOException | UnsupportedOperationException e) {
+                // Closed meanwhile
+            }
+        }
+        return count;
+    }
+
+    private static ExecutorService newExecutor(String option) {
+        if (option.equals("client")) {
+            return null;
+        }
+        if (option.equals("cached")) {
+            return Executors.newCachedThreadPool();
+        }
+        if (option.startsWith("fixed:")) {
+            return Executors.newFixedThreadPool(Integer.parseInt(option.substring(6)));
+        }
+        throw new IllegalArgumentException("Unknown executor: " + option);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        final String value = options.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Expected --name value: "
+                        + Arrays.toString(args));
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    /**
+     * Measures the bytes allocated by the threads of the client since the last sample.
+     */
+    private static final class AllocationMeter {
+        private final com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private final Map<Long, Long> lastAllocated = new HashMap<>();
+
+        long sample() {
+            long allocated = 0;
+            final Map<Long, Long> current = new HashMap<>();
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith(LoopbackServer.THREAD_NAME)) {
+                    continue;
+                }
+                final long bytes = threads.getThreadAllocatedBytes(thread.getId());
+                if (bytes >= 0) {
+                    current.put(thread.getId(), bytes);
+                    allocated += bytes - lastAllocated.getOrDefault(thread.getId(), 0L);
+                }
+            }
+            lastAllocated.clear();
+            lastAllocated.putAll(current);
+            return allocated;
+        }
+    }
+
+    private abstract class LoadRequest extends HttpRequest<String> {
+
+        @Override
+        protected HttpClient getHttpClient() {
+            return client;
+        }
+
+        @Override
+        protected String getUrl() {
+            return url;
+        }
+
+        @Override
+        protected RetryPolicy createRetryPolicy() {
+            return retries > 0 ? RetryPolicy.create50x(retries, 10) : null;
+        }
+
+        @Override
+        protected String parseResponse(InputStream inputStream, String contentType)
+                throws IOException {
+            return IOUtils.inputStreamToString(inputStream, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final class GetRequest extends LoadRequest {
+    }
+
+    private final class PostRequest extends LoadRequest {
+
+        @Override
+        protected String getRequestMethod() {
+            return "POST";
+        }
+
+        @Override
+        protected String getRequestContentType() {
+            return "application/octet-stream";
+        }
+
+        @Override
+        protected void writeRequestBody(OutputStream os) throws IOException {
+            os.write(uploadBody);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package xds.lib.easyhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.util.LogPolicy;
+import xds.lib.easyhttp.util.LogSink;
+
+/**
+ * Log calls of the request pipeline with logging disabled and enabled. Run with
+ * {@code -Pjmh.profilers=gc}: the disabled calls must allocate 0 bytes per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LogcatBenchmark {
+
+    private static final String TAG = "LogcatBenchmark";
+    private static final String URL = "https://api.example.com/v1/search";
+
+    private Logcat disabled;
+    private Logcat enabled;
+    private long elapsed;
+    private int attempt;
+    private String lastMessage;
+
+    @Setup
+    public void setUp() {
+        final LogSink sink = (priority, tag, message, throwable) -> lastMessage = message;
+        // ADAPTIVE logs nothing outside a debug build, and the JVM platform is never one
+        disabled = new Logcat(LogPolicy.ADAPTIVE, sink);
+        enabled = new Logcat(LogPolicy.AGGRESSIVE, sink);
+        elapsed = 125;
+        attempt = 2;
+    }
+
+    @Benchmark
+    public void disabledFixedArity() {
+        disabled.d(TAG, "Request took %d ms: %s", elapsed, URL);
+    }
+
+    @Benchmark
+    public void disabledRetryWarning() {
+        disabled.w(TAG, "Retry %d in %d ms: %s", attempt, elapsed, URL);
+    }
+
+    @Benchmark
+    public void disabledVarargs() {
+        disabled.d(TAG, "Request %s to %s", "GET", URL);
+    }
+
+    @Benchmark
+    public void enabledFixedArity() {
+        enabled.d(TAG, "Request took %d ms: %s", elapsed, URL);
+    }
+
+    @Benchmark
+    public void enabledPlain() {
+        enabled.d(TAG, URL);
+    }
+}
@@ -0,0 +1,330 @@
+package xds.lib.easyhttp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process HTTP/1.1 server on the loopback interface, serving generated content:
+ * <ul>
+ *     <li>{@code /text?size=N} N bytes of text; {@code &gzip=true} compresses them and
+ *     {@code &chunked=true} omits {@code Content-Length}.</li>
+ *     <li>{@code /file?size=N} N bytes with support of single {@code Range} requests;
+ *     {@code &rate=B} throttles each response to B bytes per second.</li>
+ *     <li>{@code /load?size=N} N bytes of text for load tests, with injected faults:
+ *     {@code &latency=MS} delays the response, {@code &errors=P} answers P percent of the
+ *     requests with 503, {@code &redirect=K} redirects K times before answering and
+ *     {@code &rate=B} sends the body at B bytes per second. Delays don't hold a thread, so
+ *     thousands of slow exchanges can be in flight.</li>
+ * </ul>
+ * {@link #main(String[])} runs the server on its own, to load a client in another process.
+ */
+public final class LoopbackServer implements Closeable {
+
+    /** Name prefix of the threads of the server. */
+    public static final String THREAD_NAME = "LoopbackServer";
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int SLOW_CHUNK_SIZE = 1024;
+
+    static {
+        // The server writes headers and body separately; with Nagle's algorithm the body
+        // would wait for the delayed acknowledgement of the client, 40 ms on Linux
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Integer, byte[]> texts = new ConcurrentHashMap<>();
+    private final Map<Integer, byte[]> gzipTexts = new ConcurrentHashMap<>();
+
+    /**
+     * Starts a server on an ephemeral port.
+     *
+     * @throws IOException if the server can't bind.
+     */
+    public LoopbackServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Starts a server.
+     *
+     * @param port the port, or 0 for an ephemeral one.
+     * @throws IOException if the server can't bind.
+     */
+    public LoopbackServer(int port) throws IOException {
+        server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4096);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            final Thread thread = new Thread(runnable, THREAD_NAME + "-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/text", this::handleText);
+        server.createContext("/file", this::handleFile);
+        server.createContext("/load", this::handleLoad);
+        server.start();
+    }
+
+    /**
+     * Runs a server until the process is stopped.
+     *
+     * @param args the port, 8080 by default.
+     */
+    public static void main(String[] args) throws IOException {
+        final LoopbackServer server = new LoopbackServer(
+                args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+        System.out.println("Serving " + server.url("/load"));
+    }
+
+    /**
+     * Returns the URL of a path on this server.
+     *
+     * @param pathAndQuery the path, such as {@code /text?size=1024}.
+     */
+    public String url(String pathAndQuery) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + pathAndQuery;
+    }
+
+    /**
+     * Returns the bytes of {@code /text} and {@code /file} of the given size.
+     */
+    public static byte[] content(int size) {
+        final byte[] bytes = new byte[size];
+        final String alphabet = "{\"id\":12345,\"name\":\"easy http\",\"tags\":[\"a\",\"b\"]}\n";
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) alphabet.charAt(i % alphabet.length());
+        }
+        return bytes;
+    }
+
+    /**
+     * Compresses the bytes with gzip.
+     */
+    public static byte[] gzip(byte[] bytes) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private void handleText(HttpExchange exchange) throws IOException {
+        try {
+            drain(exchange.getRequestBody());
+            final Map<String, String> query = query(exchange.getRequestURI());
+            final int size = Integer.parseInt(query.getOrDefault("size", "1024"));
+            final byte[] body;
+            if (Boolean.parseBoolean(query.get("gzip"))) {
+                body = gzipTexts.computeIfAbsent(size, s -> gzip(text(s)));
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            } else {
+                body = text(size);
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            final boolean chunked = Boolean.parseBoolean(query.get("chunked"));
+            exchange.sendResponseHeaders(200, chunked ? 0 : body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleFile(HttpExchange exchange) throws IOException {
+        try {
+            drain(exchange.getRequestBody());
+            final Map<String, String> query = query(exchange.getRequestURI());
+            final byte[] file = text(Integer.parseInt(query.getOrDefault("size", "1048576")));
+            final long rate = Long.parseLong(query.getOrDefault("rate", "0"));
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().set("ETag", "\"" + file.length + "\"");
+
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(file.length));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            int start = 0;
+            int end = file.length - 1;
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && range.startsWith("bytes=")) {
+                final String[] bounds = range.substring(6).split("-", -1);
+                start = Integer.parseInt(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(end, Integer.parseInt(bounds[1]));
+                }
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + end + "/" + file.length);
+                exchange.sendResponseHeaders(206, end - start + 1);
+            } else {
+                exchange.sendResponseHeaders(200, file.length);
+            }
+            try (OutputStream out = exchange.getResponseBody()) {
+                final long startNanos = System.nanoTime();
+                for (int offset = start; offset <= end; offset += CHUNK_SIZE) {
+                    final int length = Math.min(CHUNK_SIZE, end - offset + 1);
+                    out.write(file, offset, length);
+                    if (rate > 0) {
+                        throttle(startNanos, offset + length - start, rate);
+                    }
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleLoad(HttpExchange exchange) throws IOException {
+        drain(exchange.getRequestBody());
+        final Map<String, String> query = query(exchange.getRequestURI());
+        final long latency = Long.parseLong(query.getOrDefault("latency", "0"));
+        if (latency > 0) {
+            scheduler.schedule(() -> respondLoad(exchange, query), latency,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            respondLoad(exchange, query);
+        }
+    }
+
+    private void respondLoad(HttpExchange exchange, Map<String, String> query) {
+        try {
+            final int redirects = Integer.parseInt(query.getOrDefault("redirect", "0"));
+            if (redirects > 0) {
+                query.put("redirect", String.valueOf(redirects - 1));
+                exchange.getResponseHeaders().set("Location", "http://"
+                        + exchange.getRequestHeaders().getFirst("Host")
+                        + exchange.getRequestURI().getPath() + "?" + queryString(query));
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+                return;
+            }
+            final double errors = Double.parseDouble(query.getOrDefault("errors", "0"));
+            if (ThreadLocalRandom.current().nextDouble(100) < errors) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            final byte[] body = text(Integer.parseInt(query.getOrDefault("size", "1024")));
+            final long rate = Long.parseLong(query.getOrDefault("rate", "0"));
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            if (rate > 0) {
+                writeSlowly(exchange, body, 0, rate);
+            } else {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+                exchange.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            // The client is gone
+            exchange.close();
+        }
+    }
+
+    /**
+     * Writes the body a chunk per timer tick, so slow bodies don't hold a server thread.
+     */
+    private void writeSlowly(HttpExchange exchange, byte[] body, int offset, long rate) {
+        try {
+            final int length = Math.min(SLOW_CHUNK_SIZE, body.length - offset);
+            exchange.getResponseBody().write(body, offset, length);
+            exchange.getResponseBody().flush();
+            if (offset + length == body.length) {
+                exchange.getResponseBody().close();
+                exchange.close();
+                return;
+            }
+            scheduler.schedule(() -> writeSlowly(exchange, body, offset + length, rate),
+                    Math.max(1, length * 1_000_000L / rate), TimeUnit.MICROSECONDS);
+        } catch (IOException | RuntimeException e) {
+            exchange.close();
+        }
+    }
+
+    private byte[] text(int size) {
+        return texts.computeIfAbsent(size, LoopbackServer::content);
+    }
+
+    private static void throttle(long startNanos, long written, long rate) throws IOException {
+        final long dueNanos = startNanos + written * 1_000_000_000L / rate;
+        final long waitMillis = (dueNanos - System.nanoTime()) / 1_000_000L;
+        if (waitMillis > 0) {
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        final byte[] buffer = new byte[CHUNK_SIZE];
+        while (in.read(buffer) >= 0) {
+            // Consume the request body so the connection can be reused
+        }
+    }
+
+    private static String queryString(Map<String, String> query) {
+        final StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> parameter : query.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append('&');
+            }
+            builder.append(parameter.getKey()).append('=').append(parameter.getValue());
+        }
+        return builder.toString();
+    }
+
+    private static Map<String, String> query(URI uri) {
+        final Map<String, String> query = new HashMap<>();
+        final String raw = uri.getRawQuery();
+        if (raw != null) {
+            for (String parameter : raw.split("&")) {
+                final int eq = parameter.indexOf('=');
+                if (eq > 0) {
+                    query.put(parameter.substring(0, eq), parameter.substring(eq + 1));
+                }
+            }
+        }
+        return query;
+    }
+}
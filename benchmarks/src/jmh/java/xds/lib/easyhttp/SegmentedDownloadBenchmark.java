@@ -0,0 +1,67 @@
+package xds.lib.easyhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.download.SegmentedDownload;
+import xds.lib.easyhttp.exception.ParseException;
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.exception.ResponseException;
+
+/**
+ * Downloading a 16 MB file over one connection or in segments, from a server which throttles
+ * each connection like a CDN ({@code rate} bytes per second, 0 for unlimited).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class SegmentedDownloadBenchmark {
+
+    private static final int SIZE = 16 * 1024 * 1024;
+
+    @Param({"1", "8"})
+    public int maxSegments;
+
+    @Param({"0", "8388608"})
+    public long rate;
+
+    private LoopbackServer server;
+    private File file;
+    private String url;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new LoopbackServer();
+        file = File.createTempFile("download", ".bin");
+        url = server.url("/file?size=" + SIZE + "&rate=" + rate);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public File download() throws RequestException, ResponseException, ParseException {
+        return new SegmentedDownload.Builder(url, file)
+                .segments(Math.min(2, maxSegments), maxSegments)
+                .build()
+                .execute();
+    }
+}
@@ -0,0 +1,4 @@
+# Platform loads the Android adapter by name
+-keep class xds.lib.easyhttp.android.AndroidPlatform {
+    <init>();
+}
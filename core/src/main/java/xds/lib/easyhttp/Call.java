@@ -0,0 +1,310 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.util.Clock;
+import xds.lib.easyhttp.util.DefaultExecutor;
+
+/**
+ * Handle of a request execution which can be cancelled and which has an overall deadline.
+ * <p>
+ * The deadline covers the whole execution: connect, body write, response read, every redirect
+ * hop and the back-off between retries. Cancelling, or reaching the deadline, closes the
+ * connection of the exchange in flight and wakes the worker thread up, so the thread returns
+ * to its executor right away.
+ * <p>
+ * Transports {@link #attach(Closeable)} the resources which must be closed to abort a blocked
+ * exchange, see {@link RawRequest#getCall()}.
+ */
+public final class Call {
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final long deadline;
+    private final EventListener eventListener;
+    private final Clock clock;
+    private final Set<Closeable> attached = new LinkedHashSet<>();
+    private ScheduledFuture<?> timeoutTask;
+    private Thread worker;
+    private volatile boolean cancelled;
+    private volatile boolean timedOut;
+    private volatile boolean done;
+
+    /**
+     * Create call.
+     *
+     * @param timeoutMillis The time budget of the whole execution in milliseconds, or a
+     * non-positive value for no deadline.
+     * @param eventListener The listener of the steps of the execution.
+     * @param clock The clock of the deadline.
+     */
+    Call(long timeoutMillis, @NonNull EventListener eventListener, @NonNull Clock clock) {
+        this.eventListener = eventListener;
+        this.clock = clock;
+        if (timeoutMillis > 0) {
+            this.deadline = clock.elapsedRealtime() + timeoutMillis;
+            this.timeoutTask = DefaultExecutor.getScheduler().schedule(this::timeout, timeoutMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.deadline = NO_DEADLINE;
+        }
+    }
+
+    /**
+     * Returns the call which has already completed.
+     */
+    static Call completed() {
+        final Call call = new Call(0, EventListener.NONE, Clock.MONOTONIC);
+        call.done = true;
+        return call;
+    }
+
+    /**
+     * Cancel the call. The listener of a cancelled asynchronous request is not notified, even
+     * if the execution has already completed.
+     */
+    @AnyThread
+    public void cancel() {
+        abort(false);
+    }
+
+    /**
+     * Returns {@code true} if the call was cancelled or reached its deadline.
+     */
+    @AnyThread
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns {@code true} if the call was aborted because it reached its deadline.
+     */
+    @AnyThread
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Returns {@code true} if the execution has completed, successfully or not.
+     */
+    @AnyThread
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Returns the listener of the steps of the execution, {@link EventListener#NONE} if the
+     * client has none.
+     */
+    @NonNull
+    @AnyThread
+    public EventListener getEventListener() {
+        return eventListener;
+    }
+
+    /**
+     * Returns the time left until the deadline.
+     *
+     * @return The time left in milliseconds, {@link Long#MAX_VALUE} if the call has no deadline.
+     */
+    @AnyThread
+    public long getRemainingMillis() {
+        if (deadline == NO_DEADLINE) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, deadline - clock.elapsedRealtime());
+    }
+
+    /**
+     * Register the resource to close when the call is cancelled, such as the socket of the
+     * exchange in flight. Detach it when the exchange completes.
+     *
+     * @param resource The resource.
+     * @throws InterruptedIOException If the call is already cancelled; the resource is closed.
+     */
+    @AnyThread
+    public void attach(@NonNull Closeable resource) throws InterruptedIOException {
+        synchronized (this) {
+            if (!cancelled) {
+                attached.add(resource);
+                return;
+            }
+        }
+        closeQuietly(resource);
+        throw new InterruptedIOException(timedOut ? "Call timed out" : "Canceled");
+    }
+
+    /**
+     * Unregister the resource registered with {@link #attach(Closeable)}.
+     *
+     * @param resource The resource.
+     */
+    @AnyThread
+    public synchronized void detach(@NonNull Closeable resource) {
+        attached.remove(resource);
+    }
+
+    /**
+     * Returns the timeout of a single operation limited by the time left until the deadline.
+     *
+     * @param timeoutMillis The configured timeout, or a non-positive value if not set.
+     * @return The timeout to use, or a non-positive value if not set.
+     */
+    int limitTimeout(int timeoutMillis) {
+        final long remaining = getRemainingMillis();
+        if (remaining == Long.MAX_VALUE) {
+            return timeoutMillis;
+        }
+        final int limit = (int) Math.max(1, Math.min(remaining, Integer.MAX_VALUE));
+        return timeoutMillis > 0 ? Math.min(timeoutMillis, limit) : limit;
+    }
+
+    /**
+     * Throws if the call must not go on.
+     *
+     * @throws RequestException If the call was cancelled or reached its deadline.
+     */
+    void throwIfCancelled() throws RequestException {
+        if (cancelled) {
+            throw newCancelledException(null);
+        }
+    }
+
+    /**
+     * Returns {@code true} if {@link #cancel()} was called before the deadline.
+     */
+    boolean isCancelledByUser() {
+        return cancelled && !timedOut;
+    }
+
+    /**
+     * Returns the failure of the cancelled call.
+     *
+     * @param cause The failure of the aborted operation, or null.
+     */
+    RequestException newCancelledException(Throwable cause) {
+        return new RequestException(timedOut ? "Call timed out" : "Canceled", cause);
+    }
+
+    /**
+     * Bind the call to the current thread, which is interrupted if the call is cancelled.
+     */
+    void enter() {
+        synchronized (this) {
+            worker = Thread.currentThread();
+        }
+    }
+
+    /**
+     * Sleeps for the back-off before a retry.
+     *
+     * @param millis The delay in milliseconds.
+     * @throws RequestException If the call was cancelled or the thread interrupted meanwhile.
+     */
+    void sleep(long millis) throws RequestException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            if (cancelled) {
+                throw newCancelledException(e);
+            }
+            Thread.currentThread().interrupt();
+            throw new RequestException("Interrupted", e);
+        }
+    }
+
+    /**
+     * Unbind the call from the current thread without completing it, while the execution
+     * waits for a retry without holding a thread.
+     */
+    void suspend() {
+        synchronized (this) {
+            worker = null;
+        }
+        if (cancelled) {
+            // The interrupt must not leak into the next task of the worker thread
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Unbind the call from the current thread and mark it completed. A call completed from
+     * another thread, such as a coalesced call, leaves the interrupt status of that thread.
+     */
+    void exit() {
+        final boolean bound;
+        synchronized (this) {
+            bound = worker == Thread.currentThread();
+            worker = null;
+            done = true;
+            attached.clear();
+            if (timeoutTask != null) {
+                timeoutTask.cancel(false);
+                timeoutTask = null;
+            }
+        }
+        if (cancelled && bound) {
+            // The interrupt must not leak into the next task of the worker thread
+            Thread.interrupted();
+        }
+    }
+
+    private void timeout() {
+        abort(true);
+    }
+
+    private void abort(boolean timeout) {
+        final Closeable[] toClose;
+        synchronized (this) {
+            if (done && !timeout) {
+                // Too late to abort, but the result must not be delivered
+                cancelled = true;
+            }
+            if (cancelled || done) {
+                return;
+            }
+            timedOut = timeout;
+            cancelled = true;
+            toClose = attached.toArray(new Closeable[0]);
+            attached.clear();
+            if (worker != null) {
+                worker.interrupt();
+            }
+            if (timeoutTask != null && !timeout) {
+                timeoutTask.cancel(false);
+            }
+            timeoutTask = null;
+        }
+        if (timeout) {
+            // Closing may block, as HttpURLConnection does while another thread reads; the
+            // timer thread fires the deadlines of every call and must not wait for it
+            DefaultExecutor.get().execute(() -> closeAll(toClose));
+        } else {
+            closeAll(toClose);
+        }
+    }
+
+    private static void closeAll(Closeable[] resources) {
+        for (Closeable resource : resources) {
+            closeQuietly(resource);
+        }
+    }
+
+    private static void closeQuietly(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException | RuntimeException ignored) {
+            // Aborting anyway
+        }
+    }
+}
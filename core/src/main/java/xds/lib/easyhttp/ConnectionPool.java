@@ -0,0 +1,430 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import xds.lib.easyhttp.util.Clock;
+import xds.lib.easyhttp.util.DefaultExecutor;
+
+/**
+ * Bounded pool of keep-alive connections grouped by route ({@code scheme://host:port}).
+ * <p>
+ * Every exchange leases a slot from the pool before it connects and gives it back when the
+ * response is done. A slot released as reusable stays idle for the keep-alive duration and is
+ * handed to the next lease for the same route, which counts as a hit. Idle slots above the per
+ * route limit, slots idle for longer than the keep-alive duration and slots of broken
+ * exchanges are closed. The total number of leased and idle slots never exceeds the
+ * max-connections cap: callers block until a slot is free. They wait on a
+ * {@link ReentrantLock} rather than a monitor, so waiting virtual threads give their carrier
+ * back to the lease holders.
+ * <p>
+ * A slot may carry the underlying connection (see {@link Lease#attach(Closeable)}) which is
+ * closed on eviction. Slots of {@link java.net.HttpURLConnection} exchanges carry nothing,
+ * the socket itself stays in the platform keep-alive cache which reuses it as long as the
+ * connection was not disconnected. The hit and miss counts are therefore slot statistics;
+ * {@link #getReusedConnectionCount()} only counts the connections the pool really kept, the
+ * handshakes saved by transports which attach their sockets, such as
+ * {@link xds.lib.easyhttp.transport.NioTransport}.
+ */
+public final class ConnectionPool {
+
+    private static final int DEFAULT_MAX_IDLE_PER_ROUTE = 5;
+    private static final long DEFAULT_KEEP_ALIVE_MINUTES = 5;
+    private static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    private final int maxIdlePerRoute;
+    private final long keepAliveMillis;
+    private final int maxConnections;
+    private final Clock clock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition slotFreed = lock.newCondition();
+    private final Map<String, ArrayDeque<Lease>> idle = new HashMap<>();
+    private int connectionCount;
+    private int idleCount;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong reusedConnectionCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private ScheduledFuture<?> cleanupTask;
+
+    /**
+     * Create pool with 5 idle connections per route, 5 minutes keep-alive and at most
+     * 64 connections.
+     */
+    public ConnectionPool() {
+        this(DEFAULT_MAX_IDLE_PER_ROUTE, DEFAULT_KEEP_ALIVE_MINUTES, TimeUnit.MINUTES,
+                DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Create pool with the specified params.
+     *
+     * @param maxIdlePerRoute the maximum number of idle connections kept per route.
+     * @param keepAliveDuration the time an idle connection is kept before eviction.
+     * @param unit the time unit of {@code keepAliveDuration}.
+     * @param maxConnections the maximum number of leased and idle connections in total.
+     */
+    public ConnectionPool(int maxIdlePerRoute, long keepAliveDuration, @NonNull TimeUnit unit,
+            int maxConnections) {
+        this(maxIdlePerRoute, keepAliveDuration, unit, maxConnections, Platform.get().getClock());
+    }
+
+    /**
+     * Create pool with the specified params.
+     *
+     * @param maxIdlePerRoute the maximum number of idle connections kept per route.
+     * @param keepAliveDuration the time an idle connection is kept before eviction.
+     * @param unit the time unit of {@code keepAliveDuration}.
+     * @param maxConnections the maximum number of leased and idle connections in total.
+     * @param clock the clock of the keep-alive duration.
+     */
+    public ConnectionPool(int maxIdlePerRoute, long keepAliveDuration, @NonNull TimeUnit unit,
+            int maxConnections, @NonNull Clock clock) {
+        if (maxIdlePerRoute < 0 || keepAliveDuration <= 0 || maxConnections <= 0) {
+            throw new IllegalArgumentException("Invalid connection pool configuration");
+        }
+        this.maxIdlePerRoute = maxIdlePerRoute;
+        this.keepAliveMillis = Math.max(1, unit.toMillis(keepAliveDuration));
+        this.maxConnections = maxConnections;
+        this.clock = clock;
+    }
+
+    /**
+     * Lease a connection slot for the route, blocking while the max-connections cap is reached.
+     *
+     * @param route the route key, see {@link #routeOf(String, String, int)}.
+     * @return the lease, {@link Lease#isReused()} tells if an idle connection was taken.
+     * @throws InterruptedIOException if the thread was interrupted while waiting.
+     */
+    @NonNull
+    @WorkerThread
+    public Lease acquire(@NonNull String route) throws InterruptedIOException {
+        final List<Closeable> toClose = new ArrayList<>();
+        lock.lock();
+        try {
+            while (true) {
+                final Lease reused = pollIdle(route, clock.elapsedRealtime(), toClose);
+                if (reused != null) {
+                    hitCount.incrementAndGet();
+                    if (reused.connection != null) {
+                        reusedConnectionCount.incrementAndGet();
+                    }
+                    return reused;
+                }
+                if (connectionCount < maxConnections) {
+                    connectionCount++;
+                    missCount.incrementAndGet();
+                    return new Lease(route);
+                }
+                if (!evictEldestIdle(toClose)) {
+                    try {
+                        slotFreed.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for connection");
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+            closeAll(toClose);
+        }
+    }
+
+    /**
+     * Return the leased slot to the pool.
+     *
+     * @param lease the lease from {@link #acquire(String)}.
+     * @param reusable {@code true} to keep the connection alive for the next lease of the
+     * same route; {@code false} if the connection is broken or closed by the peer.
+     */
+    @AnyThread
+    public void release(@NonNull Lease lease, boolean reusable) {
+        Closeable toClose = null;
+        lock.lock();
+        try {
+            if (lease.released) {
+                return;
+            }
+            lease.released = true;
+            ArrayDeque<Lease> routeIdle = idle.get(lease.route);
+            if (reusable && maxIdlePerRoute > 0
+                    && (routeIdle == null || routeIdle.size() < maxIdlePerRoute)) {
+                if (routeIdle == null) {
+                    routeIdle = new ArrayDeque<>();
+                    idle.put(lease.route, routeIdle);
+                }
+                lease.idleSince = clock.elapsedRealtime();
+                routeIdle.push(lease);
+                idleCount++;
+                scheduleCleanup();
+            } else {
+                connectionCount--;
+                toClose = lease.connection;
+            }
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(toClose);
+    }
+
+    /**
+     * Close all idle connections.
+     */
+    @AnyThread
+    public void evictAll() {
+        final List<Closeable> toClose = new ArrayList<>();
+        lock.lock();
+        try {
+            for (ArrayDeque<Lease> routeIdle : idle.values()) {
+                for (Lease lease : routeIdle) {
+                    toClose.add(lease.connection);
+                }
+                evictionCount.addAndGet(routeIdle.size());
+                connectionCount -= routeIdle.size();
+            }
+            idle.clear();
+            idleCount = 0;
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Number of leases served by an idle slot. With {@link java.net.HttpURLConnection} the slot
+     * holds no socket, see {@link #getReusedConnectionCount()}.
+     */
+    @AnyThread
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** Number of leases which took a new slot. */
+    @AnyThread
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Number of leases served by an idle connection the pool kept, each one a connection
+     * handshake saved. Only transports which attach their connections to the slots count: with
+     * {@link xds.lib.easyhttp.transport.UrlConnectionTransport} the count stays 0 because the
+     * platform keep-alive cache reuses the sockets out of sight, so handshakes saved by the
+     * pool can only be measured on {@link xds.lib.easyhttp.transport.NioTransport}.
+     */
+    @AnyThread
+    public long getReusedConnectionCount() {
+        return reusedConnectionCount.get();
+    }
+
+    /** Number of idle connections closed by the keep-alive timer or the caps. */
+    @AnyThread
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /** Number of leased and idle connections. */
+    @AnyThread
+    public int getConnectionCount() {
+        lock.lock();
+        try {
+            return connectionCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Number of idle connections. */
+    @AnyThread
+    public int getIdleConnectionCount() {
+        lock.lock();
+        try {
+            return idleCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Build route key of the connection.
+     *
+     * @param scheme the URL scheme.
+     * @param host the URL host.
+     * @param port the URL port.
+     * @return the route key.
+     */
+    @NonNull
+    @AnyThread
+    public static String routeOf(@NonNull String scheme, @NonNull String host, int port) {
+        return scheme.toLowerCase() + "://" + host.toLowerCase() + ":" + port;
+    }
+
+    private Lease pollIdle(String route, long now, List<Closeable> toClose) {
+        final ArrayDeque<Lease> routeIdle = idle.get(route);
+        if (routeIdle == null) {
+            return null;
+        }
+        Lease lease;
+        while ((lease = routeIdle.poll()) != null) {
+            idleCount--;
+            if (now - lease.idleSince < keepAliveMillis) {
+                lease.released = false;
+                if (routeIdle.isEmpty()) idle.remove(route);
+                return lease.reuse();
+            }
+            connectionCount--;
+            evictionCount.incrementAndGet();
+            toClose.add(lease.connection);
+        }
+        idle.remove(route);
+        return null;
+    }
+
+    private boolean evictEldestIdle(List<Closeable> toClose) {
+        ArrayDeque<Lease> eldestRoute = null;
+        for (ArrayDeque<Lease> routeIdle : idle.values()) {
+            if (eldestRoute == null || routeIdle.peekLast().idleSince
+                    < eldestRoute.peekLast().idleSince) {
+                eldestRoute = routeIdle;
+            }
+        }
+        if (eldestRoute == null) {
+            return false;
+        }
+        final Lease eldest = eldestRoute.pollLast();
+        if (eldestRoute.isEmpty()) idle.remove(eldest.route);
+        idleCount--;
+        connectionCount--;
+        evictionCount.incrementAndGet();
+        toClose.add(eldest.connection);
+        return true;
+    }
+
+    private void evictExpired() {
+        final List<Closeable> toClose = new ArrayList<>();
+        lock.lock();
+        try {
+            final long now = clock.elapsedRealtime();
+            final Iterator<ArrayDeque<Lease>> routes = idle.values().iterator();
+            while (routes.hasNext()) {
+                final ArrayDeque<Lease> routeIdle = routes.next();
+                final Iterator<Lease> leases = routeIdle.iterator();
+                while (leases.hasNext()) {
+                    final Lease lease = leases.next();
+                    if (now - lease.idleSince >= keepAliveMillis) {
+                        leases.remove();
+                        idleCount--;
+                        connectionCount--;
+                        evictionCount.incrementAndGet();
+                        toClose.add(lease.connection);
+                    }
+                }
+                if (routeIdle.isEmpty()) routes.remove();
+            }
+            if (idleCount == 0 && cleanupTask != null) {
+                cleanupTask.cancel(false);
+                cleanupTask = null;
+            }
+            slotFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        closeAll(toClose);
+    }
+
+    private void scheduleCleanup() {
+        if (cleanupTask != null) {
+            return;
+        }
+        final long period = Math.max(keepAliveMillis / 2, 1);
+        cleanupTask = DefaultExecutor.getScheduler().scheduleWithFixedDelay(this::evictExpired,
+                period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static void closeAll(List<Closeable> connections) {
+        for (Closeable connection : connections) {
+            closeQuietly(connection);
+        }
+    }
+
+    private static void closeQuietly(@Nullable Closeable connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            // Evicted connection is useless anyway
+        }
+    }
+
+    /**
+     * Leased connection slot.
+     */
+    public static final class Lease {
+
+        private final String route;
+        private Closeable connection;
+        private boolean reused;
+        private boolean released;
+        private long idleSince;
+
+        private Lease(String route) {
+            this.route = route;
+        }
+
+        private Lease reuse() {
+            reused = true;
+            return this;
+        }
+
+        /** The route key of the lease. */
+        @NonNull
+        public String getRoute() {
+            return route;
+        }
+
+        /** {@code true} if the lease was served by an idle keep-alive connection. */
+        public boolean isReused() {
+            return reused;
+        }
+
+        /** The connection attached to the slot, if any. */
+        @Nullable
+        public Closeable getConnection() {
+            return connection;
+        }
+
+        /**
+         * Attach the underlying connection to the slot, it will be closed on eviction.
+         *
+         * @param connection the connection.
+         */
+        public void attach(@Nullable Closeable connection) {
+            this.connection = connection;
+        }
+    }
+}
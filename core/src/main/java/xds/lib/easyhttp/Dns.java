@@ -0,0 +1,31 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Resolver of host names, which a {@link Transport} looks up the addresses to connect to
+ * with. Replace it to cache lookups, see {@link xds.lib.easyhttp.cache.CachingDns}, to resolve
+ * over HTTPS or to point hosts at test servers.
+ */
+public interface Dns {
+
+    /** Resolver of the platform, {@link InetAddress#getAllByName(String)}. */
+    Dns SYSTEM = host -> Arrays.asList(InetAddress.getAllByName(host));
+
+    /**
+     * Returns the addresses of the host, in the order of preference of the resolver.
+     *
+     * @param host The host name or a literal address.
+     * @return The addresses, never empty.
+     * @throws UnknownHostException If the host can't be resolved.
+     */
+    @NonNull
+    @WorkerThread
+    List<InetAddress> lookup(@NonNull String host) throws UnknownHostException;
+}
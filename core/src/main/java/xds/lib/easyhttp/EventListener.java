@@ -0,0 +1,252 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Listener of the steps of request executions, to measure where the time goes.
+ * <p>
+ * Events of an execution are identified by its {@link Call} and are delivered in order on the
+ * thread executing it, so implementations must be fast and thread safe: one listener receives
+ * the events of all the requests of the client, see {@link HttpClient.Builder#eventListener}.
+ * <p>
+ * An execution starts with {@link #callStart} and ends with either {@link #callEnd} or
+ * {@link #callFailed}. In between, each attempt and redirect hop hands a request to the
+ * transport with {@link #requestHeadersStart} and receives {@link #responseHeadersEnd}; the
+ * platform follows the redirects of requests without a body sent by
+ * {@link xds.lib.easyhttp.transport.UrlConnectionTransport}, so they have no hop events.
+ * Connection events only come from transports which open connections themselves:
+ * {@link xds.lib.easyhttp.transport.NioTransport} resolves and connects in separate steps,
+ * while {@link xds.lib.easyhttp.transport.UrlConnectionTransport} reports the lookup, the
+ * connect and the TLS handshake of the platform as one connect step. A response from the cache
+ * has no connection events.
+ */
+public abstract class EventListener {
+
+    /** Listener which ignores all events. */
+    public static final EventListener NONE = new EventListener() {};
+
+    /**
+     * The execution started.
+     *
+     * @param call The call of the execution.
+     * @param requestId The {@link Request#getRequestId()} of the request.
+     * @param url The URL of the request, without query parameters.
+     */
+    @WorkerThread
+    public void callStart(@NonNull Call call, @NonNull String requestId, @NonNull String url) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The transport leased a connection from the pool.
+     *
+     * @param call The call of the execution.
+     * @param route The route of the connection, see {@link ConnectionPool#routeOf}.
+     * @param reused {@code true} if an idle keep-alive connection was reused.
+     */
+    @WorkerThread
+    public void connectionAcquired(@NonNull Call call, @NonNull String route, boolean reused) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The host name is about to be resolved.
+     *
+     * @param call The call of the execution.
+     * @param host The host name.
+     */
+    @WorkerThread
+    public void dnsStart(@NonNull Call call, @NonNull String host) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The host name was resolved.
+     *
+     * @param call The call of the execution.
+     * @param host The host name.
+     * @param addresses The addresses of the host.
+     */
+    @WorkerThread
+    public void dnsEnd(@NonNull Call call, @NonNull String host,
+            @NonNull List<InetAddress> addresses) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * A new connection is about to be opened.
+     *
+     * @param call The call of the execution.
+     * @param address The address connected to, unresolved if the transport resolves it while
+     * connecting.
+     */
+    @WorkerThread
+    public void connectStart(@NonNull Call call, @NonNull InetSocketAddress address) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The TLS handshake of the new connection is about to start.
+     *
+     * @param call The call of the execution.
+     */
+    @WorkerThread
+    public void secureConnectStart(@NonNull Call call) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The TLS handshake of the new connection completed.
+     *
+     * @param call The call of the execution.
+     */
+    @WorkerThread
+    public void secureConnectEnd(@NonNull Call call) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The new connection is established.
+     *
+     * @param call The call of the execution.
+     * @param address The address connected to.
+     */
+    @WorkerThread
+    public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress address) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The new connection could not be established.
+     *
+     * @param call The call of the execution.
+     * @param address The address connected to.
+     * @param e The failure.
+     */
+    @WorkerThread
+    public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress address,
+            @NonNull IOException e) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The request is handed to the transport, which sends its headers.
+     *
+     * @param call The call of the execution.
+     * @param request The request.
+     */
+    @WorkerThread
+    public void requestHeadersStart(@NonNull Call call, @NonNull RawRequest request) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The request body was written.
+     *
+     * @param call The call of the execution.
+     * @param bodyBytes The size of the body before encoding.
+     * @param wireBytes The size of the body sent.
+     */
+    @WorkerThread
+    public void requestBodyEnd(@NonNull Call call, long bodyBytes, long wireBytes) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The response headers were received.
+     *
+     * @param call The call of the execution.
+     * @param responseCode The status code of the response.
+     * @param headers The response headers.
+     */
+    @WorkerThread
+    public void responseHeadersEnd(@NonNull Call call, int responseCode,
+            @NonNull Map<String, List<String>> headers) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The response body was read and closed, to the end or not.
+     *
+     * @param call The call of the execution.
+     * @param bodyBytes The number of bytes read after decoding.
+     * @param wireBytes The number of bytes received.
+     */
+    @WorkerThread
+    public void responseBodyEnd(@NonNull Call call, long bodyBytes, long wireBytes) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * {@link HttpRequest#parseResponse} is about to be called.
+     *
+     * @param call The call of the execution.
+     */
+    @WorkerThread
+    public void parseStart(@NonNull Call call) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * {@link HttpRequest#parseResponse} returned or threw.
+     *
+     * @param call The call of the execution.
+     */
+    @WorkerThread
+    public void parseEnd(@NonNull Call call) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The attempt failed and the request is retried after the delay.
+     *
+     * @param call The call of the execution.
+     * @param retryCount The number of the retry, from 1.
+     * @param delayMillis The back-off before the retry.
+     * @param cause The failure of the attempt.
+     */
+    @WorkerThread
+    public void retry(@NonNull Call call, int retryCount, long delayMillis,
+            @NonNull Exception cause) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The server redirected the request.
+     *
+     * @param call The call of the execution.
+     * @param location The location the request is redirected to.
+     */
+    @WorkerThread
+    public void redirect(@NonNull Call call, @NonNull String location) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The execution completed with a parsed response.
+     *
+     * @param call The call of the execution.
+     */
+    @WorkerThread
+    public void callEnd(@NonNull Call call) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * The execution failed.
+     *
+     * @param call The call of the execution.
+     * @param e The failure, as thrown to the caller.
+     */
+    @WorkerThread
+    public void callFailed(@NonNull Call call, @NonNull Exception e) {
+        // Default implementation does nothing
+    }
+}
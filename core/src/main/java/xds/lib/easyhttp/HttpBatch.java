@@ -0,0 +1,301 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import xds.lib.easyhttp.async.CallbackDispatcher;
+import xds.lib.easyhttp.async.ResponseListener;
+import xds.lib.easyhttp.exception.ParseException;
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.exception.ResponseException;
+
+/**
+ * Batch of GET or HEAD requests to the same origin.
+ * <p>
+ * The requests are pipelined on one or a few connections when the transport of the client
+ * supports it (see {@link xds.lib.easyhttp.transport.NioTransport}), so the whole batch costs
+ * about one round-trip instead of one per request. Other transports execute the requests one by
+ * one over kept-alive connections. Redirects, retries and exchanges broken by the connection
+ * are executed as regular requests.
+ * <p>
+ * Results come back in the order of the requests, and each registered
+ * {@link ResponseListener} is notified as soon as its response is parsed.
+ */
+public final class HttpBatch {
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 2;
+
+    private final List<Entry<?>> entries;
+    private final HttpClient client;
+    private final int maxConnections;
+
+    private HttpBatch(Builder builder) {
+        this.entries = Collections.unmodifiableList(new ArrayList<>(builder.entries));
+        this.client = builder.client != null ?
+                builder.client : entries.get(0).request.getHttpClient();
+        this.maxConnections = builder.maxConnections;
+    }
+
+    /**
+     * Synchronously executes the batch. Listeners are notified on the calling thread.
+     *
+     * @return The results in the order of the requests.
+     */
+    @NonNull
+    @WorkerThread
+    public List<Result<?>> execute() {
+        return execute(null);
+    }
+
+    /**
+     * Asynchronously executes the batch, listeners are notified by the dispatcher of the
+     * {@link Platform}, on the main thread on Android.
+     *
+     * @param executor Executor for managing the background task.
+     */
+    @AnyThread
+    public void executeAsync(@NonNull Executor executor) {
+        executeAsync(executor, Platform.get().getCallbackDispatcher());
+    }
+
+    /**
+     * Asynchronously executes the batch.
+     *
+     * @param executor Executor for managing the background task.
+     * @param dispatcher Dispatcher of the results to the listeners, or null to notify them on
+     * the executor thread.
+     */
+    @AnyThread
+    public void executeAsync(@NonNull Executor executor, @Nullable CallbackDispatcher dispatcher) {
+        executor.execute(() -> execute(dispatcher));
+    }
+
+    @WorkerThread
+    private List<Result<?>> execute(@Nullable CallbackDispatcher dispatcher) {
+        final List<Result<?>> results = new ArrayList<>(Collections.nCopies(entries.size(), null));
+        final List<RawRequest> rawRequests = new ArrayList<>(entries.size());
+        final List<Integer> pipelined = new ArrayList<>(entries.size());
+
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry<?> entry = entries.get(i);
+            try {
+                rawRequests.add(entry.request.newRawRequest(
+                        entry.request.buildRequestUrl(entry.url), null));
+                pipelined.add(i);
+            } catch (IOException e) {
+                results.set(i, entry.complete(dispatcher, () -> {
+                    throw new RequestException("IO error during request execution", e);
+                }));
+            }
+        }
+
+        client.getTransport().executePipelined(rawRequests, client.getConnectionPool(),
+                maxConnections, new Transport.PipelineCallback() {
+                    @Override
+                    public void onResponse(int index, @NonNull RawResponse response) {
+                        final int position = pipelined.get(index);
+                        results.set(position, entries.get(position).completeBatched(dispatcher,
+                                response));
+                    }
+
+                    @Override
+                    public void onFailure(int index, @NonNull IOException e) {
+                        // The pipeline broke, the request gets its own exchange
+                        final int position = pipelined.get(index);
+                        results.set(position, entries.get(position).completeAlone(dispatcher));
+                    }
+                });
+        return Collections.unmodifiableList(results);
+    }
+
+    private interface Action<T> {
+        T run() throws RequestException, ResponseException, ParseException;
+    }
+
+    private static final class Entry<T> {
+
+        final HttpRequest<T> request;
+        final ResponseListener<T> listener;
+        final String url;
+
+        Entry(HttpRequest<T> request, @Nullable ResponseListener<T> listener) {
+            this.request = request;
+            this.listener = listener;
+            this.url = request.getUrl();
+        }
+
+        Result<T> completeBatched(@Nullable CallbackDispatcher dispatcher, RawResponse response) {
+            return complete(dispatcher, () -> request.executeBatched(url, response));
+        }
+
+        Result<T> completeAlone(@Nullable CallbackDispatcher dispatcher) {
+            return complete(dispatcher, request::execute);
+        }
+
+        Result<T> complete(@Nullable CallbackDispatcher dispatcher, Action<T> action) {
+            Result<T> result;
+            try {
+                result = new Result<>(request, action.run(), null);
+            } catch (RequestException | ResponseException | ParseException e) {
+                result = new Result<>(request, null, e);
+            }
+            if (listener != null) {
+                final Result<T> notified = result;
+                final Runnable task = () -> {
+                    if (notified.error == null) {
+                        listener.onSuccess(notified.value, request.getRequestId());
+                    } else {
+                        listener.onFailed(notified.error, request.getRequestId());
+                    }
+                };
+                HttpRequest.dispatch(dispatcher, task);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Result of a request of the batch.
+     *
+     * @param <T> The type of response expected from the request.
+     */
+    public static final class Result<T> {
+
+        private final HttpRequest<T> request;
+        private final T value;
+        private final Exception error;
+
+        private Result(HttpRequest<T> request, @Nullable T value, @Nullable Exception error) {
+            this.request = request;
+            this.value = value;
+            this.error = error;
+        }
+
+        /** The request of the result. */
+        @NonNull
+        public HttpRequest<T> getRequest() {
+            return request;
+        }
+
+        /** {@code true} if the request succeeded. */
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+        /** The parsed response, or null if the request failed. */
+        @Nullable
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * The failure of the request: {@link RequestException}, {@link ResponseException} or
+         * {@link ParseException}; null if the request succeeded.
+         */
+        @Nullable
+        public Exception getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Builder of {@link HttpBatch}.
+     */
+    public static final class Builder {
+
+        private final List<Entry<?>> entries = new ArrayList<>();
+        private HttpClient client;
+        private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+        private URL origin;
+
+        /**
+         * Add the request to the batch.
+         *
+         * @param request GET or HEAD request to the origin of the batch.
+         */
+        @NonNull
+        public <T> Builder add(@NonNull HttpRequest<T> request) {
+            return add(request, null);
+        }
+
+        /**
+         * Add the request to the batch.
+         *
+         * @param request GET or HEAD request to the origin of the batch.
+         * @param listener Listener to handle the response or any errors.
+         */
+        @NonNull
+        public <T> Builder add(@NonNull HttpRequest<T> request,
+                @Nullable ResponseListener<T> listener) {
+            final String method = request.getRequestMethod();
+            if (!HttpRequest.METHOD_GET.equalsIgnoreCase(method)
+                    && !HttpRequest.METHOD_HEAD.equalsIgnoreCase(method)) {
+                throw new IllegalArgumentException("Only GET and HEAD requests can be batched: "
+                        + request);
+            }
+            final Entry<T> entry = new Entry<>(request, listener);
+            final URL url;
+            try {
+                url = new URL(entry.url);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Malformed URL: " + entry.url, e);
+            }
+            if (origin == null) {
+                origin = url;
+            } else if (!origin.getProtocol().equalsIgnoreCase(url.getProtocol())
+                    || !origin.getHost().equalsIgnoreCase(url.getHost())
+                    || origin.getPort() != url.getPort()) {
+                throw new IllegalArgumentException("Batched requests must share the origin: "
+                        + request);
+            }
+            entries.add(entry);
+            return this;
+        }
+
+        /**
+         * Set the client of the batch, by default the client of the first request.
+         *
+         * @param client the client.
+         */
+        @NonNull
+        public Builder client(@NonNull HttpClient client) {
+            this.client = client;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of connections the requests are pipelined on, 2 by default.
+         *
+         * @param maxConnections the maximum number of connections.
+         */
+        @NonNull
+        public Builder maxConnections(int maxConnections) {
+            if (maxConnections <= 0) {
+                throw new IllegalArgumentException("maxConnections must be positive");
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Create the batch.
+         */
+        @NonNull
+        public HttpBatch build() {
+            if (entries.isEmpty()) {
+                throw new IllegalStateException("Batch has no requests");
+            }
+            return new HttpBatch(this);
+        }
+    }
+}
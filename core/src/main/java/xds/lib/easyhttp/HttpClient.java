@@ -0,0 +1,399 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+import xds.lib.easyhttp.cache.CachingTransport;
+import xds.lib.easyhttp.cache.DiskResponseCache;
+import xds.lib.easyhttp.transport.UrlConnectionTransport;
+import xds.lib.easyhttp.util.CircuitBreaker;
+import xds.lib.easyhttp.util.Clock;
+import xds.lib.easyhttp.util.ConcurrencyLimiter;
+import xds.lib.easyhttp.util.ContentCodings;
+import xds.lib.easyhttp.util.DefaultExecutor;
+import xds.lib.easyhttp.util.RetryBudget;
+
+/**
+ * Shared configuration and resources of HTTP requests.
+ * <p>
+ * Requests run through {@link #getDefault()} unless {@link HttpRequest#getHttpClient()} is
+ * overridden. Clients are expensive: share one instance between requests instead of creating
+ * a client per request.
+ */
+public final class HttpClient {
+
+    private final ConnectionPool connectionPool;
+    private final Transport networkTransport;
+    private final DiskResponseCache cache;
+    private final Transport transport;
+    private final SingleFlight singleFlight;
+    private final Executor executor;
+    private final RetryBudget retryBudget;
+    private final CircuitBreaker circuitBreaker;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final ContentCodings contentCodings;
+    private final EventListener eventListener;
+    private final Clock clock;
+
+    private HttpClient(Builder builder) {
+        this.connectionPool = builder.connectionPool != null ?
+                builder.connectionPool : new ConnectionPool();
+        this.networkTransport = builder.transport != null ?
+                builder.transport : new UrlConnectionTransport();
+        this.cache = builder.cache;
+        this.transport = cache != null ?
+                new CachingTransport(cache, networkTransport) : networkTransport;
+        this.singleFlight = builder.coalesceRequests ? new SingleFlight() : null;
+        this.executor = builder.executor;
+        this.retryBudget = builder.retryBudget;
+        this.circuitBreaker = builder.circuitBreaker;
+        this.concurrencyLimiter = builder.concurrencyLimiter;
+        this.contentCodings = builder.contentCodings;
+        this.eventListener = builder.eventListener;
+        this.clock = builder.clock;
+    }
+
+    /**
+     * Returns the client shared by all requests which don't provide their own one.
+     *
+     * @return The default client.
+     */
+    @NonNull
+    @AnyThread
+    public static HttpClient getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Returns the pool of keep-alive connections.
+     *
+     * @return The connection pool.
+     */
+    @NonNull
+    @AnyThread
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * Returns the transport every exchange of the client runs through. With a cache it is the
+     * {@link CachingTransport} wrapping the configured transport.
+     *
+     * @return The transport.
+     */
+    @NonNull
+    @AnyThread
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Returns the cache of responses.
+     *
+     * @return The cache, or null if responses are not cached.
+     */
+    @Nullable
+    @AnyThread
+    public DiskResponseCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the executor of asynchronous requests which are not given an executor.
+     *
+     * @return The executor, {@link DefaultExecutor} unless the builder set another one.
+     */
+    @NonNull
+    @AnyThread
+    public Executor getExecutor() {
+        return executor != null ? executor : DefaultExecutor.get();
+    }
+
+    /**
+     * Returns the budget which limits the retries of requests per host.
+     *
+     * @return The budget, or null if retries are limited by their policies only.
+     */
+    @Nullable
+    @AnyThread
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Returns the circuit breaker which fails the requests to failing hosts fast.
+     *
+     * @return The circuit breaker, or null if requests always go to the network.
+     */
+    @Nullable
+    @AnyThread
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Returns the limiter of concurrent requests per host.
+     *
+     * @return The limiter, or null if concurrent requests are not limited.
+     */
+    @Nullable
+    @AnyThread
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Returns the content codings advertised in {@code Accept-Encoding} and decoded from
+     * responses.
+     *
+     * @return The registry of codings.
+     */
+    @NonNull
+    @AnyThread
+    public ContentCodings getContentCodings() {
+        return contentCodings;
+    }
+
+    /**
+     * Returns the listener of the steps of the executions of requests.
+     *
+     * @return The listener, {@link EventListener#NONE} if none was set.
+     */
+    @NonNull
+    @AnyThread
+    public EventListener getEventListener() {
+        return eventListener;
+    }
+
+    /**
+     * Returns the clock of the deadlines of calls and of the timing of requests.
+     *
+     * @return The clock, the one of the {@link Platform} unless the builder set another one.
+     */
+    @NonNull
+    @AnyThread
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Returns {@code true} if identical concurrent GET and HEAD requests share one exchange.
+     */
+    @AnyThread
+    public boolean isCoalescingRequests() {
+        return singleFlight != null;
+    }
+
+    /**
+     * Returns the number of requests which shared the exchange and the parsed result of an
+     * identical request in flight instead of executing.
+     *
+     * @return The number of coalesced requests.
+     */
+    @AnyThread
+    public long getCoalescedRequestCount() {
+        return singleFlight != null ? singleFlight.getCoalescedCount() : 0;
+    }
+
+    /**
+     * Returns the coalescer of identical requests, or null if requests are not coalesced.
+     */
+    SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Create builder initialized with configuration of this client. Clients built with it
+     * share the resources of this client.
+     *
+     * @return The builder.
+     */
+    @NonNull
+    @AnyThread
+    public Builder newBuilder() {
+        return new Builder(this);
+    }
+
+    private static final class DefaultHolder {
+        static final HttpClient INSTANCE = new Builder().build();
+    }
+
+    /**
+     * Builder of {@link HttpClient}.
+     */
+    public static final class Builder {
+
+        private ConnectionPool connectionPool;
+        private Transport transport;
+        private DiskResponseCache cache;
+        private boolean coalesceRequests;
+        private Executor executor;
+        private RetryBudget retryBudget;
+        private CircuitBreaker circuitBreaker;
+        private ConcurrencyLimiter concurrencyLimiter;
+        private ContentCodings contentCodings = ContentCodings.getDefault();
+        private EventListener eventListener = EventListener.NONE;
+        private Clock clock = Platform.get().getClock();
+
+        public Builder() {}
+
+        private Builder(HttpClient client) {
+            this.connectionPool = client.connectionPool;
+            this.transport = client.networkTransport;
+            this.cache = client.cache;
+            this.coalesceRequests = client.singleFlight != null;
+            this.executor = client.executor;
+            this.retryBudget = client.retryBudget;
+            this.circuitBreaker = client.circuitBreaker;
+            this.concurrencyLimiter = client.concurrencyLimiter;
+            this.contentCodings = client.contentCodings;
+            this.eventListener = client.eventListener;
+            this.clock = client.clock;
+        }
+
+        /**
+         * Set the pool of keep-alive connections.
+         *
+         * @param connectionPool the connection pool.
+         */
+        @NonNull
+        public Builder connectionPool(@NonNull ConnectionPool connectionPool) {
+            this.connectionPool = connectionPool;
+            return this;
+        }
+
+        /**
+         * Set the transport, {@link UrlConnectionTransport} by default. A connection pool
+         * is meant to be used by a single kind of transport.
+         *
+         * @param transport the transport.
+         */
+        @NonNull
+        public Builder transport(@NonNull Transport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Set the cache of GET responses, responses are not cached by default.
+         *
+         * @param cache the cache, or null to disable caching.
+         */
+        @NonNull
+        public Builder cache(@Nullable DiskResponseCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Set whether identical concurrent GET and HEAD requests share one exchange and one
+         * parsed result, disabled by default. Requests are identical if they have the same
+         * class, {@link Request#getRequestId()}, method and full URL; give requests which
+         * differ in headers distinct IDs.
+         *
+         * @param coalesceRequests true to coalesce requests.
+         */
+        @NonNull
+        public Builder coalesceRequests(boolean coalesceRequests) {
+            this.coalesceRequests = coalesceRequests;
+            return this;
+        }
+
+        /**
+         * Set the executor of asynchronous requests which are not given an executor,
+         * {@link DefaultExecutor} by default.
+         *
+         * @param executor the executor.
+         */
+        @NonNull
+        public Builder executor(@NonNull Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Set the budget which limits the retries of requests per host, such as a
+         * {@link RetryBudget} allowing 20% of the requests plus 10 retries per second. Retries
+         * are limited by their policies only by default. The budget runs on the
+         * {@link #clock(Clock)} of the client.
+         *
+         * @param retryBudget the budget, or null to limit retries by their policies only.
+         */
+        @NonNull
+        public Builder retryBudget(@Nullable RetryBudget retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
+        /**
+         * Set the circuit breaker which rejects the requests to a host while most of them
+         * fail, there is none by default.
+         *
+         * @param circuitBreaker the circuit breaker, or null to always go to the network.
+         */
+        @NonNull
+        public Builder circuitBreaker(@Nullable CircuitBreaker circuitBreaker) {
+            this.circuitBreaker = circuitBreaker;
+            return this;
+        }
+
+        /**
+         * Set the limiter of concurrent requests per host, requests are not limited by
+         * default.
+         *
+         * @param concurrencyLimiter the limiter, or null to not limit requests.
+         */
+        @NonNull
+        public Builder concurrencyLimiter(@Nullable ConcurrencyLimiter concurrencyLimiter) {
+            this.concurrencyLimiter = concurrencyLimiter;
+            return this;
+        }
+
+        /**
+         * Set the content codings advertised in {@code Accept-Encoding} and decoded from
+         * responses, {@link ContentCodings#getDefault()} by default.
+         *
+         * @param contentCodings the registry of codings.
+         */
+        @NonNull
+        public Builder contentCodings(@NonNull ContentCodings contentCodings) {
+            this.contentCodings = contentCodings;
+            return this;
+        }
+
+        /**
+         * Set the listener of the steps of the executions of requests, such as a
+         * {@link MetricsEventListener}, there is none by default.
+         *
+         * @param eventListener the listener.
+         */
+        @NonNull
+        public Builder eventListener(@NonNull EventListener eventListener) {
+            this.eventListener = eventListener;
+            return this;
+        }
+
+        /**
+         * Set the clock of the deadlines of calls and of the timing of requests, the one of the
+         * {@link Platform} by default.
+         *
+         * @param clock the clock.
+         */
+        @NonNull
+        public Builder clock(@NonNull Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Create the client.
+         */
+        @NonNull
+        public HttpClient build() {
+            return new HttpClient(this);
+        }
+    }
+}
@@ -1,37 +1,54 @@
 package xds.lib.easyhttp;
 
-import android.os.Handler;
-import android.os.SystemClock;
-
 import androidx.annotation.AnyThread;
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.Inflater;
-import java.util.zip.InflaterInputStream;
-
-import javax.net.ssl.HttpsURLConnection;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
+import xds.lib.easyhttp.async.CallbackDispatcher;
 import xds.lib.easyhttp.async.ResponseListener;
+import xds.lib.easyhttp.body.RequestBody;
+import xds.lib.easyhttp.cache.ObjectCache;
 import xds.lib.easyhttp.exception.ParseException;
 import xds.lib.easyhttp.exception.RequestException;
 import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.util.CircuitBreaker;
+import xds.lib.easyhttp.util.Clock;
+import xds.lib.easyhttp.util.ConcurrencyLimiter;
+import xds.lib.easyhttp.util.ContentCoding;
+import xds.lib.easyhttp.util.ContentCodings;
+import xds.lib.easyhttp.util.CountingInputStream;
+import xds.lib.easyhttp.util.CountingOutputStream;
+import xds.lib.easyhttp.util.DefaultExecutor;
 import xds.lib.easyhttp.util.IOUtils;
 import xds.lib.easyhttp.util.LogPolicy;
+import xds.lib.easyhttp.util.LogSink;
+import xds.lib.easyhttp.util.RetryBudget;
 import xds.lib.easyhttp.util.RetryPolicy;
+import xds.lib.easyhttp.util.SizedInputStream;
 
 /**
  * Abstract base class for making HTTP requests with customizable parameters.
@@ -45,56 +62,232 @@ public abstract class HttpRequest<T> implements Request<T> {
     protected static final String METHOD_GET = "GET";
     protected static final String METHOD_POST = "POST";
     protected static final String METHOD_PUT = "PUT";
+    protected static final String METHOD_HEAD = "HEAD";
 
     private static final int NOT_SET = -1;
     private static final int DEFAULT_MAX_REDIRECTS = 1;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
 
-    private static final String ENCODING_GZIP = "gzip";
-    private static final String ENCODING_DEFLATE = "deflate";
+    /** Request bodies shorter than that are not worth encoding. */
+    private static final int MIN_ENCODED_BODY_SIZE = 1024;
 
     private static final String LOG_RESULT_FORMAT = "Request took %d ms\n URL: %s";
     private static final String LOG_ERROR_FORMAT = "Request error took %d ms\n URL: %s";
 
     private final RetryPolicy retryPolicy;
     private final Logcat logcat;
+    private volatile TransferStats transferStats;
 
     /** Default constructor for HttpRequest. */
     protected HttpRequest() {
         this.retryPolicy = createRetryPolicy();
-        this.logcat = new Logcat(getLogPolicy());
+        this.logcat = new Logcat(getLogPolicy(), getLogSink());
     }
 
-    /** {@inheritDoc} */
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The execution is bounded by {@link #getCallTimeout()}.
+     */
     @WorkerThread
     public final T execute() throws RequestException, ResponseException, ParseException {
-        try {
-            return executeRequest(getUrl(), 0);
-        } catch (IOException e) {
-            throw new RequestException("IO error during request execution", e);
+        final String cacheKey = getObjectCacheKey();
+        final T cached = getCachedObject(cacheKey);
+        if (cached != null) {
+            return cached;
         }
+        return executeCall(cacheKey, newCall());
     }
 
-    /** {@inheritDoc} */
-    public final void executeAsync(@NonNull Executor executor, Handler handler,
-            @NonNull ResponseListener<T> listener) {
-        executor.execute(() -> {
-
-            final long startTime = SystemClock.elapsedRealtime();
-            try {
-                final T result = execute();
+    /**
+     * {@inheritDoc}
+     * <p>
+     * An object cached by {@link #getObjectCache()} is delivered to the dispatcher right away,
+     * without running a task on the executor.
+     */
+    @NonNull
+    public final Call executeAsync(@NonNull Executor executor,
+            @Nullable CallbackDispatcher dispatcher, @NonNull ResponseListener<T> listener) {
+        final String cacheKey = getObjectCacheKey();
+        final T cached = getCachedObject(cacheKey);
+        if (cached != null) {
+            dispatch(dispatcher, () -> listener.onSuccess(cached, getRequestId()));
+            return Call.completed();
+        }
+        final Clock clock = getHttpClient().getClock();
+        final Call call = newCall();
+        final long startTime = clock.elapsedRealtime();
+        executeCallAsync(cacheKey, call, executor, (result, error) -> {
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (call.isCancelledByUser()) {
+                logcat.d(TAG, "Request canceled\n URL: %s", getUrl());
+                return;
+            }
+            if (error == null) {
                 logcat.d(TAG, LOG_RESULT_FORMAT,
-                        (SystemClock.elapsedRealtime() - startTime), getUrl());
-                postToHandler(handler, () -> listener.onSuccess(result, getRequestId()));
-            } catch (RequestException | ResponseException | ParseException e) {
+                        (clock.elapsedRealtime() - startTime), getUrl());
+            } else {
                 logcat.e(TAG, LOG_ERROR_FORMAT,
-                        (SystemClock.elapsedRealtime() - startTime), getUrl());
-                postToHandler(handler, () -> listener.onFailed(e, getRequestId()));
+                        (clock.elapsedRealtime() - startTime), getUrl());
+            }
+            dispatch(dispatcher, () -> {
+                if (call.isCancelledByUser()) {
+                    return;
+                }
+                if (error == null) {
+                    listener.onSuccess(result, getRequestId());
+                } else {
+                    listener.onFailed(error, getRequestId());
+                }
+            });
+        });
+        return call;
+    }
+
+    /**
+     * Asynchronously executes the request on the executor of the client, the result or error is
+     * delivered by the dispatcher of the {@link Platform}: on the main thread on Android.
+     *
+     * @param listener Listener to handle the response or any errors.
+     * @see HttpClient#getExecutor()
+     */
+    @NonNull
+    @AnyThread
+    public final Call executeAsync(@NonNull ResponseListener<T> listener) {
+        return executeAsync(getHttpClient().getExecutor(), listener);
+    }
+
+    /**
+     * Asynchronously executes the request on the executor of the client and returns the future
+     * of the parsed response.
+     *
+     * @return The future of the parsed response.
+     * @see HttpClient#getExecutor()
+     * @see #executeFuture(Executor)
+     */
+    @NonNull
+    @AnyThread
+    public final CompletableFuture<T> executeFuture() {
+        return executeFuture(getHttpClient().getExecutor());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * An object cached by {@link #getObjectCache()} completes the future right away.
+     * Cancelling the future cancels the execution, see {@link Call#cancel()}.
+     */
+    @NonNull
+    @Override
+    public final CompletableFuture<T> executeFuture(@NonNull Executor executor) {
+        final String cacheKey = getObjectCacheKey();
+        final T cached = getCachedObject(cacheKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final Call call = newCall();
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
             }
         });
+        try {
+            executeCallAsync(cacheKey, call, executor, (result, error) -> {
+                if (error == null) {
+                    future.complete(result);
+                } else {
+                    future.completeExceptionally(error);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new RequestException("Request was rejected", e));
+        }
+        return future;
+    }
+
+    /**
+     * Returns the client the request runs through. Override to use a client with a custom
+     * configuration; share the returned instance between requests.
+     *
+     * @return The HTTP client.
+     */
+    @NonNull
+    @AnyThread
+    protected HttpClient getHttpClient() {
+        return HttpClient.getDefault();
     }
 
     /**
-     * Returns the URL for the HTTP request.
+     * Returns the memory cache of parsed responses. Override to reuse the objects parsed for
+     * identical requests: method, full URL and the headers of {@link #getObjectCacheKeyHeaders()}.
+     * Only GET and HEAD requests are cached, the request body is not part of the key.
+     *
+     * @return The cache, or null if parsed responses are not cached.
+     */
+    @Nullable
+    @AnyThread
+    protected ObjectCache getObjectCache() {
+        return null;
+    }
+
+    /**
+     * Returns the time to live of the parsed response in the {@link #getObjectCache()}.
+     *
+     * @return The time to live in milliseconds, or a negative value to use the default of the
+     * cache.
+     */
+    @AnyThread
+    protected long getObjectCacheTtl() {
+        return NOT_SET;
+    }
+
+    /**
+     * Returns the names of the request headers which distinguish cached parsed responses, such
+     * as a language or an account header.
+     *
+     * @return The header names, or null if the headers do not matter.
+     */
+    @Nullable
+    @AnyThread
+    protected String[] getObjectCacheKeyHeaders() {
+        return null;
+    }
+
+    /**
+     * Returns whether identical concurrent executions of the request may share one exchange
+     * and one parsed result when the client coalesces requests, see
+     * {@link HttpClient.Builder#coalesceRequests(boolean)}. Return false if each execution
+     * must parse the response itself, such as when parsing delivers data to a consumer of the
+     * execution.
+     *
+     * @return True by default.
+     */
+    @AnyThread
+    protected boolean isCoalescable() {
+        return true;
+    }
+
+    /**
+     * Returns the precompiled method, URL and static headers of the request. Return the same
+     * template for every execution, so that they are not built again; the parameters of
+     * {@link #getQueryParameters()} and the headers of {@link #getHeaders()} are added to
+     * those of the template.
+     *
+     * @return The template, or null to build the request from {@link #getUrl()}.
+     * @see TemplateRequest
+     */
+    @Nullable
+    @AnyThread
+    protected RequestTemplate getRequestTemplate() {
+        return null;
+    }
+
+    /**
+     * Returns the URL for the HTTP request. {@link TemplateRequest} returns the one of its
+     * template.
      *
      * @return The URL as a String.
      */
@@ -116,13 +309,15 @@ public abstract class HttpRequest<T> implements Request<T> {
             throws ParseException, IOException;
 
     /**
-     * Returns the HTTP method for the request (e.g., GET, POST, PUT).
+     * Returns the HTTP method for the request (e.g., GET, POST, PUT), the one of the
+     * {@link #getRequestTemplate()} or GET by default.
      *
      * @return The HTTP method as a String.
      */
     @AnyThread
     protected String getRequestMethod() {
-        return METHOD_GET;
+        final RequestTemplate template = getRequestTemplate();
+        return template != null ? template.getMethod() : METHOD_GET;
     }
 
     /**
@@ -146,7 +341,20 @@ public abstract class HttpRequest<T> implements Request<T> {
     }
 
     /**
-     * Returns the headers to be included in the HTTP request.
+     * Returns the time budget of the whole execution: connect, body write, response read,
+     * redirects and the back-off between retries. When it runs out the connection is closed
+     * and the request fails with a {@link RequestException}.
+     *
+     * @return The timeout in milliseconds, or a non-positive value for no deadline.
+     */
+    @AnyThread
+    protected long getCallTimeout() {
+        return NOT_SET;
+    }
+
+    /**
+     * Returns the headers to be included in the HTTP request, after the static headers of the
+     * {@link #getRequestTemplate()}.
      *
      * @return A map of header names to header values.
      */
@@ -156,7 +364,8 @@ public abstract class HttpRequest<T> implements Request<T> {
     }
 
     /**
-     * Returns the query parameters to be included in the URL.
+     * Returns the query parameters to be included in the URL, after the static parameters of
+     * the {@link #getRequestTemplate()}.
      *
      * @return A map of query parameter names to parameter values.
      */
@@ -178,7 +387,9 @@ public abstract class HttpRequest<T> implements Request<T> {
 
     /**
      * Writes the request body to the provided output stream.
-     * This method is only used for POST and PUT requests.
+     * This method is only used for POST and PUT requests without a {@link #getRequestBody()}.
+     * The body is buffered in memory to learn its length; return a {@link RequestBody} to
+     * stream a large body instead.
      *
      * @param os The output stream to write the body to.
      * @throws IOException If an I/O error occurs.
@@ -188,6 +399,47 @@ public abstract class HttpRequest<T> implements Request<T> {
         // Default implementation does nothing
     }
 
+    /**
+     * Returns the content coding which compresses the request body, such as {@code gzip}, from
+     * the {@link HttpClient#getContentCodings() codings} of the client. Bodies shorter than
+     * 1 KB are sent as is, and the encoded body is sent chunked. Only use it if the server
+     * accepts encoded requests.
+     *
+     * @return The name of the coding, or null to send the body as is.
+     */
+    @Nullable
+    @AnyThread
+    protected String getRequestContentEncoding() {
+        return null;
+    }
+
+    /**
+     * Returns the body streamed to the connection for POST and PUT requests, such as a file,
+     * a generated body or a {@link xds.lib.easyhttp.body.MultipartBody}. It is called for each
+     * attempt of the request.
+     *
+     * @return The body, or null to write it with {@link #writeRequestBody(OutputStream)}.
+     * @throws IOException If the body can't be created.
+     */
+    @Nullable
+    @WorkerThread
+    protected RequestBody getRequestBody() throws IOException {
+        return null;
+    }
+
+    /**
+     * Returns the sizes of the request and response bodies of the last attempt, encoded on
+     * the wire and decoded. The response body is counted once the stream given to
+     * {@link #parseResponse(InputStream, String)} is closed.
+     *
+     * @return The statistics, or null if the request was not sent yet.
+     */
+    @Nullable
+    @AnyThread
+    public final TransferStats getTransferStats() {
+        return transferStats;
+    }
+
     /**
      * Returns the logging policy for the request.
      *
@@ -198,6 +450,18 @@ public abstract class HttpRequest<T> implements Request<T> {
         return LogPolicy.ADAPTIVE;
     }
 
+    /**
+     * Returns the destination of the log of the request, the one of the {@link Platform} by
+     * default: logcat on Android, {@link LogSink#SYSTEM_ERR} on the JVM.
+     *
+     * @return The log sink.
+     */
+    @NonNull
+    @MainThread
+    protected LogSink getLogSink() {
+        return Platform.get().getLogSink();
+    }
+
     /**
      * Creates the retry policy for the request.
      *
@@ -233,158 +497,720 @@ public abstract class HttpRequest<T> implements Request<T> {
         return false;
     }
 
+    /**
+     * Called with the headers of a successful response, right before
+     * {@link #parseResponse(InputStream, String)} reads its body.
+     *
+     * @param statusCode The HTTP response status code, 2xx.
+     * @param headers The response headers.
+     * @throws IOException If the response must not be parsed; the attempt fails with it.
+     */
+    @WorkerThread
+    protected void onResponseHeaders(int statusCode, @NonNull Map<String, List<String>> headers)
+            throws IOException {
+        // Default implementation does nothing
+    }
+
+    /**
+     * Creates the call of an execution, bounded by {@link #getCallTimeout()} and reporting to
+     * the event listener of the client.
+     */
+    private Call newCall() {
+        final HttpClient client = getHttpClient();
+        return new Call(getCallTimeout(), client.getEventListener(), client.getClock());
+    }
+
+    /**
+     * Executes the request on the current thread as the call.
+     *
+     * @param cacheKey The key of the object cache, or null if the response is not cached.
+     * @param call The call of the execution.
+     * @return The parsed response of type {@code T}.
+     */
+    @WorkerThread
+    private T executeCall(@Nullable String cacheKey, Call call)
+            throws RequestException, ResponseException, ParseException {
+        call.enter();
+        call.getEventListener().callStart(call, getRequestId(), getUrl());
+        try {
+            call.throwIfCancelled();
+            final T result = executeAndCache(cacheKey, call);
+            call.getEventListener().callEnd(call);
+            return result;
+        } catch (ResponseException | ParseException e) {
+            // A closed connection fails the read in any way
+            if (call.isCancelled()) {
+                final RequestException failure = call.newCancelledException(e);
+                call.getEventListener().callFailed(call, failure);
+                throw failure;
+            }
+            call.getEventListener().callFailed(call, e);
+            throw e;
+        } catch (RequestException e) {
+            call.getEventListener().callFailed(call, e);
+            throw e;
+        } finally {
+            call.exit();
+        }
+    }
+
+    /**
+     * Executes the request as the call on the executor, the back-off between retries doesn't
+     * hold a thread. A coalesced request joins the exchange in flight without holding a thread
+     * either, until it completes or the call is cancelled.
+     *
+     * @param cacheKey The key of the object cache, or null if the response is not cached.
+     * @param call The call of the execution.
+     * @param executor The executor of the request.
+     * @param completion Receives the parsed response or the failure on the executor, or on the
+     * thread cancelling a coalesced call.
+     * @throws RejectedExecutionException If the executor rejects the request.
+     */
+    @AnyThread
+    private void executeCallAsync(@Nullable String cacheKey, Call call, Executor executor,
+            BiConsumer<T, Exception> completion) {
+        final SingleFlight singleFlight = getHttpClient().getSingleFlight();
+        final String flightKey = singleFlight != null ? getSingleFlightKey() : null;
+        if (flightKey == null) {
+            executor.execute(new AsyncExecution(cacheKey, call, executor, false, completion));
+            return;
+        }
+        // A coalesced call runs no execution of its own to report its start
+        final EventListener listener = call.getEventListener();
+        listener.callStart(call, getRequestId(), getUrl());
+        try {
+            singleFlight.<T>executeAsync(flightKey, call,
+                    done -> executor.execute(new AsyncExecution(cacheKey, call, executor, true,
+                            (result, error) -> {
+                                done.accept(result, error);
+                                completion.accept(result, error);
+                            })),
+                    (result, error) -> {
+                        if (error == null) {
+                            putCachedObject(cacheKey, result);
+                            listener.callEnd(call);
+                        } else {
+                            listener.callFailed(call, error);
+                        }
+                        call.exit();
+                        completion.accept(result, error);
+                    });
+        } catch (RejectedExecutionException e) {
+            listener.callFailed(call, new RequestException("Request was rejected", e));
+            call.exit();
+            throw e;
+        }
+    }
+
+    /**
+     * Executes the request and stores the parsed response in the object cache.
+     *
+     * @param cacheKey The key of the object cache, or null if the response is not cached.
+     * @param call The call of the execution.
+     * @return The parsed response of type {@code T}.
+     */
+    @WorkerThread
+    private T executeAndCache(@Nullable String cacheKey, Call call)
+            throws RequestException, ResponseException, ParseException {
+        final SingleFlight singleFlight = getHttpClient().getSingleFlight();
+        final String flightKey = singleFlight != null ? getSingleFlightKey() : null;
+        final T result = flightKey != null ?
+                singleFlight.execute(flightKey, call, () -> executeNetwork(call, 0)) :
+                executeNetwork(call, 0);
+        putCachedObject(cacheKey, result);
+        return result;
+    }
+
+    /**
+     * Executes the request over the network, sleeping between retries.
+     *
+     * @param call The call of the execution.
+     * @param retryCount The number of retries already made by the execution.
+     * @return The parsed response of type {@code T}.
+     */
+    @WorkerThread
+    private T executeNetwork(Call call, int retryCount)
+            throws RequestException, ResponseException, ParseException {
+        if (retryCount == 0) {
+            onRequestSent();
+        }
+        while (true) {
+            final long delay;
+            try {
+                return executeAttempt(call);
+            } catch (IOException | RequestException | ResponseException e) {
+                delay = getRetryDelay(e, retryCount++, call);
+                if (delay < 0) {
+                    throwFailure(e, call);
+                }
+            }
+            call.sleep(delay);
+        }
+    }
+
+    /**
+     * Stores the parsed response in the object cache.
+     *
+     * @param cacheKey The key of the object cache, or null if the response is not cached.
+     * @param result The parsed response.
+     */
+    private void putCachedObject(@Nullable String cacheKey, @Nullable T result) {
+        if (cacheKey != null && result != null) {
+            final ObjectCache objectCache = getObjectCache();
+            final long ttl = getObjectCacheTtl();
+            if (ttl < 0) {
+                objectCache.put(cacheKey, result);
+            } else {
+                objectCache.put(cacheKey, result, ttl);
+            }
+        }
+    }
+
+    /**
+     * Returns the key of identical requests coalesced by the client: the request class, ID,
+     * method and full URL.
+     *
+     * @return The key, or null if the request must not be shared.
+     */
+    @Nullable
+    private String getSingleFlightKey() {
+        final String method = getRequestMethod();
+        if (!METHOD_GET.equalsIgnoreCase(method) && !METHOD_HEAD.equalsIgnoreCase(method)
+                || !isCoalescable()) {
+            return null;
+        }
+        try {
+            return getClass().getName() + ' ' + getRequestId() + ' '
+                    + method.toUpperCase(Locale.US) + ' ' + buildRequestUrl(getUrl());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the parsed response cached for an identical request.
+     *
+     * @param cacheKey The key of the object cache, or null if the response is not cached.
+     * @return The cached response, or null if there is none.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private T getCachedObject(@Nullable String cacheKey) {
+        if (cacheKey == null) {
+            return null;
+        }
+        // The key starts with the class name, so the value was parsed by this request class
+        return (T) getObjectCache().get(cacheKey);
+    }
+
+    /**
+     * Returns the key of the parsed response in the object cache: the request class, method,
+     * full URL and the values of the key headers.
+     *
+     * @return The key, or null if the request has no object cache or a method with a body.
+     */
+    @Nullable
+    private String getObjectCacheKey() {
+        final String method = getRequestMethod();
+        if (!METHOD_GET.equalsIgnoreCase(method) && !METHOD_HEAD.equalsIgnoreCase(method)
+                || getObjectCache() == null) {
+            return null;
+        }
+        final StringBuilder key = new StringBuilder(getClass().getName())
+                .append(' ').append(method.toUpperCase(Locale.US)).append(' ');
+        try {
+            key.append(buildRequestUrl(getUrl()));
+        } catch (IOException e) {
+            // The request fails with the same error when executed
+            return null;
+        }
+        final String[] keyHeaders = getObjectCacheKeyHeaders();
+        final Map<String, String> headers = getHeaders();
+        if (keyHeaders != null) {
+            for (String name : keyHeaders) {
+                String value = null;
+                if (headers != null) {
+                    for (Map.Entry<String, String> header : headers.entrySet()) {
+                        if (header.getKey().equalsIgnoreCase(name)) {
+                            value = header.getValue();
+                        }
+                    }
+                }
+                key.append('\n').append(name.toLowerCase(Locale.US)).append(": ").append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Executes an attempt of the request through the circuit breaker and the concurrency
+     * limiter of the client, which learn from its outcome.
+     *
+     * @param call The call of the execution.
+     * @return The parsed response of type {@code T}.
+     * @throws IOException If an I/O error occurs.
+     * @throws RequestException If the host rejects requests or there is an issue with the request.
+     * @throws ResponseException If the server returns an error.
+     * @throws ParseException If there is an error parsing the response.
+     */
+    private T executeAttempt(Call call)
+            throws IOException, RequestException, ResponseException, ParseException {
+        final HttpClient client = getHttpClient();
+        final CircuitBreaker circuitBreaker = client.getCircuitBreaker();
+        final ConcurrencyLimiter limiter = client.getConcurrencyLimiter();
+        if (circuitBreaker == null && limiter == null) {
+            return executeRequest(getUrl(), 0, call);
+        }
+        call.throwIfCancelled();
+        final String host = getHost();
+        final CircuitBreaker.Permit circuitPermit = circuitBreaker != null ?
+                circuitBreaker.tryAcquire(host) : null;
+        if (circuitBreaker != null && circuitPermit == null) {
+            throw new RequestException("Circuit breaker is open for " + host);
+        }
+        ConcurrencyLimiter.Permit limitPermit = null;
+        if (limiter != null) {
+            try {
+                limitPermit = limiter.acquire(host, call.getRemainingMillis());
+            } catch (InterruptedException e) {
+                if (circuitPermit != null) {
+                    circuitPermit.onIgnored();
+                }
+                throw call.isCancelled() ? call.newCancelledException(e) :
+                        new RequestException("Interrupted", e);
+            }
+            if (limitPermit == null) {
+                if (circuitPermit != null) {
+                    circuitPermit.onIgnored();
+                }
+                throw new RequestException("Concurrency limit reached for " + host);
+            }
+        }
+
+        // Unknown until the server answers: null outcomes are ignored
+        Boolean failed = null;
+        try {
+            final T result = executeRequest(getUrl(), 0, call);
+            failed = false;
+            return result;
+        } catch (ResponseException e) {
+            final int code = e.getResponseCode();
+            failed = code >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || code == HTTP_TOO_MANY_REQUESTS;
+            throw e;
+        } catch (ParseException e) {
+            failed = false;
+            throw e;
+        } catch (IOException e) {
+            // Aborted by the caller rather than by the server
+            failed = call.isCancelledByUser() ? null : true;
+            throw e;
+        } finally {
+            if (circuitPermit != null) {
+                if (failed == null) {
+                    circuitPermit.onIgnored();
+                } else if (failed) {
+                    circuitPermit.onFailure();
+                } else {
+                    circuitPermit.onSuccess();
+                }
+            }
+            if (limitPermit != null) {
+                if (failed == null) {
+                    limitPermit.onIgnored();
+                } else if (failed) {
+                    limitPermit.onDropped();
+                } else {
+                    limitPermit.onSuccess();
+                }
+            }
+        }
+    }
+
     /**
      * Executes the HTTP request and handles redirects, if necessary.
      *
      * @param redirectCount The current redirect count.
+     * @param call The call of the execution.
      * @return The parsed response of type {@code T}.
      * @throws IOException If an I/O error occurs.
      * @throws RequestException If there is an issue with the request.
      * @throws ResponseException If the server returns an error.
      * @throws ParseException If there is an error parsing the response.
      */
-    private T executeRequest(String url, int redirectCount)
+    private T executeRequest(String url, int redirectCount, Call call)
             throws IOException, RequestException, ResponseException, ParseException {
+        call.throwIfCancelled();
         if (redirectCount > getMaxRedirects()) {
             throw new RequestException("Too many redirects");
         }
 
-        HttpURLConnection connection = null;
+        final HttpClient client = getHttpClient();
+        final String newUrl;
+
+        final String requestUrl = buildRequestUrl(url);
+        logcat.d(TAG, "Executing request: %s", requestUrl);
+
+        final EventListener listener = call.getEventListener();
+        final RawRequest request = newRawRequest(requestUrl, call);
+        listener.requestHeadersStart(call, request);
+        // The connection goes back to the pool before a retry or redirect leases a new one
+        try (RawResponse response = client.getTransport()
+                .execute(request, client.getConnectionPool())) {
+            listener.responseHeadersEnd(call, response.getResponseCode(),
+                    response.getHeaderFields());
+            newUrl = getRedirectLocation(url, response);
+            if (newUrl == null) {
+                return readResponse(response, call);
+            }
+        }
+
+        logcat.d(TAG, "Redirecting to: %s", newUrl);
+        listener.redirect(call, newUrl);
+        return executeRequest(newUrl, redirectCount + 1, call);
+    }
 
+    /**
+     * Handles the response of a pipelined exchange sent by {@link HttpBatch}. Redirects and
+     * retries leave the batch and run as a regular request.
+     *
+     * @param url The URL that was requested.
+     * @param response The response of the exchange, closed by this method.
+     * @return The parsed response of type {@code T}.
+     * @throws RequestException If there is an issue with the request.
+     * @throws ResponseException If the server returns an error.
+     * @throws ParseException If there is an error parsing the response.
+     */
+    @WorkerThread
+    T executeBatched(String url, RawResponse response)
+            throws RequestException, ResponseException, ParseException {
+        onRequestSent();
+        String newUrl = null;
+        Exception failure = null;
+        try (RawResponse batchedResponse = response) {
+            newUrl = getRedirectLocation(url, batchedResponse);
+            if (newUrl == null) {
+                return readResponse(batchedResponse, null);
+            }
+        } catch (IOException | ResponseException e) {
+            failure = e;
+        }
+
+        // The pipelined exchange has no call, the execution continues as a regular one
+        final Call call = newCall();
+        final EventListener listener = call.getEventListener();
+        call.enter();
+        listener.callStart(call, getRequestId(), getUrl());
         try {
-            final String requestUrl = buildRequestUrl(url);
-            logcat.d(TAG, "Executing request: %s", requestUrl);
-
-            connection = openConnection(requestUrl);
-            setupConnection(connection);
-            connection.connect();
-
-            final int responseCode = connection.getResponseCode();
-            if (onResponseStatus(url, responseCode)) {
-                throw new IOException(String.format(
-                        "Request: %s was interrupted manually by response code: %s",
-                        url,
-                        responseCode
-                ));
-            }
-            if (responseCode >= HttpURLConnection.HTTP_OK &&
-                    responseCode <= HttpURLConnection.HTTP_ACCEPTED) {
-                try (InputStream inputStream = getInputStream(connection)) {
-                    return parseResponse(inputStream, connection.getContentType());
-                }
-            } else if (responseCode >= HttpURLConnection.HTTP_MULT_CHOICE &&
-                    responseCode < HttpURLConnection.HTTP_BAD_REQUEST) {
-                // Handling redirection
-                final String newUrl = connection.getHeaderField("Location");
-                if (newUrl == null) {
-                    throw new ResponseException("Redirected without a new location", responseCode);
+            final T result;
+            if (failure != null) {
+                final long delay = getRetryDelay(failure, 0, call);
+                if (delay < 0) {
+                    throwFailure(failure, call);
                 }
-                logcat.d(TAG, "Redirecting to: %s", newUrl);
-                return executeRequest(newUrl, redirectCount + 1);
-            } else {
-                throw new ResponseException(getErrorMessage(connection), responseCode);
-            }
-        } catch (IOException | RequestException | ResponseException e) {
-            if (retryPolicy != null && retryPolicy.checkNeedToRetry(e)) {
-                logcat.w(TAG, "Request error, retry: %d\n%s", retryPolicy.getCount(), e);
-                return executeRequest(url, 0);
+                call.sleep(delay);
+                result = executeNetwork(call, 1);
             } else {
-                throw e;
+                logcat.d(TAG, "Redirecting to: %s", newUrl);
+                listener.redirect(call, newUrl);
+                result = executeRequest(newUrl, 1, call);
             }
+            listener.callEnd(call);
+            return result;
+        } catch (IOException e) {
+            final RequestException requestFailure =
+                    new RequestException("IO error during request execution", e);
+            listener.callFailed(call, requestFailure);
+            throw requestFailure;
+        } catch (RequestException | ResponseException | ParseException e) {
+            listener.callFailed(call, e);
+            throw e;
         } finally {
-            if (connection != null) connection.disconnect();
+            call.exit();
         }
     }
 
     /**
-     * Opens an HTTP connection to the specified URL.
+     * Checks the status code of the response and returns the redirect location of a 3xx
+     * response.
      *
-     * @param requestUrl The URL to connect to.
-     * @return An instance of HttpURLConnection.
-     * @throws IOException If an I/O error occurs.
+     * @param url The URL that was requested.
+     * @param response The received response.
+     * @return The new location, or null if the response is not a redirect.
+     * @throws IOException If the request was interrupted by {@link #onResponseStatus}.
+     * @throws ResponseException If the redirect has no location.
      */
-    private HttpURLConnection openConnection(String requestUrl) throws IOException {
-        URL url = new URL(requestUrl);
-        if ("https".equalsIgnoreCase(url.getProtocol())) {
-            return (HttpsURLConnection) url.openConnection();
-        } else if ("http".equalsIgnoreCase(url.getProtocol())) {
-            return (HttpURLConnection) url.openConnection();
-        } else {
-            throw new MalformedURLException("Unsupported protocol: " + url.getProtocol());
+    @Nullable
+    private String getRedirectLocation(String url, RawResponse response)
+            throws IOException, ResponseException {
+        final int responseCode = response.getResponseCode();
+        if (onResponseStatus(url, responseCode)) {
+            throw new IOException(String.format(
+                    "Request: %s was interrupted manually by response code: %s",
+                    url,
+                    responseCode
+            ));
+        }
+        if (responseCode >= HttpURLConnection.HTTP_MULT_CHOICE &&
+                responseCode < HttpURLConnection.HTTP_BAD_REQUEST) {
+            // Handling redirection
+            final String newUrl = response.getHeaderField("Location");
+            if (newUrl == null) {
+                throw new ResponseException("Redirected without a new location", responseCode);
+            }
+            return newUrl;
         }
+        return null;
     }
 
     /**
-     * Configures the HTTP connection with the appropriate settings, such as method, timeouts,
-     * and headers.
+     * Parses the body of a successful response or throws the error of the server.
      *
-     * @param connection The HttpURLConnection to configure.
+     * @param response The received response which is not a redirect.
+     * @param call The call of the execution, or null for a pipelined exchange.
+     * @return The parsed response of type {@code T}.
      * @throws IOException If an I/O error occurs.
+     * @throws ResponseException If the server returns an error.
+     * @throws ParseException If there is an error parsing the response.
+     */
+    private T readResponse(RawResponse response, @Nullable Call call)
+            throws IOException, ResponseException, ParseException {
+        final int responseCode = response.getResponseCode();
+        // Partial content only answers a Range header the request sent itself
+        if (responseCode >= HttpURLConnection.HTTP_OK &&
+                responseCode <= HttpURLConnection.HTTP_ACCEPTED ||
+                responseCode == HttpURLConnection.HTTP_PARTIAL) {
+            onResponseHeaders(responseCode, response.getHeaderFields());
+            try (InputStream inputStream = getInputStream(response, call)) {
+                if (call == null) {
+                    return parseResponse(inputStream, response.getContentType());
+                }
+                call.getEventListener().parseStart(call);
+                try {
+                    return parseResponse(inputStream, response.getContentType());
+                } finally {
+                    call.getEventListener().parseEnd(call);
+                }
+            }
+        }
+        throw new ResponseException(getErrorMessage(response, call), responseCode,
+                response.getHeaderFields());
+    }
+
+    /**
+     * Consults the retry policy and the retry budget of the client about the failure. Request
+     * failures, such as too many redirects or an open circuit breaker, are passed to the policy
+     * as well; a cancelled call is never retried.
+     *
+     * @param e The failure of the attempt.
+     * @param retryCount The number of retries already made by the execution.
+     * @param call The call of the execution.
+     * @return The delay before the retry in milliseconds, or a negative value if the request
+     * must fail.
      */
-    private void setupConnection(HttpURLConnection connection) throws IOException {
-        connection.setRequestMethod(getRequestMethod());
-        if (getConnectionTimeout() > 0) {
-            connection.setConnectTimeout(getConnectionTimeout());
+    private long getRetryDelay(Exception e, int retryCount, Call call) {
+        if (retryPolicy == null || call.isCancelled()) {
+            return NOT_SET;
+        }
+        final long delay = retryPolicy.getRetryDelay(e, retryCount);
+        if (delay < 0) {
+            return NOT_SET;
         }
-        if (getReadTimeout() > 0) {
-            connection.setReadTimeout(getReadTimeout());
+        if (delay >= call.getRemainingMillis()) {
+            logcat.w(TAG, "Request error, no time left to retry", e);
+            return NOT_SET;
         }
-        connection.setDoInput(true);
-        applyHeaders(connection);
+        final RetryBudget retryBudget = getHttpClient().getRetryBudget();
+        if (retryBudget != null && !retryBudget.tryRetry(getHost(),
+                getHttpClient().getClock().elapsedRealtime())) {
+            logcat.w(TAG, "Request error, retry budget exhausted", e);
+            return NOT_SET;
+        }
+        logcat.w(TAG, "Request error, retry: %d in %d ms\n%s", retryCount + 1, delay, e);
+        call.getEventListener().retry(call, retryCount + 1, delay, e);
+        return delay;
+    }
 
-        if (isBodyRequired()) {
-            connection.setDoOutput(true);
-            if (getRequestContentType() != null) {
-                connection.setRequestProperty("Content-Type", getRequestContentType());
-            }
-            try (OutputStream os = connection.getOutputStream()) {
-                writeRequestBody(os);
-            }
+    /**
+     * Records the request in the retry budget of the client.
+     */
+    private void onRequestSent() {
+        final RetryBudget retryBudget = getHttpClient().getRetryBudget();
+        if (retryBudget != null && retryPolicy != null) {
+            retryBudget.onRequest(getHost(), getHttpClient().getClock().elapsedRealtime());
         }
     }
 
     /**
-     * Determines if the request requires a request body (i.e., for POST or PUT methods).
+     * Returns the host of the request, which the retry budget is kept for.
+     */
+    private String getHost() {
+        final RequestTemplate template = getRequestTemplate();
+        final String url = getUrl();
+        if (template != null && url.equals(template.getUrl())) {
+            return template.getHost();
+        }
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Throws the failure of the execution as the exception of the caller.
      *
-     * @return True if the request method is POST or PUT, otherwise false.
+     * @param e The failure.
+     * @param call The call of the execution.
      */
-    private boolean isBodyRequired() {
-        String method = getRequestMethod();
-        return METHOD_POST.equalsIgnoreCase(method) || METHOD_PUT.equalsIgnoreCase(method);
+    private static void throwFailure(Exception e, Call call)
+            throws RequestException, ResponseException, ParseException {
+        if (e instanceof RequestException) {
+            throw (RequestException) e;
+        }
+        if (call.isCancelled()) {
+            // A closed connection fails the read in any way
+            throw call.newCancelledException(e);
+        }
+        if (e instanceof ResponseException) {
+            throw (ResponseException) e;
+        }
+        if (e instanceof ParseException) {
+            throw (ParseException) e;
+        }
+        throw new RequestException("IO error during request execution", e);
     }
 
     /**
-     * Applies headers to the HTTP connection.
+     * Creates the wire-level request with the method, timeouts, headers and body of this
+     * request.
      *
-     * @param connection The HttpURLConnection to apply headers to.
+     * @param requestUrl The full request URL.
+     * @param call The call of the execution, or null if it cannot be cancelled.
+     * @return The request for the transport.
+     * @throws IOException If the URL is malformed.
      */
-    private void applyHeaders(HttpURLConnection connection) {
-        final Map<String, String> headers = getHeaders();
-        if (headers == null) {
-            return;
+    RawRequest newRawRequest(String requestUrl, @Nullable Call call) throws IOException {
+        final TransferStats stats = new TransferStats();
+        transferStats = stats;
+        final ContentCodings codings = getHttpClient().getContentCodings();
+        final RequestTemplate template = getRequestTemplate();
+        final String method = getRequestMethod();
+        final boolean bodyRequired = isBodyRequired(method);
+        final Map<String, String> customHeaders = getHeaders();
+        Map<String, String> headers;
+        if (template != null) {
+            headers = template.getRequestHeaders(codings.getAcceptEncoding());
+            // The shared headers of the template are only copied if they are added to
+            if (customHeaders != null || bodyRequired) {
+                headers = new LinkedHashMap<>(headers);
+            }
+        } else {
+            headers = new LinkedHashMap<>();
+            headers.put("Accept-Encoding", codings.getAcceptEncoding());
         }
-        for (String key : headers.keySet()) {
-            connection.setRequestProperty(key, headers.get(key));
+        if (customHeaders != null) {
+            putHeaders(headers, customHeaders);
+        }
+        RawRequest.BodyWriter bodyWriter = null;
+        if (bodyRequired) {
+            final RequestBody body = getRequestBody();
+            final String contentType = getRequestContentType();
+            if (contentType != null) {
+                headers.put("Content-Type", contentType);
+            } else if (body != null && body.getContentType() != null) {
+                headers.put("Content-Type", body.getContentType());
+            }
+            String encoding = body != null ? body.getContentEncoding() : null;
+            final RawRequest.BodyWriter writer = body != null ? body : bufferRequestBody();
+            ContentCoding coding = null;
+            if (encoding == null && getRequestContentEncoding() != null
+                    && (writer.getContentLength() < 0
+                    || writer.getContentLength() >= MIN_ENCODED_BODY_SIZE)) {
+                encoding = getRequestContentEncoding();
+                coding = codings.get(encoding);
+                if (coding == null) {
+                    throw new IOException("Unsupported content coding: " + encoding);
+                }
+            }
+            if (encoding != null) {
+                headers.put("Content-Encoding", encoding);
+            }
+            bodyWriter = new CountingBodyWriter(writer, coding, encoding, stats, call);
+        }
+        final int connectTimeout = call != null ?
+                call.limitTimeout(getConnectionTimeout()) : getConnectionTimeout();
+        final int readTimeout = call != null ?
+                call.limitTimeout(getReadTimeout()) : getReadTimeout();
+        final URL url = template != null ? template.toUrl(requestUrl) : new URL(requestUrl);
+        return new RawRequest(url, method, headers, connectTimeout, readTimeout, bodyWriter,
+                call);
+    }
+
+    /**
+     * Puts the headers, replacing those of the same name in any case.
+     */
+    private static void putHeaders(Map<String, String> headers, Map<String, String> newHeaders) {
+        for (Map.Entry<String, String> header : newHeaders.entrySet()) {
+            headers.keySet().removeIf(name -> name.equalsIgnoreCase(header.getKey()));
+            headers.put(header.getKey(), header.getValue());
         }
     }
 
     /**
-     * Returns the input stream for the HTTP connection, handling any necessary decompression.
+     * Buffers the body of {@link #writeRequestBody(OutputStream)}, so that it is sent with its
+     * length and small writes don't each reach the transport.
      *
-     * @param connection The HttpURLConnection to read the input stream from.
+     * @return The writer of the buffered body.
+     * @throws IOException If an I/O error occurs.
+     */
+    private RawRequest.BodyWriter bufferRequestBody() throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeRequestBody(buffer);
+        return new RawRequest.BodyWriter() {
+            @Override
+            public void writeTo(@NonNull OutputStream os) throws IOException {
+                buffer.writeTo(os);
+            }
+
+            @Override
+            public long getContentLength() {
+                return buffer.size();
+            }
+        };
+    }
+
+    /**
+     * Determines if the request requires a request body (i.e., for POST or PUT methods).
+     *
+     * @param method The HTTP method of the request.
+     * @return True if the request method is POST or PUT, otherwise false.
+     */
+    private static boolean isBodyRequired(String method) {
+        return METHOD_POST.equalsIgnoreCase(method) || METHOD_PUT.equalsIgnoreCase(method);
+    }
+
+    /**
+     * Returns the input stream of the response, handling any necessary decompression.
+     *
+     * @param response The response to read the input stream from.
+     * @param call The call of the execution, or null for a pipelined exchange.
      * @return The input stream, potentially wrapped in a decompression stream.
      * @throws IOException If an I/O error occurs.
      */
-    private InputStream getInputStream(HttpURLConnection connection) throws IOException {
-        String encoding = connection.getContentEncoding();
-        InputStream inputStream = connection.getInputStream();
-        if (ENCODING_GZIP.equalsIgnoreCase(encoding)) {
-            return new GZIPInputStream(inputStream);
-        } else if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
-            return new InflaterInputStream(inputStream, new Inflater(true));
-        } else {
-            return inputStream;
+    private InputStream getInputStream(RawResponse response, @Nullable Call call)
+            throws IOException {
+        final String encoding = response.getContentEncoding();
+        final CountingInputStream wire = new CountingInputStream(response.getBody());
+        final InputStream decoded = getHttpClient().getContentCodings().decode(encoding, wire);
+        if (decoded != wire) {
+            return new CountingBodyStream(new CountingInputStream(decoded), wire, encoding,
+                    transferStats, call);
         }
+        final long contentLength = response.getContentLength();
+        final InputStream inputStream =
+                new CountingBodyStream(wire, wire, null, transferStats, call);
+        return contentLength >= 0 ? new SizedInputStream(inputStream, contentLength) : inputStream;
     }
 
     /**
@@ -393,21 +1219,26 @@ public abstract class HttpRequest<T> implements Request<T> {
      * @return The full request URL as a String.
      * @throws IOException If an encoding error occurs.
      */
-    private String buildRequestUrl(String url) throws IOException {
+    String buildRequestUrl(String url) throws IOException {
 
         final Map<String, String> queryParams = getQueryParameters();
+        final RequestTemplate template = getRequestTemplate();
+        if (template != null && url.equals(template.getUrl())) {
+            return template.buildUrl(queryParams);
+        }
         if (queryParams == null) {
             return url;
         }
 
-        final StringBuilder urlBuilder = new StringBuilder(url);
+        final StringBuilder urlBuilder = new StringBuilder(url.length() + 16 * queryParams.size())
+                .append(url);
         if (!queryParams.isEmpty()) {
             urlBuilder.append("?");
             for (Map.Entry<String, String> entry : queryParams.entrySet()) {
-                urlBuilder.append(URLEncoder.encode(entry.getKey(), StandardCharsets.UTF_8.name()))
-                        .append("=")
-                        .append(URLEncoder.encode(entry.getValue(), StandardCharsets.UTF_8.name()))
-                        .append("&");
+                RequestTemplate.appendEncoded(urlBuilder, entry.getKey());
+                urlBuilder.append("=");
+                RequestTemplate.appendEncoded(urlBuilder, entry.getValue());
+                urlBuilder.append("&");
             }
             urlBuilder.setLength(urlBuilder.length() - 1); // remove trailing "&"
         }
@@ -416,29 +1247,31 @@ public abstract class HttpRequest<T> implements Request<T> {
     }
 
     /**
-     * Retrieves the error message from the HTTP connection if the request failed.
+     * Retrieves the error message from the response if the request failed.
      *
-     * @param connection The HttpURLConnection to retrieve the error message from.
+     * @param response The response to retrieve the error message from.
+     * @param call The call of the execution, or null for a pipelined exchange.
      * @return The error message as a String.
      * @throws IOException If an I/O error occurs.
      */
-    private String getErrorMessage(HttpURLConnection connection) throws IOException {
-        try (InputStream errorStream = connection.getErrorStream()) {
-            return errorStream != null ?
-                    IOUtils.inputStreamToString(errorStream, StandardCharsets.UTF_8) :
-                    "Unknown server error";
+    private String getErrorMessage(RawResponse response, @Nullable Call call)
+            throws IOException {
+        try (InputStream errorStream = getInputStream(response, call)) {
+            final String message = IOUtils.inputStreamToString(errorStream, StandardCharsets.UTF_8);
+            return !message.isEmpty() ? message : "Unknown server error";
         }
     }
 
     /**
-     * Posts a task to the provided handler, or runs it immediately if the handler is null.
+     * Dispatches a task to the provided dispatcher, or runs it immediately if the dispatcher is
+     * null.
      *
-     * @param handler The handler to post the task to.
+     * @param dispatcher The dispatcher to run the task on.
      * @param task The task to run.
      */
-    private static void postToHandler(@Nullable Handler handler, Runnable task) {
-        if (handler != null) {
-            handler.post(task);
+    static void dispatch(@Nullable CallbackDispatcher dispatcher, Runnable task) {
+        if (dispatcher != null) {
+            dispatcher.dispatch(task);
         } else {
             task.run();
         }
@@ -454,4 +1287,210 @@ public abstract class HttpRequest<T> implements Request<T> {
     public String toString() {
         return String.format("HttpRequest [URL = %s]", getUrl());
     }
+
+    /**
+     * Writer of the request body which encodes it with the coding of
+     * {@link #getRequestContentEncoding()} and counts its bytes.
+     */
+    private static final class CountingBodyWriter implements RawRequest.BodyWriter {
+        private final RawRequest.BodyWriter writer;
+        private final ContentCoding coding;
+        private final String encoding;
+        private final TransferStats stats;
+        private final Call call;
+
+        CountingBodyWriter(RawRequest.BodyWriter writer, @Nullable ContentCoding coding,
+                @Nullable String encoding, TransferStats stats, @Nullable Call call) {
+            this.writer = writer;
+            this.coding = coding;
+            this.encoding = encoding;
+            this.stats = stats;
+            this.call = call;
+        }
+
+        @Override
+        public long getContentLength() {
+            return coding != null ? -1 : writer.getContentLength();
+        }
+
+        @Override
+        public void writeTo(@NonNull OutputStream os) throws IOException {
+            final CountingOutputStream wire = new CountingOutputStream(os);
+            if (coding == null) {
+                writer.writeTo(wire);
+                onBodyWritten(wire.getCount(), wire.getCount());
+                return;
+            }
+            final OutputStream encoder = coding.encode(wire);
+            if (encoder == null) {
+                throw new IOException("Content coding can't encode: " + coding.getName());
+            }
+            final CountingOutputStream body = new CountingOutputStream(encoder);
+            try {
+                writer.writeTo(body);
+            } finally {
+                encoder.close();
+            }
+            onBodyWritten(body.getCount(), wire.getCount());
+        }
+
+        private void onBodyWritten(long bodyBytes, long wireBytes) {
+            stats.onRequestBody(bodyBytes, wireBytes, encoding);
+            if (call != null) {
+                call.getEventListener().requestBodyEnd(call, bodyBytes, wireBytes);
+            }
+        }
+    }
+
+    /**
+     * Stream of the response body which records its decoded and received sizes when closed.
+     */
+    private static final class CountingBodyStream extends FilterInputStream {
+        private final CountingInputStream body;
+        private final CountingInputStream wire;
+        private final String encoding;
+        private final TransferStats stats;
+        private final Call call;
+        private boolean closed;
+
+        CountingBodyStream(CountingInputStream body, CountingInputStream wire,
+                @Nullable String encoding, TransferStats stats, @Nullable Call call) {
+            super(body);
+            this.body = body;
+            this.wire = wire;
+            this.encoding = encoding;
+            this.stats = stats;
+            this.call = call;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                stats.onResponseBody(body.getCount(), wire.getCount(), encoding);
+                if (call != null) {
+                    call.getEventListener().responseBodyEnd(call, body.getCount(),
+                            wire.getCount());
+                }
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Asynchronous execution of the request. Each attempt runs as a task of the executor;
+     * between attempts the execution waits on the shared scheduler, so the back-off holds no
+     * thread. Cancelling the call during the back-off runs the execution right away to fail it.
+     */
+    private final class AsyncExecution implements Runnable, Closeable {
+
+        private final String cacheKey;
+        private final Call call;
+        private final Executor executor;
+        private final BiConsumer<T, Exception> completion;
+        private int retryCount;
+        private boolean started;
+        private ScheduledFuture<?> backOff;
+
+        AsyncExecution(@Nullable String cacheKey, Call call, Executor executor, boolean started,
+                BiConsumer<T, Exception> completion) {
+            this.cacheKey = cacheKey;
+            this.call = call;
+            this.executor = executor;
+            this.started = started;
+            this.completion = completion;
+        }
+
+        @Override
+        public void run() {
+            call.enter();
+            if (!started) {
+                started = true;
+                call.getEventListener().callStart(call, getRequestId(), getUrl());
+            }
+            final T result;
+            try {
+                call.throwIfCancelled();
+                if (retryCount == 0) {
+                    onRequestSent();
+                }
+                result = executeAttempt(call);
+                putCachedObject(cacheKey, result);
+            } catch (IOException | RequestException | ResponseException | ParseException e) {
+                final long delay = !(e instanceof ParseException) ?
+                        getRetryDelay(e, retryCount, call) : NOT_SET;
+                if (delay >= 0) {
+                    retryCount++;
+                    call.suspend();
+                    scheduleRetry(delay);
+                    return;
+                }
+                fail(e);
+                return;
+            } catch (RuntimeException e) {
+                call.getEventListener().callFailed(call, e);
+                call.exit();
+                completion.accept(null, e);
+                return;
+            }
+            call.getEventListener().callEnd(call);
+            call.exit();
+            completion.accept(result, null);
+        }
+
+        /**
+         * Aborts the back-off of the cancelled call.
+         */
+        @Override
+        public void close() {
+            final ScheduledFuture<?> task;
+            synchronized (this) {
+                task = backOff;
+                backOff = null;
+            }
+            if (task != null && task.cancel(false)) {
+                resubmit();
+            }
+        }
+
+        private void scheduleRetry(long delay) {
+            synchronized (this) {
+                try {
+                    call.attach(this);
+                } catch (InterruptedIOException e) {
+                    // Cancelled meanwhile, the next attempt fails right away
+                    resubmit();
+                    return;
+                }
+                backOff = DefaultExecutor.getScheduler().schedule(() -> {
+                    synchronized (this) {
+                        backOff = null;
+                    }
+                    call.detach(this);
+                    resubmit();
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void resubmit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                final RequestException failure = new RequestException("Request was rejected", e);
+                call.getEventListener().callFailed(call, failure);
+                call.exit();
+                completion.accept(null, failure);
+            }
+        }
+
+        private void fail(Exception e) {
+            try {
+                throwFailure(e, call);
+            } catch (RequestException | ResponseException | ParseException failure) {
+                call.getEventListener().callFailed(call, failure);
+                call.exit();
+                completion.accept(null, failure);
+            }
+        }
+    }
 }
@@ -1,75 +1,133 @@
 package xds.lib.easyhttp;
 
-import android.util.Log;
-
 import xds.lib.easyhttp.util.LogPolicy;
+import xds.lib.easyhttp.util.LogSink;
 
+/**
+ * Log of a request. The levels allowed by the policy are resolved once, and the overloads
+ * with primitive arguments neither box them nor allocate a varargs array, so a disabled call
+ * costs a field check. Messages are formatted only when they are written.
+ */
 final class Logcat {
 
-    private static final boolean DEBUG = BuildConfig.DEBUG;
-    private final int policy;
+    private final boolean debugEnabled;
+    private final boolean warnEnabled;
+    private final LogSink sink;
 
     Logcat(int policy) {
-        this.policy = policy;
+        this(policy, Platform.get().getLogSink());
+    }
+
+    Logcat(int policy, LogSink sink) {
+        this.debugEnabled = policy == LogPolicy.AGGRESSIVE
+                || (policy == LogPolicy.ADAPTIVE && Platform.get().isDebugBuild());
+        this.warnEnabled = debugEnabled || policy == LogPolicy.MEDIUM;
+        this.sink = sink;
+    }
+
+    /** {@code true} if debug and info messages are written. */
+    boolean isDebugEnabled() {
+        return debugEnabled;
+    }
+
+    /** {@code true} if warning and error messages are written. */
+    boolean isWarnEnabled() {
+        return warnEnabled;
     }
 
     void d(String tag, String msg) {
-        if (policy == LogPolicy.AGGRESSIVE || (policy == LogPolicy.ADAPTIVE && DEBUG)) {
-            Log.d(tag, msg);
+        if (debugEnabled) {
+            sink.log(LogSink.DEBUG, tag, msg, null);
+        }
+    }
+
+    void d(String tag, String format, Object arg) {
+        if (debugEnabled) {
+            sink.log(LogSink.DEBUG, tag, String.format(format, arg), null);
+        }
+    }
+
+    void d(String tag, String format, long arg1, Object arg2) {
+        if (debugEnabled) {
+            sink.log(LogSink.DEBUG, tag, String.format(format, arg1, arg2), null);
         }
     }
 
     void d(String tag, String format, Object... args) {
-        if (policy == LogPolicy.AGGRESSIVE || (policy == LogPolicy.ADAPTIVE && DEBUG)) {
-            Log.d(tag, String.format(format, args));
+        if (debugEnabled) {
+            sink.log(LogSink.DEBUG, tag, String.format(format, args), null);
         }
     }
 
     void i(String tag, String msg) {
-        if (policy == LogPolicy.AGGRESSIVE || (policy == LogPolicy.ADAPTIVE && DEBUG)) {
-            Log.i(tag, msg);
+        if (debugEnabled) {
+            sink.log(LogSink.INFO, tag, msg, null);
+        }
+    }
+
+    void i(String tag, String format, Object arg) {
+        if (debugEnabled) {
+            sink.log(LogSink.INFO, tag, String.format(format, arg), null);
         }
     }
 
     void i(String tag, String format, Object... args) {
-        if (policy == LogPolicy.AGGRESSIVE || (policy == LogPolicy.ADAPTIVE && DEBUG)) {
-            Log.i(tag, String.format(format, args));
+        if (debugEnabled) {
+            sink.log(LogSink.INFO, tag, String.format(format, args), null);
         }
     }
 
     void w(String tag, String msg) {
-        if (policy == LogPolicy.AGGRESSIVE || policy == LogPolicy.MEDIUM || (policy == LogPolicy.ADAPTIVE && DEBUG)) {
-            Log.w(tag, msg);
+        if (warnEnabled) {
+            sink.log(LogSink.WARN, tag, msg, null);
         }
     }
 
     void w(String tag, String msg, Throwable throwable) {
-        if (policy == LogPolicy.AGGRESSIVE || policy == LogPolicy.MEDIUM || (policy == LogPolicy.ADAPTIVE && DEBUG)) {
-            Log.w(tag, msg, throwable);
+        if (warnEnabled) {
+            sink.log(LogSink.WARN, tag, msg, throwable);
+        }
+    }
+
+    void w(String tag, String format, Object arg) {
+        if (warnEnabled) {
+            sink.log(LogSink.WARN, tag, String.format(format, arg), null);
+        }
+    }
+
+    void w(String tag, String format, int arg1, long arg2, Object arg3) {
+        if (warnEnabled) {
+            sink.log(LogSink.WARN, tag, String.format(format, arg1, arg2, arg3), null);
         }
     }
 
     void w(String tag, String format, Object... args) {
-        if (policy == LogPolicy.AGGRESSIVE || policy == LogPolicy.MEDIUM || (policy == LogPolicy.ADAPTIVE && DEBUG)) {
-            Log.w(tag, String.format(format, args));
+        if (warnEnabled) {
+            sink.log(LogSink.WARN, tag, String.format(format, args), null);
         }
     }
 
     void e(String tag, String msg) {
-        if (policy == LogPolicy.AGGRESSIVE || policy == LogPolicy.MEDIUM || (policy == LogPolicy.ADAPTIVE && DEBUG)) {
-            Log.e(tag, msg);
+        if (warnEnabled) {
+            sink.log(LogSink.ERROR, tag, msg, null);
         }
     }
 
     void e(String tag, String msg, Throwable throwable) {
-        if (policy == LogPolicy.AGGRESSIVE || policy == LogPolicy.MEDIUM || (policy == LogPolicy.ADAPTIVE && DEBUG)) {
-            Log.e(tag, msg, throwable);
+        if (warnEnabled) {
+            sink.log(LogSink.ERROR, tag, msg, throwable);
+        }
+    }
+
+    void e(String tag, String format, long arg1, Object arg2) {
+        if (warnEnabled) {
+            sink.log(LogSink.ERROR, tag, String.format(format, arg1, arg2), null);
         }
     }
 
     void e(String tag, String format, Object... args) {
-        if (policy == LogPolicy.AGGRESSIVE || policy == LogPolicy.MEDIUM || (policy == LogPolicy.ADAPTIVE && DEBUG)) {
-            Log.e(tag, String.format(format, args));
+        if (warnEnabled) {
+            sink.log(LogSink.ERROR, tag, String.format(format, args), null);
         }
     }
 }
@@ -0,0 +1,351 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import xds.lib.easyhttp.util.LatencyHistogram;
+
+/**
+ * Event listener recording latency histograms of the executions per host and per
+ * {@link Request#getRequestId()}: the whole call, DNS lookups, new connections, the time from
+ * handing a request to the transport until its response headers, and parsing.
+ * <p>
+ * Each of the two dimensions keeps up to {@code maxKeys} entries; the executions of further
+ * hosts or request IDs are recorded under {@link #OTHER}, so requests with unique IDs don't
+ * grow the memory. A host is the one of the first URL of the execution, before redirects.
+ */
+public class MetricsEventListener extends EventListener {
+
+    /** Key of the executions of the hosts and request IDs beyond the limit. */
+    public static final String OTHER = "*";
+
+    private static final int DEFAULT_MAX_KEYS = 64;
+
+    private final int maxKeys;
+    private final Map<String, Metrics> hosts = new ConcurrentHashMap<>();
+    private final Map<String, Metrics> requests = new ConcurrentHashMap<>();
+    private final Map<Call, Timings> calls = new ConcurrentHashMap<>();
+
+    /**
+     * Create listener keeping the metrics of up to 64 hosts and 64 request IDs.
+     */
+    public MetricsEventListener() {
+        this(DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * Create listener.
+     *
+     * @param maxKeys the number of hosts, and of request IDs, to keep distinct metrics for.
+     */
+    public MetricsEventListener(int maxKeys) {
+        if (maxKeys <= 0) {
+            throw new IllegalArgumentException("maxKeys must be positive");
+        }
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Returns the metrics of the executions to the host.
+     *
+     * @param host the host name, or {@link #OTHER}.
+     * @return the metrics, or null if no execution to the host was recorded.
+     */
+    @Nullable
+    @AnyThread
+    public Metrics getHostMetrics(@NonNull String host) {
+        return hosts.get(host);
+    }
+
+    /**
+     * Returns the metrics of the executions of the requests with the ID.
+     *
+     * @param requestId the request ID, or {@link #OTHER}.
+     * @return the metrics, or null if no execution with the ID was recorded.
+     */
+    @Nullable
+    @AnyThread
+    public Metrics getRequestMetrics(@NonNull String requestId) {
+        return requests.get(requestId);
+    }
+
+    /**
+     * Returns the hosts which have metrics.
+     */
+    @NonNull
+    @AnyThread
+    public Set<String> getHosts() {
+        return Collections.unmodifiableSet(hosts.keySet());
+    }
+
+    /**
+     * Returns the request IDs which have metrics.
+     */
+    @NonNull
+    @AnyThread
+    public Set<String> getRequestIds() {
+        return Collections.unmodifiableSet(requests.keySet());
+    }
+
+    /**
+     * Clears the metrics. Executions in flight are recorded once they complete.
+     */
+    @AnyThread
+    public void reset() {
+        hosts.clear();
+        requests.clear();
+    }
+
+    @Override
+    public void callStart(@NonNull Call call, @NonNull String requestId, @NonNull String url) {
+        calls.put(call, new Timings(metricsOf(hosts, hostOf(url)),
+                metricsOf(requests, requestId), System.nanoTime()));
+    }
+
+    @Override
+    public void dnsStart(@NonNull Call call, @NonNull String host) {
+        final Timings timings = calls.get(call);
+        if (timings != null) {
+            timings.dnsStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void dnsEnd(@NonNull Call call, @NonNull String host,
+            @NonNull List<InetAddress> addresses) {
+        final Timings timings = calls.get(call);
+        if (timings != null) {
+            final long nanos = System.nanoTime() - timings.dnsStart;
+            timings.host.dnsLatency.record(nanos);
+            timings.request.dnsLatency.record(nanos);
+        }
+    }
+
+    @Override
+    public void connectStart(@NonNull Call call, @NonNull InetSocketAddress address) {
+        final Timings timings = calls.get(call);
+        if (timings != null) {
+            timings.connectStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress address) {
+        final Timings timings = calls.get(call);
+        if (timings != null) {
+            final long nanos = System.nanoTime() - timings.connectStart;
+            timings.host.connectLatency.record(nanos);
+            timings.request.connectLatency.record(nanos);
+        }
+    }
+
+    @Override
+    public void requestHeadersStart(@NonNull Call call, @NonNull RawRequest request) {
+        final Timings timings = calls.get(call);
+        if (timings != null) {
+            timings.requestStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void responseHeadersEnd(@NonNull Call call, int responseCode,
+            @NonNull Map<String, List<String>> headers) {
+        final Timings timings = calls.get(call);
+        if (timings != null) {
+            final long nanos = System.nanoTime() - timings.requestStart;
+            timings.host.headersLatency.record(nanos);
+            timings.request.headersLatency.record(nanos);
+        }
+    }
+
+    @Override
+    public void parseStart(@NonNull Call call) {
+        final Timings timings = calls.get(call);
+        if (timings != null) {
+            timings.parseStart = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void parseEnd(@NonNull Call call) {
+        final Timings timings = calls.get(call);
+        if (timings != null) {
+            final long nanos = System.nanoTime() - timings.parseStart;
+            timings.host.parseLatency.record(nanos);
+            timings.request.parseLatency.record(nanos);
+        }
+    }
+
+    @Override
+    public void retry(@NonNull Call call, int retryCount, long delayMillis,
+            @NonNull Exception cause) {
+        final Timings timings = calls.get(call);
+        if (timings != null) {
+            timings.host.retryCount.increment();
+            timings.request.retryCount.increment();
+        }
+    }
+
+    @Override
+    public void redirect(@NonNull Call call, @NonNull String location) {
+        final Timings timings = calls.get(call);
+        if (timings != null) {
+            timings.host.redirectCount.increment();
+            timings.request.redirectCount.increment();
+        }
+    }
+
+    @Override
+    public void callEnd(@NonNull Call call) {
+        final Timings timings = calls.remove(call);
+        if (timings != null) {
+            final long nanos = System.nanoTime() - timings.callStart;
+            timings.host.callLatency.record(nanos);
+            timings.request.callLatency.record(nanos);
+        }
+    }
+
+    @Override
+    public void callFailed(@NonNull Call call, @NonNull Exception e) {
+        final Timings timings = calls.remove(call);
+        if (timings != null) {
+            final long nanos = System.nanoTime() - timings.callStart;
+            timings.host.callLatency.record(nanos);
+            timings.request.callLatency.record(nanos);
+            timings.host.failureCount.increment();
+            timings.request.failureCount.increment();
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("MetricsEventListener");
+        for (Map.Entry<String, Metrics> host : hosts.entrySet()) {
+            builder.append("\n ").append(host.getKey()).append(": ").append(host.getValue());
+        }
+        return builder.toString();
+    }
+
+    private Metrics metricsOf(Map<String, Metrics> metrics, String key) {
+        final Metrics existing = metrics.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        // Checked before inserting, the limit may be exceeded by a few concurrent keys
+        return metrics.computeIfAbsent(metrics.size() < maxKeys ? key : OTHER,
+                name -> new Metrics());
+    }
+
+    private static String hostOf(String url) {
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return OTHER;
+        }
+    }
+
+    /**
+     * Start times of the steps of an execution in flight. The events of an execution are
+     * delivered in order, one at a time.
+     */
+    private static final class Timings {
+        final Metrics host;
+        final Metrics request;
+        final long callStart;
+        long dnsStart;
+        long connectStart;
+        long requestStart;
+        long parseStart;
+
+        Timings(Metrics host, Metrics request, long callStart) {
+            this.host = host;
+            this.request = request;
+            this.callStart = callStart;
+        }
+    }
+
+    /**
+     * Latencies and counters of the executions to a host or of a request ID.
+     */
+    public static final class Metrics {
+        private final LatencyHistogram callLatency = new LatencyHistogram();
+        private final LatencyHistogram dnsLatency = new LatencyHistogram();
+        private final LatencyHistogram connectLatency = new LatencyHistogram();
+        private final LatencyHistogram headersLatency = new LatencyHistogram();
+        private final LatencyHistogram parseLatency = new LatencyHistogram();
+        private final LongAdder failureCount = new LongAdder();
+        private final LongAdder retryCount = new LongAdder();
+        private final LongAdder redirectCount = new LongAdder();
+
+        Metrics() {}
+
+        /** The latency of whole executions, successful or not, including retries. */
+        @NonNull
+        public LatencyHistogram getCallLatency() {
+            return callLatency;
+        }
+
+        /** The latency of DNS lookups. */
+        @NonNull
+        public LatencyHistogram getDnsLatency() {
+            return dnsLatency;
+        }
+
+        /** The latency of establishing new connections. */
+        @NonNull
+        public LatencyHistogram getConnectLatency() {
+            return connectLatency;
+        }
+
+        /**
+         * The latency from handing each request to the transport until its response headers,
+         * connecting and sending the body included.
+         */
+        @NonNull
+        public LatencyHistogram getHeadersLatency() {
+            return headersLatency;
+        }
+
+        /** The latency of parsing responses, reading their bodies included. */
+        @NonNull
+        public LatencyHistogram getParseLatency() {
+            return parseLatency;
+        }
+
+        /** The number of failed executions. */
+        public long getFailureCount() {
+            return failureCount.sum();
+        }
+
+        /** The number of retries. */
+        public long getRetryCount() {
+            return retryCount.sum();
+        }
+
+        /** The number of followed redirects. */
+        public long getRedirectCount() {
+            return redirectCount.sum();
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "call " + callLatency + ", headers " + headersLatency
+                    + ", parse " + parseLatency + ", failures=" + getFailureCount()
+                    + ", retries=" + getRetryCount() + ", redirects=" + getRedirectCount();
+        }
+    }
+}
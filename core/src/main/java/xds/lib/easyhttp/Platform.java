@@ -0,0 +1,92 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import xds.lib.easyhttp.async.CallbackDispatcher;
+import xds.lib.easyhttp.util.Clock;
+import xds.lib.easyhttp.util.LogSink;
+
+/**
+ * Services of the host the library runs on. The core only uses the Java platform; on Android,
+ * {@code xds.lib.easyhttp.android.AndroidPlatform} adapts the clock, the callback thread and
+ * the log to the framework.
+ * <p>
+ * On a plain JVM, callbacks run on the thread which completed the request, time comes from
+ * {@link System#nanoTime()} and the log goes to {@link System#err}.
+ */
+public class Platform {
+
+    private static final String ANDROID_PLATFORM = "xds.lib.easyhttp.android.AndroidPlatform";
+
+    private static final Platform PLATFORM = findPlatform();
+
+    protected Platform() {}
+
+    /**
+     * Returns the platform the library runs on.
+     *
+     * @return The platform.
+     */
+    @NonNull
+    @AnyThread
+    public static Platform get() {
+        return PLATFORM;
+    }
+
+    /**
+     * Returns the clock of timeouts, deadlines and TTLs.
+     *
+     * @return The clock, {@link Clock#MONOTONIC} by default.
+     */
+    @NonNull
+    @AnyThread
+    public Clock getClock() {
+        return Clock.MONOTONIC;
+    }
+
+    /**
+     * Returns the dispatcher of the callbacks of asynchronous requests which are not given
+     * one.
+     *
+     * @return The dispatcher, {@link CallbackDispatcher#DIRECT} by default.
+     */
+    @NonNull
+    @AnyThread
+    public CallbackDispatcher getCallbackDispatcher() {
+        return CallbackDispatcher.DIRECT;
+    }
+
+    /**
+     * Returns the destination of the log of requests.
+     *
+     * @return The sink, {@link LogSink#SYSTEM_ERR} by default.
+     */
+    @NonNull
+    @AnyThread
+    public LogSink getLogSink() {
+        return LogSink.SYSTEM_ERR;
+    }
+
+    /**
+     * Returns {@code true} if this is a debug build, in which
+     * {@link xds.lib.easyhttp.util.LogPolicy#ADAPTIVE} logs everything.
+     */
+    @AnyThread
+    public boolean isDebugBuild() {
+        return false;
+    }
+
+    private static Platform findPlatform() {
+        if ("Dalvik".equals(System.getProperty("java.vm.name"))) {
+            try {
+                // Loaded by name, the JVM artifact is built without the Android adapter
+                return (Platform) Class.forName(ANDROID_PLATFORM)
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Android adapter not found", e);
+            }
+        }
+        return new Platform();
+    }
+}
@@ -0,0 +1,135 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wire-level description of an HTTP exchange handed to a {@link Transport}.
+ */
+public final class RawRequest {
+
+    private final URL url;
+    private final String method;
+    private final Map<String, String> headers;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final BodyWriter bodyWriter;
+    private final Call call;
+
+    RawRequest(@NonNull URL url, @NonNull String method, @NonNull Map<String, String> headers,
+            int connectTimeout, int readTimeout, @Nullable BodyWriter bodyWriter,
+            @Nullable Call call) {
+        this.url = url;
+        this.method = method;
+        this.headers = Collections.unmodifiableMap(headers);
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.bodyWriter = bodyWriter;
+        this.call = call;
+    }
+
+    /** The full request URL, including query parameters. */
+    @NonNull
+    public URL getUrl() {
+        return url;
+    }
+
+    /** The HTTP method. */
+    @NonNull
+    public String getMethod() {
+        return method;
+    }
+
+    /** The request headers in insertion order. */
+    @NonNull
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /** The connection timeout in milliseconds, or a non-positive value if not set. */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /** The read timeout in milliseconds, or a non-positive value if not set. */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /** The writer of the request body, or null if the request has no body. */
+    @Nullable
+    public BodyWriter getBodyWriter() {
+        return bodyWriter;
+    }
+
+    /**
+     * The call the exchange belongs to, or null if it cannot be cancelled. Transports attach
+     * the connection of the exchange to the call so that cancelling it closes the connection.
+     */
+    @Nullable
+    public Call getCall() {
+        return call;
+    }
+
+    /**
+     * The listener of the steps of the exchange, which transports notify of the connection
+     * steps they perform.
+     */
+    @NonNull
+    public EventListener getEventListener() {
+        return call != null ? call.getEventListener() : EventListener.NONE;
+    }
+
+    /**
+     * Returns a copy of the request with the header added, or replaced if it is already set.
+     *
+     * @param name The header name.
+     * @param value The header value.
+     * @return The new request.
+     */
+    @NonNull
+    public RawRequest withHeader(@NonNull String name, @NonNull String value) {
+        final Map<String, String> newHeaders = new LinkedHashMap<>(headers.size() + 1);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!header.getKey().equalsIgnoreCase(name)) {
+                newHeaders.put(header.getKey(), header.getValue());
+            }
+        }
+        newHeaders.put(name, value);
+        return new RawRequest(url, method, newHeaders, connectTimeout, readTimeout, bodyWriter,
+                call);
+    }
+
+    /**
+     * Writer of the request body.
+     */
+    public interface BodyWriter {
+
+        /**
+         * Writes the request body to the provided output stream.
+         *
+         * @param os The output stream to write the body to.
+         * @throws IOException If an I/O error occurs.
+         */
+        @WorkerThread
+        void writeTo(@NonNull OutputStream os) throws IOException;
+
+        /**
+         * Returns the length of the body in bytes. A body of unknown length is streamed with
+         * the chunked transfer coding.
+         *
+         * @return The length, or -1 if it is unknown.
+         */
+        default long getContentLength() {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wire-level response of a {@link Transport}.
+ * <p>
+ * Closing the response gives the connection back to the pool: it is kept alive if the body
+ * was read to the end and the server allows it, otherwise it is closed.
+ */
+public interface RawResponse extends Closeable {
+
+    /**
+     * Returns the HTTP status code.
+     */
+    int getResponseCode() throws IOException;
+
+    /**
+     * Returns the last value of the header, or null if there is no such header.
+     *
+     * @param name The case-insensitive header name.
+     */
+    @Nullable
+    String getHeaderField(@NonNull String name);
+
+    /**
+     * Returns all response headers.
+     */
+    @NonNull
+    Map<String, List<String>> getHeaderFields();
+
+    /**
+     * Returns the raw, not decoded, response body. For error status codes this is the error
+     * body; responses without a body return an empty stream.
+     */
+    @NonNull
+    InputStream getBody() throws IOException;
+
+    /**
+     * Returns the value of the {@code Content-Type} header.
+     */
+    @Nullable
+    default String getContentType() {
+        return getHeaderField("Content-Type");
+    }
+
+    /**
+     * Returns the value of the {@code Content-Encoding} header.
+     */
+    @Nullable
+    default String getContentEncoding() {
+        return getHeaderField("Content-Encoding");
+    }
+
+    /**
+     * Returns the value of the {@code Content-Length} header, or -1 if it is unknown.
+     */
+    default long getContentLength() {
+        final String value = getHeaderField("Content-Length");
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Releases the connection of the response.
+     */
+    @Override
+    void close();
+}
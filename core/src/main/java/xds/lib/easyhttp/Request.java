@@ -1,14 +1,15 @@
 package xds.lib.easyhttp;
 
-import android.os.Handler;
-import android.os.Looper;
-
 import androidx.annotation.AnyThread;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
+import xds.lib.easyhttp.async.CallbackDispatcher;
 import xds.lib.easyhttp.async.ResponseListener;
 import xds.lib.easyhttp.exception.ParseException;
 import xds.lib.easyhttp.exception.RequestException;
@@ -33,28 +34,63 @@ public interface Request<T> {
     T execute() throws RequestException, ResponseException, ParseException;
 
     /**
-     * Asynchronously executes the request.
+     * Asynchronously executes the request, the result or error is delivered by the dispatcher
+     * of the {@link Platform}: on the main thread on Android.
      *
      * @param executor Executor for managing the background task.
      * @param listener Listener to handle the response or any errors.
+     * @return The handle to cancel the execution.
      */
+    @NonNull
     @AnyThread
-    default void executeAsync(@NonNull Executor executor, @NonNull ResponseListener<T> listener) {
-        executeAsync(executor, new Handler(Looper.getMainLooper()), listener);
+    default Call executeAsync(@NonNull Executor executor, @NonNull ResponseListener<T> listener) {
+        return executeAsync(executor, Platform.get().getCallbackDispatcher(), listener);
     }
 
     /**
      * Asynchronously executes the request.
      *
      * @param executor Executor for managing the background task.
-     * @param handler Handler to post the result or error back to the some thread.
+     * @param dispatcher Dispatcher of the result or error to some thread, or null to deliver
+     * them on the executor thread.
      * @param listener Listener to handle the response or any errors.
+     * @return The handle to cancel the execution.
      * @see java.util.concurrent.Executor
      */
+    @NonNull
     @AnyThread
-    void executeAsync(@NonNull Executor executor, Handler handler,
+    Call executeAsync(@NonNull Executor executor, @Nullable CallbackDispatcher dispatcher,
             @NonNull ResponseListener<T> listener);
 
+    /**
+     * Asynchronously executes the request and returns the future of the parsed response.
+     * <p>
+     * The future completes exceptionally with {@link RequestException},
+     * {@link ResponseException} or {@link ParseException} if the request fails; dependent
+     * stages receive them wrapped in a {@link java.util.concurrent.CompletionException}.
+     *
+     * @param executor Executor for managing the background task.
+     * @return The future of the parsed response.
+     */
+    @NonNull
+    @AnyThread
+    default CompletableFuture<T> executeFuture(@NonNull Executor executor) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(execute());
+                } catch (RequestException | ResponseException | ParseException
+                         | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new RequestException("Request was rejected", e));
+        }
+        return future;
+    }
+
     /**
      * The ID identifier of request.
      * Use optional if needed; If not impl will be return {@link Class#getName()}.
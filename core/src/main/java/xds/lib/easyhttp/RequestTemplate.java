@@ -0,0 +1,275 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable, precompiled part of a request which doesn't change between executions: method,
+ * base URL with encoded static query parameters and static headers. The URL is encoded and
+ * parsed once, when the template is built; an execution only encodes the parameters of
+ * {@link HttpRequest#getQueryParameters()} and adds the headers of
+ * {@link HttpRequest#getHeaders()}. Keep a template in a constant and return it from
+ * {@link HttpRequest#getRequestTemplate()}:
+ * <pre>{@code
+ * private static final RequestTemplate TEMPLATE =
+ *         new RequestTemplate.Builder("https://api.example.com/v1/poll")
+ *                 .header("Accept", "application/json")
+ *                 .queryParameter("client", "android")
+ *                 .build();
+ * }</pre>
+ */
+public final class RequestTemplate {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final String method;
+    private final String url;
+    private final URL parsedUrl;
+    private final boolean hasQuery;
+    private final Map<String, String> headers;
+    private volatile RequestHeaders requestHeaders;
+
+    private RequestTemplate(Builder builder) throws MalformedURLException {
+        this.method = builder.method;
+        final StringBuilder urlBuilder = new StringBuilder(builder.baseUrl);
+        boolean query = builder.baseUrl.indexOf('?') >= 0;
+        for (Map.Entry<String, String> parameter : builder.queryParameters.entrySet()) {
+            urlBuilder.append(query ? '&' : '?');
+            appendEncoded(urlBuilder, parameter.getKey());
+            urlBuilder.append('=');
+            appendEncoded(urlBuilder, parameter.getValue());
+            query = true;
+        }
+        this.url = urlBuilder.toString();
+        this.parsedUrl = new URL(url);
+        this.hasQuery = query;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(builder.headers));
+    }
+
+    /** The HTTP method, in upper case. */
+    @NonNull
+    @AnyThread
+    public String getMethod() {
+        return method;
+    }
+
+    /** The URL with the encoded static query parameters. */
+    @NonNull
+    @AnyThread
+    public String getUrl() {
+        return url;
+    }
+
+    /** The host of the URL. */
+    @NonNull
+    @AnyThread
+    public String getHost() {
+        return parsedUrl.getHost();
+    }
+
+    /** The static headers in insertion order. */
+    @NonNull
+    @AnyThread
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the full request URL: the URL of the template followed by the query parameters.
+     *
+     * @param queryParameters The parameters of the execution, or null.
+     * @return The URL.
+     */
+    @NonNull
+    String buildUrl(@Nullable Map<String, String> queryParameters) {
+        if (queryParameters == null || queryParameters.isEmpty()) {
+            return url;
+        }
+        final StringBuilder urlBuilder =
+                new StringBuilder(url.length() + 16 * queryParameters.size()).append(url);
+        boolean query = hasQuery;
+        for (Map.Entry<String, String> parameter : queryParameters.entrySet()) {
+            urlBuilder.append(query ? '&' : '?');
+            appendEncoded(urlBuilder, parameter.getKey());
+            urlBuilder.append('=');
+            appendEncoded(urlBuilder, parameter.getValue());
+            query = true;
+        }
+        return urlBuilder.toString();
+    }
+
+    /**
+     * Returns the parsed request URL, without parsing it again when it is the URL of the
+     * template.
+     *
+     * @param requestUrl The full request URL.
+     * @return The parsed URL.
+     * @throws MalformedURLException If the URL is malformed.
+     */
+    @NonNull
+    URL toUrl(@NonNull String requestUrl) throws MalformedURLException {
+        return requestUrl.equals(url) ? parsedUrl : new URL(requestUrl);
+    }
+
+    /**
+     * Returns the request headers: the {@code Accept-Encoding} of the client followed by the
+     * static headers, which replace it if they set it. The map is built once per value of
+     * {@code Accept-Encoding}.
+     *
+     * @param acceptEncoding The content codings accepted by the client.
+     * @return The unmodifiable headers.
+     */
+    @NonNull
+    Map<String, String> getRequestHeaders(@NonNull String acceptEncoding) {
+        RequestHeaders current = requestHeaders;
+        if (current == null || !current.acceptEncoding.equals(acceptEncoding)) {
+            final Map<String, String> merged = new LinkedHashMap<>(headers.size() + 1);
+            if (!containsHeader(headers, "Accept-Encoding")) {
+                merged.put("Accept-Encoding", acceptEncoding);
+            }
+            merged.putAll(headers);
+            current = new RequestHeaders(acceptEncoding, Collections.unmodifiableMap(merged));
+            requestHeaders = current;
+        }
+        return current.headers;
+    }
+
+    /**
+     * Appends the string encoded as {@code application/x-www-form-urlencoded}, the same way as
+     * {@link URLEncoder} in UTF-8. ASCII strings are encoded without allocating.
+     */
+    static void appendEncoded(StringBuilder builder, String value) {
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                // Multi-byte characters are rare in query strings, leave them to the JDK
+                try {
+                    builder.append(URLEncoder.encode(value, StandardCharsets.UTF_8.name()));
+                } catch (UnsupportedEncodingException e) {
+                    throw new AssertionError(e);
+                }
+                return;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || c == '.' || c == '-' || c == '*' || c == '_') {
+                builder.append(c);
+            } else if (c == ' ') {
+                builder.append('+');
+            } else {
+                builder.append('%').append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+            }
+        }
+    }
+
+    private static boolean containsHeader(Map<String, String> headers, String name) {
+        for (String header : headers.keySet()) {
+            if (header.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "RequestTemplate [" + method + " " + url + "]";
+    }
+
+    /**
+     * Request headers built for a value of {@code Accept-Encoding}.
+     */
+    private static final class RequestHeaders {
+        final String acceptEncoding;
+        final Map<String, String> headers;
+
+        RequestHeaders(String acceptEncoding, Map<String, String> headers) {
+            this.acceptEncoding = acceptEncoding;
+            this.headers = headers;
+        }
+    }
+
+    /**
+     * Builder of {@link RequestTemplate}.
+     */
+    public static final class Builder {
+
+        private final String baseUrl;
+        private String method = HttpRequest.METHOD_GET;
+        private final Map<String, String> headers = new LinkedHashMap<>();
+        private final Map<String, String> queryParameters = new LinkedHashMap<>();
+
+        /**
+         * Create builder.
+         *
+         * @param baseUrl the URL, which may already hold an encoded query.
+         */
+        public Builder(@NonNull String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        /**
+         * Set the HTTP method, GET by default.
+         *
+         * @param method the method, such as POST.
+         */
+        @NonNull
+        public Builder method(@NonNull String method) {
+            this.method = method.toUpperCase(Locale.US);
+            return this;
+        }
+
+        /**
+         * Set a static header, replacing the one of the same name in any case.
+         *
+         * @param name the header name.
+         * @param value the header value.
+         */
+        @NonNull
+        public Builder header(@NonNull String name, @NonNull String value) {
+            headers.keySet().removeIf(header -> header.equalsIgnoreCase(name));
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * Add a static query parameter, encoded once when the template is built.
+         *
+         * @param name the parameter name.
+         * @param value the parameter value.
+         */
+        @NonNull
+        public Builder queryParameter(@NonNull String name, @NonNull String value) {
+            queryParameters.put(name, value);
+            return this;
+        }
+
+        /**
+         * Create the template.
+         *
+         * @throws IllegalArgumentException if the URL is malformed.
+         */
+        @NonNull
+        public RequestTemplate build() {
+            try {
+                return new RequestTemplate(this);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Malformed URL: " + baseUrl, e);
+            }
+        }
+    }
+}
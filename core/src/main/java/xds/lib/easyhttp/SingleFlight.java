@@ -0,0 +1,294 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+import xds.lib.easyhttp.exception.ParseException;
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.exception.ResponseException;
+
+/**
+ * Coalesces identical concurrent calls: while a call of a key is in flight, other calls of the
+ * key wait for it and share its result or failure instead of running again.
+ * <p>
+ * A cancellation or deadline belongs to the call which ran: if it ends that way, the waiting
+ * calls don't share the failure, one of them runs the action instead. A waiting call which is
+ * cancelled or reaches its deadline stops waiting and fails with its own cancellation.
+ */
+final class SingleFlight {
+
+    private static final Object ABANDONED = new Object();
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong executedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Runs the action, or waits for the action of the key which is already in flight.
+     *
+     * @param key The key of identical calls.
+     * @param call The call of the caller, which is the one aborting the action if it runs it.
+     * @param action The call.
+     * @return The result of the call which ran.
+     * @throws RequestException If the call of the caller was cancelled while waiting, or if
+     * the call which ran failed with it.
+     */
+    @WorkerThread
+    @SuppressWarnings("unchecked")
+    <T> T execute(@NonNull String key, @NonNull Call call, @NonNull Action<T> action)
+            throws RequestException, ResponseException, ParseException {
+        final Flight flight = new Flight();
+        Flight inFlight;
+        while ((inFlight = flights.putIfAbsent(key, flight)) != null) {
+            final Object result = inFlight.await(call);
+            if (result != ABANDONED) {
+                coalescedCount.incrementAndGet();
+                return (T) result;
+            }
+            // The call which ran was cancelled, the next waiting one runs the action
+        }
+        executedCount.incrementAndGet();
+        try {
+            final T result = action.run();
+            flights.remove(key, flight);
+            flight.complete(result, null);
+            return result;
+        } catch (RequestException | ResponseException | ParseException | RuntimeException e) {
+            flights.remove(key, flight);
+            if (call.isCancelled()) {
+                flight.complete(ABANDONED, null);
+            } else {
+                flight.complete(null, e);
+            }
+            throw e;
+        } catch (Error e) {
+            flights.remove(key, flight);
+            flight.complete(null, new RequestException("Coalesced request failed", e));
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the action, or joins the action of the key which is already in flight, without
+     * blocking the current thread.
+     *
+     * @param key The key of identical calls.
+     * @param call The call of the caller, which is the one aborting the action if it runs it.
+     * @param action Starts the call, which passes its outcome to the completion exactly once.
+     * @param shared Receives the result or the failure of the call in flight if the caller
+     * joined one, or the cancellation of the caller; on the thread which completed the call in
+     * flight or which cancelled the caller.
+     * @throws RejectedExecutionException If the action can't be started.
+     */
+    @AnyThread
+    @SuppressWarnings("unchecked")
+    <T> void executeAsync(@NonNull String key, @NonNull Call call,
+            @NonNull AsyncAction<T> action, @NonNull BiConsumer<T, Exception> shared) {
+        final Flight flight = new Flight();
+        final Flight inFlight = flights.putIfAbsent(key, flight);
+        if (inFlight != null) {
+            inFlight.join(call, (result, error) -> {
+                if (result != ABANDONED) {
+                    if (error == null) {
+                        coalescedCount.incrementAndGet();
+                    }
+                    shared.accept((T) result, error);
+                    return;
+                }
+                // The call which ran was cancelled, the next waiting one runs the action
+                try {
+                    executeAsync(key, call, action, shared);
+                } catch (RejectedExecutionException e) {
+                    shared.accept(null, new RequestException("Request was rejected", e));
+                }
+            });
+            return;
+        }
+        executedCount.incrementAndGet();
+        try {
+            action.start((result, error) -> {
+                flights.remove(key, flight);
+                if (error == null) {
+                    flight.complete(result, null);
+                } else if (call.isCancelled()) {
+                    flight.complete(ABANDONED, null);
+                } else if (error instanceof RuntimeException) {
+                    flight.complete(null, new RequestException("Coalesced request failed", error));
+                } else {
+                    flight.complete(null, error);
+                }
+            });
+        } catch (RuntimeException e) {
+            flights.remove(key, flight);
+            flight.complete(ABANDONED, null);
+            throw e;
+        }
+    }
+
+    /** Number of calls which ran. */
+    long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    /** Number of calls which shared the result of a call in flight. */
+    long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    interface Action<T> {
+        T run() throws RequestException, ResponseException, ParseException;
+    }
+
+    interface AsyncAction<T> {
+        void start(@NonNull BiConsumer<T, Exception> completion);
+    }
+
+    private static final class Flight {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        // Guarded by lock
+        private final List<Waiter> waiters = new ArrayList<>();
+        private boolean done;
+        private Object result;
+        private Exception error;
+
+        void complete(Object result, Exception error) {
+            final Waiter[] toNotify;
+            lock.lock();
+            try {
+                this.done = true;
+                this.result = result;
+                this.error = error;
+                toNotify = waiters.toArray(new Waiter[0]);
+                waiters.clear();
+            } finally {
+                lock.unlock();
+            }
+            for (Waiter waiter : toNotify) {
+                waiter.deliver(result, error);
+            }
+        }
+
+        /**
+         * Passes the result of the flight to the listener once it completes, or the
+         * cancellation of the call if it is cancelled first. The result is {@link #ABANDONED}
+         * if the call of the flight was cancelled.
+         *
+         * @return The waiter, which no longer waits once the listener is called.
+         */
+        Waiter join(Call call, BiConsumer<Object, Exception> listener) {
+            final Waiter waiter = new Waiter(this, call, listener);
+            final boolean waiting;
+            final Object doneResult;
+            final Exception doneError;
+            lock.lock();
+            try {
+                waiting = !done;
+                if (waiting) {
+                    waiters.add(waiter);
+                }
+                doneResult = result;
+                doneError = error;
+            } finally {
+                lock.unlock();
+            }
+            if (!waiting) {
+                waiter.deliver(doneResult, doneError);
+                return waiter;
+            }
+            try {
+                call.attach(waiter);
+            } catch (InterruptedIOException e) {
+                // Already cancelled, the waiter was closed
+            }
+            return waiter;
+        }
+
+        /**
+         * Returns the result of the flight, or {@link #ABANDONED} if its call was cancelled.
+         */
+        Object await(Call call) throws RequestException, ResponseException, ParseException {
+            final CountDownLatch delivered = new CountDownLatch(1);
+            final Object[] outcome = new Object[2];
+            final Waiter waiter = join(call, (result, error) -> {
+                outcome[0] = result;
+                outcome[1] = error;
+                delivered.countDown();
+            });
+            try {
+                delivered.await();
+            } catch (InterruptedException e) {
+                if (call.isCancelled()) {
+                    throw call.newCancelledException(e);
+                }
+                remove(waiter);
+                call.detach(waiter);
+                Thread.currentThread().interrupt();
+                throw new RequestException("Interrupted while waiting for identical request", e);
+            }
+            final Object failure = outcome[1];
+            if (failure instanceof RequestException) {
+                throw (RequestException) failure;
+            } else if (failure instanceof ResponseException) {
+                throw (ResponseException) failure;
+            } else if (failure instanceof ParseException) {
+                throw (ParseException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            return outcome[0];
+        }
+
+        private void remove(Waiter waiter) {
+            lock.lock();
+            try {
+                waiters.remove(waiter);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Call waiting for a flight, closed by the call when it is cancelled.
+     */
+    private static final class Waiter implements Closeable {
+
+        private final Flight flight;
+        private final Call call;
+        private final BiConsumer<Object, Exception> listener;
+        private final AtomicBoolean delivered = new AtomicBoolean();
+
+        Waiter(Flight flight, Call call, BiConsumer<Object, Exception> listener) {
+            this.flight = flight;
+            this.call = call;
+            this.listener = listener;
+        }
+
+        void deliver(Object result, Exception error) {
+            if (delivered.compareAndSet(false, true)) {
+                call.detach(this);
+                listener.accept(result, error);
+            }
+        }
+
+        @Override
+        public void close() {
+            flight.remove(this);
+            deliver(null, call.newCancelledException(null));
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+/**
+ * Request built from a {@link RequestTemplate}: the URL and the method are the ones of the
+ * template, so subclasses only provide the template and what changes between executions,
+ * such as {@link #getQueryParameters()}.
+ *
+ * @param <T> The type of the parsed response.
+ */
+public abstract class TemplateRequest<T> extends HttpRequest<T> {
+
+    /**
+     * Returns the precompiled method, URL and static headers of the request. Return the same
+     * template for every execution, such as a constant.
+     *
+     * @return The template.
+     */
+    @NonNull
+    @AnyThread
+    @Override
+    protected abstract RequestTemplate getRequestTemplate();
+
+    /**
+     * Returns the URL of the {@link #getRequestTemplate()}.
+     *
+     * @return The URL as a String.
+     */
+    @NonNull
+    @AnyThread
+    @Override
+    protected String getUrl() {
+        return getRequestTemplate().getUrl();
+    }
+}
@@ -0,0 +1,85 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Sizes of the bodies of the last attempt of a request, as sent and received on the wire and
+ * before encoding or after decoding, showing what the content codings saved.
+ *
+ * @see HttpRequest#getTransferStats()
+ */
+public final class TransferStats {
+
+    private volatile long requestBodyBytes;
+    private volatile long requestWireBytes;
+    private volatile String requestEncoding;
+    private volatile long responseBodyBytes;
+    private volatile long responseWireBytes;
+    private volatile String responseEncoding;
+
+    TransferStats() {}
+
+    void onRequestBody(long bodyBytes, long wireBytes, @Nullable String encoding) {
+        requestBodyBytes = bodyBytes;
+        requestWireBytes = wireBytes;
+        requestEncoding = encoding;
+    }
+
+    void onResponseBody(long bodyBytes, long wireBytes, @Nullable String encoding) {
+        responseBodyBytes = bodyBytes;
+        responseWireBytes = wireBytes;
+        responseEncoding = encoding;
+    }
+
+    /** The number of bytes of the request body before encoding. */
+    public long getRequestBodyBytes() {
+        return requestBodyBytes;
+    }
+
+    /** The number of bytes of the request body sent, after encoding. */
+    public long getRequestWireBytes() {
+        return requestWireBytes;
+    }
+
+    /** The content coding of the request body, or null if it was sent as is. */
+    @Nullable
+    public String getRequestEncoding() {
+        return requestEncoding;
+    }
+
+    /** The number of bytes of the response body read after decoding. */
+    public long getResponseBodyBytes() {
+        return responseBodyBytes;
+    }
+
+    /** The number of bytes of the response body received, before decoding. */
+    public long getResponseWireBytes() {
+        return responseWireBytes;
+    }
+
+    /** The content coding of the response body, or null if it was received as is. */
+    @Nullable
+    public String getResponseEncoding() {
+        return responseEncoding;
+    }
+
+    /**
+     * Returns the number of bytes the codings saved on the wire, in both directions.
+     *
+     * @return The saved bytes, negative if encoding inflated the bodies.
+     */
+    public long getSavedBytes() {
+        return requestBodyBytes - requestWireBytes + responseBodyBytes - responseWireBytes;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "request %d/%d bytes (%s), response %d/%d bytes (%s)",
+                requestWireBytes, requestBodyBytes, requestEncoding,
+                responseWireBytes, responseBodyBytes, responseEncoding);
+    }
+}
@@ -0,0 +1,90 @@
+package xds.lib.easyhttp;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The engine which sends a single HTTP exchange over the wire.
+ * <p>
+ * {@link HttpRequest} builds the {@link RawRequest}, handles redirects, retries and parsing,
+ * and runs every exchange through the transport of its {@link HttpClient}. Implementations must
+ * be thread safe.
+ *
+ * @see xds.lib.easyhttp.transport.UrlConnectionTransport
+ * @see xds.lib.easyhttp.transport.NioTransport
+ */
+public interface Transport {
+
+    /**
+     * Sends the request and waits for the response headers.
+     * <p>
+     * The connection is leased from the pool and given back when the returned response is
+     * closed, so the caller must always close it.
+     *
+     * @param request The request to send.
+     * @param connectionPool The pool of keep-alive connections of the client.
+     * @return The response with the body not yet read.
+     * @throws IOException If the exchange failed.
+     */
+    @NonNull
+    @WorkerThread
+    RawResponse execute(@NonNull RawRequest request, @NonNull ConnectionPool connectionPool)
+            throws IOException;
+
+    /**
+     * Sends requests to the same origin, pipelining them on up to {@code maxConnections}
+     * connections if the transport supports it, and hands the responses to the callback in the
+     * order of the requests on the calling thread.
+     * <p>
+     * The default implementation executes the requests one by one.
+     *
+     * @param requests The requests to send.
+     * @param connectionPool The pool of keep-alive connections of the client.
+     * @param maxConnections The maximum number of connections to spread the requests over.
+     * @param callback The receiver of the responses.
+     */
+    @WorkerThread
+    default void executePipelined(@NonNull List<RawRequest> requests,
+            @NonNull ConnectionPool connectionPool, int maxConnections,
+            @NonNull PipelineCallback callback) {
+        for (int i = 0; i < requests.size(); i++) {
+            final RawResponse response;
+            try {
+                response = execute(requests.get(i), connectionPool);
+            } catch (IOException e) {
+                callback.onFailure(i, e);
+                continue;
+            }
+            try (RawResponse received = response) {
+                callback.onResponse(i, received);
+            }
+        }
+    }
+
+    /**
+     * Receiver of pipelined responses.
+     */
+    interface PipelineCallback {
+
+        /**
+         * The response of the request was received. The response is closed after the call.
+         *
+         * @param index The index of the request.
+         * @param response The response.
+         */
+        @WorkerThread
+        void onResponse(int index, @NonNull RawResponse response);
+
+        /**
+         * The exchange of the request failed before the response was received.
+         *
+         * @param index The index of the request.
+         * @param e The failure.
+         */
+        @WorkerThread
+        void onFailure(int index, @NonNull IOException e);
+    }
+}
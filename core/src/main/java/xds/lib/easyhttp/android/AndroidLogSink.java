@@ -0,0 +1,26 @@
+package xds.lib.easyhttp.android;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import xds.lib.easyhttp.util.LogSink;
+
+/**
+ * Sink writing the log of requests to logcat with {@link Log}.
+ */
+public final class AndroidLogSink implements LogSink {
+
+    /** The shared sink. */
+    public static final AndroidLogSink INSTANCE = new AndroidLogSink();
+
+    private AndroidLogSink() {}
+
+    @Override
+    public void log(int priority, @NonNull String tag, @NonNull String message,
+            @Nullable Throwable throwable) {
+        Log.println(priority, tag,
+                throwable == null ? message : message + '\n' + Log.getStackTraceString(throwable));
+    }
+}
@@ -0,0 +1,46 @@
+package xds.lib.easyhttp.android;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import xds.lib.easyhttp.BuildConfig;
+import xds.lib.easyhttp.Platform;
+import xds.lib.easyhttp.async.CallbackDispatcher;
+import xds.lib.easyhttp.util.Clock;
+import xds.lib.easyhttp.util.LogSink;
+
+/**
+ * Android adapter of the core: callbacks run on the main thread, time is
+ * {@link SystemClock#elapsedRealtime()}, which keeps counting in deep sleep, and the log goes
+ * to logcat. {@link Platform#get()} returns it on Android.
+ */
+public final class AndroidPlatform extends Platform {
+
+    private static final Clock ELAPSED_REALTIME = SystemClock::elapsedRealtime;
+
+    public AndroidPlatform() {}
+
+    @NonNull
+    @Override
+    public Clock getClock() {
+        return ELAPSED_REALTIME;
+    }
+
+    @NonNull
+    @Override
+    public CallbackDispatcher getCallbackDispatcher() {
+        return HandlerDispatcher.mainThread();
+    }
+
+    @NonNull
+    @Override
+    public LogSink getLogSink() {
+        return AndroidLogSink.INSTANCE;
+    }
+
+    @Override
+    public boolean isDebugBuild() {
+        return BuildConfig.DEBUG;
+    }
+}
@@ -0,0 +1,55 @@
+package xds.lib.easyhttp.android;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import xds.lib.easyhttp.async.CallbackDispatcher;
+
+/**
+ * Dispatcher posting callbacks to a {@link Handler}.
+ */
+public final class HandlerDispatcher implements CallbackDispatcher {
+
+    private final Handler handler;
+
+    /**
+     * Create dispatcher.
+     *
+     * @param handler the handler to post the callbacks to.
+     */
+    public HandlerDispatcher(@NonNull Handler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Returns the dispatcher of the main thread.
+     *
+     * @return The dispatcher.
+     */
+    @NonNull
+    @AnyThread
+    public static HandlerDispatcher mainThread() {
+        return MainHolder.INSTANCE;
+    }
+
+    /**
+     * Returns the handler the callbacks are posted to.
+     */
+    @NonNull
+    public Handler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public void dispatch(@NonNull Runnable callback) {
+        handler.post(callback);
+    }
+
+    private static final class MainHolder {
+        static final HandlerDispatcher INSTANCE =
+                new HandlerDispatcher(new Handler(Looper.getMainLooper()));
+    }
+}
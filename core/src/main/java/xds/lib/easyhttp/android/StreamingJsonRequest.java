@@ -0,0 +1,275 @@
+package xds.lib.easyhttp.android;
+
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import xds.lib.easyhttp.HttpRequest;
+import xds.lib.easyhttp.cache.ObjectCache;
+import xds.lib.easyhttp.exception.ParseException;
+
+/**
+ * Request parsing the elements of a JSON array one at a time while the response is received,
+ * with {@link JsonReader}. Only one element is held at once, so the memory doesn't depend on
+ * the number of elements, and they are processed while the rest is still downloading.
+ * <p>
+ * Elements go to {@link #onElement(Object)} on the thread executing the request, or to the
+ * consumer of {@link #iterate()}. In both cases a slow consumer slows down the reading of the
+ * response instead of buffering it. The result of the request is the number of elements.
+ * Every call of {@link #iterate()} executes the request again for its own iterator, so one
+ * request object may be iterated several times, also concurrently.
+ * <p>
+ * Elements are never delivered twice: a failure after the first element is not retried and
+ * fails with a {@link ParseException}.
+ *
+ * @param <E> The type of the elements.
+ */
+public abstract class StreamingJsonRequest<E> extends HttpRequest<Integer> {
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    /** The iterator of the execution running on the thread, if it runs for {@link #iterate()}. */
+    private static final ThreadLocal<ElementIterator<?>> ITERATOR = new ThreadLocal<>();
+
+    /**
+     * Positions the reader at the start of the array of elements. The default implementation
+     * expects a top-level array; override it to reach an array inside an object, such as
+     * {@code {"items": [...]}}.
+     *
+     * @param reader The reader at the start of the response.
+     * @throws IOException If the JSON is malformed or unexpected.
+     */
+    @WorkerThread
+    protected void beginArray(@NonNull JsonReader reader) throws IOException {
+        reader.beginArray();
+    }
+
+    /**
+     * Parses one element of the array, consuming all of its tokens.
+     *
+     * @param reader The reader at the start of the element.
+     * @return The element.
+     * @throws IOException If the JSON is malformed or unexpected.
+     * @throws ParseException If the element is invalid.
+     */
+    @NonNull
+    @WorkerThread
+    protected abstract E parseElement(@NonNull JsonReader reader)
+            throws IOException, ParseException;
+
+    /**
+     * Called for each element when the request is not consumed through {@link #iterate()}.
+     * The next element is read once this method returns.
+     *
+     * @param element The parsed element.
+     * @throws ParseException To stop parsing and fail the request.
+     */
+    @WorkerThread
+    protected void onElement(@NonNull E element) throws ParseException {
+        // Default implementation does nothing
+    }
+
+    /**
+     * Returns the number of parsed elements {@link #iterate()} buffers ahead of its consumer.
+     *
+     * @return The capacity of the buffer.
+     */
+    @AnyThread
+    protected int getQueueCapacity() {
+        return DEFAULT_QUEUE_CAPACITY;
+    }
+
+    /**
+     * Executes the request on the executor of the client and returns the iterator of its
+     * elements. Close the iterator to cancel the request before the end of the array.
+     *
+     * @return The iterator of the elements.
+     */
+    @NonNull
+    @AnyThread
+    public final ElementIterator<E> iterate() {
+        final ElementIterator<E> elements = new ElementIterator<>(this, getQueueCapacity());
+        final Executor executor = getHttpClient().getExecutor();
+        // Each execution, and each of its retries, parses for its own iterator
+        elements.future = executeFuture(task -> executor.execute(() -> {
+            ITERATOR.set(elements);
+            try {
+                task.run();
+            } finally {
+                ITERATOR.remove();
+            }
+        }));
+        elements.future.whenComplete((count, error) -> elements.finish(error));
+        return elements;
+    }
+
+    /**
+     * Every execution delivers the elements to its own consumer, the client never coalesces
+     * them.
+     */
+    @Override
+    protected final boolean isCoalescable() {
+        return false;
+    }
+
+    /**
+     * Elements are delivered once, they are never cached.
+     */
+    @Nullable
+    @Override
+    protected final ObjectCache getObjectCache() {
+        return null;
+    }
+
+    @Override
+    protected final Integer parseResponse(@NonNull InputStream inputStream, String contentType)
+            throws ParseException, IOException {
+        final ElementIterator<?> current = ITERATOR.get();
+        final ElementIterator<?> elements = current != null && current.request == this ?
+                current : null;
+        final JsonReader reader =
+                new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        int count = 0;
+        try {
+            beginArray(reader);
+            while (reader.hasNext()) {
+                final E element = parseElement(reader);
+                if (elements != null) {
+                    elements.put(element);
+                } else {
+                    onElement(element);
+                }
+                count++;
+            }
+            return count;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // Thrown by the reader for malformed JSON and unexpected tokens
+            throw new ParseException(e);
+        } catch (IOException e) {
+            if (count == 0 && !(e instanceof InterruptedIOException)) {
+                throw e;
+            }
+            throw new ParseException(String.format("Response failed after %d elements", count),
+                    e);
+        }
+    }
+
+    /**
+     * Blocking iterator of the elements of {@link #iterate()}.
+     * <p>
+     * {@link #hasNext()} waits for the next element. If the request fails, it throws a
+     * {@link CompletionException} with the failure of the request as the cause.
+     *
+     * @param <E> The type of the elements.
+     */
+    public static final class ElementIterator<E> implements Iterator<E>, Closeable {
+
+        private static final Object END = new Object();
+
+        private final StreamingJsonRequest<E> request;
+        private final BlockingQueue<Object> queue;
+        private CompletableFuture<Integer> future;
+        private volatile boolean closed;
+        private Object next;
+        private Throwable failure;
+
+        ElementIterator(StreamingJsonRequest<E> request, int capacity) {
+            this.request = request;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        }
+
+        @WorkerThread
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                if (closed) {
+                    return false;
+                }
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new CompletionException(e);
+                }
+            }
+            if (next == END) {
+                if (failure != null) {
+                    throw new CompletionException(failure);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        @WorkerThread
+        @Override
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final E element = (E) next;
+            next = null;
+            return element;
+        }
+
+        /**
+         * Cancels the request if it is still receiving elements.
+         */
+        @AnyThread
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            future.cancel(true);
+            // Unblocks the request if it waits for free space
+            queue.clear();
+        }
+
+        void put(Object element) throws IOException {
+            if (closed) {
+                throw new InterruptedIOException("Iteration closed");
+            }
+            try {
+                queue.put(element);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted delivering elements");
+            }
+        }
+
+        void finish(@Nullable Throwable error) {
+            if (closed) {
+                return;
+            }
+            failure = error instanceof CompletionException && error.getCause() != null ?
+                    error.getCause() : error;
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
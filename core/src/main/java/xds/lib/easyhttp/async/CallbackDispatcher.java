@@ -0,0 +1,22 @@
+package xds.lib.easyhttp.async;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+/**
+ * Runs the callbacks of asynchronous requests on the thread they are expected on, such as the
+ * main thread of an Android application.
+ */
+public interface CallbackDispatcher {
+
+    /** Dispatcher running callbacks at once, on the thread which completed the request. */
+    CallbackDispatcher DIRECT = Runnable::run;
+
+    /**
+     * Runs the callback, now or later, on the thread of the dispatcher.
+     *
+     * @param callback the callback.
+     */
+    @AnyThread
+    void dispatch(@NonNull Runnable callback);
+}
@@ -0,0 +1,224 @@
+package xds.lib.easyhttp.body;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import xds.lib.easyhttp.util.PooledOutputStream;
+
+/**
+ * Body of the {@code multipart/form-data} media type (RFC 7578), streaming each part in turn.
+ * Its length is known when the length of every part is known.
+ */
+public final class MultipartBody extends RequestBody {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] DASHES = {'-', '-'};
+
+    private final String boundary;
+    private final List<Part> parts;
+
+    private MultipartBody(Builder builder) {
+        this.boundary = builder.boundary;
+        this.parts = Collections.unmodifiableList(new ArrayList<>(builder.parts));
+    }
+
+    /** The boundary delimiting the parts. */
+    @NonNull
+    public String getBoundary() {
+        return boundary;
+    }
+
+    @NonNull
+    @Override
+    public String getContentType() {
+        return "multipart/form-data; boundary=" + boundary;
+    }
+
+    @Override
+    public long getContentLength() {
+        final byte[] boundaryBytes = ascii(boundary);
+        long length = 0;
+        for (Part part : parts) {
+            final long partLength = part.body.getContentLength();
+            if (partLength < 0) {
+                return -1;
+            }
+            length += DASHES.length + boundaryBytes.length + CRLF.length + part.head.length
+                    + partLength + CRLF.length;
+        }
+        return length + DASHES.length + boundaryBytes.length + DASHES.length + CRLF.length;
+    }
+
+    @Override
+    public void writeTo(@NonNull OutputStream os) throws IOException {
+        final byte[] boundaryBytes = ascii(boundary);
+        final PooledOutputStream out = new PooledOutputStream(os);
+        try {
+            for (Part part : parts) {
+                out.write(DASHES);
+                out.write(boundaryBytes);
+                out.write(CRLF);
+                out.write(part.head);
+                part.body.writeTo(out);
+                out.write(CRLF);
+            }
+            out.write(DASHES);
+            out.write(boundaryBytes);
+            out.write(DASHES);
+            out.write(CRLF);
+        } finally {
+            out.release();
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Quotes the name of a field or a file, escaping the characters which would end the
+     * parameter or the header.
+     */
+    private static String quote(String value) {
+        final StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("%22");
+                    break;
+                case '\r':
+                    sb.append("%0D");
+                    break;
+                case '\n':
+                    sb.append("%0A");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static final class Part {
+        final byte[] head;
+        final RequestBody body;
+
+        Part(Map<String, String> headers, RequestBody body) {
+            final StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            final String contentType = body.getContentType();
+            if (contentType != null && !containsIgnoreCase(headers, "Content-Type")) {
+                sb.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            final String contentEncoding = body.getContentEncoding();
+            if (contentEncoding != null && !containsIgnoreCase(headers, "Content-Encoding")) {
+                sb.append("Content-Encoding: ").append(contentEncoding).append("\r\n");
+            }
+            this.head = sb.append("\r\n").toString().getBytes(StandardCharsets.UTF_8);
+            this.body = body;
+        }
+
+        private static boolean containsIgnoreCase(Map<String, String> headers, String name) {
+            for (String key : headers.keySet()) {
+                if (key.equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Builder of {@link MultipartBody}.
+     */
+    public static final class Builder {
+        private final List<Part> parts = new ArrayList<>();
+        private String boundary = UUID.randomUUID().toString();
+
+        /**
+         * Sets the boundary delimiting the parts, random by default.
+         *
+         * @param boundary The boundary, which must not occur in any part.
+         * @return This builder.
+         */
+        @NonNull
+        public Builder boundary(@NonNull String boundary) {
+            if (boundary.isEmpty() || boundary.length() > 70) {
+                throw new IllegalArgumentException("Boundary must be 1 to 70 characters long");
+            }
+            this.boundary = boundary;
+            return this;
+        }
+
+        /**
+         * Adds a form field.
+         *
+         * @param name The name of the field.
+         * @param value The value of the field, encoded in UTF-8.
+         * @return This builder.
+         */
+        @NonNull
+        public Builder addFormField(@NonNull String name, @NonNull String value) {
+            return addFormData(name, null, RequestBody.create(value, null));
+        }
+
+        /**
+         * Adds a form field with the content of the body, such as a file.
+         *
+         * @param name The name of the field.
+         * @param filename The name of the file, or null.
+         * @param body The content of the field.
+         * @return This builder.
+         */
+        @NonNull
+        public Builder addFormData(@NonNull String name, @Nullable String filename,
+                @NonNull RequestBody body) {
+            String disposition = "form-data; name=" + quote(name);
+            if (filename != null) {
+                disposition += "; filename=" + quote(filename);
+            }
+            final Map<String, String> headers = new LinkedHashMap<>();
+            headers.put("Content-Disposition", disposition);
+            return addPart(headers, body);
+        }
+
+        /**
+         * Adds a part with its own headers.
+         *
+         * @param headers The headers of the part, such as {@code Content-Disposition}.
+         * @param body The content of the part.
+         * @return This builder.
+         */
+        @NonNull
+        public Builder addPart(@NonNull Map<String, String> headers, @NonNull RequestBody body) {
+            parts.add(new Part(headers, body));
+            return this;
+        }
+
+        /**
+         * Builds the body.
+         *
+         * @return The body.
+         */
+        @NonNull
+        public MultipartBody build() {
+            if (parts.isEmpty()) {
+                throw new IllegalStateException("Multipart body requires at least one part");
+            }
+            return new MultipartBody(this);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package xds.lib.easyhttp.body;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+import xds.lib.easyhttp.RawRequest;
+import xds.lib.easyhttp.util.BufferPool;
+import xds.lib.easyhttp.util.DeflatingOutputStream;
+import xds.lib.easyhttp.util.PooledOutputStream;
+
+/**
+ * Body of a POST or PUT request, returned by
+ * {@link xds.lib.easyhttp.HttpRequest#getRequestBody()}.
+ * <p>
+ * The body is streamed to the connection with bounded memory: a body of known length is sent
+ * with its {@code Content-Length}, a body of unknown length with the chunked transfer coding.
+ */
+public abstract class RequestBody implements RawRequest.BodyWriter {
+
+    /**
+     * Returns the media type of the body, sent as {@code Content-Type} unless the request
+     * returns one.
+     *
+     * @return The media type, or null if it is not known.
+     */
+    @Nullable
+    public String getContentType() {
+        return null;
+    }
+
+    /**
+     * Returns the content coding applied to the body, sent as {@code Content-Encoding}.
+     *
+     * @return The coding, or null if the body is not encoded.
+     */
+    @Nullable
+    public String getContentEncoding() {
+        return null;
+    }
+
+    /**
+     * Create body of the bytes.
+     *
+     * @param bytes The content; the array is not copied.
+     * @param contentType The media type, or null.
+     * @return The body.
+     */
+    @NonNull
+    public static RequestBody create(@NonNull byte[] bytes, @Nullable String contentType) {
+        return new RequestBody() {
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public long getContentLength() {
+                return bytes.length;
+            }
+
+            @Override
+            public void writeTo(@NonNull OutputStream os) throws IOException {
+                os.write(bytes);
+            }
+        };
+    }
+
+    /**
+     * Create body of the text encoded in UTF-8.
+     *
+     * @param text The content.
+     * @param contentType The media type, or null.
+     * @return The body.
+     */
+    @NonNull
+    public static RequestBody create(@NonNull String text, @Nullable String contentType) {
+        return create(text.getBytes(StandardCharsets.UTF_8), contentType);
+    }
+
+    /**
+     * Create body streamed from the file. The length of the file is read when the request is
+     * sent.
+     *
+     * @param file The file to upload.
+     * @param contentType The media type, or null.
+     * @return The body.
+     */
+    @NonNull
+    public static RequestBody create(@NonNull File file, @Nullable String contentType) {
+        return new RequestBody() {
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public long getContentLength() {
+                return file.length();
+            }
+
+            @Override
+            public void writeTo(@NonNull OutputStream os) throws IOException {
+                try (InputStream in = new FileInputStream(file)) {
+                    copy(in, os);
+                }
+            }
+        };
+    }
+
+    /**
+     * Create body streamed from the channel. It can be written once only, so return a new body
+     * from {@link xds.lib.easyhttp.HttpRequest#getRequestBody()} for each attempt.
+     *
+     * @param channel The channel to read the body from; it is closed once the body is written.
+     * @param contentLength The number of bytes the channel provides, or -1 if unknown.
+     * @param contentType The media type, or null.
+     * @return The body.
+     */
+    @NonNull
+    public static RequestBody create(@NonNull ReadableByteChannel channel, long contentLength,
+            @Nullable String contentType) {
+        return new RequestBody() {
+            private boolean written;
+
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public long getContentLength() {
+                return contentLength;
+            }
+
+            @Override
+            public void writeTo(@NonNull OutputStream os) throws IOException {
+                if (written) {
+                    throw new IOException("Body of a channel can't be written twice");
+                }
+                written = true;
+                final byte[] bytes = BufferPool.acquireBytes();
+                try (ReadableByteChannel in = channel) {
+                    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    while (in.read(buffer) >= 0) {
+                        os.write(bytes, 0, buffer.position());
+                        buffer.clear();
+                    }
+                } finally {
+                    BufferPool.release(bytes);
+                }
+            }
+        };
+    }
+
+    /**
+     * Create body written by the generator, through a pooled buffer.
+     *
+     * @param generator The writer of the content, called for each attempt of the request.
+     * @param contentLength The number of bytes the generator writes, or -1 if unknown.
+     * @param contentType The media type, or null.
+     * @return The body.
+     */
+    @NonNull
+    public static RequestBody create(@NonNull Generator generator, long contentLength,
+            @Nullable String contentType) {
+        return new RequestBody() {
+            @Override
+            public String getContentType() {
+                return contentType;
+            }
+
+            @Override
+            public long getContentLength() {
+                return contentLength;
+            }
+
+            @Override
+            public void writeTo(@NonNull OutputStream os) throws IOException {
+                final PooledOutputStream buffered = new PooledOutputStream(os);
+                try {
+                    generator.generate(buffered);
+                } finally {
+                    buffered.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * Create body compressed with the {@code gzip} coding. Its length is unknown, so it is sent
+     * chunked; servers must accept {@code Content-Encoding: gzip} requests.
+     *
+     * @param body The uncompressed body.
+     * @return The compressed body.
+     */
+    @NonNull
+    public static RequestBody gzip(@NonNull RequestBody body) {
+        return new RequestBody() {
+            @Override
+            public String getContentType() {
+                return body.getContentType();
+            }
+
+            @Override
+            public String getContentEncoding() {
+                return "gzip";
+            }
+
+            @Override
+            public void writeTo(@NonNull OutputStream os) throws IOException {
+                final DeflatingOutputStream gzip =
+                        DeflatingOutputStream.gzip(os, Deflater.DEFAULT_COMPRESSION);
+                try {
+                    body.writeTo(gzip);
+                } finally {
+                    gzip.finish();
+                }
+            }
+        };
+    }
+
+    /**
+     * Copies the stream with a pooled buffer.
+     */
+    static void copy(InputStream in, OutputStream os) throws IOException {
+        final byte[] bytes = BufferPool.acquireBytes();
+        try {
+            int read;
+            while ((read = in.read(bytes)) >= 0) {
+                os.write(bytes, 0, read);
+            }
+        } finally {
+            BufferPool.release(bytes);
+        }
+    }
+
+    /**
+     * Writer of a generated body.
+     */
+    public interface Generator {
+
+        /**
+         * Writes the content of the body.
+         *
+         * @param os The stream to write the body to; don't close it.
+         * @throws IOException If an I/O error occurs.
+         */
+        @WorkerThread
+        void generate(@NonNull OutputStream os) throws IOException;
+    }
+}
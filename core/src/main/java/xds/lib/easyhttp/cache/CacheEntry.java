@@ -0,0 +1,199 @@
+package xds.lib.easyhttp.cache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import xds.lib.easyhttp.RawRequest;
+
+/**
+ * Metadata of a cached response: the request it answers and the response headers.
+ */
+final class CacheEntry {
+
+    private static final int FORMAT_VERSION = 1;
+
+    final String url;
+    final int code;
+    /** Values of the request headers named by {@code Vary}; missing headers map to "". */
+    final Map<String, String> varyHeaders;
+    final Map<String, List<String>> headers;
+    /** Wall-clock time the request was sent. */
+    final long sentMillis;
+    /** Wall-clock time the response headers were received. */
+    final long receivedMillis;
+
+    CacheEntry(String url, int code, Map<String, String> varyHeaders,
+            Map<String, List<String>> headers, long sentMillis, long receivedMillis) {
+        this.url = url;
+        this.code = code;
+        this.varyHeaders = varyHeaders;
+        this.headers = headers;
+        this.sentMillis = sentMillis;
+        this.receivedMillis = receivedMillis;
+    }
+
+    /**
+     * Create the entry of a network response.
+     */
+    static CacheEntry of(RawRequest request, int code, Map<String, List<String>> responseHeaders,
+            long sentMillis, long receivedMillis) {
+        final Map<String, List<String>> headers = copyHeaders(responseHeaders);
+        final Map<String, String> varyHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (String name : varyFields(headers)) {
+            varyHeaders.put(name, requestHeader(request, name));
+        }
+        return new CacheEntry(request.getUrl().toString(), code, varyHeaders, headers,
+                sentMillis, receivedMillis);
+    }
+
+    /**
+     * Returns the last value of the header, or null if there is no such header.
+     */
+    @Nullable
+    String header(@NonNull String name) {
+        final List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
+
+    /**
+     * Returns {@code true} if the entry answers the request.
+     */
+    boolean matches(RawRequest request) {
+        if (!url.equals(request.getUrl().toString())) {
+            return false;
+        }
+        for (Map.Entry<String, String> vary : varyHeaders.entrySet()) {
+            if (!vary.getValue().equals(requestHeader(request, vary.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the entry revalidated by a {@code 304 Not Modified} response: the stored headers
+     * are updated with the new ones, except for the headers which describe the stored body.
+     */
+    CacheEntry revalidated(Map<String, List<String>> notModifiedHeaders, long sentMillis,
+            long receivedMillis) {
+        final Map<String, List<String>> merged = copyHeaders(headers);
+        for (Map.Entry<String, List<String>> header : notModifiedHeaders.entrySet()) {
+            final String name = header.getKey();
+            if (name != null && !isBodyHeader(name)) {
+                merged.put(name, Collections.unmodifiableList(new ArrayList<>(header.getValue())));
+            }
+        }
+        return new CacheEntry(url, code, varyHeaders, merged, sentMillis, receivedMillis);
+    }
+
+    static CacheEntry read(InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported cache entry format");
+        }
+        final String url = data.readUTF();
+        final int code = data.readInt();
+        final Map<String, String> varyHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = data.readInt(); i > 0; i--) {
+            varyHeaders.put(data.readUTF(), data.readUTF());
+        }
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = data.readInt(); i > 0; i--) {
+            final String name = data.readUTF();
+            final int count = data.readInt();
+            final List<String> values = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                values.add(data.readUTF());
+            }
+            headers.put(name, Collections.unmodifiableList(values));
+        }
+        final long sentMillis = data.readLong();
+        final long receivedMillis = data.readLong();
+        return new CacheEntry(url, code, varyHeaders, headers, sentMillis, receivedMillis);
+    }
+
+    void write(OutputStream out) throws IOException {
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(FORMAT_VERSION);
+        data.writeUTF(url);
+        data.writeInt(code);
+        data.writeInt(varyHeaders.size());
+        for (Map.Entry<String, String> vary : varyHeaders.entrySet()) {
+            data.writeUTF(vary.getKey());
+            data.writeUTF(vary.getValue());
+        }
+        data.writeInt(headers.size());
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            data.writeUTF(header.getKey());
+            data.writeInt(header.getValue().size());
+            for (String value : header.getValue()) {
+                data.writeUTF(value);
+            }
+        }
+        data.writeLong(sentMillis);
+        data.writeLong(receivedMillis);
+        data.flush();
+    }
+
+    /**
+     * Returns the names listed by the {@code Vary} headers; "*" if any request may differ.
+     */
+    static List<String> varyFields(Map<String, List<String>> headers) {
+        final List<String> values = headers.get("Vary");
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        final List<String> fields = new ArrayList<>();
+        for (String value : values) {
+            for (String field : value.split(",")) {
+                final String name = field.trim();
+                if (!name.isEmpty()) {
+                    fields.add(name);
+                }
+            }
+        }
+        return fields;
+    }
+
+    private static String requestHeader(RawRequest request, String name) {
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return "";
+    }
+
+    private static Map<String, List<String>> copyHeaders(Map<String, List<String>> source) {
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : source.entrySet()) {
+            // HttpURLConnection reports the status line under the null key
+            if (header.getKey() != null && header.getValue() != null) {
+                headers.put(header.getKey(),
+                        Collections.unmodifiableList(new ArrayList<>(header.getValue())));
+            }
+        }
+        return headers;
+    }
+
+    private static boolean isBodyHeader(String name) {
+        return name.equalsIgnoreCase("Content-Length")
+                || name.equalsIgnoreCase("Content-Encoding")
+                || name.equalsIgnoreCase("Content-Type")
+                || name.equalsIgnoreCase("Content-Range")
+                || name.equalsIgnoreCase("Transfer-Encoding");
+    }
+}
@@ -0,0 +1,224 @@
+package xds.lib.easyhttp.cache;
+
+import androidx.annotation.Nullable;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.RawRequest;
+import xds.lib.easyhttp.util.HttpDate;
+
+/**
+ * Decides, following RFC 7234, whether a request is answered by the cached response, by a
+ * conditional request revalidating it, or by the network alone.
+ */
+final class CacheStrategy {
+
+    /** Heuristic freshness is a tenth of the time since the last modification. */
+    private static final int HEURISTIC_FRACTION = 10;
+
+    /** The request to send, or null if the request is answered from the cache. */
+    @Nullable
+    final RawRequest networkRequest;
+    /** The cached entry to serve or revalidate, or null if the cache is not used. */
+    @Nullable
+    final CacheEntry cacheEntry;
+
+    private CacheStrategy(@Nullable RawRequest networkRequest, @Nullable CacheEntry cacheEntry) {
+        this.networkRequest = networkRequest;
+        this.cacheEntry = cacheEntry;
+    }
+
+    /**
+     * Returns the strategy of the GET request.
+     *
+     * @param request The request.
+     * @param cached The stored response of the URL, or null.
+     * @param nowMillis The current wall-clock time.
+     */
+    static CacheStrategy compute(RawRequest request, @Nullable CacheEntry cached,
+            long nowMillis) {
+        final CacheStrategy strategy = computeCandidate(request, cached, nowMillis);
+        final Map<String, String> requestControl = cacheControl(
+                requestHeader(request, "Cache-Control"));
+        if (strategy.networkRequest != null && requestControl.containsKey("only-if-cached")) {
+            // Neither network nor cache may answer
+            return new CacheStrategy(null, null);
+        }
+        return strategy;
+    }
+
+    private static CacheStrategy computeCandidate(RawRequest request,
+            @Nullable CacheEntry cached, long nowMillis) {
+        if (cached == null || !cached.matches(request)
+                || !isCacheable(cached.code, cached.headers, request)) {
+            return new CacheStrategy(request, null);
+        }
+        final Map<String, String> requestControl = cacheControl(
+                requestHeader(request, "Cache-Control"));
+        if (requestControl.containsKey("no-cache")
+                || requestHeader(request, "If-None-Match") != null
+                || requestHeader(request, "If-Modified-Since") != null) {
+            // The caller wants the origin to answer
+            return new CacheStrategy(request, null);
+        }
+        final Map<String, String> responseControl = cacheControl(cached.header("Cache-Control"));
+
+        final long ageMillis = currentAge(cached, nowMillis);
+        long freshMillis = freshnessLifetime(cached);
+        if (requestControl.containsKey("max-age")) {
+            freshMillis = Math.min(freshMillis, seconds(requestControl.get("max-age"), 0));
+        }
+        final long minFreshMillis = requestControl.containsKey("min-fresh") ?
+                seconds(requestControl.get("min-fresh"), 0) : 0;
+        long maxStaleMillis = 0;
+        if (!responseControl.containsKey("must-revalidate")
+                && requestControl.containsKey("max-stale")) {
+            maxStaleMillis = seconds(requestControl.get("max-stale"), Long.MAX_VALUE / 2);
+        }
+        if (!responseControl.containsKey("no-cache")
+                && ageMillis + minFreshMillis < freshMillis + maxStaleMillis) {
+            return new CacheStrategy(null, cached);
+        }
+
+        final String etag = cached.header("ETag");
+        if (etag != null) {
+            return new CacheStrategy(request.withHeader("If-None-Match", etag), cached);
+        }
+        final String lastModified = cached.header("Last-Modified");
+        if (lastModified != null) {
+            return new CacheStrategy(request.withHeader("If-Modified-Since", lastModified),
+                    cached);
+        }
+        final String servedDate = cached.header("Date");
+        if (servedDate != null) {
+            return new CacheStrategy(request.withHeader("If-Modified-Since", servedDate), cached);
+        }
+        // Nothing to revalidate with
+        return new CacheStrategy(request, null);
+    }
+
+    /**
+     * Returns {@code true} if the response to the request may be stored.
+     */
+    static boolean isCacheable(int code, Map<String, List<String>> headers, RawRequest request) {
+        if (code != 200 && code != 203) {
+            return false;
+        }
+        final Map<String, String> requestControl = cacheControl(
+                requestHeader(request, "Cache-Control"));
+        final Map<String, String> responseControl = cacheControl(lastValue(headers,
+                "Cache-Control"));
+        if (requestControl.containsKey("no-store") || responseControl.containsKey("no-store")) {
+            return false;
+        }
+        if (CacheEntry.varyFields(headers).contains("*")) {
+            return false;
+        }
+        // Either explicitly fresh or revalidatable
+        return responseControl.containsKey("max-age")
+                || responseControl.containsKey("public")
+                || responseControl.containsKey("private")
+                || lastValue(headers, "Expires") != null
+                || lastValue(headers, "ETag") != null
+                || lastValue(headers, "Last-Modified") != null;
+    }
+
+    private static long currentAge(CacheEntry cached, long nowMillis) {
+        final Date servedDate = HttpDate.parse(cached.header("Date"));
+        final long apparentAge = servedDate != null ?
+                Math.max(0, cached.receivedMillis - servedDate.getTime()) : 0;
+        final long ageHeader = seconds(cached.header("Age"), 0);
+        final long receivedAge = Math.max(apparentAge, ageHeader);
+        final long responseDuration = Math.max(0, cached.receivedMillis - cached.sentMillis);
+        final long residentDuration = Math.max(0, nowMillis - cached.receivedMillis);
+        return receivedAge + responseDuration + residentDuration;
+    }
+
+    private static long freshnessLifetime(CacheEntry cached) {
+        final Map<String, String> responseControl = cacheControl(cached.header("Cache-Control"));
+        if (responseControl.containsKey("max-age")) {
+            return seconds(responseControl.get("max-age"), 0);
+        }
+        final Date servedDate = HttpDate.parse(cached.header("Date"));
+        final long servedMillis = servedDate != null ?
+                servedDate.getTime() : cached.receivedMillis;
+        final String expiresValue = cached.header("Expires");
+        if (expiresValue != null) {
+            // An invalid date means already expired
+            final Date expires = HttpDate.parse(expiresValue);
+            return expires != null ? Math.max(0, expires.getTime() - servedMillis) : 0;
+        }
+        final Date lastModified = HttpDate.parse(cached.header("Last-Modified"));
+        if (lastModified != null && !cached.url.contains("?")) {
+            return Math.max(0, servedMillis - lastModified.getTime()) / HEURISTIC_FRACTION;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the directives of the {@code Cache-Control} header, with lower-case names mapped
+     * to their unquoted values or to "" if they have none.
+     */
+    static Map<String, String> cacheControl(@Nullable String header) {
+        final Map<String, String> directives = new HashMap<>();
+        if (header == null) {
+            return directives;
+        }
+        for (String directive : header.split(",")) {
+            final int eq = directive.indexOf('=');
+            final String name = (eq < 0 ? directive : directive.substring(0, eq)).trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            String value = eq < 0 ? "" : directive.substring(eq + 1).trim();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            directives.put(name.toLowerCase(Locale.US), value);
+        }
+        return directives;
+    }
+
+    /**
+     * Returns the delta-seconds value in milliseconds, or the default for missing or invalid
+     * values.
+     */
+    private static long seconds(@Nullable String value, long defaultMillis) {
+        if (value == null || value.isEmpty()) {
+            return defaultMillis;
+        }
+        try {
+            final long seconds = Long.parseLong(value.trim());
+            return seconds <= 0 ? 0 : TimeUnit.SECONDS.toMillis(
+                    Math.min(seconds, Integer.MAX_VALUE));
+        } catch (NumberFormatException e) {
+            return defaultMillis;
+        }
+    }
+
+    @Nullable
+    private static String requestHeader(RawRequest request, String name) {
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String lastValue(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null
+                    && !header.getValue().isEmpty()) {
+                return header.getValue().get(header.getValue().size() - 1);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,424 @@
+package xds.lib.easyhttp.cache;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.Dns;
+import xds.lib.easyhttp.Platform;
+import xds.lib.easyhttp.util.Clock;
+import xds.lib.easyhttp.util.DefaultExecutor;
+
+/**
+ * Memory cache of host lookups in front of another {@link Dns}, the one of the platform by
+ * default.
+ * <p>
+ * Addresses are kept for their time to live and failed lookups for a shorter one, so a missing
+ * host doesn't send every request to the resolver. Concurrent lookups of a host share a single
+ * query. A host looked up in the last quarter of its time to live is resolved again in the
+ * background, so hosts in steady use never wait for the resolver; {@link #prefetch(String...)}
+ * resolves hosts ahead of their first request, such as at application start.
+ * <p>
+ * The platform resolver doesn't expose the TTL of the DNS records, the time to live is the one
+ * of the builder. Keep it short enough to follow address changes of the servers.
+ */
+public final class CachingDns implements Dns {
+
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long DEFAULT_NEGATIVE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final int DEFAULT_MAX_HOSTS = 256;
+
+    private final Dns delegate;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+    private final int maxHosts;
+    private final Executor executor;
+    private final Clock clock;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Lookup> lookups = new HashMap<>();
+
+    private long hitCount;
+    private long missCount;
+    private long refreshCount;
+
+    private CachingDns(Builder builder) {
+        this.delegate = builder.delegate;
+        this.ttlMillis = builder.ttlMillis;
+        this.negativeTtlMillis = builder.negativeTtlMillis;
+        this.maxHosts = builder.maxHosts;
+        this.executor = builder.executor;
+        this.clock = builder.clock;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Returns the cached addresses, or waits for the lookup of the host which is already in
+     * flight.
+     */
+    @NonNull
+    @WorkerThread
+    @Override
+    public List<InetAddress> lookup(@NonNull String host) throws UnknownHostException {
+        final Lookup lookup;
+        synchronized (this) {
+            final long now = clock.elapsedRealtime();
+            final Entry entry = entries.get(host);
+            if (entry != null && entry.expiresAt > now) {
+                hitCount++;
+                if (entry.addresses == null) {
+                    throw newFailure(host, entry.failure);
+                }
+                if (now >= entry.refreshAt && !lookups.containsKey(host)) {
+                    refreshCount++;
+                    startLookup(host);
+                }
+                return entry.addresses;
+            }
+            missCount++;
+            final Lookup inFlight = lookups.get(host);
+            if (inFlight != null) {
+                lookup = inFlight;
+            } else {
+                lookup = new Lookup();
+                lookups.put(host, lookup);
+            }
+        }
+        if (!lookup.isStarted()) {
+            resolve(host, lookup);
+        }
+        return lookup.await(host);
+    }
+
+    /**
+     * Resolve the hosts in the background, unless their addresses are cached or being looked
+     * up, so that their first requests don't wait for the resolver.
+     *
+     * @param hosts The host names.
+     */
+    @AnyThread
+    public void prefetch(@NonNull String... hosts) {
+        synchronized (this) {
+            final long now = clock.elapsedRealtime();
+            for (String host : hosts) {
+                final Entry entry = entries.get(host);
+                if ((entry == null || entry.refreshAt <= now) && !lookups.containsKey(host)) {
+                    startLookup(host);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the cached lookup of the host, such as after its connections failed.
+     *
+     * @param host The host name.
+     */
+    @AnyThread
+    public synchronized void remove(@NonNull String host) {
+        entries.remove(host);
+    }
+
+    /**
+     * Remove all cached lookups, such as after the network changed.
+     */
+    @AnyThread
+    public synchronized void evictAll() {
+        entries.clear();
+    }
+
+    /** The number of cached hosts, including expired ones which were not looked up since. */
+    @AnyThread
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Number of lookups answered from the cache. */
+    @AnyThread
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /** Number of lookups which waited for the resolver. */
+    @AnyThread
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /** Number of background lookups of hosts close to expiring. */
+    @AnyThread
+    public synchronized long getRefreshCount() {
+        return refreshCount;
+    }
+
+    /**
+     * Run the lookup of the host on the executor. Called with the lock held.
+     */
+    private void startLookup(String host) {
+        final Lookup lookup = new Lookup();
+        lookups.put(host, lookup);
+        try {
+            executor.execute(() -> {
+                if (!lookup.isStarted()) {
+                    resolve(host, lookup);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // A caller waiting for it runs the lookup itself
+        }
+    }
+
+    /**
+     * Query the resolver, store the result and hand it to the callers waiting for it.
+     */
+    private void resolve(String host, Lookup lookup) {
+        if (!lookup.start()) {
+            return;
+        }
+        List<InetAddress> addresses = null;
+        UnknownHostException failure = null;
+        RuntimeException error = null;
+        try {
+            final List<InetAddress> resolved = delegate.lookup(host);
+            if (resolved.isEmpty()) {
+                failure = new UnknownHostException(delegate + " returned no addresses for " + host);
+            } else {
+                addresses = Collections.unmodifiableList(new ArrayList<>(resolved));
+            }
+        } catch (UnknownHostException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        synchronized (this) {
+            if (lookups.get(host) == lookup) {
+                lookups.remove(host);
+            }
+            store(host, addresses, failure);
+        }
+        lookup.complete(addresses, failure, error);
+    }
+
+    /**
+     * Cache the result of a lookup. A failed refresh keeps the addresses until they expire.
+     */
+    private void store(String host, @Nullable List<InetAddress> addresses,
+            @Nullable UnknownHostException failure) {
+        final long now = clock.elapsedRealtime();
+        if (addresses != null) {
+            entries.put(host, new Entry(addresses, null, now + ttlMillis,
+                    now + ttlMillis * 3 / 4));
+        } else if (failure != null && negativeTtlMillis > 0) {
+            final Entry entry = entries.get(host);
+            if (entry == null || entry.addresses == null || entry.expiresAt <= now) {
+                final long expiresAt = now + negativeTtlMillis;
+                entries.put(host, new Entry(null, failure, expiresAt, expiresAt));
+            }
+        } else {
+            return;
+        }
+        final Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxHosts && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Each caller gets its own exception, with the stack trace of its lookup.
+     */
+    private static UnknownHostException newFailure(String host, UnknownHostException cause) {
+        final UnknownHostException failure = new UnknownHostException(
+                cause.getMessage() != null ? cause.getMessage() : host);
+        failure.initCause(cause);
+        return failure;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "CachingDns [" + delegate + "]";
+    }
+
+    private static final class Entry {
+
+        final List<InetAddress> addresses;
+        final UnknownHostException failure;
+        final long expiresAt;
+        final long refreshAt;
+
+        Entry(@Nullable List<InetAddress> addresses, @Nullable UnknownHostException failure,
+                long expiresAt, long refreshAt) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+    }
+
+    /**
+     * Query of the resolver which callers of the same host wait for.
+     */
+    private static final class Lookup {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private boolean started;
+        private List<InetAddress> addresses;
+        private UnknownHostException failure;
+        private RuntimeException error;
+
+        synchronized boolean isStarted() {
+            return started;
+        }
+
+        /** Returns {@code true} if the caller is the one to run the query. */
+        synchronized boolean start() {
+            if (started) {
+                return false;
+            }
+            started = true;
+            return true;
+        }
+
+        void complete(@Nullable List<InetAddress> addresses,
+                @Nullable UnknownHostException failure, @Nullable RuntimeException error) {
+            synchronized (this) {
+                this.addresses = addresses;
+                this.failure = failure;
+                this.error = error;
+            }
+            done.countDown();
+        }
+
+        List<InetAddress> await(String host) throws UnknownHostException {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UnknownHostException("Interrupted resolving " + host);
+            }
+            synchronized (this) {
+                if (error != null) {
+                    throw error;
+                }
+                if (failure != null) {
+                    throw newFailure(host, failure);
+                }
+                return addresses;
+            }
+        }
+    }
+
+    /**
+     * Builder of {@link CachingDns}.
+     */
+    public static final class Builder {
+
+        private Dns delegate = Dns.SYSTEM;
+        private long ttlMillis = DEFAULT_TTL_MILLIS;
+        private long negativeTtlMillis = DEFAULT_NEGATIVE_TTL_MILLIS;
+        private int maxHosts = DEFAULT_MAX_HOSTS;
+        private Executor executor = DefaultExecutor.get();
+        private Clock clock = Platform.get().getClock();
+
+        /**
+         * Set the resolver of the hosts which are not cached, {@link Dns#SYSTEM} by default.
+         *
+         * @param delegate the resolver.
+         */
+        @NonNull
+        public Builder delegate(@NonNull Dns delegate) {
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * Set the time to live of the addresses, 1 minute by default.
+         *
+         * @param ttl the time to live.
+         * @param unit the unit of the time to live.
+         */
+        @NonNull
+        public Builder ttl(long ttl, @NonNull TimeUnit unit) {
+            if (ttl <= 0) {
+                throw new IllegalArgumentException("ttl must be positive");
+            }
+            this.ttlMillis = unit.toMillis(ttl);
+            return this;
+        }
+
+        /**
+         * Set the time to live of failed lookups, 10 seconds by default.
+         *
+         * @param ttl the time to live, or 0 not to cache failures.
+         * @param unit the unit of the time to live.
+         */
+        @NonNull
+        public Builder negativeTtl(long ttl, @NonNull TimeUnit unit) {
+            this.negativeTtlMillis = unit.toMillis(Math.max(0, ttl));
+            return this;
+        }
+
+        /**
+         * Set the maximum number of cached hosts, 256 by default. The least recently looked up
+         * ones are evicted first.
+         *
+         * @param maxHosts the maximum number of hosts.
+         */
+        @NonNull
+        public Builder maxHosts(int maxHosts) {
+            if (maxHosts <= 0) {
+                throw new IllegalArgumentException("maxHosts must be positive");
+            }
+            this.maxHosts = maxHosts;
+            return this;
+        }
+
+        /**
+         * Set the executor of prefetches and background refreshes, the
+         * {@link DefaultExecutor} by default.
+         *
+         * @param executor the executor.
+         */
+        @NonNull
+        public Builder executor(@NonNull Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Set the clock of the times to live, the one of the {@link Platform} by default.
+         *
+         * @param clock the clock.
+         */
+        @NonNull
+        public Builder clock(@NonNull Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Create the resolver.
+         */
+        @NonNull
+        public CachingDns build() {
+            return new CachingDns(this);
+        }
+    }
+}
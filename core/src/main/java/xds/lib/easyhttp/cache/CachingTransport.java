@@ -0,0 +1,531 @@
+package xds.lib.easyhttp.cache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import xds.lib.easyhttp.ConnectionPool;
+import xds.lib.easyhttp.RawRequest;
+import xds.lib.easyhttp.RawResponse;
+import xds.lib.easyhttp.Transport;
+import xds.lib.easyhttp.util.BufferPool;
+
+/**
+ * Transport answering GET requests from a {@link DiskResponseCache} and storing cacheable
+ * responses of the wrapped transport.
+ * <p>
+ * Fresh responses are served without any network exchange, stale ones are revalidated with
+ * {@code If-None-Match} or {@code If-Modified-Since} and a {@code 304 Not Modified} answer is
+ * served from the stored body. Responses are stored while the caller reads them, so a body
+ * which is not read to the end is not cached. Requests with other methods invalidate the
+ * stored response of their URL.
+ * <p>
+ * {@link xds.lib.easyhttp.HttpClient.Builder#cache(DiskResponseCache)} installs the transport,
+ * so it rarely has to be created directly.
+ */
+public final class CachingTransport implements Transport {
+
+    /** Unread remainder of a body the cache still reads when the caller closes it. */
+    private static final int MAX_DRAIN_ON_CLOSE = BufferPool.BUFFER_SIZE;
+
+    private final DiskResponseCache cache;
+    private final Transport delegate;
+
+    /**
+     * Create transport.
+     *
+     * @param cache The cache of responses.
+     * @param delegate The transport executing the network exchanges.
+     */
+    public CachingTransport(@NonNull DiskResponseCache cache, @NonNull Transport delegate) {
+        this.cache = cache;
+        this.delegate = delegate;
+    }
+
+    /** The cache of responses. */
+    @NonNull
+    public DiskResponseCache getCache() {
+        return cache;
+    }
+
+    /** The transport executing the network exchanges. */
+    @NonNull
+    public Transport getDelegate() {
+        return delegate;
+    }
+
+    @NonNull
+    @Override
+    public RawResponse execute(@NonNull RawRequest request, @NonNull ConnectionPool connectionPool)
+            throws IOException {
+        final Exchange exchange = prepare(request);
+        if (exchange.cachedResponse != null) {
+            return exchange.cachedResponse;
+        }
+        final long sentMillis = System.currentTimeMillis();
+        final RawResponse networkResponse;
+        try {
+            networkResponse = delegate.execute(exchange.networkRequest, connectionPool);
+        } catch (IOException e) {
+            exchange.release();
+            throw e;
+        }
+        return exchange.onNetworkResponse(networkResponse, sentMillis);
+    }
+
+    @Override
+    public void executePipelined(@NonNull List<RawRequest> requests,
+            @NonNull ConnectionPool connectionPool, int maxConnections,
+            @NonNull PipelineCallback callback) {
+        final List<Exchange> exchanges = new ArrayList<>(requests.size());
+        final List<RawRequest> networkRequests = new ArrayList<>(requests.size());
+        final List<Integer> networkIndices = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            Exchange exchange;
+            try {
+                exchange = prepare(requests.get(i));
+            } catch (IOException e) {
+                exchange = new Exchange(requests.get(i), null, null);
+            }
+            exchanges.add(exchange);
+            if (exchange.cachedResponse == null) {
+                networkRequests.add(exchange.networkRequest);
+                networkIndices.add(i);
+            }
+        }
+
+        // Answers from the cache come first, they are ready
+        for (int i = 0; i < exchanges.size(); i++) {
+            final RawResponse cached = exchanges.get(i).cachedResponse;
+            if (cached != null) {
+                try (RawResponse response = cached) {
+                    callback.onResponse(i, response);
+                }
+            }
+        }
+        if (networkRequests.isEmpty()) {
+            return;
+        }
+        final long sentMillis = System.currentTimeMillis();
+        delegate.executePipelined(networkRequests, connectionPool, maxConnections,
+                new PipelineCallback() {
+                    @Override
+                    public void onResponse(int index, @NonNull RawResponse response) {
+                        final int position = networkIndices.get(index);
+                        final RawResponse result;
+                        try {
+                            result = exchanges.get(position)
+                                    .onNetworkResponse(response, sentMillis);
+                        } catch (IOException e) {
+                            callback.onFailure(position, e);
+                            return;
+                        }
+                        // The pipeline closes the network response itself
+                        try (RawResponse received = result) {
+                            callback.onResponse(position, received);
+                        }
+                    }
+
+                    @Override
+                    public void onFailure(int index, @NonNull IOException e) {
+                        final int position = networkIndices.get(index);
+                        exchanges.get(position).release();
+                        callback.onFailure(position, e);
+                    }
+                });
+    }
+
+    private Exchange prepare(RawRequest request) throws IOException {
+        final String method = request.getMethod();
+        final String key = DiskResponseCache.key(request.getUrl().toString());
+        if (!"GET".equalsIgnoreCase(method)) {
+            if (!"HEAD".equalsIgnoreCase(method) && !"OPTIONS".equalsIgnoreCase(method)) {
+                // Unsafe methods may change the resource
+                cache.removeKey(key);
+            }
+            return new Exchange(request, null, null);
+        }
+        final DiskResponseCache.Snapshot snapshot = cache.get(key);
+        final CacheStrategy strategy = CacheStrategy.compute(request,
+                snapshot != null ? snapshot.entry : null, System.currentTimeMillis());
+        if (strategy.cacheEntry == null && snapshot != null) {
+            snapshot.close();
+        }
+        if (strategy.networkRequest == null && strategy.cacheEntry == null) {
+            cache.trackMiss();
+            return new Exchange(request, null, new UnsatisfiableResponse());
+        }
+        if (strategy.networkRequest == null) {
+            cache.trackHit();
+            return new Exchange(request, null, new CachedResponse(snapshot.entry, snapshot.body));
+        }
+        return new Exchange(strategy.networkRequest,
+                strategy.cacheEntry != null ? snapshot : null, null);
+    }
+
+    /**
+     * Exchange of a request: either the cached response or the network request to send with
+     * the snapshot it revalidates.
+     */
+    private final class Exchange {
+
+        final RawRequest networkRequest;
+        @Nullable
+        final DiskResponseCache.Snapshot snapshot;
+        @Nullable
+        final RawResponse cachedResponse;
+
+        Exchange(RawRequest networkRequest, @Nullable DiskResponseCache.Snapshot snapshot,
+                @Nullable RawResponse cachedResponse) {
+            this.networkRequest = networkRequest;
+            this.snapshot = snapshot;
+            this.cachedResponse = cachedResponse;
+        }
+
+        RawResponse onNetworkResponse(RawResponse response, long sentMillis) throws IOException {
+            if (!"GET".equalsIgnoreCase(networkRequest.getMethod())) {
+                return response;
+            }
+            final long receivedMillis = System.currentTimeMillis();
+            final int code;
+            try {
+                code = response.getResponseCode();
+            } catch (IOException e) {
+                release();
+                throw e;
+            }
+            if (snapshot != null && code == 304) {
+                cache.trackRevalidate();
+                final CacheEntry entry = snapshot.entry.revalidated(response.getHeaderFields(),
+                        sentMillis, receivedMillis);
+                response.close();
+                try {
+                    cache.update(snapshot.key, entry);
+                } catch (IOException ignored) {
+                    // The body is still served, the next request revalidates again
+                }
+                return new CachedResponse(entry, snapshot.body);
+            }
+            release();
+            cache.trackMiss();
+
+            final String key = DiskResponseCache.key(networkRequest.getUrl().toString());
+            try {
+                if (!CacheStrategy.isCacheable(code, response.getHeaderFields(),
+                        networkRequest)) {
+                    if (code < 500) {
+                        // The stored response is outdated
+                        cache.removeKey(key);
+                    }
+                    return response;
+                }
+                final CacheEntry entry = CacheEntry.of(networkRequest, code,
+                        response.getHeaderFields(), sentMillis, receivedMillis);
+                final DiskResponseCache.Editor editor = cache.edit(key, entry);
+                if (editor == null) {
+                    return response;
+                }
+                return new CacheWritingResponse(response, editor);
+            } catch (IOException e) {
+                // Storage failure must not fail the request
+                return response;
+            }
+        }
+
+        void release() {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+    }
+
+    /**
+     * Response served from the stored entry.
+     */
+    private static final class CachedResponse implements RawResponse {
+
+        private final CacheEntry entry;
+        private final InputStream body;
+
+        CachedResponse(CacheEntry entry, InputStream body) {
+            this.entry = entry;
+            this.body = body;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return entry.code;
+        }
+
+        @Nullable
+        @Override
+        public String getHeaderField(@NonNull String name) {
+            return entry.header(name);
+        }
+
+        @NonNull
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return Collections.unmodifiableMap(entry.headers);
+        }
+
+        @NonNull
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public void close() {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+                // Read-only file
+            }
+        }
+    }
+
+    /**
+     * Response to an {@code only-if-cached} request the cache cannot satisfy.
+     */
+    private static final class UnsatisfiableResponse implements RawResponse {
+
+        @Override
+        public int getResponseCode() {
+            return 504;
+        }
+
+        @Nullable
+        @Override
+        public String getHeaderField(@NonNull String name) {
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return Collections.emptyMap();
+        }
+
+        @NonNull
+        @Override
+        public InputStream getBody() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Network response storing its body in the cache while it is read.
+     */
+    private static final class CacheWritingResponse implements RawResponse {
+
+        private final RawResponse delegate;
+        private final DiskResponseCache.Editor editor;
+        private CacheWritingStream body;
+
+        CacheWritingResponse(RawResponse delegate, DiskResponseCache.Editor editor) {
+            this.delegate = delegate;
+            this.editor = editor;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return delegate.getResponseCode();
+        }
+
+        @Nullable
+        @Override
+        public String getHeaderField(@NonNull String name) {
+            return delegate.getHeaderField(name);
+        }
+
+        @NonNull
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return delegate.getHeaderFields();
+        }
+
+        @NonNull
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                final OutputStream cacheStream;
+                try {
+                    cacheStream = editor.newBodyStream();
+                } catch (IOException e) {
+                    editor.abort();
+                    return delegate.getBody();
+                }
+                body = new CacheWritingStream(delegate.getBody(), cacheStream, editor,
+                        delegate.getContentLength());
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            if (body != null) {
+                body.finish();
+            } else {
+                editor.abort();
+            }
+            delegate.close();
+        }
+    }
+
+    /**
+     * Body stream copying the bytes read to the cache, the entry is committed at the end of
+     * the body.
+     */
+    private static final class CacheWritingStream extends FilterInputStream {
+
+        private final OutputStream cacheStream;
+        private final DiskResponseCache.Editor editor;
+        private final long contentLength;
+        private final byte[] single = new byte[1];
+        private long written;
+        private boolean cacheFailed;
+        private boolean done;
+
+        CacheWritingStream(InputStream in, OutputStream cacheStream,
+                DiskResponseCache.Editor editor, long contentLength) {
+            super(in);
+            this.cacheStream = cacheStream;
+            this.editor = editor;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read;
+            try {
+                read = in.read(b, off, len);
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+            if (read == -1) {
+                commit();
+            } else {
+                copy(b, off, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0) {
+                return 0;
+            }
+            // Skipped bytes would be missing from the entry
+            final byte[] buffer = BufferPool.acquireBytes();
+            try {
+                final int read = read(buffer, 0, (int) Math.min(n, buffer.length));
+                return Math.max(read, 0);
+            } finally {
+                BufferPool.release(buffer);
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            super.close();
+        }
+
+        /**
+         * Commit the entry if the body was read to the end, otherwise abort it.
+         */
+        void finish() {
+            if (done) {
+                return;
+            }
+            if (contentLength >= 0 && written == contentLength) {
+                commit();
+                return;
+            }
+            // Decoders stop at the end of their data, before the stream reports its end
+            final byte[] buffer = BufferPool.acquireBytes();
+            try {
+                int total = 0;
+                while (!done && total < MAX_DRAIN_ON_CLOSE) {
+                    final int read = read(buffer, 0, MAX_DRAIN_ON_CLOSE - total);
+                    if (read == -1) {
+                        return;
+                    }
+                    total += read;
+                }
+            } catch (IOException ignored) {
+                // Aborted by read()
+            } finally {
+                BufferPool.release(buffer);
+            }
+            abort();
+        }
+
+        private void copy(byte[] b, int off, int len) {
+            if (done || cacheFailed) {
+                return;
+            }
+            try {
+                cacheStream.write(b, off, len);
+                written += len;
+            } catch (IOException e) {
+                cacheFailed = true;
+            }
+        }
+
+        private void commit() {
+            if (done) {
+                return;
+            }
+            if (cacheFailed) {
+                abort();
+                return;
+            }
+            done = true;
+            try {
+                cacheStream.close();
+                editor.commit();
+            } catch (IOException e) {
+                editor.abort();
+            }
+        }
+
+        private void abort() {
+            if (done) {
+                return;
+            }
+            done = true;
+            try {
+                cacheStream.close();
+            } catch (IOException ignored) {
+                // Dropped anyway
+            }
+            editor.abort();
+        }
+    }
+}
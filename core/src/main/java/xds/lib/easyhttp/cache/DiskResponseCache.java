@@ -0,0 +1,518 @@
+package xds.lib.easyhttp.cache;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded, least recently used cache of HTTP responses on disk.
+ * <p>
+ * Every entry is stored in two files: the metadata ({@code <key>.0}) and the raw response body
+ * ({@code <key>.1}). A journal records every write, read and removal so the cache and its LRU
+ * order survive process restarts; entries whose write did not complete are dropped when the
+ * journal is replayed.
+ * <p>
+ * Install the cache with {@link xds.lib.easyhttp.HttpClient.Builder#cache(DiskResponseCache)}.
+ * The cache directory must be used by a single instance at a time.
+ */
+public final class DiskResponseCache {
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String JOURNAL_FILE_TMP = "journal.tmp";
+    private static final String MAGIC = "xds.lib.easyhttp.DiskResponseCache";
+    private static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+
+    private final File directory;
+    private final long maxSize;
+
+    /** Entry sizes in access order, the eldest entry is evicted first. */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> editing = new HashSet<>();
+    private Writer journalWriter;
+    private long size;
+    private int redundantOpCount;
+    private boolean initialized;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong revalidateCount = new AtomicLong();
+
+    /**
+     * Create cache in the directory. The directory is read lazily on the first request.
+     *
+     * @param directory the cache directory, created if it does not exist.
+     * @param maxSize the maximum size of the cache in bytes.
+     */
+    public DiskResponseCache(@NonNull File directory, long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /** Number of responses served from the cache without any network exchange. */
+    @AnyThread
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** Number of responses fetched from the network without a usable cache entry. */
+    @AnyThread
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /** Number of cached responses revalidated by the server with {@code 304 Not Modified}. */
+    @AnyThread
+    public long getRevalidateCount() {
+        return revalidateCount.get();
+    }
+
+    /** The maximum size of the cache in bytes. */
+    @AnyThread
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the size of the stored entries in bytes.
+     */
+    @WorkerThread
+    public synchronized long size() throws IOException {
+        initialize();
+        return size;
+    }
+
+    /**
+     * Remove the cached response of the URL.
+     *
+     * @param url The request URL, including query parameters.
+     */
+    @WorkerThread
+    public void remove(@NonNull String url) throws IOException {
+        removeKey(key(url));
+    }
+
+    /**
+     * Remove all entries which are not being written.
+     */
+    @WorkerThread
+    public synchronized void evictAll() throws IOException {
+        initialize();
+        for (String key : new ArrayList<>(entries.keySet())) {
+            removeEntry(key);
+        }
+        journalWriter.flush();
+    }
+
+    void trackHit() {
+        hitCount.incrementAndGet();
+    }
+
+    void trackMiss() {
+        missCount.incrementAndGet();
+    }
+
+    void trackRevalidate() {
+        revalidateCount.incrementAndGet();
+    }
+
+    /**
+     * Returns the entry with an open body stream, or null if there is no such entry.
+     */
+    @Nullable
+    synchronized Snapshot get(String key) throws IOException {
+        initialize();
+        if (!entries.containsKey(key)) {
+            return null;
+        }
+        final CacheEntry entry;
+        final InputStream body;
+        try (InputStream metadata = new FileInputStream(metadataFile(key))) {
+            entry = CacheEntry.read(metadata);
+            body = new FileInputStream(bodyFile(key));
+        } catch (FileNotFoundException e) {
+            // Deleted behind our back
+            removeEntry(key);
+            return null;
+        } catch (IOException e) {
+            removeEntry(key);
+            return null;
+        }
+        redundantOpCount++;
+        journalLine(READ, key);
+        journalWriter.flush();
+        compactJournalIfNeeded();
+        return new Snapshot(key, entry, body);
+    }
+
+    /**
+     * Start writing the entry, or return null if it is already being written.
+     */
+    @Nullable
+    synchronized Editor edit(String key, CacheEntry entry) throws IOException {
+        initialize();
+        if (!editing.add(key)) {
+            return null;
+        }
+        journalLine(DIRTY, key);
+        journalWriter.flush();
+        final Editor editor = new Editor(key);
+        try (OutputStream metadata = new FileOutputStream(tmp(metadataFile(key)))) {
+            entry.write(metadata);
+        } catch (IOException e) {
+            editor.abort();
+            throw e;
+        }
+        return editor;
+    }
+
+    /**
+     * Replace the metadata of a stored entry, keeping its body.
+     */
+    synchronized void update(String key, CacheEntry entry) throws IOException {
+        initialize();
+        if (!entries.containsKey(key) || editing.contains(key)) {
+            return;
+        }
+        final File tmp = tmp(metadataFile(key));
+        try (OutputStream metadata = new FileOutputStream(tmp)) {
+            entry.write(metadata);
+        }
+        final File target = metadataFile(key);
+        if (!tmp.renameTo(target)) {
+            deleteIfExists(tmp);
+            return;
+        }
+        final long newSize = target.length() + bodyFile(key).length();
+        size += newSize - entries.put(key, newSize);
+        redundantOpCount++;
+        journalLine(CLEAN, key, newSize);
+        journalWriter.flush();
+        trimToSize();
+        compactJournalIfNeeded();
+    }
+
+    synchronized void removeKey(String key) throws IOException {
+        initialize();
+        if (entries.containsKey(key) && !editing.contains(key)) {
+            removeEntry(key);
+            journalWriter.flush();
+            compactJournalIfNeeded();
+        }
+    }
+
+    /**
+     * Returns the cache key of the URL.
+     */
+    static String key(String url) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5")
+                    .digest(url.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void initialize() throws IOException {
+        if (initialized) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory: " + directory);
+        }
+        final File journal = new File(directory, JOURNAL_FILE);
+        if (journal.exists()) {
+            try {
+                readJournal(journal);
+                journalWriter = new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(journal, true), StandardCharsets.UTF_8));
+                initialized = true;
+                trimToSize();
+                return;
+            } catch (IOException e) {
+                // Corrupted journal, start from scratch
+                entries.clear();
+                size = 0;
+                deleteContents(directory);
+            }
+        }
+        rebuildJournal();
+        initialized = true;
+    }
+
+    private void readJournal(File journal) throws IOException {
+        final Set<String> dirty = new HashSet<>();
+        int lineCount = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journal), StandardCharsets.UTF_8))) {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())
+                    || !"".equals(reader.readLine())) {
+                throw new IOException("Unexpected journal header");
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                final String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    throw new IOException("Unexpected journal line: " + line);
+                }
+                final String key = parts[1];
+                switch (parts[0]) {
+                    case CLEAN:
+                        if (parts.length != 3) {
+                            throw new IOException("Unexpected journal line: " + line);
+                        }
+                        dirty.remove(key);
+                        entries.put(key, Long.parseLong(parts[2]));
+                        break;
+                    case DIRTY:
+                        dirty.add(key);
+                        break;
+                    case REMOVE:
+                        dirty.remove(key);
+                        entries.remove(key);
+                        break;
+                    case READ:
+                        entries.get(key);
+                        break;
+                    default:
+                        throw new IOException("Unexpected journal line: " + line);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected journal size", e);
+        }
+        for (String key : dirty) {
+            // The write was interrupted by the process death
+            deleteIfExists(tmp(metadataFile(key)));
+            deleteIfExists(tmp(bodyFile(key)));
+        }
+        final Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            if (!metadataFile(entry.getKey()).exists() || !bodyFile(entry.getKey()).exists()) {
+                deleteIfExists(metadataFile(entry.getKey()));
+                deleteIfExists(bodyFile(entry.getKey()));
+                iterator.remove();
+            } else {
+                size += entry.getValue();
+            }
+        }
+        redundantOpCount = lineCount - entries.size();
+    }
+
+    private void rebuildJournal() throws IOException {
+        if (journalWriter != null) {
+            journalWriter.close();
+        }
+        final File tmp = new File(directory, JOURNAL_FILE_TMP);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+            writer.write(MAGIC + "\n" + VERSION + "\n\n");
+            for (Map.Entry<String, Long> entry : entries.entrySet()) {
+                writer.write(CLEAN + ' ' + entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+            for (String key : editing) {
+                writer.write(DIRTY + ' ' + key + '\n');
+            }
+        }
+        final File journal = new File(directory, JOURNAL_FILE);
+        if (!tmp.renameTo(journal)) {
+            throw new IOException("Unable to replace journal");
+        }
+        journalWriter = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(journal, true), StandardCharsets.UTF_8));
+        redundantOpCount = 0;
+    }
+
+    private void compactJournalIfNeeded() throws IOException {
+        if (redundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD
+                && redundantOpCount >= entries.size()) {
+            rebuildJournal();
+        }
+    }
+
+    private void trimToSize() throws IOException {
+        final Iterator<String> eldest = new ArrayList<>(entries.keySet()).iterator();
+        while (size > maxSize && eldest.hasNext()) {
+            final String key = eldest.next();
+            if (!editing.contains(key)) {
+                removeEntry(key);
+            }
+        }
+        journalWriter.flush();
+    }
+
+    private void removeEntry(String key) throws IOException {
+        final Long removed = entries.remove(key);
+        if (removed == null) {
+            return;
+        }
+        size -= removed;
+        deleteIfExists(metadataFile(key));
+        deleteIfExists(bodyFile(key));
+        redundantOpCount++;
+        journalLine(REMOVE, key);
+    }
+
+    private synchronized void complete(Editor editor, boolean success) throws IOException {
+        final String key = editor.key;
+        editing.remove(key);
+        final File metadataTmp = tmp(metadataFile(key));
+        final File bodyTmp = tmp(bodyFile(key));
+        if (success && metadataTmp.renameTo(metadataFile(key))
+                && bodyTmp.renameTo(bodyFile(key))) {
+            final long newSize = metadataFile(key).length() + bodyFile(key).length();
+            final Long oldSize = entries.put(key, newSize);
+            size += newSize - (oldSize != null ? oldSize : 0);
+            journalLine(CLEAN, key, newSize);
+            trimToSize();
+        } else {
+            deleteIfExists(metadataTmp);
+            deleteIfExists(bodyTmp);
+            if (entries.containsKey(key)) {
+                // The old entry may have lost its metadata in a half-done rename
+                removeEntry(key);
+            } else {
+                journalLine(REMOVE, key);
+            }
+            redundantOpCount++;
+        }
+        journalWriter.flush();
+        compactJournalIfNeeded();
+    }
+
+    private void journalLine(String op, String key) throws IOException {
+        journalWriter.write(op + ' ' + key + '\n');
+    }
+
+    private void journalLine(String op, String key, long entrySize) throws IOException {
+        journalWriter.write(op + ' ' + key + ' ' + entrySize + '\n');
+    }
+
+    private File metadataFile(String key) {
+        return new File(directory, key + ".0");
+    }
+
+    private File bodyFile(String key) {
+        return new File(directory, key + ".1");
+    }
+
+    private static File tmp(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    private static void deleteIfExists(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to delete " + file);
+        }
+    }
+
+    private static void deleteContents(File directory) throws IOException {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Stored entry with an open body stream.
+     */
+    static final class Snapshot {
+
+        final String key;
+        final CacheEntry entry;
+        final InputStream body;
+
+        Snapshot(String key, CacheEntry entry, InputStream body) {
+            this.key = key;
+            this.entry = entry;
+            this.body = body;
+        }
+
+        void close() {
+            try {
+                body.close();
+            } catch (IOException ignored) {
+                // Read-only file
+            }
+        }
+    }
+
+    /**
+     * Writer of a new entry; the entry becomes visible on {@link #commit()}.
+     */
+    final class Editor {
+
+        private final String key;
+        private boolean done;
+
+        private Editor(String key) {
+            this.key = key;
+        }
+
+        OutputStream newBodyStream() throws IOException {
+            return new FileOutputStream(tmp(bodyFile(key)));
+        }
+
+        void commit() throws IOException {
+            if (!done) {
+                done = true;
+                complete(this, true);
+            }
+        }
+
+        void abort() {
+            if (!done) {
+                done = true;
+                try {
+                    complete(this, false);
+                } catch (IOException ignored) {
+                    // The entry is dropped anyway
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package xds.lib.easyhttp.cache;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.Platform;
+import xds.lib.easyhttp.util.Clock;
+
+/**
+ * Memory cache of parsed responses, so repeated requests skip both the network and
+ * {@link xds.lib.easyhttp.HttpRequest#parseResponse}.
+ * <p>
+ * Entries expire after their time to live and the least recently used ones are evicted when
+ * the total weight exceeds the maximum. With {@link Builder#softValues()} the values are
+ * softly referenced and the garbage collector may reclaim them under memory pressure.
+ * Forward {@code onTrimMemory} of the application to {@link #trimMemory(int)} to release the
+ * cache when the system runs low on memory.
+ * <p>
+ * A request opts in by returning the cache from
+ * {@link xds.lib.easyhttp.HttpRequest#getObjectCache()}. Cached values are shared between
+ * callers, so they should be immutable.
+ */
+public final class ObjectCache {
+
+    /** Level of {@code ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW}. */
+    private static final int TRIM_MEMORY_RUNNING_LOW = 10;
+    /** Level of {@code ComponentCallbacks2.TRIM_MEMORY_BACKGROUND}. */
+    private static final int TRIM_MEMORY_BACKGROUND = 40;
+
+    private static final long DEFAULT_MAX_WEIGHT = 100;
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final long maxWeight;
+    private final long defaultTtlMillis;
+    private final Weigher weigher;
+    private final boolean softValues;
+    private final Clock clock;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+    private long weight;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    private ObjectCache(Builder builder) {
+        this.maxWeight = builder.maxWeight;
+        this.defaultTtlMillis = builder.defaultTtlMillis;
+        this.weigher = builder.weigher;
+        this.softValues = builder.softValues;
+        this.clock = builder.clock;
+    }
+
+    /**
+     * Returns the value of the key, or null if there is no live value.
+     *
+     * @param key The key of the value.
+     */
+    @Nullable
+    @AnyThread
+    public synchronized Object get(@NonNull String key) {
+        drainCollected();
+        final Entry entry = entries.get(key);
+        final Object value = entry != null ? entry.value() : null;
+        if (value == null || entry.expiresAt <= clock.elapsedRealtime()) {
+            if (entry != null) {
+                removeEntry(key);
+                evictionCount++;
+            }
+            missCount++;
+            return null;
+        }
+        hitCount++;
+        return value;
+    }
+
+    /**
+     * Store the value with the default time to live.
+     *
+     * @param key The key of the value.
+     * @param value The value.
+     */
+    @AnyThread
+    public void put(@NonNull String key, @NonNull Object value) {
+        put(key, value, defaultTtlMillis);
+    }
+
+    /**
+     * Store the value. A value heavier than the maximum weight is not stored.
+     *
+     * @param key The key of the value.
+     * @param value The value.
+     * @param ttlMillis The time to live of the value in milliseconds.
+     */
+    @AnyThread
+    public void put(@NonNull String key, @NonNull Object value, long ttlMillis) {
+        final int valueWeight = weigher.weigh(key, value);
+        if (valueWeight < 0) {
+            throw new IllegalStateException("Negative weight " + valueWeight + " of " + key);
+        }
+        synchronized (this) {
+            drainCollected();
+            removeEntry(key);
+            if (ttlMillis <= 0 || valueWeight > maxWeight) {
+                return;
+            }
+            final long expiresAt = clock.elapsedRealtime() + ttlMillis;
+            entries.put(key, softValues ?
+                    new Entry(new SoftValue(key, value, collected), valueWeight, expiresAt) :
+                    new Entry(value, valueWeight, expiresAt));
+            weight += valueWeight;
+            trimToWeight(maxWeight);
+        }
+    }
+
+    /**
+     * Remove the value of the key.
+     *
+     * @param key The key of the value.
+     */
+    @AnyThread
+    public synchronized void remove(@NonNull String key) {
+        removeEntry(key);
+    }
+
+    /**
+     * Remove all values.
+     */
+    @AnyThread
+    public synchronized void evictAll() {
+        evictionCount += entries.size();
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * Remove the expired values and the least recently used ones until the total weight is
+     * not greater than the given one.
+     *
+     * @param maxWeight The weight to trim to.
+     */
+    @AnyThread
+    public synchronized void trimToWeight(long maxWeight) {
+        drainCollected();
+        final long now = clock.elapsedRealtime();
+        final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next().getValue();
+            if (entry.expiresAt <= now) {
+                iterator.remove();
+                weight -= entry.weight;
+                evictionCount++;
+            }
+        }
+        final Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= eldest.next().getValue().weight;
+            eldest.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Release memory in response to {@code ComponentCallbacks2.onTrimMemory}: the cache is
+     * cleared once the application is in the background, from {@code TRIM_MEMORY_BACKGROUND},
+     * halved when the application is hidden or the system runs low on memory, and only loses
+     * expired values otherwise.
+     *
+     * @param level The level of {@code ComponentCallbacks2}.
+     */
+    @AnyThread
+    public void trimMemory(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            evictAll();
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (this) {
+                trimToWeight(weight / 2);
+            }
+        } else {
+            trimToWeight(maxWeight);
+        }
+    }
+
+    /** The total weight of the stored values. */
+    @AnyThread
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /** The maximum total weight of the stored values. */
+    @AnyThread
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /** The default time to live of the values in milliseconds. */
+    @AnyThread
+    public long getDefaultTtlMillis() {
+        return defaultTtlMillis;
+    }
+
+    /** Number of lookups which returned a value. */
+    @AnyThread
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /** Number of lookups which found no live value. */
+    @AnyThread
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /** Number of values removed because they expired, were collected or were evicted. */
+    @AnyThread
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private void removeEntry(String key) {
+        final Entry removed = entries.remove(key);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+    private void drainCollected() {
+        Reference<?> reference;
+        while ((reference = collected.poll()) != null) {
+            final String key = ((SoftValue) reference).key;
+            final Entry entry = entries.get(key);
+            if (entry != null && entry.reference == reference) {
+                removeEntry(key);
+                evictionCount++;
+            }
+        }
+    }
+
+    /**
+     * Calculates the weight of values, such as their approximate size in bytes.
+     */
+    public interface Weigher {
+
+        /**
+         * Returns the weight of the value, a non-negative number.
+         *
+         * @param key The key of the value.
+         * @param value The value.
+         */
+        int weigh(@NonNull String key, @NonNull Object value);
+    }
+
+    private static final class Entry {
+
+        final Object strongValue;
+        final SoftValue reference;
+        final int weight;
+        final long expiresAt;
+
+        Entry(Object value, int weight, long expiresAt) {
+            this.strongValue = value;
+            this.reference = null;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        Entry(SoftValue reference, int weight, long expiresAt) {
+            this.strongValue = null;
+            this.reference = reference;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        @Nullable
+        Object value() {
+            return reference != null ? reference.get() : strongValue;
+        }
+    }
+
+    private static final class SoftValue extends SoftReference<Object> {
+
+        final String key;
+
+        SoftValue(String key, Object value, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    /**
+     * Builder of {@link ObjectCache}.
+     */
+    public static final class Builder {
+
+        private long maxWeight = DEFAULT_MAX_WEIGHT;
+        private long defaultTtlMillis = DEFAULT_TTL_MILLIS;
+        private Weigher weigher = (key, value) -> 1;
+        private boolean softValues;
+        private Clock clock = Platform.get().getClock();
+
+        /**
+         * Set the maximum total weight, 100 by default. With the default weigher it is the
+         * maximum number of values.
+         *
+         * @param maxWeight the maximum weight.
+         */
+        @NonNull
+        public Builder maxWeight(long maxWeight) {
+            if (maxWeight <= 0) {
+                throw new IllegalArgumentException("maxWeight must be positive");
+            }
+            this.maxWeight = maxWeight;
+            return this;
+        }
+
+        /**
+         * Set the weigher of the values, every value weighs 1 by default.
+         *
+         * @param weigher the weigher.
+         */
+        @NonNull
+        public Builder weigher(@NonNull Weigher weigher) {
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * Set the default time to live of the values, 5 minutes by default.
+         *
+         * @param ttl the time to live.
+         * @param unit the unit of the time to live.
+         */
+        @NonNull
+        public Builder defaultTtl(long ttl, @NonNull TimeUnit unit) {
+            if (ttl <= 0) {
+                throw new IllegalArgumentException("ttl must be positive");
+            }
+            this.defaultTtlMillis = unit.toMillis(ttl);
+            return this;
+        }
+
+        /**
+         * Hold the values with soft references, so the garbage collector may reclaim them
+         * before the application runs out of memory.
+         */
+        @NonNull
+        public Builder softValues() {
+            this.softValues = true;
+            return this;
+        }
+
+        /**
+         * Set the clock of the times to live, the one of the {@link Platform} by default.
+         *
+         * @param clock the clock.
+         */
+        @NonNull
+        public Builder clock(@NonNull Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Create the cache.
+         */
+        @NonNull
+        public ObjectCache build() {
+            return new ObjectCache(this);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package xds.lib.easyhttp.download;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sink collecting the body in a {@link ByteBuffer}, allocated at the length of the content
+ * when it is known. A direct buffer keeps the content off the Java heap.
+ */
+public final class ByteBufferSink implements DownloadSink<ByteBuffer> {
+
+    /** The largest buffer the runtime can allocate. */
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+    /** Initial capacity of a buffer of unknown content length. */
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+
+    private final boolean direct;
+    private final int maxLength;
+    private ByteBuffer buffer;
+
+    /**
+     * Create sink collecting the body in a heap buffer.
+     */
+    public ByteBufferSink() {
+        this(false, MAX_BUFFER_SIZE);
+    }
+
+    /**
+     * Create sink.
+     *
+     * @param direct True to allocate a direct buffer.
+     * @param maxLength The longest content accepted; a longer one fails the download.
+     */
+    public ByteBufferSink(boolean direct, int maxLength) {
+        this.direct = direct;
+        this.maxLength = Math.min(Math.max(0, maxLength), MAX_BUFFER_SIZE);
+    }
+
+    @Override
+    public void open(long offset, long totalLength) throws IOException {
+        if (totalLength > maxLength) {
+            throw new IOException("Content of " + totalLength + " bytes exceeds the limit of "
+                    + maxLength);
+        }
+        final int kept = buffer != null ? (int) Math.min(offset, buffer.position()) : 0;
+        final int capacity = totalLength >= 0 ? (int) totalLength :
+                Math.max(kept, Math.min(INITIAL_CAPACITY, maxLength));
+        if (buffer == null || buffer.capacity() < capacity) {
+            reallocate(capacity, kept);
+        }
+        buffer.limit(buffer.capacity());
+        buffer.position(kept);
+    }
+
+    @Override
+    public void write(@NonNull ByteBuffer src) throws IOException {
+        if (buffer == null) {
+            throw new IOException("Sink is not open");
+        }
+        if (src.remaining() > buffer.remaining()) {
+            final long required = (long) buffer.position() + src.remaining();
+            if (required > maxLength) {
+                throw new IOException("Content exceeds the limit of " + maxLength + " bytes");
+            }
+            reallocate((int) Math.min(maxLength, Math.max(required, 2L * buffer.capacity())),
+                    buffer.position());
+        }
+        buffer.put(src);
+    }
+
+    /**
+     * Returns the collected body between position 0 and the limit of the buffer. The sink
+     * starts with a new buffer afterwards.
+     */
+    @NonNull
+    @Override
+    public ByteBuffer finish() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Sink is not open");
+        }
+        final ByteBuffer result = buffer;
+        buffer = null;
+        result.flip();
+        return result;
+    }
+
+    @Override
+    public void close() {
+        // The buffer is kept for the next attempt
+    }
+
+    private void reallocate(int capacity, int kept) {
+        final ByteBuffer allocated = direct ? ByteBuffer.allocateDirect(capacity) :
+                ByteBuffer.allocate(capacity);
+        if (buffer != null && kept > 0) {
+            buffer.position(0);
+            buffer.limit(kept);
+            allocated.put(buffer);
+        }
+        buffer = allocated;
+    }
+}
@@ -0,0 +1,336 @@
+package xds.lib.easyhttp.download;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import xds.lib.easyhttp.HttpRequest;
+import xds.lib.easyhttp.exception.ParseException;
+import xds.lib.easyhttp.util.BufferPool;
+import xds.lib.easyhttp.util.Clock;
+
+/**
+ * Request streaming the response body into a {@link DownloadSink}, such as a {@link FileSink}
+ * or a {@link ByteBufferSink}, through one pooled buffer: the heap use doesn't depend on the
+ * size of the content.
+ * <p>
+ * When an attempt fails after receiving part of the body, the retry of the
+ * {@link #createRetryPolicy() retry policy} asks only for the rest with a {@code Range}
+ * header, guarded by {@code If-Range} when the server gave a validator. A server which
+ * answers with the whole content restarts the download. A failed download resumes the same
+ * way when the request is executed again.
+ * <p>
+ * Override {@link #onProgress(long, long)} to follow the download and
+ * {@link #createDigest()} to compute a checksum of the content while it is received.
+ *
+ * @param <T> The type of the downloaded result, defined by the sink.
+ */
+public class DownloadRequest<T> extends HttpRequest<T> {
+
+    private static final long DEFAULT_PROGRESS_BYTES = 64 * 1024;
+    private static final long DEFAULT_PROGRESS_MILLIS = 100;
+
+    private final String url;
+    private final DownloadSink<T> sink;
+
+    // The state of the download, kept between attempts
+    private long received;
+    private long offset;
+    private long totalLength = -1;
+    private boolean resumable;
+    @Nullable
+    private String validator;
+    @Nullable
+    private MessageDigest digest;
+    @Nullable
+    private byte[] digestValue;
+
+    /**
+     * Create request.
+     *
+     * @param url The URL of the content.
+     * @param sink The destination of the content.
+     */
+    public DownloadRequest(@NonNull String url, @NonNull DownloadSink<T> sink) {
+        this.url = url;
+        this.sink = sink;
+    }
+
+    @NonNull
+    @Override
+    protected String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the headers of the request: those of {@link #getRequestHeaders()} and the
+     * download headers, which ask for the content as it is stored and not to cache it.
+     */
+    @Override
+    protected final Map<String, String> getHeaders() {
+        final Map<String, String> headers = new LinkedHashMap<>();
+        final Map<String, String> requestHeaders = getRequestHeaders();
+        if (requestHeaders != null) {
+            headers.putAll(requestHeaders);
+        }
+        // Ranges count bytes of the content as it is stored
+        headers.put("Accept-Encoding", "identity");
+        headers.put("Cache-Control", "no-store");
+        if (resumable && received > 0) {
+            headers.put("Range", "bytes=" + received + "-");
+            if (validator != null) {
+                headers.put("If-Range", validator);
+            }
+        }
+        return headers;
+    }
+
+    /**
+     * Returns the headers to be included in the HTTP request, such as the authorization.
+     *
+     * @return A map of header names to header values.
+     */
+    @Nullable
+    @AnyThread
+    protected Map<String, String> getRequestHeaders() {
+        return null;
+    }
+
+    /**
+     * Downloads of one sink are distinct requests, the client never coalesces them.
+     */
+    @NonNull
+    @Override
+    public String getRequestId() {
+        return getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(sink));
+    }
+
+    /**
+     * Returns the number of received bytes after which the progress is reported again.
+     *
+     * @return The number of bytes.
+     */
+    @AnyThread
+    protected long getProgressStepBytes() {
+        return DEFAULT_PROGRESS_BYTES;
+    }
+
+    /**
+     * Returns the time after which the progress is reported again.
+     *
+     * @return The interval in milliseconds.
+     */
+    @AnyThread
+    protected long getProgressIntervalMillis() {
+        return DEFAULT_PROGRESS_MILLIS;
+    }
+
+    /**
+     * Called while the content is received, at most once per
+     * {@link #getProgressStepBytes()} and {@link #getProgressIntervalMillis()}, and once the
+     * whole content is received.
+     *
+     * @param bytesReceived The number of bytes of the content received, including the bytes of
+     * the previous attempts.
+     * @param totalBytes The length of the content, or -1 if it is unknown.
+     */
+    @WorkerThread
+    protected void onProgress(long bytesReceived, long totalBytes) {
+        // Default implementation does nothing
+    }
+
+    /**
+     * Creates the digest of the content computed while it is received, such as
+     * {@code MessageDigest.getInstance("SHA-256")}.
+     *
+     * @return The digest, or null if no checksum is needed.
+     */
+    @Nullable
+    @WorkerThread
+    protected MessageDigest createDigest() {
+        return null;
+    }
+
+    /**
+     * Returns the expected digest of the content. The download fails with a
+     * {@link ParseException} if the digest of the received content differs.
+     *
+     * @return The digest, or null if the content is not checked.
+     */
+    @Nullable
+    @AnyThread
+    protected byte[] getExpectedDigest() {
+        return null;
+    }
+
+    /**
+     * Returns the digest of the last downloaded content.
+     *
+     * @return The digest, or null if there is no {@link #createDigest()} or no content yet.
+     */
+    @Nullable
+    @AnyThread
+    public final byte[] getDigest() {
+        return digestValue != null ? digestValue.clone() : null;
+    }
+
+    @Override
+    protected void onResponseHeaders(int statusCode, @NonNull Map<String, List<String>> headers)
+            throws IOException {
+        final String encoding = header(headers, "Content-Encoding");
+        final boolean encoded = encoding != null && !"identity".equalsIgnoreCase(encoding);
+        if (statusCode == HttpURLConnection.HTTP_PARTIAL) {
+            final String contentRange = header(headers, "Content-Range");
+            final long[] range = parseContentRange(contentRange);
+            if (range == null || range[0] != received) {
+                // The next attempt starts over
+                received = 0;
+                resumable = false;
+                throw new IOException("Unexpected Content-Range: " + contentRange);
+            }
+            offset = received;
+            totalLength = range[1];
+        } else {
+            received = 0;
+            offset = 0;
+            totalLength = encoded ? -1 : parseLength(header(headers, "Content-Length"));
+            // Ranges of decoded bytes can't be requested
+            resumable = !encoded && !"none".equalsIgnoreCase(header(headers, "Accept-Ranges"));
+            validator = getValidator(headers);
+        }
+    }
+
+    @Override
+    protected T parseResponse(@NonNull InputStream inputStream, String contentType)
+            throws ParseException, IOException {
+        if (offset == 0 || digest == null) {
+            digest = createDigest();
+        }
+        sink.open(offset, totalLength);
+        final byte[] bytes = BufferPool.acquireBytes();
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final long stepBytes = getProgressStepBytes();
+        final long intervalMillis = getProgressIntervalMillis();
+        long reportedBytes = received;
+        final Clock clock = getHttpClient().getClock();
+        long reportedAt = clock.elapsedRealtime();
+        final T result;
+        try {
+            int read;
+            while ((read = inputStream.read(bytes, 0, bytes.length)) >= 0) {
+                buffer.clear();
+                buffer.limit(read);
+                sink.write(buffer);
+                if (digest != null) {
+                    digest.update(bytes, 0, read);
+                }
+                received += read;
+                if (received - reportedBytes >= stepBytes) {
+                    final long now = clock.elapsedRealtime();
+                    if (now - reportedAt >= intervalMillis) {
+                        onProgress(received, totalLength);
+                        reportedBytes = received;
+                        reportedAt = now;
+                    }
+                }
+            }
+            if (totalLength >= 0 && received < totalLength) {
+                throw new EOFException(String.format("Download ended at %d of %d bytes",
+                        received, totalLength));
+            }
+            result = sink.finish();
+        } catch (IOException | RuntimeException e) {
+            try {
+                sink.close();
+            } catch (IOException ignored) {
+                // The failure of the download is reported
+            }
+            throw e;
+        } finally {
+            BufferPool.release(bytes);
+        }
+        onProgress(received, totalLength);
+
+        // The next execution downloads the content again
+        received = 0;
+        resumable = false;
+        digestValue = digest != null ? digest.digest() : null;
+        digest = null;
+        final byte[] expectedDigest = getExpectedDigest();
+        if (expectedDigest != null && !MessageDigest.isEqual(expectedDigest, digestValue)) {
+            throw new ParseException("Digest of the downloaded content doesn't match");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the validator guarding a resumed download: a strong entity tag, or the
+     * modification date.
+     */
+    @Nullable
+    private static String getValidator(Map<String, List<String>> headers) {
+        final String etag = header(headers, "ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return header(headers, "Last-Modified");
+    }
+
+    /**
+     * Parses {@code bytes first-last/length} of the {@code Content-Range} header.
+     *
+     * @return The first position and the complete length, -1 if unknown; or null if the value
+     * is malformed.
+     */
+    @Nullable
+    static long[] parseContentRange(@Nullable String value) {
+        if (value == null || !value.regionMatches(true, 0, "bytes ", 0, 6)) {
+            return null;
+        }
+        final int dash = value.indexOf('-', 6);
+        final int slash = value.indexOf('/', dash + 1);
+        if (dash < 0 || slash < 0) {
+            return null;
+        }
+        try {
+            final long first = Long.parseLong(value.substring(6, dash).trim());
+            final String length = value.substring(slash + 1).trim();
+            return new long[] {first, "*".equals(length) ? -1 : Long.parseLong(length)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long parseLength(@Nullable String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Nullable
+    static String header(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            final List<String> values = entry.getValue();
+            if (name.equalsIgnoreCase(entry.getKey()) && values != null && !values.isEmpty()) {
+                return values.get(values.size() - 1);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,57 @@
+package xds.lib.easyhttp.download;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of the body of a {@link DownloadRequest}.
+ * <p>
+ * Each attempt of the download opens the sink, writes the bytes of the body in order and
+ * either finishes the sink or closes it on failure. A closed sink keeps the bytes written so
+ * far, so the next attempt can continue from the offset it opens the sink at.
+ *
+ * @param <T> The type of the downloaded result.
+ */
+public interface DownloadSink<T> extends Closeable {
+
+    /**
+     * Prepares the sink for the body of a response and drops the bytes past the offset.
+     *
+     * @param offset The position of the first byte of the body: the number of bytes kept from
+     * the previous attempt, or 0 to start over.
+     * @param totalLength The length of the whole content, or -1 if it is unknown.
+     * @throws IOException If the sink can't hold the content.
+     */
+    @WorkerThread
+    void open(long offset, long totalLength) throws IOException;
+
+    /**
+     * Writes all remaining bytes of the buffer after the bytes written before.
+     *
+     * @param src The bytes of the body; the buffer is reused after the call.
+     * @throws IOException If an I/O error occurs.
+     */
+    @WorkerThread
+    void write(@NonNull ByteBuffer src) throws IOException;
+
+    /**
+     * Completes the download and releases the resources of the sink.
+     *
+     * @return The downloaded result.
+     * @throws IOException If an I/O error occurs.
+     */
+    @NonNull
+    @WorkerThread
+    T finish() throws IOException;
+
+    /**
+     * Releases the resources of the sink after a failed attempt, keeping the bytes written.
+     */
+    @Override
+    @WorkerThread
+    void close() throws IOException;
+}
@@ -0,0 +1,118 @@
+package xds.lib.easyhttp.download;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sink writing the body to a file through its {@link FileChannel}.
+ * <p>
+ * When the length of the content is known and large enough, the file is written through
+ * memory-mapped windows of it instead of a write call per buffer. Only a window is mapped at a
+ * time, so the address space taken doesn't grow with the file. The heap use of the download
+ * doesn't depend on the size of the file.
+ */
+public final class FileSink implements DownloadSink<File> {
+
+    /** Shortest content written through a mapping. */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    /** Length of a mapped window of the file. */
+    private static final long MAP_WINDOW = 16 * 1024 * 1024;
+
+    private final File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel channel;
+    private MappedByteBuffer window;
+    private long length;
+    private long totalLength;
+
+    /**
+     * Create sink.
+     *
+     * @param file The destination file; it is created or overwritten.
+     */
+    public FileSink(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the destination file.
+     */
+    @NonNull
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void open(long offset, long totalLength) throws IOException {
+        close();
+        final File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory " + parent);
+        }
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        channel = randomAccessFile.getChannel();
+        if (channel.size() > offset) {
+            channel.truncate(offset);
+        }
+        this.length = Math.min(offset, channel.size());
+        this.totalLength = totalLength;
+    }
+
+    @Override
+    public void write(@NonNull ByteBuffer src) throws IOException {
+        if (channel == null) {
+            throw new IOException("Sink is not open");
+        }
+        while (src.hasRemaining()) {
+            if (totalLength >= MAP_THRESHOLD && length < totalLength) {
+                writeMapped(src);
+            } else {
+                length += channel.write(src, length);
+            }
+        }
+    }
+
+    @NonNull
+    @Override
+    public File finish() throws IOException {
+        close();
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        window = null;
+        try {
+            // A mapped window extends the file beyond the bytes written
+            if (channel.size() > length) {
+                channel.truncate(length);
+            }
+        } finally {
+            channel = null;
+            randomAccessFile.close();
+            randomAccessFile = null;
+        }
+    }
+
+    private void writeMapped(ByteBuffer src) throws IOException {
+        if (window == null || !window.hasRemaining()) {
+            window = channel.map(FileChannel.MapMode.READ_WRITE, length,
+                    Math.min(MAP_WINDOW, totalLength - length));
+        }
+        final int count = Math.min(src.remaining(), window.remaining());
+        final int limit = src.limit();
+        src.limit(src.position() + count);
+        window.put(src);
+        src.limit(limit);
+        length += count;
+    }
+}
@@ -0,0 +1,600 @@
+package xds.lib.easyhttp.download;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import xds.lib.easyhttp.HttpClient;
+import xds.lib.easyhttp.HttpRequest;
+import xds.lib.easyhttp.exception.ParseException;
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.util.BufferPool;
+import xds.lib.easyhttp.util.RetryPolicy;
+
+/**
+ * Download of a file over several connections at once, for content whose transfer is limited
+ * per connection rather than by the network, as often with CDNs.
+ * <p>
+ * A {@code HEAD} request probes the length of the content and whether the server accepts byte
+ * ranges. The file is then allocated at its length and split into chunks, which segments
+ * running in parallel fetch with {@code Range} requests and write at their offsets. A chunk
+ * which fails is retried on its own by the {@link Builder#retryPolicy(RetryPolicy) retry
+ * policy}, asking only for its missing bytes; the content must not change meanwhile.
+ * <p>
+ * The number of segments adapts to the measured throughput: starting from the initial count,
+ * a segment is added while the last one added raised the throughput of the download, up to
+ * the maximum. A server without byte ranges gets a single {@link DownloadRequest}.
+ */
+public final class SegmentedDownload {
+
+    private static final int DEFAULT_INITIAL_SEGMENTS = 2;
+    private static final int DEFAULT_MAX_SEGMENTS = 8;
+    private static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+    /** Chunks per segment at the maximum count, so segments finish close together. */
+    private static final int CHUNKS_PER_SEGMENT = 4;
+    /** Smallest relative throughput gain of an added segment to keep adding. */
+    private static final double MIN_GAIN = 0.1;
+
+    private final String url;
+    private final File file;
+    private final HttpClient client;
+    private final Map<String, String> headers;
+    private final int initialSegments;
+    private final int maxSegments;
+    private final long minSegmentSize;
+    @Nullable
+    private final RetryPolicy retryPolicy;
+    private volatile int segmentCount;
+
+    private SegmentedDownload(Builder builder) {
+        this.url = builder.url;
+        this.file = builder.file;
+        this.client = builder.client != null ? builder.client : HttpClient.getDefault();
+        this.headers = builder.headers;
+        this.initialSegments = builder.initialSegments;
+        this.maxSegments = builder.maxSegments;
+        this.minSegmentSize = builder.minSegmentSize;
+        this.retryPolicy = builder.retryPolicy;
+    }
+
+    /**
+     * Synchronously downloads the file. The segments run on the executor of the client.
+     *
+     * @return The downloaded file.
+     * @throws RequestException If there is an issue with the request.
+     * @throws ResponseException If the server returns an error.
+     * @throws ParseException If the content can't be written.
+     */
+    @NonNull
+    @WorkerThread
+    public File execute() throws RequestException, ResponseException, ParseException {
+        Map<String, List<String>> probe;
+        try {
+            probe = new ProbeRequest().execute();
+        } catch (ResponseException e) {
+            // HEAD is not supported
+            probe = Collections.emptyMap();
+        }
+        final long length = parseLength(DownloadRequest.header(probe, "Content-Length"));
+        final String acceptRanges = DownloadRequest.header(probe, "Accept-Ranges");
+        if (!"bytes".equalsIgnoreCase(acceptRanges) || length < 2 * minSegmentSize) {
+            segmentCount = 1;
+            return new WholeRequest().execute();
+        }
+        return new Execution(length, getConditions(probe)).run();
+    }
+
+    /**
+     * Returns the largest number of segments which ran in parallel during the last execution.
+     */
+    @AnyThread
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * Returns the conditions making a chunk request fail if the content changed since the
+     * probe: {@code If-Match} with a strong entity tag, or {@code If-Unmodified-Since}.
+     */
+    private static Map<String, String> getConditions(Map<String, List<String>> probe) {
+        final Map<String, String> conditions = new LinkedHashMap<>();
+        final String etag = DownloadRequest.header(probe, "ETag");
+        final String lastModified = DownloadRequest.header(probe, "Last-Modified");
+        if (etag != null && !etag.startsWith("W/")) {
+            conditions.put("If-Match", etag);
+        } else if (lastModified != null) {
+            conditions.put("If-Unmodified-Since", lastModified);
+        }
+        return conditions;
+    }
+
+    private static long parseLength(@Nullable String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the headers of every request of the download.
+     */
+    private Map<String, String> newHeaders() {
+        final Map<String, String> requestHeaders = new LinkedHashMap<>(headers);
+        // Ranges count bytes of the content as it is stored
+        requestHeaders.put("Accept-Encoding", "identity");
+        requestHeaders.put("Cache-Control", "no-store");
+        return requestHeaders;
+    }
+
+    /**
+     * The execution of a download over several segments.
+     */
+    private final class Execution {
+
+        private final long length;
+        private final Map<String, String> conditions;
+        private final long chunkSize;
+        private FileChannel channel;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+
+        // Guarded by lock
+        private long nextOffset;
+        private int running;
+        private int target;
+        private int peak;
+        private Exception failure;
+
+        // The throughput measurement, guarded by lock
+        private long epochStart;
+        private long epochBytes;
+        private int epochChunks;
+        private double lastThroughput;
+        private boolean lastAdded;
+        private boolean settled;
+
+        Execution(long length, Map<String, String> conditions) {
+            this.length = length;
+            this.conditions = conditions;
+            this.chunkSize = Math.max(minSegmentSize,
+                    length / ((long) maxSegments * CHUNKS_PER_SEGMENT));
+        }
+
+        File run() throws RequestException, ResponseException, ParseException {
+            try (RandomAccessFile randomAccessFile = openFile()) {
+                channel = randomAccessFile.getChannel();
+                lock.lock();
+                try {
+                    epochStart = client.getClock().elapsedRealtime();
+                    target = (int) Math.min(initialSegments, (length + chunkSize - 1) / chunkSize);
+                    for (int i = 0; i < target; i++) {
+                        startSegment();
+                    }
+                    try {
+                        while (running > 0) {
+                            changed.await();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        fail(new RequestException("Interrupted", e));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } catch (IOException e) {
+                fail(new ParseException("Can't write " + file, e));
+            } finally {
+                segmentCount = peak;
+            }
+            if (failure != null) {
+                // The chunks written can't be told apart from the holes
+                file.delete();
+                throwFailure(failure);
+            }
+            return file;
+        }
+
+        private RandomAccessFile openFile() throws IOException {
+            final File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Can't create directory " + parent);
+            }
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(length);
+            } catch (IOException e) {
+                randomAccessFile.close();
+                throw e;
+            }
+            return randomAccessFile;
+        }
+
+        // Guarded by lock
+        private void startSegment() {
+            running++;
+            peak = Math.max(peak, running);
+            try {
+                client.getExecutor().execute(this::runSegment);
+            } catch (RejectedExecutionException e) {
+                running--;
+                if (running == 0) {
+                    fail(new RequestException("Segment was rejected", e));
+                }
+            }
+        }
+
+        private void runSegment() {
+            try {
+                while (true) {
+                    final long first;
+                    final long last;
+                    lock.lock();
+                    try {
+                        if (failure != null || nextOffset >= length || running > target) {
+                            return;
+                        }
+                        first = nextOffset;
+                        nextOffset = Math.min(length, first + chunkSize);
+                        last = nextOffset - 1;
+                    } finally {
+                        lock.unlock();
+                    }
+                    new ChunkRequest(first, last).execute();
+                    onChunkDone(last - first + 1);
+                }
+            } catch (RequestException | ResponseException | ParseException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new RequestException("Segment failed", e));
+            } finally {
+                lock.lock();
+                try {
+                    running--;
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Measures the throughput once every segment completed a chunk on average, and adds a
+         * segment while the last one added paid off.
+         */
+        private void onChunkDone(long bytes) {
+            lock.lock();
+            try {
+                epochBytes += bytes;
+                epochChunks++;
+                if (settled || epochChunks < running) {
+                    return;
+                }
+                final long now = client.getClock().elapsedRealtime();
+                final double throughput = epochBytes / (double) Math.max(1, now - epochStart);
+                if (lastAdded && throughput < lastThroughput * (1 + MIN_GAIN)) {
+                    // The segment added didn't pay off, one segment retires after its chunk
+                    target--;
+                    settled = true;
+                } else if (target < maxSegments && nextOffset < length) {
+                    target++;
+                    lastAdded = true;
+                    startSegment();
+                } else {
+                    settled = true;
+                }
+                lastThroughput = throughput;
+                epochStart = now;
+                epochBytes = 0;
+                epochChunks = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void fail(Exception e) {
+            lock.lock();
+            try {
+                if (failure == null) {
+                    failure = e;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void throwFailure(Exception e)
+                throws RequestException, ResponseException, ParseException {
+            if (e instanceof ResponseException) {
+                throw (ResponseException) e;
+            }
+            if (e instanceof ParseException) {
+                throw (ParseException) e;
+            }
+            throw (RequestException) e;
+        }
+
+        /**
+         * Request of the bytes of a chunk, written at their offset in the file. A retry asks
+         * only for the bytes not written yet.
+         */
+        private final class ChunkRequest extends HttpRequest<Void> {
+
+            private final long last;
+            private long position;
+
+            ChunkRequest(long first, long last) {
+                this.position = first;
+                this.last = last;
+            }
+
+            @NonNull
+            @Override
+            protected String getUrl() {
+                return url;
+            }
+
+            @NonNull
+            @Override
+            protected HttpClient getHttpClient() {
+                return client;
+            }
+
+            @Override
+            protected RetryPolicy createRetryPolicy() {
+                return retryPolicy;
+            }
+
+            @Override
+            protected Map<String, String> getHeaders() {
+                final Map<String, String> requestHeaders = newHeaders();
+                requestHeaders.putAll(conditions);
+                requestHeaders.put("Range", "bytes=" + position + "-" + last);
+                return requestHeaders;
+            }
+
+            /**
+             * Chunks of one download are distinct requests, the client never coalesces them.
+             */
+            @NonNull
+            @Override
+            public String getRequestId() {
+                return getClass().getName() + '@' + Integer.toHexString(hashCode());
+            }
+
+            @Override
+            protected void onResponseHeaders(int statusCode,
+                    @NonNull Map<String, List<String>> headers) throws IOException {
+                final String contentRange = DownloadRequest.header(headers, "Content-Range");
+                final long[] range = DownloadRequest.parseContentRange(contentRange);
+                if (statusCode != HttpURLConnection.HTTP_PARTIAL || range == null
+                        || range[0] != position || range[1] != length) {
+                    throw new IOException("Unexpected range of the chunk: " + contentRange);
+                }
+            }
+
+            @Override
+            protected Void parseResponse(@NonNull InputStream inputStream, String contentType)
+                    throws IOException {
+                final byte[] bytes = BufferPool.acquireBytes();
+                final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                try {
+                    int read;
+                    while ((read = inputStream.read(bytes, 0, bytes.length)) >= 0) {
+                        if (position + read > last + 1) {
+                            throw new IOException("Chunk is longer than its range");
+                        }
+                        buffer.clear();
+                        buffer.limit(read);
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer, position + buffer.position());
+                        }
+                        position += read;
+                    }
+                } finally {
+                    BufferPool.release(bytes);
+                }
+                if (position <= last) {
+                    throw new EOFException(String.format("Chunk ended at %d of %d", position,
+                            last + 1));
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Request of the headers of the content.
+     */
+    private final class ProbeRequest extends HttpRequest<Map<String, List<String>>> {
+
+        private Map<String, List<String>> headers = Collections.emptyMap();
+
+        @NonNull
+        @Override
+        protected String getUrl() {
+            return url;
+        }
+
+        @NonNull
+        @Override
+        protected HttpClient getHttpClient() {
+            return client;
+        }
+
+        @Override
+        protected String getRequestMethod() {
+            return METHOD_HEAD;
+        }
+
+        @Override
+        protected RetryPolicy createRetryPolicy() {
+            return retryPolicy;
+        }
+
+        @Override
+        protected Map<String, String> getHeaders() {
+            return newHeaders();
+        }
+
+        @Override
+        protected void onResponseHeaders(int statusCode,
+                @NonNull Map<String, List<String>> headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        protected Map<String, List<String>> parseResponse(@NonNull InputStream inputStream,
+                String contentType) {
+            return headers;
+        }
+    }
+
+    /**
+     * Download over a single connection, for servers without byte ranges.
+     */
+    private final class WholeRequest extends DownloadRequest<File> {
+
+        WholeRequest() {
+            super(url, new FileSink(file));
+        }
+
+        @NonNull
+        @Override
+        protected HttpClient getHttpClient() {
+            return client;
+        }
+
+        @Override
+        protected RetryPolicy createRetryPolicy() {
+            return retryPolicy;
+        }
+
+        @Override
+        protected Map<String, String> getRequestHeaders() {
+            return headers;
+        }
+    }
+
+    /**
+     * Builder of {@link SegmentedDownload}.
+     */
+    public static final class Builder {
+
+        private final String url;
+        private final File file;
+        private HttpClient client;
+        private Map<String, String> headers = Collections.emptyMap();
+        private int initialSegments = DEFAULT_INITIAL_SEGMENTS;
+        private int maxSegments = DEFAULT_MAX_SEGMENTS;
+        private long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+        private RetryPolicy retryPolicy;
+
+        /**
+         * Create builder.
+         *
+         * @param url The URL of the content.
+         * @param file The destination file; it is created or overwritten, and deleted if the
+         * download fails.
+         */
+        public Builder(@NonNull String url, @NonNull File file) {
+            this.url = url;
+            this.file = file;
+        }
+
+        /**
+         * Set the client of the requests, the default client if not set.
+         *
+         * @param client the client.
+         */
+        @NonNull
+        public Builder client(@NonNull HttpClient client) {
+            this.client = client;
+            return this;
+        }
+
+        /**
+         * Set the headers added to every request, such as the authorization.
+         *
+         * @param headers the headers.
+         */
+        @NonNull
+        public Builder headers(@NonNull Map<String, String> headers) {
+            this.headers = new LinkedHashMap<>(headers);
+            return this;
+        }
+
+        /**
+         * Set the number of segments the download starts with and the number it may grow
+         * to, 2 and 8 by default.
+         *
+         * @param initialSegments the initial number of segments.
+         * @param maxSegments the maximum number of segments.
+         */
+        @NonNull
+        public Builder segments(int initialSegments, int maxSegments) {
+            if (initialSegments <= 0 || maxSegments < initialSegments) {
+                throw new IllegalArgumentException(
+                        "Segments must be positive, the initial count not above the maximum");
+            }
+            this.initialSegments = initialSegments;
+            this.maxSegments = maxSegments;
+            return this;
+        }
+
+        /**
+         * Set the smallest chunk fetched by a request, 1 MB by default. Content shorter than two
+         * chunks is downloaded over a single connection.
+         *
+         * @param minSegmentSize the size in bytes.
+         */
+        @NonNull
+        public Builder minSegmentSize(long minSegmentSize) {
+            if (minSegmentSize <= 0) {
+                throw new IllegalArgumentException("minSegmentSize must be positive");
+            }
+            this.minSegmentSize = minSegmentSize;
+            return this;
+        }
+
+        /**
+         * Set the retry policy of the probe and of each chunk, no retry by default.
+         *
+         * @param retryPolicy the retry policy, or null.
+         */
+        @NonNull
+        public Builder retryPolicy(@Nullable RetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Create the download.
+         */
+        @NonNull
+        public SegmentedDownload build() {
+            return new SegmentedDownload(this);
+        }
+    }
+}
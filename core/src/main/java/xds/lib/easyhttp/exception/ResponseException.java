@@ -1,18 +1,69 @@
 package xds.lib.easyhttp.exception;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 /**
  * The exception if the server answer with error code.
  */
 public final class ResponseException extends Exception {
 
     private final int responseCode;
+    private final Map<String, List<String>> headers;
 
     public ResponseException(String message, int responseCode) {
+        this(message, responseCode, null);
+    }
+
+    /**
+     * Create exception with the headers of the error response.
+     *
+     * @param message the error message, usually the error body.
+     * @param responseCode the HTTP status code.
+     * @param headers the response headers, or null if unknown.
+     */
+    public ResponseException(String message, int responseCode,
+            @Nullable Map<String, List<String>> headers) {
         super(message);
         this.responseCode = responseCode;
+        final Map<String, List<String>> copy = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                // HttpURLConnection reports the status line under the null key
+                if (header.getKey() != null && header.getValue() != null) {
+                    copy.put(header.getKey(), header.getValue());
+                }
+            }
+        }
+        this.headers = Collections.unmodifiableMap(copy);
     }
 
     public int getResponseCode() {
         return responseCode;
     }
+
+    /**
+     * Returns the headers of the error response, empty if unknown.
+     */
+    @NonNull
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the last value of the response header, such as {@code Retry-After}.
+     *
+     * @param name the case-insensitive header name.
+     * @return the value, or null if there is no such header.
+     */
+    @Nullable
+    public String getHeaderField(@NonNull String name) {
+        final List<String> values = headers.get(name);
+        return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+    }
 }
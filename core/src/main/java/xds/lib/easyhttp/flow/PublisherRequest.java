@@ -0,0 +1,301 @@
+package xds.lib.easyhttp.flow;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import xds.lib.easyhttp.HttpRequest;
+import xds.lib.easyhttp.cache.ObjectCache;
+import xds.lib.easyhttp.exception.ParseException;
+
+/**
+ * Request publishing the records of the response to a {@link Flow.Subscriber} as they are
+ * received: chunks of bytes, lines or server-sent events, see {@link RecordReader}.
+ * <p>
+ * The next record is read only once the subscriber has requested it, so a slow subscriber
+ * stops the reads from the socket instead of buffering the response. Subscribing executes the
+ * request on the executor of the client; redirects and retries before the first record work
+ * as for any request. Records are never delivered twice: a failure after the first record is
+ * not retried and is signalled as a {@link ParseException}. Cancelling the subscription
+ * cancels the request and closes its connection.
+ * <p>
+ * A response may be published for as long as the server keeps it open, keep
+ * {@link #getCallTimeout()} and {@link #getReadTimeout()} unset for such streams.
+ * <p>
+ * The request has one subscriber at a time; another one is rejected with an
+ * {@link IllegalStateException} until the current execution completes.
+ *
+ * @param <R> The type of the records.
+ */
+@RequiresApi(30)
+public abstract class PublisherRequest<R> extends HttpRequest<Long>
+        implements Flow.Publisher<R> {
+
+    @Nullable
+    private volatile RecordSubscription<R> subscription;
+
+    /**
+     * Creates the reader of the records of the response body.
+     *
+     * @param inputStream The response body.
+     * @param contentType The Content-Type of the response, or null.
+     * @return The reader.
+     * @throws ParseException If the response can't be published, such as an unexpected type.
+     */
+    @NonNull
+    @WorkerThread
+    protected abstract RecordReader<R> newRecordReader(@NonNull InputStream inputStream,
+            @Nullable String contentType) throws ParseException;
+
+    /**
+     * Called for each record when the request is executed without a subscriber. The next
+     * record is read once this method returns.
+     *
+     * @param record The record.
+     * @throws ParseException To stop reading and fail the request.
+     */
+    @WorkerThread
+    protected void onRecord(@NonNull R record) throws ParseException {
+        // Default implementation does nothing
+    }
+
+    /**
+     * Executes the request on the executor of the client and publishes its records to the
+     * subscriber. The result of the execution is the number of published records.
+     *
+     * @param subscriber The subscriber.
+     */
+    @AnyThread
+    @Override
+    public final void subscribe(@NonNull Flow.Subscriber<? super R> subscriber) {
+        Objects.requireNonNull(subscriber);
+        final RecordSubscription<R> records = new RecordSubscription<>(subscriber);
+        synchronized (this) {
+            if (subscription != null) {
+                subscriber.onSubscribe(RecordSubscription.REJECTED);
+                subscriber.onError(new IllegalStateException("Request is already subscribed"));
+                return;
+            }
+            subscription = records;
+        }
+        subscriber.onSubscribe(records);
+        final CompletableFuture<Long> future = executeFuture();
+        future.whenComplete((count, error) -> {
+            synchronized (this) {
+                subscription = null;
+            }
+            records.finish(error);
+        });
+        records.start(future);
+    }
+
+    /**
+     * Executions of one request are distinct, the client never coalesces them.
+     */
+    @NonNull
+    @Override
+    public String getRequestId() {
+        return getClass().getName() + '@' + Integer.toHexString(System.identityHashCode(this));
+    }
+
+    /**
+     * Records are delivered once, they are never cached.
+     */
+    @Nullable
+    @Override
+    protected final ObjectCache getObjectCache() {
+        return null;
+    }
+
+    @Override
+    protected final Long parseResponse(@NonNull InputStream inputStream, String contentType)
+            throws ParseException, IOException {
+        final RecordSubscription<R> records = subscription;
+        final RecordReader<R> reader = newRecordReader(inputStream, contentType);
+        long count = 0;
+        try {
+            while (true) {
+                if (records != null) {
+                    // Nothing is read from the socket until the subscriber asks for more
+                    records.awaitDemand();
+                }
+                final R record = reader.read();
+                if (record == null) {
+                    return count;
+                }
+                if (records != null) {
+                    records.onNext(record);
+                } else {
+                    onRecord(record);
+                }
+                count++;
+            }
+        } catch (IOException e) {
+            if (count == 0 && !(e instanceof InterruptedIOException)) {
+                throw e;
+            }
+            throw new ParseException(String.format("Response failed after %d records", count),
+                    e);
+        }
+    }
+
+    /**
+     * Subscription tracking the demand of the subscriber.
+     */
+    private static final class RecordSubscription<R> implements Flow.Subscription {
+
+        static final Flow.Subscription REJECTED = new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                // Nothing is published
+            }
+
+            @Override
+            public void cancel() {
+                // Nothing is published
+            }
+        };
+
+        private final Flow.Subscriber<? super R> subscriber;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private CompletableFuture<Long> future;
+        private long demand;
+        private boolean cancelled;
+        private Throwable failure;
+
+        RecordSubscription(Flow.Subscriber<? super R> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+                if (n <= 0) {
+                    // Rule 3.9 of Reactive Streams: signalled once the request stops
+                    failure = new IllegalArgumentException("Non-positive request: " + n);
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    changed.signalAll();
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            stop();
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                if (cancelled) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            stop();
+        }
+
+        void start(CompletableFuture<Long> future) {
+            final boolean stopped;
+            lock.lock();
+            try {
+                this.future = future;
+                stopped = cancelled;
+            } finally {
+                lock.unlock();
+            }
+            if (stopped) {
+                future.cancel(true);
+            }
+        }
+
+        void awaitDemand() throws InterruptedIOException {
+            lock.lock();
+            try {
+                try {
+                    while (demand == 0 && !cancelled) {
+                        changed.await();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for demand");
+                }
+                if (cancelled) {
+                    throw new InterruptedIOException("Subscription cancelled");
+                }
+                if (demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void onNext(R record) throws ParseException {
+            try {
+                subscriber.onNext(record);
+            } catch (RuntimeException e) {
+                throw new ParseException("Subscriber failed", e);
+            }
+        }
+
+        void finish(@Nullable Throwable error) {
+            final Throwable signal;
+            lock.lock();
+            try {
+                if (cancelled && failure == null) {
+                    return;
+                }
+                cancelled = true;
+                if (failure != null) {
+                    signal = failure;
+                } else if (error instanceof CompletionException && error.getCause() != null) {
+                    signal = error.getCause();
+                } else {
+                    signal = error;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (signal == null) {
+                subscriber.onComplete();
+            } else {
+                subscriber.onError(signal);
+            }
+        }
+
+        private void stop() {
+            final CompletableFuture<Long> started;
+            lock.lock();
+            try {
+                cancelled = true;
+                started = future;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (started != null) {
+                started.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package xds.lib.easyhttp.flow;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import xds.lib.easyhttp.exception.ParseException;
+
+/**
+ * Reader of the records of a response body, one at a time, for {@link PublisherRequest}.
+ *
+ * @param <R> The type of the records.
+ */
+public interface RecordReader<R> {
+
+    /**
+     * Reads the next record, blocking until it is received.
+     *
+     * @return The record, or null at the end of the body.
+     * @throws IOException If an I/O error occurs.
+     * @throws ParseException If the record is invalid.
+     */
+    @Nullable
+    @WorkerThread
+    R read() throws IOException, ParseException;
+
+    /**
+     * Create reader of the bytes of the body as they are received, in buffers of at most
+     * {@code maxSize} bytes. Each buffer is new, the subscriber may keep it.
+     *
+     * @param in The body.
+     * @param maxSize The largest buffer.
+     * @return The reader.
+     */
+    @NonNull
+    static RecordReader<ByteBuffer> chunks(@NonNull InputStream in, int maxSize) {
+        final byte[] bytes = new byte[maxSize];
+        return () -> {
+            final int read = in.read(bytes);
+            if (read < 0) {
+                return null;
+            }
+            final ByteBuffer chunk = ByteBuffer.allocate(read);
+            chunk.put(bytes, 0, read).flip();
+            return chunk;
+        };
+    }
+
+    /**
+     * Create reader of the lines of the body, such as the records of NDJSON. Lines end with
+     * LF, CR or CRLF; empty lines are skipped.
+     *
+     * @param in The body.
+     * @param charset The charset of the body.
+     * @return The reader.
+     */
+    @NonNull
+    static RecordReader<String> lines(@NonNull InputStream in, @NonNull Charset charset) {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, charset));
+        return () -> {
+            String line;
+            while ((line = reader.readLine()) != null && line.isEmpty()) {
+                // Skip blank lines between records
+            }
+            return line;
+        };
+    }
+
+    /**
+     * Create reader of the events of a {@code text/event-stream} body.
+     *
+     * @param in The body.
+     * @return The reader.
+     */
+    @NonNull
+    static RecordReader<ServerSentEvent> events(@NonNull InputStream in) {
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return new ServerSentEvent.Reader(reader);
+    }
+}
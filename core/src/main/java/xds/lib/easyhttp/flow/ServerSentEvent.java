@@ -0,0 +1,133 @@
+package xds.lib.easyhttp.flow;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Event of a {@code text/event-stream} response, as the HTML specification of server-sent
+ * events defines it.
+ */
+public final class ServerSentEvent {
+
+    private static final String DEFAULT_TYPE = "message";
+
+    private final String id;
+    private final String type;
+    private final String data;
+    private final long retryMillis;
+
+    ServerSentEvent(@Nullable String id, @NonNull String type, @NonNull String data,
+            long retryMillis) {
+        this.id = id;
+        this.type = type;
+        this.data = data;
+        this.retryMillis = retryMillis;
+    }
+
+    /** The last event ID of the stream, or null if the server set none. */
+    @Nullable
+    public String getId() {
+        return id;
+    }
+
+    /** The type of the event, {@code message} by default. */
+    @NonNull
+    public String getType() {
+        return type;
+    }
+
+    /** The data of the event; the lines of the data are joined with LF. */
+    @NonNull
+    public String getData() {
+        return data;
+    }
+
+    /**
+     * The reconnection time the server asked for, or -1 if it didn't.
+     */
+    public long getRetryMillis() {
+        return retryMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ServerSentEvent{id=" + id + ", type=" + type + ", data=" + data + '}';
+    }
+
+    /**
+     * Parser of the event stream, line by line.
+     */
+    static final class Reader implements RecordReader<ServerSentEvent> {
+        private final BufferedReader reader;
+        private final StringBuilder data = new StringBuilder();
+        private String lastId;
+        private long retryMillis = -1;
+
+        Reader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        @Nullable
+        @Override
+        public ServerSentEvent read() throws IOException {
+            String type = null;
+            boolean hasData = false;
+            data.setLength(0);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    if (hasData) {
+                        return new ServerSentEvent(lastId,
+                                type != null ? type : DEFAULT_TYPE, data.toString(), retryMillis);
+                    }
+                    // An event without data is not dispatched
+                    type = null;
+                    continue;
+                }
+                if (line.charAt(0) == ':') {
+                    // Comment, such as a keep-alive
+                    continue;
+                }
+                final int colon = line.indexOf(':');
+                final String field = colon >= 0 ? line.substring(0, colon) : line;
+                String value = colon >= 0 ? line.substring(colon + 1) : "";
+                if (value.startsWith(" ")) {
+                    value = value.substring(1);
+                }
+                switch (field) {
+                    case "data":
+                        if (hasData) {
+                            data.append('\n');
+                        }
+                        data.append(value);
+                        hasData = true;
+                        break;
+                    case "event":
+                        type = value;
+                        break;
+                    case "id":
+                        if (value.indexOf('\0') < 0) {
+                            lastId = value;
+                        }
+                        break;
+                    case "retry":
+                        try {
+                            retryMillis = Long.parseLong(value);
+                        } catch (NumberFormatException ignored) {
+                            // Ignored as the specification requires
+                        }
+                        break;
+                    default:
+                        // Unknown fields are ignored
+                        break;
+                }
+            }
+            // An incomplete event at the end of the stream is discarded
+            return null;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package xds.lib.easyhttp.transport;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import xds.lib.easyhttp.util.BufferPool;
+
+/**
+ * Bounded buffer which hands the response body from the event loop to the reading thread.
+ * <p>
+ * When the buffer is full the loop stops reading the socket, the reader resumes it once half
+ * of the buffer is free again, so a slow consumer throttles the socket instead of buffering
+ * the whole body.
+ * <p>
+ * The buffer comes from the {@link BufferPool} and goes back to it once the response is closed
+ * and the loop no longer writes to the pipe.
+ */
+final class BodyPipe {
+
+    private final int capacity = BufferPool.LARGE_BUFFER_SIZE;
+    private final Runnable resume;
+    private final InputStream stream = new PipeInputStream();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private byte[] buffer = BufferPool.acquireLargeBytes();
+
+    private int readPos;
+    private int size;
+    private int readTimeout;
+    private boolean finished;
+    private boolean endOfStream;
+    private boolean discarding;
+    private boolean paused;
+    private boolean closed;
+    private IOException failure;
+
+    /**
+     * @param resume the action which restarts socket reads after the pipe was full.
+     */
+    BodyPipe(Runnable resume) {
+        this.resume = resume;
+    }
+
+    @NonNull
+    InputStream stream() {
+        return stream;
+    }
+
+    void setReadTimeout(int readTimeout) {
+        lock.lock();
+        try {
+            this.readTimeout = readTimeout;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copy as many bytes as fit. Called by the event loop.
+     *
+     * @return {@code true} if all remaining bytes of {@code src} were taken.
+     */
+    boolean write(ByteBuffer src) {
+        lock.lock();
+        try {
+            if (discarding || buffer == null) {
+                src.position(src.limit());
+                return true;
+            }
+            while (src.hasRemaining() && size < capacity) {
+                final int writePos = (readPos + size) % capacity;
+                final int count = Math.min(src.remaining(),
+                        Math.min(capacity - size, capacity - writePos));
+                src.get(buffer, writePos, count);
+                size += count;
+            }
+            changed.signalAll();
+            if (src.hasRemaining()) {
+                paused = true;
+                return false;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Mark the body complete. Called by the event loop. */
+    void finish() {
+        lock.lock();
+        try {
+            finished = true;
+            releaseIfDone();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Fail the pending reads. */
+    void fail(IOException e) {
+        lock.lock();
+        try {
+            if (!finished && failure == null) {
+                failure = e;
+                releaseIfDone();
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The response was closed, no more reads follow. The buffer returns to the pool once the
+     * loop is done with the pipe as well.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            releaseIfDone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the buffered and upcoming bytes; the loop keeps reading the socket so the connection
+     * reaches the next response.
+     */
+    void discard() {
+        final boolean wasPaused;
+        lock.lock();
+        try {
+            discarding = true;
+            size = 0;
+            wasPaused = paused;
+            paused = false;
+            releaseIfDone();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (wasPaused) {
+            resume.run();
+        }
+    }
+
+    /** {@code true} if the consumer read the body to the end. */
+    boolean isConsumed() {
+        lock.lock();
+        try {
+            return endOfStream || (finished && size == 0 && !discarding);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** {@code true} if the loop received the whole body. */
+    boolean isFinished() {
+        lock.lock();
+        try {
+            return finished;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        final int count;
+        final boolean resumeReading;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            awaitData();
+            if (size == 0) {
+                if (failure != null) {
+                    throw failure;
+                }
+                endOfStream = true;
+                return -1;
+            }
+            count = Math.min(len, Math.min(size, capacity - readPos));
+            System.arraycopy(buffer, readPos, b, off, count);
+            readPos = (readPos + count) % capacity;
+            size -= count;
+            resumeReading = paused && size <= capacity / 2;
+            if (resumeReading) {
+                paused = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (resumeReading) {
+            resume.run();
+        }
+        return count;
+    }
+
+    private void awaitData() throws IOException {
+        final long deadline = readTimeout > 0 ? System.nanoTime() + readTimeout * 1_000_000L : 0;
+        while (size == 0 && !finished && failure == null) {
+            try {
+                if (deadline == 0) {
+                    changed.await();
+                } else {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("Read timed out");
+                    }
+                    changed.await(remaining, TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading response body");
+            }
+        }
+    }
+
+    private int available() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the buffer to the pool if neither side uses it anymore. Called with the lock held.
+     */
+    private void releaseIfDone() {
+        if (buffer != null && closed && (finished || failure != null || discarding)) {
+            BufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    private final class PipeInputStream extends InputStream {
+
+        private final byte[] single = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            return BodyPipe.this.read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            return BodyPipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return BodyPipe.this.available();
+        }
+    }
+}
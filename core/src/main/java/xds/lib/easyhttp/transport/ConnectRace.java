@@ -0,0 +1,310 @@
+package xds.lib.easyhttp.transport;
+
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import xds.lib.easyhttp.Call;
+
+/**
+ * Connection attempts to the addresses of a host raced as in Happy Eyeballs (RFC 8305): the
+ * addresses alternate between IPv6 and IPv4, starting with the family the resolver preferred,
+ * and each attempt starts when the previous one failed or didn't connect within the attempt
+ * delay. The first connected socket wins and the other attempts are closed, so an unreachable
+ * address family costs the attempt delay instead of a connect timeout.
+ * <p>
+ * The calling thread waits for the race; the attempts report to it from the event loops.
+ */
+final class ConnectRace implements NioConnection.ConnectListener, Closeable {
+
+    private final List<InetSocketAddress> addresses;
+    private final long attemptDelayMillis;
+    @Nullable
+    private final Call call;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private final List<NioConnection> attempts = new ArrayList<>();
+    private final List<InetSocketAddress> attemptAddresses = new ArrayList<>();
+    private final List<NioConnection> running = new ArrayList<>();
+    private final ArrayDeque<Failure> failures = new ArrayDeque<>();
+    private IOException firstFailure;
+    private NioConnection winner;
+    private boolean attemptFailed;
+    private boolean closed;
+
+    /**
+     * @param addresses the addresses of the host, in the order of preference of the resolver.
+     * @param port the port to connect to.
+     * @param attemptDelayMillis the delay before the next attempt starts.
+     * @param call the call reporting the attempts, or null.
+     */
+    ConnectRace(List<InetAddress> addresses, int port, long attemptDelayMillis,
+            @Nullable Call call) {
+        this.addresses = new ArrayList<>(addresses.size());
+        for (InetAddress address : interleave(addresses)) {
+            this.addresses.add(new InetSocketAddress(address, port));
+        }
+        this.attemptDelayMillis = attemptDelayMillis;
+        this.call = call;
+    }
+
+    /**
+     * Race the attempts until one connects.
+     *
+     * @param loops the event loops of the attempts, one per attempt.
+     * @param connectTimeout the timeout of the whole race in milliseconds, non-positive for none.
+     * @return the connected connection.
+     * @throws IOException if every attempt failed, the race timed out or was closed.
+     */
+    NioConnection connect(Supplier<EventLoop> loops, int connectTimeout) throws IOException {
+        final long deadline = connectTimeout > 0 ?
+                System.nanoTime() + connectTimeout * 1_000_000L : 0;
+        int next = 0;
+        long nextAttemptAt = System.nanoTime();
+        try {
+            lock.lock();
+            try {
+                while (winner == null) {
+                    reportFailures();
+                    if (closed) {
+                        throw new IOException("Canceled", firstFailure);
+                    }
+                    final long now = System.nanoTime();
+                    if (deadline != 0 && deadline - now <= 0) {
+                        throw new SocketTimeoutException("Connect timed out");
+                    }
+                    // A failed attempt doesn't wait for the delay to pass the next one
+                    if (next < addresses.size()
+                            && (running.isEmpty() || attemptFailed || now - nextAttemptAt >= 0)) {
+                        attemptFailed = false;
+                        start(loops.get(), addresses.get(next++));
+                        nextAttemptAt = now + attemptDelayMillis * 1_000_000L;
+                        continue;
+                    }
+                    if (running.isEmpty()) {
+                        throw firstFailure != null ? firstFailure :
+                                new IOException("No address to connect to");
+                    }
+                    long waitNanos = Long.MAX_VALUE;
+                    if (next < addresses.size()) {
+                        waitNanos = nextAttemptAt - now;
+                    }
+                    if (deadline != 0) {
+                        waitNanos = Math.min(waitNanos, deadline - now);
+                    }
+                    if (waitNanos == Long.MAX_VALUE) {
+                        changed.await();
+                    } else {
+                        changed.await(waitNanos, TimeUnit.NANOSECONDS);
+                    }
+                }
+                reportFailures();
+                if (call != null) {
+                    call.getEventListener().connectEnd(call, getWinnerAddress());
+                }
+                return winner;
+            } finally {
+                lock.unlock();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            final IOException failure =
+                    new InterruptedIOException("Interrupted waiting for connection");
+            reportAborted(failure);
+            throw failure;
+        } catch (IOException e) {
+            reportAborted(e);
+            throw e;
+        } finally {
+            closeLosers();
+        }
+    }
+
+    /**
+     * The address of the connection which won the race, or null.
+     */
+    @Nullable
+    InetSocketAddress getWinnerAddress() {
+        lock.lock();
+        try {
+            return winner != null ? attemptAddresses.get(attempts.indexOf(winner)) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close all attempts, failing the race. Safe to call from any thread.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed || winner != null) {
+                return;
+            }
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        closeLosers();
+    }
+
+    @Override
+    public void onConnected(NioConnection connection) {
+        lock.lock();
+        try {
+            running.remove(connection);
+            if (winner == null && !closed) {
+                winner = connection;
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onConnectFailed(NioConnection connection, IOException e) {
+        lock.lock();
+        try {
+            if (!running.remove(connection) || winner != null) {
+                // A loser closed after the race
+                return;
+            }
+            if (!closed) {
+                if (firstFailure == null) {
+                    firstFailure = e;
+                } else {
+                    firstFailure.addSuppressed(e);
+                }
+                attemptFailed = true;
+            }
+            failures.add(new Failure(attemptAddresses.get(attempts.indexOf(connection)), e));
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Start an attempt. Called with the lock held.
+     */
+    private void start(EventLoop loop, InetSocketAddress address) throws IOException {
+        if (call != null) {
+            call.getEventListener().connectStart(call, address);
+        }
+        try {
+            final NioConnection attempt = NioConnection.open(loop, address, this);
+            attempts.add(attempt);
+            attemptAddresses.add(address);
+            running.add(attempt);
+        } catch (IOException e) {
+            if (call != null) {
+                call.getEventListener().connectFailed(call, address, e);
+            }
+            if (firstFailure == null) {
+                firstFailure = e;
+            } else {
+                firstFailure.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * Report the failed attempts on the calling thread. Called with the lock held.
+     */
+    private void reportFailures() {
+        Failure failure;
+        while ((failure = failures.poll()) != null) {
+            if (call != null) {
+                call.getEventListener().connectFailed(call, failure.address, failure.error);
+            }
+        }
+    }
+
+    /**
+     * Report the failure of the race to the attempts still connecting.
+     */
+    private void reportAborted(IOException e) {
+        lock.lock();
+        try {
+            reportFailures();
+            if (call != null) {
+                for (NioConnection attempt : running) {
+                    call.getEventListener().connectFailed(call,
+                            attemptAddresses.get(attempts.indexOf(attempt)), e);
+                }
+            }
+            running.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeLosers() {
+        final List<NioConnection> losers;
+        lock.lock();
+        try {
+            losers = new ArrayList<>(attempts);
+            losers.remove(winner);
+        } finally {
+            lock.unlock();
+        }
+        for (NioConnection loser : losers) {
+            loser.close();
+        }
+    }
+
+    /**
+     * Order the addresses as RFC 8305 suggests: alternating address families, starting with
+     * the family of the first address.
+     */
+    static List<InetAddress> interleave(List<InetAddress> addresses) {
+        final List<InetAddress> first = new ArrayList<>();
+        final List<InetAddress> second = new ArrayList<>();
+        final boolean ipv6First = addresses.get(0) instanceof Inet6Address;
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == ipv6First) {
+                first.add(address);
+            } else {
+                second.add(address);
+            }
+        }
+        if (second.isEmpty()) {
+            return addresses;
+        }
+        final List<InetAddress> ordered = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) ordered.add(first.get(i));
+            if (i < second.size()) ordered.add(second.get(i));
+        }
+        return ordered;
+    }
+
+    private static final class Failure {
+        final InetSocketAddress address;
+        final IOException error;
+
+        Failure(InetSocketAddress address, IOException error) {
+            this.address = address;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package xds.lib.easyhttp.transport;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single selector thread which drives the I/O of many {@link NioConnection}s.
+ * <p>
+ * All channel registration and connection state changes happen on this thread; other threads
+ * hand work over with {@link #execute(NioConnection, Runnable)}. An unexpected exception of a
+ * connection, such as a listener throwing, fails that connection and the loop keeps running
+ * the others.
+ */
+final class EventLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Run the task of the connection on the loop thread.
+     */
+    void execute(NioConnection connection, Runnable task) {
+        tasks.add(new Task(connection, task));
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Stop the loop and close all registered connections.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                break;
+            }
+            runTasks();
+            final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+                final NioConnection connection = (NioConnection) key.attachment();
+                try {
+                    connection.onSelected(key);
+                } catch (RuntimeException e) {
+                    fail(connection, e);
+                }
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            final NioConnection connection = (NioConnection) key.attachment();
+            try {
+                connection.fail(new IOException("Transport is shut down"));
+            } catch (RuntimeException e) {
+                // The other connections still have to be failed
+            }
+        }
+        runTasks();
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+            // Nothing left to release
+        }
+    }
+
+    private void runTasks() {
+        Task task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.action.run();
+            } catch (RuntimeException e) {
+                fail(task.connection, e);
+            }
+        }
+    }
+
+    /**
+     * Fail only the connection which threw, keeping the loop alive for the others.
+     */
+    private static void fail(NioConnection connection, RuntimeException e) {
+        try {
+            connection.fail(new IOException("Unexpected failure of the connection", e));
+        } catch (RuntimeException ignored) {
+            // Its socket is closed, the exchanges left time out
+        }
+    }
+
+    private static final class Task {
+        final NioConnection connection;
+        final Runnable action;
+
+        Task(NioConnection connection, Runnable action) {
+            this.connection = connection;
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package xds.lib.easyhttp.transport;
+
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Non-blocking HTTP/1.1 connection driven by an {@link EventLoop}.
+ * <p>
+ * Requests are written in submission order and responses are matched to them in the same
+ * order, so several exchanges may be in flight on one connection. All fields except
+ * {@link #open} are confined to the loop thread.
+ */
+final class NioConnection implements Closeable {
+
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final ArrayDeque<NioExchange> exchanges = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private final ByteBuffer inbound = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    private SelectionKey key;
+    private ConnectListener connectListener;
+    private RequestPipe upload;
+    private boolean connected;
+    private boolean readPaused;
+    private volatile boolean open = true;
+    private volatile boolean reusable = true;
+
+    private NioConnection(EventLoop loop, SocketChannel channel) {
+        this.loop = loop;
+        this.channel = channel;
+    }
+
+    /**
+     * Start connecting to the address on the loop.
+     */
+    static NioConnection open(EventLoop loop, InetSocketAddress address) throws IOException {
+        return open(loop, address, null);
+    }
+
+    /**
+     * Start connecting to the address on the loop, notifying the listener of the outcome.
+     */
+    static NioConnection open(EventLoop loop, InetSocketAddress address,
+            @Nullable ConnectListener listener) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        final NioConnection connection = new NioConnection(loop, channel);
+        connection.connectListener = listener;
+        loop.execute(connection, () -> connection.connect(address));
+        return connection;
+    }
+
+    /** {@code true} if the connection may carry further exchanges. */
+    boolean isReusable() {
+        return open && reusable;
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Queue the exchange; its request is written as soon as the socket is writable.
+     */
+    void submit(NioExchange exchange) {
+        loop.execute(this, () -> {
+            if (!open) {
+                exchange.fail(new IOException("Connection is closed"));
+                return;
+            }
+            exchanges.add(exchange);
+            outbound.add(exchange.requestBytes());
+            if (exchange.upload() != null) {
+                // The body follows the head; a streamed request is never pipelined
+                upload = exchange.upload();
+            }
+            if (connected) {
+                exchange.onConnected();
+            }
+            updateInterest();
+        });
+    }
+
+    /**
+     * Restart socket reads after the body pipe of the current exchange drained.
+     */
+    void resumeReading() {
+        loop.execute(this, () -> {
+            if (!open || !readPaused) {
+                return;
+            }
+            readPaused = false;
+            try {
+                processInbound();
+                if (!readPaused) {
+                    readInbound();
+                }
+                updateInterest();
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+    }
+
+    /**
+     * Restart socket writes after the writer of the streamed request body filled the empty
+     * pipe.
+     */
+    void resumeWriting() {
+        loop.execute(this, () -> {
+            if (!open || !connected || upload == null) {
+                return;
+            }
+            try {
+                writeOutbound();
+                updateInterest();
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+    }
+
+    /**
+     * Close the socket right away and fail the exchanges in flight. Safe to call from any
+     * thread.
+     */
+    @Override
+    public void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Closing anyway
+        }
+        loop.execute(this, () -> fail(new IOException("Connection is closed")));
+    }
+
+    /**
+     * Handle a ready key. Called by the event loop.
+     */
+    void onSelected(SelectionKey key) {
+        try {
+            if (key.isValid() && key.isConnectable()) {
+                channel.finishConnect();
+                onConnected();
+            }
+            if (key.isValid() && key.isWritable()) {
+                writeOutbound();
+            }
+            if (key.isValid() && key.isReadable()) {
+                readInbound();
+            }
+            updateInterest();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Fail all exchanges and close the socket. Called by the event loop.
+     */
+    void fail(IOException e) {
+        open = false;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Closing anyway
+        }
+        outbound.clear();
+        upload = null;
+        if (connectListener != null) {
+            final ConnectListener listener = connectListener;
+            connectListener = null;
+            listener.onConnectFailed(this, e);
+        }
+        NioExchange exchange;
+        while ((exchange = exchanges.poll()) != null) {
+            exchange.fail(e);
+        }
+    }
+
+    private void connect(InetSocketAddress address) {
+        if (!open) {
+            return;
+        }
+        try {
+            key = channel.register(loop.selector(), 0, this);
+            if (channel.connect(address)) {
+                onConnected();
+            }
+            updateInterest();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void onConnected() {
+        connected = true;
+        for (NioExchange exchange : exchanges) {
+            exchange.onConnected();
+        }
+        if (connectListener != null) {
+            final ConnectListener listener = connectListener;
+            connectListener = null;
+            listener.onConnected(this);
+        }
+    }
+
+    private void writeOutbound() throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = outbound.peek()) != null) {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return;
+            }
+            outbound.poll();
+        }
+        if (upload != null && upload.drainTo(channel)) {
+            upload = null;
+        }
+    }
+
+    private void readInbound() throws IOException {
+        while (open && !readPaused) {
+            final int read = channel.read(inbound);
+            if (read == -1) {
+                onEndOfStream();
+                return;
+            }
+            if (read == 0) {
+                return;
+            }
+            processInbound();
+        }
+    }
+
+    private void processInbound() throws IOException {
+        inbound.flip();
+        try {
+            while (inbound.hasRemaining()) {
+                final NioExchange exchange = exchanges.peek();
+                if (exchange == null) {
+                    throw new ProtocolException("Unexpected data on idle connection");
+                }
+                final NioExchange.Progress progress = exchange.parse(inbound);
+                if (progress == NioExchange.Progress.DONE) {
+                    onExchangeDone();
+                } else if (progress == NioExchange.Progress.PAUSED) {
+                    readPaused = true;
+                    return;
+                }
+            }
+        } finally {
+            inbound.compact();
+        }
+    }
+
+    private void onExchangeDone() {
+        final NioExchange exchange = exchanges.poll();
+        if (exchange != null && !exchange.isKeepAlive()) {
+            reusable = false;
+        }
+        if (exchange != null && exchange.upload() == upload && upload != null) {
+            // The server answered without reading the whole body
+            upload.discard();
+            upload = null;
+            reusable = false;
+        }
+    }
+
+    private void onEndOfStream() {
+        final NioExchange exchange = exchanges.peek();
+        if (exchange != null && exchange.onEndOfStream()) {
+            exchanges.poll();
+        }
+        fail(new IOException("Connection closed by peer"));
+    }
+
+    private void updateInterest() {
+        if (key == null) {
+            return;
+        }
+        int ops = 0;
+        if (!connected) {
+            ops = SelectionKey.OP_CONNECT;
+        } else {
+            if (!outbound.isEmpty() || (upload != null && !upload.isIdle())) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (!readPaused) ops |= SelectionKey.OP_READ;
+        }
+        try {
+            key.interestOps(ops);
+        } catch (CancelledKeyException e) {
+            // Closed by another thread; the task queued by close() fails the exchanges
+        }
+    }
+
+    /**
+     * Listener of the outcome of connecting, called on the loop thread.
+     */
+    interface ConnectListener {
+
+        void onConnected(NioConnection connection);
+
+        void onConnectFailed(NioConnection connection, IOException e);
+    }
+}
@@ -0,0 +1,472 @@
+package xds.lib.easyhttp.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import xds.lib.easyhttp.RawRequest;
+
+/**
+ * Single request/response exchange on a {@link NioConnection}.
+ * <p>
+ * The response is parsed incrementally on the event loop: status line and headers first, then
+ * the body framed by {@code Content-Length}, chunked transfer coding or the end of the stream.
+ * The reading thread waits for the headers in {@link #awaitHeaders(int, int)} and then reads
+ * the body from the {@link BodyPipe}.
+ */
+final class NioExchange {
+
+    /** Result of {@link #parse(ByteBuffer)}. */
+    enum Progress {
+        /** All input was consumed, the response needs more bytes. */
+        NEED_MORE,
+        /** The body pipe is full, socket reads must pause. */
+        PAUSED,
+        /** The response is complete. */
+        DONE
+    }
+
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private static final int STATE_STATUS_LINE = 0;
+    private static final int STATE_HEADERS = 1;
+    private static final int STATE_FIXED_BODY = 2;
+    private static final int STATE_CHUNK_SIZE = 3;
+    private static final int STATE_CHUNK_DATA = 4;
+    private static final int STATE_CHUNK_END = 5;
+    private static final int STATE_TRAILERS = 6;
+    private static final int STATE_UNTIL_CLOSE = 7;
+    private static final int STATE_DONE = 8;
+
+    private final RawRequest request;
+    private final ByteBuffer requestBytes;
+    private final RequestPipe upload;
+    private final BodyPipe body;
+
+    // Parser state, event loop only
+    private volatile int state = STATE_STATUS_LINE;
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private long remaining;
+
+    // Shared with the reading thread, guarded by lock
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private boolean connected;
+    private boolean headersReady;
+    private boolean responseStarted;
+    private IOException failure;
+    private int responseCode;
+    private boolean keepAlive;
+    private final Map<String, List<String>> headers =
+            new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    NioExchange(RawRequest request, ByteBuffer requestBytes, Runnable resume) {
+        this(request, requestBytes, null, resume);
+    }
+
+    /**
+     * @param upload the pipe of the request body streamed after {@code requestBytes}, or null
+     * if the body is part of them.
+     */
+    NioExchange(RawRequest request, ByteBuffer requestBytes, RequestPipe upload,
+            Runnable resume) {
+        this.request = request;
+        this.requestBytes = requestBytes;
+        this.upload = upload;
+        this.body = new BodyPipe(resume);
+    }
+
+    RawRequest request() {
+        return request;
+    }
+
+    ByteBuffer requestBytes() {
+        return requestBytes;
+    }
+
+    /** The pipe of the streamed request body, or null. */
+    RequestPipe upload() {
+        return upload;
+    }
+
+    BodyPipe body() {
+        return body;
+    }
+
+    int responseCode() {
+        lock.lock();
+        try {
+            return responseCode;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isKeepAlive() {
+        lock.lock();
+        try {
+            return keepAlive;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isResponseStarted() {
+        lock.lock();
+        try {
+            return responseStarted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Map<String, List<String>> headers() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableMap(headers);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    String header(String name) {
+        lock.lock();
+        try {
+            final List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(values.size() - 1);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The socket is connected. Called by the event loop. */
+    void onConnected() {
+        lock.lock();
+        try {
+            connected = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** The exchange failed. Called by the event loop or on cancellation. */
+    void fail(IOException e) {
+        lock.lock();
+        try {
+            if (failure == null && state != STATE_DONE) {
+                failure = e;
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (upload != null) {
+            upload.fail(e);
+        }
+        body.fail(e);
+    }
+
+    /**
+     * Wait until the response headers are received.
+     *
+     * @param connectTimeout the connection timeout in milliseconds, non-positive for none.
+     * @param readTimeout the read timeout in milliseconds, non-positive for none.
+     */
+    void awaitHeaders(int connectTimeout, int readTimeout) throws IOException {
+        body.setReadTimeout(readTimeout);
+        lock.lock();
+        try {
+            long deadline = deadline(connectTimeout);
+            boolean waitingForConnect = true;
+            while (!headersReady && failure == null) {
+                if (waitingForConnect && connected) {
+                    waitingForConnect = false;
+                    deadline = deadline(readTimeout);
+                }
+                try {
+                    if (deadline == 0) {
+                        changed.await();
+                    } else {
+                        final long remainingNanos = deadline - System.nanoTime();
+                        if (remainingNanos <= 0) {
+                            throw new SocketTimeoutException(waitingForConnect ?
+                                    "Connect timed out" : "Read timed out");
+                        }
+                        changed.await(remainingNanos, TimeUnit.NANOSECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for response");
+                }
+            }
+            if (!headersReady) {
+                throw failure;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Consume response bytes. Called by the event loop.
+     */
+    Progress parse(ByteBuffer in) throws IOException {
+        while (true) {
+            switch (state) {
+                case STATE_STATUS_LINE: {
+                    final String statusLine = readLine(in);
+                    if (statusLine == null) return Progress.NEED_MORE;
+                    if (statusLine.isEmpty()) break; // tolerate stray CRLF between responses
+                    parseStatusLine(statusLine);
+                    state = STATE_HEADERS;
+                    break;
+                }
+                case STATE_HEADERS: {
+                    final String headerLine = readLine(in);
+                    if (headerLine == null) return Progress.NEED_MORE;
+                    if (headerLine.isEmpty()) {
+                        onHeadersEnd();
+                    } else {
+                        addHeader(headerLine);
+                    }
+                    break;
+                }
+                case STATE_FIXED_BODY: {
+                    if (remaining == 0) {
+                        finishBody();
+                        break;
+                    }
+                    if (!in.hasRemaining()) return Progress.NEED_MORE;
+                    if (!writeBody(in, remaining)) return Progress.PAUSED;
+                    break;
+                }
+                case STATE_CHUNK_SIZE: {
+                    final String sizeLine = readLine(in);
+                    if (sizeLine == null) return Progress.NEED_MORE;
+                    remaining = parseChunkSize(sizeLine);
+                    state = remaining == 0 ? STATE_TRAILERS : STATE_CHUNK_DATA;
+                    break;
+                }
+                case STATE_CHUNK_DATA: {
+                    if (remaining == 0) {
+                        state = STATE_CHUNK_END;
+                        break;
+                    }
+                    if (!in.hasRemaining()) return Progress.NEED_MORE;
+                    if (!writeBody(in, remaining)) return Progress.PAUSED;
+                    break;
+                }
+                case STATE_CHUNK_END: {
+                    final String chunkEnd = readLine(in);
+                    if (chunkEnd == null) return Progress.NEED_MORE;
+                    if (!chunkEnd.isEmpty()) throw new ProtocolException("Malformed chunk");
+                    state = STATE_CHUNK_SIZE;
+                    break;
+                }
+                case STATE_TRAILERS: {
+                    final String trailer = readLine(in);
+                    if (trailer == null) return Progress.NEED_MORE;
+                    if (trailer.isEmpty()) finishBody();
+                    break;
+                }
+                case STATE_UNTIL_CLOSE: {
+                    if (!in.hasRemaining()) return Progress.NEED_MORE;
+                    if (!writeBody(in, Long.MAX_VALUE)) return Progress.PAUSED;
+                    break;
+                }
+                case STATE_DONE:
+                    return Progress.DONE;
+                default:
+                    throw new IllegalStateException("Unknown state: " + state);
+            }
+        }
+    }
+
+    /**
+     * The peer closed the connection. Called by the event loop.
+     *
+     * @return {@code true} if that completed the response.
+     */
+    boolean onEndOfStream() {
+        if (state == STATE_UNTIL_CLOSE) {
+            finishBody();
+            return true;
+        }
+        if (state != STATE_DONE) {
+            fail(new EOFException("Unexpected end of stream"));
+        }
+        return state == STATE_DONE;
+    }
+
+    boolean isDone() {
+        return state == STATE_DONE;
+    }
+
+    private boolean writeBody(ByteBuffer in, long limit) {
+        final int count = (int) Math.min(in.remaining(), limit);
+        final int oldLimit = in.limit();
+        in.limit(in.position() + count);
+        body.write(in);
+        final int written = count - in.remaining();
+        in.limit(oldLimit);
+        if (state != STATE_UNTIL_CLOSE) {
+            remaining -= written;
+        }
+        return written == count;
+    }
+
+    private void parseStatusLine(String statusLine) throws IOException {
+        // HTTP/1.1 200 OK
+        if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) {
+            throw new ProtocolException("Unexpected status line: " + statusLine);
+        }
+        final int code;
+        try {
+            code = Integer.parseInt(statusLine.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Unexpected status line: " + statusLine);
+        }
+        lock.lock();
+        try {
+            responseStarted = true;
+            responseCode = code;
+            keepAlive = statusLine.charAt(7) != '0';
+            headers.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addHeader(String headerLine) throws IOException {
+        final int colon = headerLine.indexOf(':');
+        if (colon <= 0) {
+            throw new ProtocolException("Malformed header: " + headerLine);
+        }
+        final String name = headerLine.substring(0, colon).trim();
+        final String value = headerLine.substring(colon + 1).trim();
+        lock.lock();
+        try {
+            List<String> values = headers.get(name);
+            if (values == null) {
+                values = new ArrayList<>(1);
+                headers.put(name, values);
+            }
+            values.add(value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onHeadersEnd() throws IOException {
+        final int code;
+        lock.lock();
+        try {
+            code = responseCode;
+            final String connection = header("Connection");
+            if ("close".equalsIgnoreCase(connection)) {
+                keepAlive = false;
+            } else if ("keep-alive".equalsIgnoreCase(connection)) {
+                keepAlive = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (code >= 100 && code < 200 && code != 101) {
+            // Interim response, the final one follows
+            state = STATE_STATUS_LINE;
+            return;
+        }
+        final String transferEncoding = header("Transfer-Encoding");
+        final String contentLength = header("Content-Length");
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || code == 204 || code == 304) {
+            remaining = 0;
+            state = STATE_FIXED_BODY;
+        } else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            state = STATE_CHUNK_SIZE;
+        } else if (contentLength != null) {
+            try {
+                remaining = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Malformed Content-Length: " + contentLength);
+            }
+            state = STATE_FIXED_BODY;
+        } else {
+            lock.lock();
+            try {
+                keepAlive = false;
+            } finally {
+                lock.unlock();
+            }
+            state = STATE_UNTIL_CLOSE;
+        }
+        lock.lock();
+        try {
+            headersReady = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finishBody() {
+        state = STATE_DONE;
+        body.finish();
+    }
+
+    private static long parseChunkSize(String sizeLine) throws IOException {
+        final int extension = sizeLine.indexOf(';');
+        final String size = (extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim();
+        try {
+            final long value = Long.parseLong(size, 16);
+            if (value < 0) throw new NumberFormatException();
+            return value;
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Malformed chunk size: " + sizeLine);
+        }
+    }
+
+    /**
+     * Read a CRLF (or LF) terminated line.
+     *
+     * @return the line without terminator, or null if the line is not complete yet.
+     */
+    private String readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            final byte b = in.get();
+            if (b == '\n') {
+                int length = lineLength;
+                if (length > 0 && line[length - 1] == '\r') length--;
+                lineLength = 0;
+                return new String(line, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            if (lineLength == line.length) {
+                if (line.length >= MAX_LINE_LENGTH) {
+                    throw new ProtocolException("Line is too long");
+                }
+                final byte[] bigger = new byte[line.length * 2];
+                System.arraycopy(line, 0, bigger, 0, lineLength);
+                line = bigger;
+            }
+            line[lineLength++] = b;
+        }
+        return null;
+    }
+
+    private static long deadline(int timeoutMillis) {
+        return timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1_000_000L : 0;
+    }
+}
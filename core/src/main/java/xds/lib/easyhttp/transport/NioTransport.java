@@ -0,0 +1,544 @@
+package xds.lib.easyhttp.transport;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import xds.lib.easyhttp.Call;
+import xds.lib.easyhttp.ConnectionPool;
+import xds.lib.easyhttp.Dns;
+import xds.lib.easyhttp.RawRequest;
+import xds.lib.easyhttp.RawResponse;
+import xds.lib.easyhttp.Transport;
+import xds.lib.easyhttp.util.BufferPool;
+
+/**
+ * Non-blocking HTTP/1.1 {@link Transport} on top of {@link java.nio.channels.SocketChannel}.
+ * <p>
+ * A few selector threads connect, write and read all sockets, so many exchanges can be in
+ * flight without a blocked thread per socket: the calling thread only waits for the response
+ * headers and for body bytes it actually reads. Body bytes are handed over through a bounded
+ * buffer, a slow reader pauses the socket instead of buffering the whole body. Request bodies
+ * longer than that buffer, or of unknown length, are streamed through one the same way.
+ * <p>
+ * The {@link Transport} API is blocking: an asynchronous execution still holds a thread of its
+ * executor while it waits for the headers and reads the body, only the back-off between
+ * retries is free of threads. Use an executor of virtual threads to keep many exchanges in
+ * flight cheaply.
+ * <p>
+ * Hosts are resolved with the {@link Dns} of the transport and new connections race the
+ * addresses of the host as in Happy Eyeballs (RFC 8305), so a broken IPv6 path costs the
+ * connection attempt delay rather than a connect timeout.
+ * <p>
+ * Only plain {@code http} is handled by the engine itself; {@code https} requests go through
+ * the fallback transport, {@link UrlConnectionTransport} by default.
+ */
+public final class NioTransport implements Transport, Closeable {
+
+    private static final int DEFAULT_IO_THREADS = 2;
+    private static final int BODY_BUFFER_SIZE = BufferPool.LARGE_BUFFER_SIZE;
+    private static final int DEFAULT_HTTP_PORT = 80;
+    /** The connection attempt delay recommended by RFC 8305. */
+    private static final long DEFAULT_CONNECTION_ATTEMPT_DELAY_MILLIS = 250;
+
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final Transport fallback;
+    private final Dns dns;
+    private final long connectionAttemptDelayMillis;
+
+    /**
+     * Create transport with 2 selector threads.
+     */
+    public NioTransport() {
+        this(DEFAULT_IO_THREADS, new UrlConnectionTransport());
+    }
+
+    /**
+     * Create transport with the specified params.
+     *
+     * @param ioThreads the number of selector threads.
+     * @param fallback the transport for requests which are not plain {@code http}.
+     */
+    public NioTransport(int ioThreads, @NonNull Transport fallback) {
+        this(ioThreads, fallback, Dns.SYSTEM);
+    }
+
+    /**
+     * Create transport with the specified params and the connection attempt delay of 250 ms.
+     *
+     * @param ioThreads the number of selector threads.
+     * @param fallback the transport for requests which are not plain {@code http}.
+     * @param dns the resolver of the hosts, such as a {@link xds.lib.easyhttp.cache.CachingDns}.
+     */
+    public NioTransport(int ioThreads, @NonNull Transport fallback, @NonNull Dns dns) {
+        this(ioThreads, fallback, dns, DEFAULT_CONNECTION_ATTEMPT_DELAY_MILLIS);
+    }
+
+    /**
+     * Create transport with the specified params.
+     *
+     * @param ioThreads the number of selector threads.
+     * @param fallback the transport for requests which are not plain {@code http}.
+     * @param dns the resolver of the hosts, such as a {@link xds.lib.easyhttp.cache.CachingDns}.
+     * @param connectionAttemptDelayMillis the time a connection attempt gets before the next
+     * address of the host is tried in parallel.
+     */
+    public NioTransport(int ioThreads, @NonNull Transport fallback, @NonNull Dns dns,
+            long connectionAttemptDelayMillis) {
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("ioThreads must be positive");
+        }
+        if (connectionAttemptDelayMillis < 0) {
+            throw new IllegalArgumentException("connectionAttemptDelayMillis must not be negative");
+        }
+        this.fallback = fallback;
+        this.dns = dns;
+        this.connectionAttemptDelayMillis = connectionAttemptDelayMillis;
+        this.loops = new EventLoop[ioThreads];
+        try {
+            for (int i = 0; i < ioThreads; i++) {
+                loops[i] = new EventLoop("EasyHttp NIO " + i);
+            }
+        } catch (IOException e) {
+            close();
+            throw new UncheckedIOException("Unable to open selector", e);
+        }
+    }
+
+    /** {@inheritDoc} */
+    @NonNull
+    @Override
+    public RawResponse execute(@NonNull RawRequest request,
+            @NonNull ConnectionPool connectionPool) throws IOException {
+        final URL url = request.getUrl();
+        if (!"http".equalsIgnoreCase(url.getProtocol())) {
+            return fallback.execute(request, connectionPool);
+        }
+        final int port = url.getPort() != -1 ? url.getPort() : DEFAULT_HTTP_PORT;
+        final ConnectionPool.Lease lease =
+                connectionPool.acquire(ConnectionPool.routeOf("http", url.getHost(), port));
+        final boolean streaming = isStreamed(request.getBodyWriter());
+        final ByteBuffer requestBytes;
+        try {
+            requestBytes = encode(request, url, port, streaming);
+        } catch (IOException | RuntimeException e) {
+            connectionPool.release(lease, lease.isReused());
+            throw e;
+        }
+
+        NioConnection connection = reusableConnection(lease);
+        final Call call = request.getCall();
+        if (call != null) {
+            call.getEventListener().connectionAcquired(call, lease.getRoute(), connection != null);
+        }
+        try {
+            if (connection != null) {
+                try {
+                    return exchange(connectionPool, lease, connection, request, requestBytes,
+                            streaming);
+                } catch (StaleConnectionException e) {
+                    // The peer closed the idle connection before it got the request
+                    connection.close();
+                }
+            }
+            final ConnectRace race = new ConnectRace(lookup(call, url.getHost()), port,
+                    connectionAttemptDelayMillis, call);
+            connection = connect(race, call, request.getConnectTimeout());
+            lease.attach(connection);
+            return exchange(connectionPool, lease, connection, request, requestBytes, streaming);
+        } catch (IOException | RuntimeException e) {
+            if (connection != null) connection.close();
+            connectionPool.release(lease, false);
+            throw e;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * All requests are written up front, spread round-robin over the connections; responses
+     * arrive in request order on each connection. A response body which is not read to the end
+     * is skipped so the connection reaches the next response.
+     */
+    @Override
+    public void executePipelined(@NonNull List<RawRequest> requests,
+            @NonNull ConnectionPool connectionPool, int maxConnections,
+            @NonNull PipelineCallback callback) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        final URL origin = requests.get(0).getUrl();
+        if (!"http".equalsIgnoreCase(origin.getProtocol()) || !isSameOrigin(requests)) {
+            Transport.super.executePipelined(requests, connectionPool, maxConnections, callback);
+            return;
+        }
+        final int port = origin.getPort() != -1 ? origin.getPort() : DEFAULT_HTTP_PORT;
+        final String route = ConnectionPool.routeOf("http", origin.getHost(), port);
+        final int connectionCount = Math.max(1, Math.min(maxConnections, requests.size()));
+        final ConnectionPool.Lease[] leases = new ConnectionPool.Lease[connectionCount];
+        final NioConnection[] connections = new NioConnection[connectionCount];
+        final NioExchange[] exchanges = new NioExchange[requests.size()];
+        final IOException[] failures = new IOException[requests.size()];
+
+        try {
+            InetSocketAddress address = null;
+            for (int j = 0; j < connectionCount; j++) {
+                leases[j] = connectionPool.acquire(route);
+                connections[j] = reusableConnection(leases[j]);
+                if (connections[j] == null && address == null) {
+                    // The other connections of the batch go to the address which won the race
+                    final ConnectRace race = new ConnectRace(lookup(null, origin.getHost()),
+                            port, connectionAttemptDelayMillis, null);
+                    connections[j] = connect(race, null, requests.get(0).getConnectTimeout());
+                    address = race.getWinnerAddress();
+                    leases[j].attach(connections[j]);
+                } else if (connections[j] == null) {
+                    connections[j] = NioConnection.open(nextLoop(), address);
+                    leases[j].attach(connections[j]);
+                }
+            }
+            for (int i = 0; i < requests.size(); i++) {
+                final NioConnection connection = connections[i % connectionCount];
+                try {
+                    exchanges[i] = new NioExchange(requests.get(i),
+                            encode(requests.get(i), requests.get(i).getUrl(), port, false),
+                            connection::resumeReading);
+                    connection.submit(exchanges[i]);
+                } catch (IOException e) {
+                    failures[i] = e;
+                }
+            }
+        } catch (IOException e) {
+            for (int i = 0; i < requests.size(); i++) {
+                if (exchanges[i] == null && failures[i] == null) failures[i] = e;
+            }
+        }
+
+        for (int i = 0; i < requests.size(); i++) {
+            if (exchanges[i] == null) {
+                callback.onFailure(i, failures[i]);
+                continue;
+            }
+            final RawRequest request = requests.get(i);
+            try {
+                exchanges[i].awaitHeaders(request.getConnectTimeout(), request.getReadTimeout());
+            } catch (IOException e) {
+                connections[i % connectionCount].close();
+                callback.onFailure(i, e);
+                continue;
+            }
+            try (RawResponse response = new Response(null, null,
+                    connections[i % connectionCount], exchanges[i], null)) {
+                callback.onResponse(i, response);
+            }
+        }
+
+        for (int j = 0; j < connectionCount; j++) {
+            if (leases[j] == null) {
+                continue;
+            }
+            final NioExchange last = exchanges[lastIndexOf(j, connectionCount, requests.size())];
+            final boolean reusable = connections[j] != null && connections[j].isReusable()
+                    && last != null && last.body().isConsumed();
+            if (!reusable && connections[j] != null) {
+                connections[j].close();
+            }
+            connectionPool.release(leases[j], reusable);
+        }
+    }
+
+    /**
+     * Stop the selector threads and close their connections.
+     */
+    @Override
+    public void close() {
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.shutdown();
+        }
+    }
+
+    private RawResponse exchange(ConnectionPool connectionPool, ConnectionPool.Lease lease,
+            NioConnection connection, RawRequest request, ByteBuffer requestBytes,
+            boolean streaming) throws IOException {
+        final Call call = request.getCall();
+        if (call != null) {
+            // Cancelling the call closes the socket, which fails the exchange
+            call.attach(connection);
+        }
+        final RequestPipe upload = streaming ?
+                new RequestPipe(BODY_BUFFER_SIZE, connection::resumeWriting) : null;
+        final NioExchange exchange = new NioExchange(request, requestBytes.duplicate(), upload,
+                connection::resumeReading);
+        connection.submit(exchange);
+        try {
+            if (upload != null) {
+                writeBody(request, upload);
+            }
+            exchange.awaitHeaders(request.getConnectTimeout(), request.getReadTimeout());
+        } catch (IOException e) {
+            if (call != null) {
+                call.detach(connection);
+            }
+            if (lease.isReused() && !exchange.isResponseStarted() && isIdempotent(request)
+                    && !(e instanceof SocketTimeoutException)
+                    && (call == null || !call.isCancelled())) {
+                throw new StaleConnectionException(e);
+            }
+            throw e;
+        }
+        return new Response(connectionPool, lease, connection, exchange, call);
+    }
+
+    /**
+     * Resolve the host with the {@link Dns}, reporting the lookup to the event listener of the
+     * call.
+     */
+    private List<InetAddress> lookup(@Nullable Call call, String host)
+            throws UnknownHostException {
+        if (call != null) {
+            call.getEventListener().dnsStart(call, host);
+        }
+        final List<InetAddress> addresses = dns.lookup(host);
+        if (addresses.isEmpty()) {
+            throw new UnknownHostException(dns + " returned no addresses for " + host);
+        }
+        if (call != null) {
+            call.getEventListener().dnsEnd(call, host, addresses);
+        }
+        return addresses;
+    }
+
+    /**
+     * Race the connection attempts of a new connection; cancelling the call closes them.
+     */
+    private NioConnection connect(ConnectRace race, @Nullable Call call, int connectTimeout)
+            throws IOException {
+        if (call != null) {
+            call.attach(race);
+        }
+        try {
+            return race.connect(this::nextLoop, connectTimeout);
+        } finally {
+            if (call != null) {
+                call.detach(race);
+            }
+        }
+    }
+
+    /**
+     * Stream the request body into the pipe on the calling thread; the loop sends it while it
+     * is written.
+     */
+    private static void writeBody(RawRequest request, RequestPipe upload) throws IOException {
+        final RawRequest.BodyWriter bodyWriter = request.getBodyWriter();
+        // The writer also waits while the connection is established
+        upload.setWriteTimeout(request.getReadTimeout() > 0 ?
+                request.getReadTimeout() + Math.max(0, request.getConnectTimeout()) : 0);
+        try (OutputStream os = upload.stream(bodyWriter.getContentLength())) {
+            bodyWriter.writeTo(os);
+        }
+    }
+
+    @Nullable
+    private static NioConnection reusableConnection(ConnectionPool.Lease lease) {
+        final Closeable attached = lease.getConnection();
+        if (attached instanceof NioConnection && ((NioConnection) attached).isReusable()) {
+            return (NioConnection) attached;
+        }
+        if (attached != null) {
+            try {
+                attached.close();
+            } catch (IOException ignored) {
+                // Not usable anyway
+            }
+        }
+        return null;
+    }
+
+    private EventLoop nextLoop() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
+    private static boolean isSameOrigin(List<RawRequest> requests) {
+        final URL origin = requests.get(0).getUrl();
+        for (RawRequest request : requests) {
+            final URL url = request.getUrl();
+            if (!origin.getProtocol().equalsIgnoreCase(url.getProtocol())
+                    || !origin.getHost().equalsIgnoreCase(url.getHost())
+                    || origin.getPort() != url.getPort()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int lastIndexOf(int connection, int connectionCount, int requestCount) {
+        final int lastRound = (requestCount - 1 - connection) / connectionCount;
+        return connection + lastRound * connectionCount;
+    }
+
+    private static boolean isIdempotent(RawRequest request) {
+        return "GET".equalsIgnoreCase(request.getMethod())
+                || "HEAD".equalsIgnoreCase(request.getMethod());
+    }
+
+    /**
+     * {@code true} if the body is streamed after the head rather than sent with it: when it is
+     * longer than the pipe or its length is unknown.
+     */
+    private static boolean isStreamed(@Nullable RawRequest.BodyWriter bodyWriter) {
+        if (bodyWriter == null) {
+            return false;
+        }
+        final long contentLength = bodyWriter.getContentLength();
+        return contentLength < 0 || contentLength > BODY_BUFFER_SIZE;
+    }
+
+    /**
+     * Serialize the request head, and the body unless it is streamed.
+     */
+    static ByteBuffer encode(RawRequest request, URL url, int port, boolean streaming)
+            throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final RawRequest.BodyWriter bodyWriter = request.getBodyWriter();
+        if (bodyWriter != null && !streaming) {
+            bodyWriter.writeTo(body);
+            final long contentLength = bodyWriter.getContentLength();
+            if (contentLength >= 0 && contentLength != body.size()) {
+                throw new ProtocolException(String.format(
+                        "Request body of %d bytes doesn't match Content-Length of %d",
+                        body.size(), contentLength));
+            }
+        }
+
+        final StringBuilder head = new StringBuilder(256);
+        final String file = url.getFile();
+        head.append(request.getMethod()).append(' ')
+                .append(file.isEmpty() ? "/" : file)
+                .append(" HTTP/1.1\r\n");
+        boolean hasHost = false;
+        boolean hasLength = false;
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            hasHost |= "Host".equalsIgnoreCase(header.getKey());
+            hasLength |= "Content-Length".equalsIgnoreCase(header.getKey())
+                    || "Transfer-Encoding".equalsIgnoreCase(header.getKey());
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (!hasHost) {
+            head.append("Host: ").append(url.getHost());
+            if (port != DEFAULT_HTTP_PORT) head.append(':').append(port);
+            head.append("\r\n");
+        }
+        if (bodyWriter != null && !hasLength) {
+            final long contentLength = streaming ? bodyWriter.getContentLength() : body.size();
+            if (contentLength >= 0) {
+                head.append("Content-Length: ").append(contentLength).append("\r\n");
+            } else {
+                head.append("Transfer-Encoding: chunked\r\n");
+            }
+        }
+        head.append("\r\n");
+
+        final byte[] headBytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        final ByteBuffer buffer = ByteBuffer.allocate(headBytes.length + body.size());
+        buffer.put(headBytes).put(body.toByteArray()).flip();
+        return buffer;
+    }
+
+    /**
+     * The reused connection failed before any response byte arrived.
+     */
+    private static final class StaleConnectionException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        StaleConnectionException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Response of {@link NioExchange}. Pipelined responses have no lease: closing one skips the
+     * rest of its body and the connection is released after the last exchange.
+     */
+    private static final class Response implements RawResponse {
+
+        private final ConnectionPool connectionPool;
+        private final ConnectionPool.Lease lease;
+        private final NioConnection connection;
+        private final NioExchange exchange;
+        private final Call call;
+        private boolean closed;
+
+        Response(@Nullable ConnectionPool connectionPool, @Nullable ConnectionPool.Lease lease,
+                NioConnection connection, NioExchange exchange, @Nullable Call call) {
+            this.connectionPool = connectionPool;
+            this.lease = lease;
+            this.connection = connection;
+            this.exchange = exchange;
+            this.call = call;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return exchange.responseCode();
+        }
+
+        @Nullable
+        @Override
+        public String getHeaderField(@NonNull String name) {
+            return exchange.header(name);
+        }
+
+        @NonNull
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return exchange.headers();
+        }
+
+        @NonNull
+        @Override
+        public InputStream getBody() {
+            return exchange.body().stream();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (call != null) {
+                call.detach(connection);
+            }
+            if (lease == null) {
+                if (!exchange.body().isConsumed()) exchange.body().discard();
+                exchange.body().close();
+                return;
+            }
+            final boolean reusable = exchange.body().isConsumed() && connection.isReusable();
+            if (!reusable) {
+                connection.close();
+            }
+            exchange.body().close();
+            connectionPool.release(lease, reusable);
+        }
+    }
+}
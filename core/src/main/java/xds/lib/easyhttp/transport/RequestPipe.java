@@ -0,0 +1,262 @@
+package xds.lib.easyhttp.transport;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded buffer which hands a streamed request body from the writing thread to the event
+ * loop, framed by {@code Content-Length} or by the chunked transfer coding.
+ * <p>
+ * The writer blocks while the buffer is full and the loop waits for the writer while it is
+ * empty, so the body is sent with a fixed amount of memory whatever its length.
+ */
+final class RequestPipe {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final byte[] buffer;
+    private final Runnable resume;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    private int readPos;
+    private int size;
+    private int writeTimeout;
+    private boolean closed;
+    private boolean discarding;
+    private boolean idle;
+    private IOException failure;
+
+    /**
+     * @param capacity the buffer size.
+     * @param resume the action which restarts socket writes after the pipe was empty.
+     */
+    RequestPipe(int capacity, Runnable resume) {
+        this.buffer = new byte[capacity];
+        this.resume = resume;
+    }
+
+    /**
+     * Returns the stream of the body; closing it completes the body.
+     *
+     * @param contentLength the length of the body, or -1 to send it chunked.
+     */
+    @NonNull
+    OutputStream stream(long contentLength) {
+        return new PipeOutputStream(contentLength);
+    }
+
+    void setWriteTimeout(int writeTimeout) {
+        lock.lock();
+        try {
+            this.writeTimeout = writeTimeout;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write the buffered bytes to the channel. Called by the event loop.
+     *
+     * @return {@code true} if the whole body was written.
+     */
+    boolean drainTo(WritableByteChannel channel) throws IOException {
+        lock.lock();
+        try {
+            while (size > 0) {
+                final int count = Math.min(size, buffer.length - readPos);
+                final int written = channel.write(ByteBuffer.wrap(buffer, readPos, count));
+                readPos = (readPos + written) % buffer.length;
+                size -= written;
+                changed.signalAll();
+                if (written < count) {
+                    // The socket is full
+                    return false;
+                }
+            }
+            if (closed || discarding) {
+                return true;
+            }
+            idle = true;
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** {@code true} if the loop waits for the writer. */
+    boolean isIdle() {
+        lock.lock();
+        try {
+            return idle;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Fail the pending writes. */
+    void fail(IOException e) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = e;
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the rest of the body, the response arrived before the server read it. Called by
+     * the event loop.
+     */
+    void discard() {
+        lock.lock();
+        try {
+            discarding = true;
+            size = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            final int count;
+            final boolean resumeWriting;
+            lock.lock();
+            try {
+                awaitSpace();
+                if (discarding) {
+                    return;
+                }
+                final int writePos = (readPos + size) % buffer.length;
+                count = Math.min(len, Math.min(buffer.length - size, buffer.length - writePos));
+                System.arraycopy(b, off, buffer, writePos, count);
+                size += count;
+                resumeWriting = idle;
+                idle = false;
+            } finally {
+                lock.unlock();
+            }
+            if (resumeWriting) {
+                resume.run();
+            }
+            off += count;
+            len -= count;
+        }
+    }
+
+    private void close() {
+        final boolean resumeWriting;
+        lock.lock();
+        try {
+            closed = true;
+            resumeWriting = idle;
+            idle = false;
+        } finally {
+            lock.unlock();
+        }
+        if (resumeWriting) {
+            resume.run();
+        }
+    }
+
+    private void awaitSpace() throws IOException {
+        final long deadline = writeTimeout > 0 ?
+                System.nanoTime() + writeTimeout * 1_000_000L : 0;
+        while (size == buffer.length && failure == null && !discarding) {
+            try {
+                if (deadline == 0) {
+                    changed.await();
+                } else {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("Write timed out");
+                    }
+                    changed.await(remaining, TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted writing request body");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private final class PipeOutputStream extends OutputStream {
+
+        private final long contentLength;
+        private final byte[] single = new byte[1];
+        private long written;
+        private boolean done;
+
+        PipeOutputStream(long contentLength) {
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            if (done) {
+                throw new IOException("Stream closed");
+            }
+            if ((off | len | (b.length - off - len)) < 0) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return;
+            }
+            written += len;
+            if (contentLength < 0) {
+                final byte[] size = (Integer.toHexString(len) + "\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1);
+                RequestPipe.this.write(size, 0, size.length);
+                RequestPipe.this.write(b, off, len);
+                RequestPipe.this.write(CRLF, 0, CRLF.length);
+            } else if (written > contentLength) {
+                throw new ProtocolException("Request body exceeds Content-Length of "
+                        + contentLength);
+            } else {
+                RequestPipe.this.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (contentLength < 0) {
+                RequestPipe.this.write(LAST_CHUNK, 0, LAST_CHUNK.length);
+            } else if (written != contentLength) {
+                throw new ProtocolException(String.format(
+                        "Request body of %d bytes doesn't match Content-Length of %d",
+                        written, contentLength));
+            }
+            RequestPipe.this.close();
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package xds.lib.easyhttp.transport;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import xds.lib.easyhttp.Call;
+import xds.lib.easyhttp.ConnectionPool;
+import xds.lib.easyhttp.EventListener;
+import xds.lib.easyhttp.RawRequest;
+import xds.lib.easyhttp.RawResponse;
+import xds.lib.easyhttp.Transport;
+
+/**
+ * Default {@link Transport} on top of {@link HttpURLConnection}.
+ * <p>
+ * The sockets stay in the platform keep-alive cache; the connection pool bounds and counts
+ * them, and connections are only disconnected if the exchange failed or the server asked to
+ * close them.
+ */
+public final class UrlConnectionTransport implements Transport {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    /** {@inheritDoc} */
+    @NonNull
+    @Override
+    public RawResponse execute(@NonNull RawRequest request,
+            @NonNull ConnectionPool connectionPool) throws IOException {
+        final URL url = request.getUrl();
+        final HttpURLConnection connection = openConnection(url);
+        final ConnectionPool.Lease lease = connectionPool.acquire(routeOf(url));
+        final Call call = request.getCall();
+        // Cancelling the call closes the socket, blocked reads and writes fail right away
+        final Abort abort = new Abort(connection);
+        try {
+            if (call != null) {
+                call.attach(abort);
+                call.getEventListener().connectionAcquired(call, lease.getRoute(),
+                        lease.isReused());
+            }
+            setupConnection(connection, request);
+            connect(connection, request, lease.isReused());
+            writeBody(connection, request);
+            connection.getResponseCode();
+            return new Response(connectionPool, lease, connection, call, abort);
+        } catch (IOException | RuntimeException e) {
+            if (call != null) {
+                call.detach(abort);
+            }
+            connection.disconnect();
+            connectionPool.release(lease, false);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an HTTP connection to the specified URL.
+     *
+     * @param url The URL to connect to.
+     * @return An instance of HttpURLConnection.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static HttpURLConnection openConnection(URL url) throws IOException {
+        if ("https".equalsIgnoreCase(url.getProtocol())) {
+            return (HttpsURLConnection) url.openConnection();
+        } else if ("http".equalsIgnoreCase(url.getProtocol())) {
+            return (HttpURLConnection) url.openConnection();
+        } else {
+            throw new MalformedURLException("Unsupported protocol: " + url.getProtocol());
+        }
+    }
+
+    /**
+     * Configures the HTTP connection with the appropriate settings, such as method, timeouts,
+     * and headers.
+     *
+     * @param connection The HttpURLConnection to configure.
+     * @param request The request to send.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void setupConnection(HttpURLConnection connection, RawRequest request)
+            throws IOException {
+        connection.setRequestMethod(request.getMethod());
+        if (request.getConnectTimeout() > 0) {
+            connection.setConnectTimeout(request.getConnectTimeout());
+        }
+        if (request.getReadTimeout() > 0) {
+            connection.setReadTimeout(request.getReadTimeout());
+        }
+        connection.setDoInput(true);
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        final RawRequest.BodyWriter bodyWriter = request.getBodyWriter();
+        if (bodyWriter != null) {
+            connection.setDoOutput(true);
+            // A streamed body can't be sent again, the request follows the redirects itself
+            connection.setInstanceFollowRedirects(false);
+            // Without a streaming mode the connection buffers the whole body to learn its length
+            final long contentLength = bodyWriter.getContentLength();
+            if (contentLength >= 0) {
+                connection.setFixedLengthStreamingMode(contentLength);
+            } else {
+                connection.setChunkedStreamingMode(0);
+            }
+        }
+    }
+
+    /**
+     * Connects, reporting a new connection to the event listener of the call. The platform
+     * resolves the host and performs the TLS handshake within the connect step.
+     *
+     * @param connection The configured HttpURLConnection.
+     * @param request The request to send.
+     * @param reused {@code true} if the pool expects a kept-alive socket to be reused.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void connect(HttpURLConnection connection, RawRequest request,
+            boolean reused) throws IOException {
+        final Call call = request.getCall();
+        if (call == null || reused) {
+            connection.connect();
+            return;
+        }
+        final URL url = request.getUrl();
+        final InetSocketAddress address = InetSocketAddress.createUnresolved(url.getHost(),
+                url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+        final EventListener listener = call.getEventListener();
+        listener.connectStart(call, address);
+        try {
+            connection.connect();
+        } catch (IOException e) {
+            listener.connectFailed(call, address, e);
+            throw e;
+        }
+        listener.connectEnd(call, address);
+    }
+
+    /**
+     * Writes the request body, if any.
+     *
+     * @param connection The connected HttpURLConnection.
+     * @param request The request to send.
+     * @throws IOException If an I/O error occurs.
+     */
+    private static void writeBody(HttpURLConnection connection, RawRequest request)
+            throws IOException {
+        final RawRequest.BodyWriter bodyWriter = request.getBodyWriter();
+        if (bodyWriter == null) {
+            return;
+        }
+        try (OutputStream os = connection.getOutputStream()) {
+            bodyWriter.writeTo(os);
+        }
+    }
+
+    /**
+     * Returns the route key of the connection pool for the URL.
+     *
+     * @param url The request URL.
+     * @return The route key.
+     */
+    static String routeOf(URL url) {
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return ConnectionPool.routeOf(url.getProtocol(), url.getHost(), port);
+    }
+
+    /**
+     * Response of {@link HttpURLConnection}.
+     */
+    private static final class Response implements RawResponse {
+
+        private final ConnectionPool connectionPool;
+        private final ConnectionPool.Lease lease;
+        private final HttpURLConnection connection;
+        private final Call call;
+        private final Abort abort;
+        private InputStream body;
+        private boolean closed;
+
+        Response(ConnectionPool connectionPool, ConnectionPool.Lease lease,
+                HttpURLConnection connection, @Nullable Call call, Abort abort) {
+            this.connectionPool = connectionPool;
+            this.lease = lease;
+            this.connection = connection;
+            this.call = call;
+            this.abort = abort;
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return connection.getResponseCode();
+        }
+
+        @Nullable
+        @Override
+        public String getHeaderField(@NonNull String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @NonNull
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return connection.getHeaderFields();
+        }
+
+        @NonNull
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                if (connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                    final InputStream errorStream = connection.getErrorStream();
+                    body = errorStream != null ? errorStream : new ByteArrayInputStream(EMPTY);
+                } else {
+                    body = abort.wrap(connection.getInputStream());
+                }
+            }
+            return body;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (call != null) {
+                call.detach(abort);
+            }
+            boolean reusable = !abort.aborted
+                    && !"close".equalsIgnoreCase(connection.getHeaderField("Connection"));
+            try {
+                // The platform drains the rest of the body when the stream is closed
+                getBody().close();
+            } catch (IOException e) {
+                reusable = false;
+            }
+            if (!reusable) {
+                connection.disconnect();
+            }
+            connectionPool.release(lease, reusable);
+        }
+    }
+
+    /**
+     * Aborts the exchange of a cancelled call.
+     * <p>
+     * {@link HttpURLConnection#disconnect()} closes the body stream under the lock the reading
+     * thread takes for each read, so a body which keeps arriving can starve it. The wrapped body
+     * stream therefore fails by itself as soon as the exchange is aborted.
+     */
+    private static final class Abort implements Closeable {
+
+        private final HttpURLConnection connection;
+        volatile boolean aborted;
+
+        Abort(HttpURLConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void close() {
+            aborted = true;
+            connection.disconnect();
+        }
+
+        /**
+         * Returns the stream which fails once the exchange is aborted.
+         *
+         * @param body The body stream of the connection.
+         * @return The wrapped stream.
+         */
+        InputStream wrap(InputStream body) {
+            return new FilterInputStream(body) {
+                @Override
+                public int read() throws IOException {
+                    throwIfAborted();
+                    final int read = super.read();
+                    throwIfAborted();
+                    return read;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    throwIfAborted();
+                    final int read = super.read(b, off, len);
+                    throwIfAborted();
+                    return read;
+                }
+            };
+        }
+
+        private void throwIfAborted() throws IOException {
+            if (aborted) {
+                throw new IOException("Exchange aborted");
+            }
+        }
+    }
+}
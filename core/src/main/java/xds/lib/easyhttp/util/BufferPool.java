@@ -0,0 +1,159 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of the byte and char buffers used to copy and decode streams, so reading a body doesn't
+ * allocate fresh buffers for every request.
+ * <p>
+ * Buffers are {@link #BUFFER_SIZE} long, or {@link #LARGE_BUFFER_SIZE} for the body pipes of
+ * the NIO transport. Return a buffer with {@code release} once done with it, and don't use it
+ * afterwards; buffers which are not returned are garbage collected.
+ */
+public final class BufferPool {
+
+    /** Length of the pooled buffers. */
+    public static final int BUFFER_SIZE = 8 * 1024;
+
+    /** Length of the pooled large buffers. */
+    public static final int LARGE_BUFFER_SIZE = 64 * 1024;
+
+    /** Number of idle buffers of each kind kept, enough for as many concurrent reads. */
+    private static final int MAX_IDLE = 32;
+    /** Number of idle large buffers kept, 512 KiB at most. */
+    private static final int MAX_IDLE_LARGE = 8;
+
+    private static final Object[] BYTES = new Object[MAX_IDLE];
+    private static final Object[] LARGE_BYTES = new Object[MAX_IDLE_LARGE];
+    private static final Object[] CHARS = new Object[MAX_IDLE];
+    private static int byteCount;
+    private static int largeByteCount;
+    private static int charCount;
+    private static final AtomicLong HIT_COUNT = new AtomicLong();
+    private static final AtomicLong MISS_COUNT = new AtomicLong();
+
+    private BufferPool() {}
+
+    /**
+     * Takes a byte buffer from the pool, or allocates one if the pool is empty.
+     *
+     * @return The buffer of {@link #BUFFER_SIZE} bytes.
+     */
+    @NonNull
+    @AnyThread
+    public static byte[] acquireBytes() {
+        synchronized (BYTES) {
+            if (byteCount > 0) {
+                final byte[] buffer = (byte[]) BYTES[--byteCount];
+                BYTES[byteCount] = null;
+                HIT_COUNT.incrementAndGet();
+                return buffer;
+            }
+        }
+        MISS_COUNT.incrementAndGet();
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Takes a large byte buffer from the pool, or allocates one if the pool is empty.
+     *
+     * @return The buffer of {@link #LARGE_BUFFER_SIZE} bytes.
+     */
+    @NonNull
+    @AnyThread
+    public static byte[] acquireLargeBytes() {
+        synchronized (LARGE_BYTES) {
+            if (largeByteCount > 0) {
+                final byte[] buffer = (byte[]) LARGE_BYTES[--largeByteCount];
+                LARGE_BYTES[largeByteCount] = null;
+                HIT_COUNT.incrementAndGet();
+                return buffer;
+            }
+        }
+        MISS_COUNT.incrementAndGet();
+        return new byte[LARGE_BUFFER_SIZE];
+    }
+
+    /**
+     * Returns the byte buffer to the pool.
+     *
+     * @param buffer the buffer taken with {@link #acquireBytes()} or
+     * {@link #acquireLargeBytes()}.
+     */
+    @AnyThread
+    public static void release(@NonNull byte[] buffer) {
+        if (buffer.length == BUFFER_SIZE) {
+            synchronized (BYTES) {
+                if (byteCount < MAX_IDLE) {
+                    BYTES[byteCount++] = buffer;
+                }
+            }
+        } else if (buffer.length == LARGE_BUFFER_SIZE) {
+            synchronized (LARGE_BYTES) {
+                if (largeByteCount < MAX_IDLE_LARGE) {
+                    LARGE_BYTES[largeByteCount++] = buffer;
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a char buffer from the pool, or allocates one if the pool is empty.
+     *
+     * @return The buffer of {@link #BUFFER_SIZE} chars.
+     */
+    @NonNull
+    @AnyThread
+    public static char[] acquireChars() {
+        synchronized (CHARS) {
+            if (charCount > 0) {
+                final char[] buffer = (char[]) CHARS[--charCount];
+                CHARS[charCount] = null;
+                HIT_COUNT.incrementAndGet();
+                return buffer;
+            }
+        }
+        MISS_COUNT.incrementAndGet();
+        return new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Returns the char buffer to the pool.
+     *
+     * @param buffer the buffer taken with {@link #acquireChars()}.
+     */
+    @AnyThread
+    public static void release(@NonNull char[] buffer) {
+        if (buffer.length != BUFFER_SIZE) {
+            return;
+        }
+        synchronized (CHARS) {
+            if (charCount < MAX_IDLE) {
+                CHARS[charCount++] = buffer;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of buffers reused from the pool.
+     *
+     * @return The number of reused buffers.
+     */
+    @AnyThread
+    public static long getHitCount() {
+        return HIT_COUNT.get();
+    }
+
+    /**
+     * Returns the number of buffers allocated because the pool was empty.
+     *
+     * @return The number of allocated buffers.
+     */
+    @AnyThread
+    public static long getMissCount() {
+        return MISS_COUNT.get();
+    }
+}
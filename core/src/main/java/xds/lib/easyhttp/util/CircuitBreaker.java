@@ -0,0 +1,338 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import xds.lib.easyhttp.Platform;
+
+/**
+ * Per-host circuit breaker which fails requests fast while their server is failing, instead of
+ * letting them pile up on timeouts.
+ * <p>
+ * A host starts {@link State#CLOSED}: the outcomes of its last requests are recorded, and when
+ * the share of failed or slow ones reaches the threshold the circuit opens. While
+ * {@link State#OPEN} requests are rejected without touching the network. After the open
+ * duration the circuit is {@link State#HALF_OPEN}: a few trial requests go through, and it
+ * closes if they all succeed or opens again on the first failure.
+ */
+public final class CircuitBreaker {
+
+    /**
+     * State of the circuit of a host.
+     */
+    public enum State {
+        /** Requests go through and their outcomes are recorded. */
+        CLOSED,
+        /** Requests are rejected. */
+        OPEN,
+        /** A limited number of trial requests go through. */
+        HALF_OPEN
+    }
+
+    private final float failureRateThreshold;
+    private final long slowCallMillis;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final long openMillis;
+    private final int halfOpenCalls;
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final Clock clock;
+
+    private CircuitBreaker(Builder builder) {
+        this.clock = builder.clock;
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallMillis = builder.slowCallMillis;
+        this.windowSize = builder.windowSize;
+        this.minimumCalls = Math.min(builder.minimumCalls, builder.windowSize);
+        this.openMillis = builder.openMillis;
+        this.halfOpenCalls = builder.halfOpenCalls;
+    }
+
+    /**
+     * Asks the circuit of the host to let a request through.
+     *
+     * @param host the host of the request.
+     * @return The permit to report the outcome of the request to, or null if the circuit
+     * rejects the request.
+     */
+    @Nullable
+    @AnyThread
+    public Permit tryAcquire(@NonNull String host) {
+        final Circuit circuit = circuits.computeIfAbsent(host, h -> new Circuit(windowSize));
+        if (circuit.tryAcquire(clock.elapsedRealtime())) {
+            return new Permit(circuit);
+        }
+        rejectedCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns the state of the circuit of the host.
+     *
+     * @param host the host.
+     * @return The state.
+     */
+    @NonNull
+    @AnyThread
+    public State getState(@NonNull String host) {
+        final Circuit circuit = circuits.get(host);
+        return circuit != null ? circuit.getState(clock.elapsedRealtime()) : State.CLOSED;
+    }
+
+    /**
+     * Returns the number of requests rejected by open circuits.
+     *
+     * @return The number of rejected requests.
+     */
+    @AnyThread
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Permission of a request to go through, which must be given the outcome of the request
+     * exactly once.
+     */
+    public final class Permit {
+
+        private final Circuit circuit;
+        private final long startTime = clock.elapsedRealtime();
+
+        private Permit(Circuit circuit) {
+            this.circuit = circuit;
+        }
+
+        /**
+         * The server answered, even with an error of the client such as 404. The request
+         * counts as a failure if it took longer than the slow call duration.
+         */
+        @AnyThread
+        public void onSuccess() {
+            final long now = clock.elapsedRealtime();
+            circuit.record(slowCallMillis > 0 && now - startTime >= slowCallMillis, now);
+        }
+
+        /**
+         * The server failed to answer: I/O error, timeout or a 5xx response.
+         */
+        @AnyThread
+        public void onFailure() {
+            circuit.record(true, clock.elapsedRealtime());
+        }
+
+        /**
+         * The outcome says nothing about the server, such as a cancelled request.
+         */
+        @AnyThread
+        public void onIgnored() {
+            circuit.release();
+        }
+    }
+
+    /**
+     * The circuit of one host with the outcomes of its last requests.
+     */
+    private final class Circuit {
+        private final boolean[] failures;
+        private State state = State.CLOSED;
+        private int position;
+        private int callCount;
+        private int failureCount;
+        private long openedAt;
+        private int trialsInFlight;
+        private int trialSuccesses;
+
+        Circuit(int windowSize) {
+            this.failures = new boolean[windowSize];
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            switch (getState(now)) {
+                case CLOSED:
+                    return true;
+                case HALF_OPEN:
+                    if (trialsInFlight + trialSuccesses < halfOpenCalls) {
+                        trialsInFlight++;
+                        return true;
+                    }
+                    return false;
+                default:
+                    return false;
+            }
+        }
+
+        synchronized State getState(long now) {
+            if (state == State.OPEN && now - openedAt >= openMillis) {
+                state = State.HALF_OPEN;
+                trialsInFlight = 0;
+                trialSuccesses = 0;
+            }
+            return state;
+        }
+
+        synchronized void record(boolean failure, long now) {
+            if (state == State.HALF_OPEN) {
+                trialsInFlight = Math.max(0, trialsInFlight - 1);
+                if (failure) {
+                    open(now);
+                } else if (++trialSuccesses >= halfOpenCalls) {
+                    close();
+                }
+                return;
+            }
+            if (state == State.OPEN) {
+                // A request which started before the circuit opened
+                return;
+            }
+            if (callCount == failures.length) {
+                if (failures[position]) {
+                    failureCount--;
+                }
+            } else {
+                callCount++;
+            }
+            failures[position] = failure;
+            if (failure) {
+                failureCount++;
+            }
+            position = (position + 1) % failures.length;
+            if (callCount >= minimumCalls
+                    && failureCount >= failureRateThreshold * callCount) {
+                open(now);
+            }
+        }
+
+        synchronized void release() {
+            if (state == State.HALF_OPEN) {
+                trialsInFlight = Math.max(0, trialsInFlight - 1);
+            }
+        }
+
+        private void open(long now) {
+            state = State.OPEN;
+            openedAt = now;
+        }
+
+        private void close() {
+            state = State.CLOSED;
+            position = 0;
+            callCount = 0;
+            failureCount = 0;
+        }
+    }
+
+    /**
+     * Builder of {@link CircuitBreaker}.
+     */
+    public static final class Builder {
+
+        private float failureRateThreshold = 0.5f;
+        private long slowCallMillis;
+        private int windowSize = 50;
+        private int minimumCalls = 10;
+        private long openMillis = TimeUnit.SECONDS.toMillis(30);
+        private int halfOpenCalls = 3;
+        private Clock clock = Platform.get().getClock();
+
+        public Builder() {}
+
+        /**
+         * Set the share of failed and slow requests which opens the circuit, 0.5 by default.
+         *
+         * @param failureRateThreshold the share between 0 and 1.
+         */
+        @NonNull
+        public Builder failureRateThreshold(float failureRateThreshold) {
+            if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+                throw new IllegalArgumentException("Failure rate must be in (0, 1]");
+            }
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * Set the duration above which a successful request counts as a failure, slow
+         * requests are not failures by default.
+         *
+         * @param duration the duration, or 0 to disable.
+         * @param unit the unit of the duration.
+         */
+        @NonNull
+        public Builder slowCallDuration(long duration, @NonNull TimeUnit unit) {
+            this.slowCallMillis = unit.toMillis(Math.max(0, duration));
+            return this;
+        }
+
+        /**
+         * Set the number of last requests of a host which the failure rate is computed over,
+         * 50 by default, and the number of them needed before the circuit may open, 10 by
+         * default.
+         *
+         * @param windowSize the number of last requests.
+         * @param minimumCalls the number of requests needed to compute the failure rate.
+         */
+        @NonNull
+        public Builder window(int windowSize, int minimumCalls) {
+            if (windowSize <= 0 || minimumCalls <= 0) {
+                throw new IllegalArgumentException("Window must not be empty");
+            }
+            this.windowSize = windowSize;
+            this.minimumCalls = minimumCalls;
+            return this;
+        }
+
+        /**
+         * Set how long the circuit stays open before trial requests go through, 30 seconds
+         * by default.
+         *
+         * @param duration the duration.
+         * @param unit the unit of the duration.
+         */
+        @NonNull
+        public Builder openDuration(long duration, @NonNull TimeUnit unit) {
+            this.openMillis = unit.toMillis(Math.max(0, duration));
+            return this;
+        }
+
+        /**
+         * Set the number of successful trial requests which close the half-open circuit,
+         * 3 by default.
+         *
+         * @param halfOpenCalls the number of trial requests.
+         */
+        @NonNull
+        public Builder halfOpenCalls(int halfOpenCalls) {
+            if (halfOpenCalls <= 0) {
+                throw new IllegalArgumentException("At least one trial request is needed");
+            }
+            this.halfOpenCalls = halfOpenCalls;
+            return this;
+        }
+
+        /**
+         * Set the clock of the durations, the one of the {@link Platform} by default.
+         *
+         * @param clock the clock.
+         */
+        @NonNull
+        public Builder clock(@NonNull Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Create the circuit breaker.
+         */
+        @NonNull
+        public CircuitBreaker build() {
+            return new CircuitBreaker(this);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+
+/**
+ * Monotonic clock of timeouts, deadlines, back-off and TTLs. Its values only make sense
+ * relative to each other.
+ */
+public interface Clock {
+
+    /** Clock backed by {@link System#nanoTime()}. */
+    Clock MONOTONIC = () -> System.nanoTime() / 1_000_000L;
+
+    /**
+     * Returns the milliseconds elapsed since an arbitrary origin, never decreasing.
+     */
+    @AnyThread
+    long elapsedRealtime();
+}
@@ -0,0 +1,128 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of the raw ({@code nowrap}) {@link Inflater}s and {@link Deflater}s behind
+ * {@link InflatingInputStream} and {@link DeflatingOutputStream}.
+ * <p>
+ * Each inflater or deflater holds native memory which is only freed by {@code end()} or by the
+ * garbage collector. The streams take one from the pool and return it when they are closed, so
+ * a request doesn't allocate one; those beyond the idle limit are ended right away.
+ */
+public final class CompressionPool {
+
+    /** Number of idle inflaters and of idle deflaters kept. */
+    private static final int MAX_IDLE = 8;
+
+    private static final Inflater[] INFLATERS = new Inflater[MAX_IDLE];
+    private static final Deflater[] DEFLATERS = new Deflater[MAX_IDLE];
+    private static int inflaterCount;
+    private static int deflaterCount;
+    private static final AtomicLong HIT_COUNT = new AtomicLong();
+    private static final AtomicLong MISS_COUNT = new AtomicLong();
+
+    private CompressionPool() {}
+
+    /**
+     * Takes a raw inflater from the pool, or creates one if the pool is empty.
+     *
+     * @return The inflater, ready for new input.
+     */
+    @NonNull
+    @AnyThread
+    public static Inflater acquireInflater() {
+        synchronized (INFLATERS) {
+            if (inflaterCount > 0) {
+                final Inflater inflater = INFLATERS[--inflaterCount];
+                INFLATERS[inflaterCount] = null;
+                HIT_COUNT.incrementAndGet();
+                return inflater;
+            }
+        }
+        MISS_COUNT.incrementAndGet();
+        return new Inflater(true);
+    }
+
+    /**
+     * Returns the inflater to the pool, or ends it if the pool is full.
+     *
+     * @param inflater the inflater taken with {@link #acquireInflater()}.
+     */
+    @AnyThread
+    public static void release(@NonNull Inflater inflater) {
+        inflater.reset();
+        synchronized (INFLATERS) {
+            if (inflaterCount < MAX_IDLE) {
+                INFLATERS[inflaterCount++] = inflater;
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    /**
+     * Takes a raw deflater from the pool, or creates one if the pool is empty.
+     *
+     * @param level the compression level, from {@link Deflater#BEST_SPEED} to
+     * {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+     * @return The deflater, ready for new input.
+     */
+    @NonNull
+    @AnyThread
+    public static Deflater acquireDeflater(int level) {
+        synchronized (DEFLATERS) {
+            if (deflaterCount > 0) {
+                final Deflater deflater = DEFLATERS[--deflaterCount];
+                DEFLATERS[deflaterCount] = null;
+                HIT_COUNT.incrementAndGet();
+                deflater.setLevel(level);
+                return deflater;
+            }
+        }
+        MISS_COUNT.incrementAndGet();
+        return new Deflater(level, true);
+    }
+
+    /**
+     * Returns the deflater to the pool, or ends it if the pool is full.
+     *
+     * @param deflater the deflater taken with {@link #acquireDeflater(int)}.
+     */
+    @AnyThread
+    public static void release(@NonNull Deflater deflater) {
+        deflater.reset();
+        synchronized (DEFLATERS) {
+            if (deflaterCount < MAX_IDLE) {
+                DEFLATERS[deflaterCount++] = deflater;
+                return;
+            }
+        }
+        deflater.end();
+    }
+
+    /**
+     * Returns the number of inflaters and deflaters reused from the pool.
+     *
+     * @return The number of reused instances.
+     */
+    @AnyThread
+    public static long getHitCount() {
+        return HIT_COUNT.get();
+    }
+
+    /**
+     * Returns the number of inflaters and deflaters created because the pool was empty.
+     *
+     * @return The number of created instances.
+     */
+    @AnyThread
+    public static long getMissCount() {
+        return MISS_COUNT.get();
+    }
+}
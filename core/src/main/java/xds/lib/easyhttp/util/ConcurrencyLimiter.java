@@ -0,0 +1,352 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import xds.lib.easyhttp.Platform;
+
+/**
+ * Per-host limit of concurrent requests which adapts to the latency the server shows.
+ * <p>
+ * The limit follows AIMD, like the congestion window of TCP: every request which completes in
+ * time raises it by {@code 1 / limit}, so it grows by one per round of requests, while a failed
+ * request multiplies it by {@code backoffRatio}. So does a rising latency, which means requests
+ * queue up on the server: the average latency of the last ten or so requests of the host
+ * exceeds {@code latencyTolerance} times its average over the last five hundred or so. The
+ * limit thus shrinks before timeouts pile up, and averages keep single slow requests from
+ * shrinking it. Requests over the limit fail fast, or wait
+ * up to {@code maxWait} for a request of the host to complete; waiting holds the thread.
+ */
+public final class ConcurrencyLimiter {
+
+    /** Number of latency samples the recent latency of a host is smoothed over. */
+    private static final int RECENT_SAMPLES = 10;
+    /** Number of latency samples the usual latency of a host is smoothed over. */
+    private static final int USUAL_SAMPLES = 500;
+    /** Latencies below this one are too noisy to signal queueing. */
+    private static final long LATENCY_FLOOR_MILLIS = 10;
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+    private final long maxWaitMillis;
+    private final Map<String, HostLimit> hosts = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final Clock clock;
+
+    private ConcurrencyLimiter(Builder builder) {
+        this.clock = builder.clock;
+        this.minLimit = builder.minLimit;
+        this.maxLimit = builder.maxLimit;
+        this.initialLimit = Math.max(minLimit, Math.min(maxLimit, builder.initialLimit));
+        this.backoffRatio = builder.backoffRatio;
+        this.latencyTolerance = builder.latencyTolerance;
+        this.maxWaitMillis = builder.maxWaitMillis;
+    }
+
+    /**
+     * Takes a slot of the host, waiting for one up to the maximum wait of the limiter.
+     *
+     * @param host the host of the request.
+     * @param timeoutMillis the longest the caller can wait, such as the time left until its
+     * deadline.
+     * @return The permit to report the outcome of the request to, or null if the host has no
+     * free slot in time.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    @Nullable
+    @WorkerThread
+    public Permit acquire(@NonNull String host, long timeoutMillis) throws InterruptedException {
+        final HostLimit hostLimit = hosts.computeIfAbsent(host, h -> new HostLimit(initialLimit));
+        if (hostLimit.acquire(Math.min(maxWaitMillis, timeoutMillis))) {
+            return new Permit(hostLimit);
+        }
+        rejectedCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns the current limit of concurrent requests to the host.
+     *
+     * @param host the host.
+     * @return The limit.
+     */
+    @AnyThread
+    public int getLimit(@NonNull String host) {
+        final HostLimit hostLimit = hosts.get(host);
+        return hostLimit != null ? hostLimit.getLimit() : initialLimit;
+    }
+
+    /**
+     * Returns the number of requests to the host in flight.
+     *
+     * @param host the host.
+     * @return The number of requests.
+     */
+    @AnyThread
+    public int getInFlight(@NonNull String host) {
+        final HostLimit hostLimit = hosts.get(host);
+        return hostLimit != null ? hostLimit.getInFlight() : 0;
+    }
+
+    /**
+     * Returns the number of requests rejected because their host had no free slot.
+     *
+     * @return The number of rejected requests.
+     */
+    @AnyThread
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Slot of a request, which must be given the outcome of the request exactly once.
+     */
+    public final class Permit {
+
+        private final HostLimit hostLimit;
+        private final long startTime = clock.elapsedRealtime();
+
+        private Permit(HostLimit hostLimit) {
+            this.hostLimit = hostLimit;
+        }
+
+        /**
+         * The server answered; the latency of the request adjusts the limit.
+         */
+        @AnyThread
+        public void onSuccess() {
+            hostLimit.release(startTime, clock.elapsedRealtime(), false);
+        }
+
+        /**
+         * The server failed to answer: I/O error, timeout or a 5xx response. The limit
+         * shrinks.
+         */
+        @AnyThread
+        public void onDropped() {
+            hostLimit.release(startTime, clock.elapsedRealtime(), true);
+        }
+
+        /**
+         * The outcome says nothing about the server, such as a cancelled request. The limit
+         * doesn't change.
+         */
+        @AnyThread
+        public void onIgnored() {
+            hostLimit.release();
+        }
+    }
+
+    /**
+     * The limit and the requests in flight of one host.
+     */
+    private final class HostLimit {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private double limit;
+        private int inFlight;
+        private double recentLatency = -1;
+        private double usualLatency = -1;
+        private long lastDecrease = Long.MIN_VALUE;
+
+        HostLimit(int initialLimit) {
+            this.limit = initialLimit;
+        }
+
+        boolean acquire(long timeoutMillis) throws InterruptedException {
+            lock.lock();
+            try {
+                if (inFlight >= (int) limit && timeoutMillis > 0) {
+                    final long deadline = clock.elapsedRealtime() + timeoutMillis;
+                    long remaining = timeoutMillis;
+                    while (inFlight >= (int) limit && remaining > 0) {
+                        changed.await(remaining, TimeUnit.MILLISECONDS);
+                        remaining = deadline - clock.elapsedRealtime();
+                    }
+                }
+                if (inFlight >= (int) limit) {
+                    return false;
+                }
+                inFlight++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(long startTime, long now, boolean dropped) {
+            lock.lock();
+            try {
+                final long latency = Math.max(LATENCY_FLOOR_MILLIS, now - startTime);
+                if (recentLatency < 0) {
+                    recentLatency = latency;
+                    usualLatency = latency;
+                }
+                recentLatency += (latency - recentLatency) / RECENT_SAMPLES;
+                usualLatency += (latency - usualLatency) / USUAL_SAMPLES;
+                if (dropped || recentLatency > latencyTolerance * usualLatency) {
+                    // Requests which started before the last decrease saw the old limit
+                    if (startTime >= lastDecrease) {
+                        limit = Math.max(minLimit, limit * backoffRatio);
+                        lastDecrease = now;
+                        if (!dropped) {
+                            // A latency which doesn't fall with the limit is the new usual one
+                            usualLatency += (recentLatency - usualLatency) * (1 - backoffRatio);
+                        }
+                    }
+                } else if (inFlight * 2 >= limit) {
+                    // Only a limit in use proves it is high enough
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+                release();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inFlight--;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getLimit() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int getInFlight() {
+            lock.lock();
+            try {
+                return inFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Builder of {@link ConcurrencyLimiter}.
+     */
+    public static final class Builder {
+
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        private double backoffRatio = 0.9;
+        private double latencyTolerance = 1.5;
+        private long maxWaitMillis;
+        private Clock clock = Platform.get().getClock();
+
+        public Builder() {}
+
+        /**
+         * Set the limit of a host before any request completes, 20 by default.
+         *
+         * @param initialLimit the initial limit.
+         */
+        @NonNull
+        public Builder initialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * Set the range of the limit, from 1 to 200 by default.
+         *
+         * @param minLimit the lowest limit.
+         * @param maxLimit the highest limit.
+         */
+        @NonNull
+        public Builder limitRange(int minLimit, int maxLimit) {
+            if (minLimit <= 0 || maxLimit < minLimit) {
+                throw new IllegalArgumentException("Invalid limit range");
+            }
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * Set the ratio the limit is multiplied by when a request fails or is slow, 0.9 by
+         * default.
+         *
+         * @param backoffRatio the ratio between 0 and 1.
+         */
+        @NonNull
+        public Builder backoffRatio(double backoffRatio) {
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("Backoff ratio must be in (0, 1)");
+            }
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * Set how many times its usual latency the recent latency of a host may reach before
+         * the limit shrinks, 1.5 by default.
+         *
+         * @param latencyTolerance the tolerance, greater than 1.
+         */
+        @NonNull
+        public Builder latencyTolerance(double latencyTolerance) {
+            if (latencyTolerance <= 1) {
+                throw new IllegalArgumentException("Latency tolerance must be greater than 1");
+            }
+            this.latencyTolerance = latencyTolerance;
+            return this;
+        }
+
+        /**
+         * Set how long a request over the limit waits for a free slot, requests fail fast by
+         * default.
+         *
+         * @param duration the duration, or 0 to fail fast.
+         * @param unit the unit of the duration.
+         */
+        @NonNull
+        public Builder maxWait(long duration, @NonNull TimeUnit unit) {
+            this.maxWaitMillis = unit.toMillis(Math.max(0, duration));
+            return this;
+        }
+
+        /**
+         * Set the clock of the durations, the one of the {@link Platform} by default.
+         *
+         * @param clock the clock.
+         */
+        @NonNull
+        public Builder clock(@NonNull Clock clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Create the limiter.
+         */
+        @NonNull
+        public ConcurrencyLimiter build() {
+            return new ConcurrencyLimiter(this);
+        }
+    }
+}
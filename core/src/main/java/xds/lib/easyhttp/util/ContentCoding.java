@@ -0,0 +1,91 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Content coding of HTTP bodies, such as {@code gzip}, registered in {@link ContentCodings}.
+ * <p>
+ * Codings without a built-in decoder, such as Brotli ({@code br}) or Zstandard
+ * ({@code zstd}), are plugged in with {@link #create(String, Decoder)} and the decoder stream
+ * of a library.
+ */
+public interface ContentCoding {
+
+    /**
+     * Returns the name of the coding in {@code Accept-Encoding} and {@code Content-Encoding}.
+     *
+     * @return The lower case name.
+     */
+    @NonNull
+    String getName();
+
+    /**
+     * Wraps the stream of encoded data.
+     *
+     * @param in The encoded data, closed with the returned stream.
+     * @return The stream of decoded data.
+     * @throws IOException If an I/O error occurs.
+     */
+    @NonNull
+    InputStream decode(@NonNull InputStream in) throws IOException;
+
+    /**
+     * Wraps the stream receiving encoded data. Closing the returned stream finishes the
+     * encoded data without closing {@code out}.
+     *
+     * @param out The stream of encoded data.
+     * @return The stream to write the data to encode to, or null if the coding only decodes.
+     * @throws IOException If an I/O error occurs.
+     */
+    @Nullable
+    default OutputStream encode(@NonNull OutputStream out) throws IOException {
+        return null;
+    }
+
+    /**
+     * Create coding which only decodes.
+     *
+     * @param name The name of the coding, such as {@code br}.
+     * @param decoder The decoder, such as {@code BrotliInputStream::new}.
+     * @return The coding.
+     */
+    @NonNull
+    static ContentCoding create(@NonNull String name, @NonNull Decoder decoder) {
+        final String lowerCaseName = name.toLowerCase(Locale.ROOT);
+        return new ContentCoding() {
+            @NonNull
+            @Override
+            public String getName() {
+                return lowerCaseName;
+            }
+
+            @NonNull
+            @Override
+            public InputStream decode(@NonNull InputStream in) throws IOException {
+                return decoder.decode(in);
+            }
+        };
+    }
+
+    /**
+     * Decoder of a coding.
+     */
+    interface Decoder {
+
+        /**
+         * Wraps the stream of encoded data.
+         *
+         * @param in The encoded data, closed with the returned stream.
+         * @return The stream of decoded data.
+         * @throws IOException If an I/O error occurs.
+         */
+        @NonNull
+        InputStream decode(@NonNull InputStream in) throws IOException;
+    }
+}
@@ -0,0 +1,238 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Registry of the content codings a client advertises in {@code Accept-Encoding} and decodes
+ * from {@code Content-Encoding}. {@link #getDefault()} supports {@code gzip} and
+ * {@code deflate}; build a registry with more codings for other ones:
+ * <pre>{@code
+ * ContentCodings codings = ContentCodings.getDefault().newBuilder()
+ *         .add(ContentCoding.create("br", BrotliInputStream::new))
+ *         .build();
+ * }</pre>
+ */
+public final class ContentCodings {
+
+    /** The {@code gzip} coding. */
+    public static final ContentCoding GZIP = new DeflateCoding("gzip");
+    /** The {@code deflate} coding. */
+    public static final ContentCoding DEFLATE = new DeflateCoding("deflate");
+
+    private static final String IDENTITY = "identity";
+
+    private final Map<String, ContentCoding> codings;
+    private final String acceptEncoding;
+
+    private ContentCodings(Builder builder) {
+        this.codings = Collections.unmodifiableMap(new LinkedHashMap<>(builder.codings));
+        this.acceptEncoding = codings.isEmpty() ? IDENTITY : String.join(", ", codings.keySet());
+    }
+
+    /**
+     * Returns the registry of the {@code gzip} and {@code deflate} codings.
+     *
+     * @return The default registry.
+     */
+    @NonNull
+    @AnyThread
+    public static ContentCodings getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Returns the value of the {@code Accept-Encoding} header listing the codings.
+     *
+     * @return The header value.
+     */
+    @NonNull
+    @AnyThread
+    public String getAcceptEncoding() {
+        return acceptEncoding;
+    }
+
+    /**
+     * Returns the coding of the name.
+     *
+     * @param name The name of the coding, in any case.
+     * @return The coding, or null if it is not registered.
+     */
+    @Nullable
+    @AnyThread
+    public ContentCoding get(@NonNull String name) {
+        return codings.get(name.trim().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Returns the names of the codings in the order they are advertised.
+     *
+     * @return The names.
+     */
+    @NonNull
+    @AnyThread
+    public List<String> getNames() {
+        return Collections.unmodifiableList(new ArrayList<>(codings.keySet()));
+    }
+
+    /**
+     * Wraps the body in the decoders of its {@code Content-Encoding}, the last applied coding
+     * first.
+     *
+     * @param contentEncoding The value of the {@code Content-Encoding} header, or null.
+     * @param in The encoded body.
+     * @return The decoded body, or {@code in} if it is not encoded.
+     * @throws IOException If a coding is not registered.
+     */
+    @NonNull
+    public InputStream decode(@Nullable String contentEncoding, @NonNull InputStream in)
+            throws IOException {
+        if (contentEncoding == null || contentEncoding.isEmpty()) {
+            return in;
+        }
+        final String[] names = contentEncoding.split(",");
+        InputStream decoded = in;
+        for (int i = names.length - 1; i >= 0; i--) {
+            final String name = names[i].trim();
+            if (name.isEmpty() || IDENTITY.equalsIgnoreCase(name)) {
+                continue;
+            }
+            final ContentCoding coding = get(name);
+            if (coding == null) {
+                throw new IOException("Unsupported content coding: " + name);
+            }
+            decoded = coding.decode(decoded);
+        }
+        return decoded;
+    }
+
+    /**
+     * Create builder initialized with the codings of this registry.
+     *
+     * @return The builder.
+     */
+    @NonNull
+    @AnyThread
+    public Builder newBuilder() {
+        return new Builder(this);
+    }
+
+    private static final class DefaultHolder {
+        static final ContentCodings INSTANCE = new Builder().add(GZIP).add(DEFLATE).build();
+    }
+
+    /**
+     * The {@code gzip} and {@code deflate} codings of {@link InflatingInputStream} and
+     * {@link DeflatingOutputStream}.
+     */
+    private static final class DeflateCoding implements ContentCoding {
+        private final String name;
+
+        DeflateCoding(String name) {
+            this.name = name;
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @NonNull
+        @Override
+        public InputStream decode(@NonNull InputStream in) {
+            return name.equals("gzip") ? InflatingInputStream.gzip(in) :
+                    InflatingInputStream.deflate(in);
+        }
+
+        @NonNull
+        @Override
+        public OutputStream encode(@NonNull OutputStream out) {
+            final DeflatingOutputStream deflating = name.equals("gzip") ?
+                    DeflatingOutputStream.gzip(out, Deflater.DEFAULT_COMPRESSION) :
+                    DeflatingOutputStream.deflate(out, Deflater.DEFAULT_COMPRESSION);
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    deflating.write(b);
+                }
+
+                @Override
+                public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                    deflating.write(b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    deflating.flush();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    deflating.finish();
+                }
+            };
+        }
+    }
+
+    /**
+     * Builder of {@link ContentCodings}.
+     */
+    public static final class Builder {
+        private final Map<String, ContentCoding> codings = new LinkedHashMap<>();
+
+        /**
+         * Create empty builder.
+         */
+        public Builder() {}
+
+        private Builder(ContentCodings registry) {
+            codings.putAll(registry.codings);
+        }
+
+        /**
+         * Adds the coding, replacing a coding of the same name. Codings are advertised in the
+         * order they are added.
+         *
+         * @param coding The coding.
+         * @return This builder.
+         */
+        @NonNull
+        public Builder add(@NonNull ContentCoding coding) {
+            codings.put(coding.getName().toLowerCase(Locale.ROOT), coding);
+            return this;
+        }
+
+        /**
+         * Removes the coding of the name.
+         *
+         * @param name The name of the coding.
+         * @return This builder.
+         */
+        @NonNull
+        public Builder remove(@NonNull String name) {
+            codings.remove(name.toLowerCase(Locale.ROOT));
+            return this;
+        }
+
+        /**
+         * Create the registry.
+         */
+        @NonNull
+        public ContentCodings build() {
+            return new ContentCodings(this);
+        }
+    }
+}
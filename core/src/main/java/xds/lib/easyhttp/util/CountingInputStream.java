@@ -0,0 +1,63 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream counting the bytes read from the underlying stream.
+ */
+public final class CountingInputStream extends FilterInputStream {
+
+    private long count;
+
+    /**
+     * Create stream.
+     *
+     * @param in The underlying stream.
+     */
+    public CountingInputStream(@NonNull InputStream in) {
+        super(in);
+    }
+
+    /**
+     * Returns the number of bytes read so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = in.read();
+        if (b >= 0) {
+            count++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        final int read = in.read(b, off, len);
+        if (read > 0) {
+            count += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long skipped = in.skip(n);
+        if (skipped > 0) {
+            count += skipped;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
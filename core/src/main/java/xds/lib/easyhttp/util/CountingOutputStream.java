@@ -0,0 +1,43 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream counting the bytes written to the underlying stream.
+ */
+public final class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    /**
+     * Create stream.
+     *
+     * @param out The underlying stream.
+     */
+    public CountingOutputStream(@NonNull OutputStream out) {
+        super(out);
+    }
+
+    /**
+     * Returns the number of bytes written so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+}
@@ -0,0 +1,142 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor of requests used when the caller does not provide one.
+ * <p>
+ * On runtimes with virtual threads (JDK 21+) every task gets its own virtual thread, so
+ * blocking requests cost a few kilobytes instead of a platform thread each. Elsewhere, as on
+ * Android, tasks run on a bounded pool of daemon threads which time out when idle.
+ * <p>
+ * Both executors are shared by the whole process, so their lifecycle is not exposed: the
+ * executor is handed out as a plain {@link Executor} and the scheduler as a {@link Scheduler}.
+ */
+public final class DefaultExecutor {
+
+    private static final int MAX_POOL_THREADS = 64;
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private DefaultExecutor() {}
+
+    /**
+     * Returns the shared executor, created on the first call.
+     *
+     * @return The executor.
+     */
+    @NonNull
+    @AnyThread
+    public static Executor get() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Returns the shared scheduler of timers, such as call deadlines and retry back-off. Its
+     * single daemon thread only fires the timers: tasks must not block, hand work over to an
+     * executor instead.
+     *
+     * @return The scheduler.
+     */
+    @NonNull
+    @AnyThread
+    public static Scheduler getScheduler() {
+        return SchedulerHolder.INSTANCE;
+    }
+
+    /**
+     * Returns {@code true} if the shared executor runs tasks on virtual threads.
+     */
+    @AnyThread
+    public static boolean isVirtual() {
+        return !(Holder.INSTANCE instanceof ThreadPoolExecutor);
+    }
+
+    /**
+     * Create executor running every task on a new virtual thread.
+     *
+     * @return The executor, or null if the runtime has no virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Method factory = java.util.concurrent.Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Create pool of daemon threads, the tasks above the thread limit wait in the queue.
+     *
+     * @return The executor.
+     */
+    private static ExecutorService newBoundedPool() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                MAX_POOL_THREADS, MAX_POOL_THREADS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    final Thread thread = new Thread(r,
+                            "EasyHttp Worker #" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static final class Holder {
+        static final ExecutorService INSTANCE;
+
+        static {
+            final ExecutorService virtual = newVirtualThreadExecutor();
+            INSTANCE = virtual != null ? virtual : newBoundedPool();
+        }
+    }
+
+    private static final class SchedulerHolder {
+        static final Scheduler INSTANCE = new SharedScheduler();
+    }
+
+    /**
+     * Scheduler on a single daemon thread, the timers of every client depend on it.
+     */
+    private static final class SharedScheduler implements Scheduler {
+
+        private final ScheduledThreadPoolExecutor executor;
+
+        SharedScheduler() {
+            executor = new ScheduledThreadPoolExecutor(1, r -> {
+                final Thread thread = new Thread(r, "EasyHttp Timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+        }
+
+        @NonNull
+        @Override
+        public ScheduledFuture<?> schedule(@NonNull Runnable task, long delay,
+                @NonNull TimeUnit unit) {
+            return executor.schedule(task, delay, unit);
+        }
+
+        @NonNull
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(@NonNull Runnable task,
+                long initialDelay, long delay, @NonNull TimeUnit unit) {
+            return executor.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * Encoder of the {@code gzip} and {@code deflate} content codings with a pooled deflater and
+ * output buffer, both returned to their pools when the stream is closed.
+ * <p>
+ * The {@code deflate} coding is written zlib-wrapped, as RFC 9110 specifies.
+ */
+public final class DeflatingOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final boolean gzip;
+    private final Checksum checksum;
+    private Deflater deflater;
+    private byte[] buffer;
+    private boolean headerWritten;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * Create encoder of the {@code gzip} coding.
+     *
+     * @param out   The stream of compressed data, closed with this stream.
+     * @param level The compression level, see {@link Deflater}.
+     * @return The stream to write uncompressed data to.
+     */
+    @NonNull
+    public static DeflatingOutputStream gzip(@NonNull OutputStream out, int level) {
+        return new DeflatingOutputStream(out, level, true);
+    }
+
+    /**
+     * Create encoder of the {@code deflate} coding.
+     *
+     * @param out   The stream of compressed data, closed with this stream.
+     * @param level The compression level, see {@link Deflater}.
+     * @return The stream to write uncompressed data to.
+     */
+    @NonNull
+    public static DeflatingOutputStream deflate(@NonNull OutputStream out, int level) {
+        return new DeflatingOutputStream(out, level, false);
+    }
+
+    private DeflatingOutputStream(OutputStream out, int level, boolean gzip) {
+        this.out = out;
+        this.gzip = gzip;
+        this.checksum = gzip ? new CRC32() : new Adler32();
+        this.deflater = CompressionPool.acquireDeflater(level);
+        this.buffer = BufferPool.acquireBytes();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Stream closed");
+        }
+        if ((off | len | (b.length - off - len)) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return;
+        }
+        writeHeader();
+        checksum.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+    }
+
+    /**
+     * Writes out the data compressed so far, at some cost in compression ratio.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (finished) {
+            throw new IOException("Stream closed");
+        }
+        writeHeader();
+        while (deflate(Deflater.SYNC_FLUSH) == buffer.length) {
+            // Drain the deflater
+        }
+        out.flush();
+    }
+
+    /**
+     * Finishes the compressed data and returns the deflater and the buffer to their pools
+     * without closing the underlying stream. The stream can't be written afterwards.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            writeHeader();
+            deflater.finish();
+            while (!deflater.finished()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+            writeTrailer();
+        } finally {
+            finished = true;
+            CompressionPool.release(deflater);
+            BufferPool.release(buffer);
+            deflater = null;
+            buffer = null;
+        }
+    }
+
+    /**
+     * Finishes the compressed data and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private int deflate(int flush) throws IOException {
+        final int count = deflater.deflate(buffer, 0, buffer.length, flush);
+        if (count > 0) {
+            out.write(buffer, 0, count);
+        }
+        return count;
+    }
+
+    private void writeHeader() throws IOException {
+        if (headerWritten) {
+            return;
+        }
+        headerWritten = true;
+        if (gzip) {
+            // Magic, deflate method, no flags, no modification time, no extra flags, unknown OS
+            out.write(new byte[] {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff});
+        } else {
+            // 32K window, default compression, no dictionary
+            out.write(new byte[] {0x78, (byte) 0x9c});
+        }
+    }
+
+    private void writeTrailer() throws IOException {
+        final long value = checksum.getValue();
+        if (gzip) {
+            final long size = deflater.getBytesRead();
+            out.write(new byte[] {
+                    (byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24),
+                    (byte) size, (byte) (size >> 8), (byte) (size >> 16), (byte) (size >> 24)});
+        } else {
+            out.write(new byte[] {
+                    (byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value});
+        }
+    }
+}
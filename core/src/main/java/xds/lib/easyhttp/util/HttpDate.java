@@ -0,0 +1,57 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.Nullable;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Parser of the dates of HTTP headers such as {@code Date}, {@code Expires} and
+ * {@code Retry-After}.
+ */
+public final class HttpDate {
+
+    private static final String[] FORMATS = {
+            "EEE, dd MMM yyyy HH:mm:ss zzz", // RFC 1123
+            "EEEE, dd-MMM-yy HH:mm:ss zzz", // RFC 850
+            "EEE MMM d HH:mm:ss yyyy", // asctime()
+    };
+
+    private static final ThreadLocal<SimpleDateFormat[]> PARSERS = ThreadLocal.withInitial(() -> {
+        final SimpleDateFormat[] parsers = new SimpleDateFormat[FORMATS.length];
+        for (int i = 0; i < parsers.length; i++) {
+            parsers[i] = new SimpleDateFormat(FORMATS[i], Locale.US);
+            parsers[i].setTimeZone(TimeZone.getTimeZone("GMT"));
+            parsers[i].setLenient(false);
+        }
+        return parsers;
+    });
+
+    private HttpDate() {}
+
+    /**
+     * Parses the HTTP date in any of the formats allowed by RFC 7231.
+     *
+     * @param value The header value.
+     * @return The date, or null if the value is missing or invalid.
+     */
+    @Nullable
+    @AnyThread
+    public static Date parse(@Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        for (SimpleDateFormat parser : PARSERS.get()) {
+            final ParsePosition position = new ParsePosition(0);
+            final Date date = parser.parse(value.trim(), position);
+            if (date != null) {
+                return date;
+            }
+        }
+        return null;
+    }
+}
@@ -1,19 +1,30 @@
 package xds.lib.easyhttp.util;
 
-import android.os.Build;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
-import java.util.stream.Collectors;
+import java.util.Arrays;
 
 import androidx.annotation.NonNull;
 
+/**
+ * Single-pass readers of whole streams. A {@link SizedInputStream} is read into an output
+ * allocated at its announced length; copy and decode buffers come from {@link BufferPool}.
+ * Every method reads the stream to its end and closes it.
+ */
 public final class IOUtils {
 
+    /** The largest array the runtime can allocate. */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    /** Announced lengths above this one are not trusted for presizing. */
+    private static final int MAX_PRESIZE = 16 * 1024 * 1024;
+
     private IOUtils() {}
 
     /**
@@ -23,7 +34,7 @@ public final class IOUtils {
      * @return String from input stream.
      */
     public static String inputStreamToString(@NonNull InputStream is) throws IOException {
-        return inputStreamToString(is, Charset.forName(StandardCharsets.UTF_8.name()));
+        return inputStreamToString(is, StandardCharsets.UTF_8);
     }
 
     /**
@@ -34,17 +45,152 @@ public final class IOUtils {
      * @return String from input stream.
      */
     public static String inputStreamToString(@NonNull InputStream is, Charset charset) throws IOException {
-        try (BufferedReader buffer = new BufferedReader(new InputStreamReader(is, charset))) {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                return buffer.lines().collect(Collectors.joining());
+        final ByteBuffer bytes = toByteBuffer(is);
+        return new String(bytes.array(), 0, bytes.limit(), charset);
+    }
+
+    /**
+     * Read the input stream into a byte array.
+     *
+     * @param is Source input stream.
+     * @return Bytes of the input stream.
+     */
+    @NonNull
+    public static byte[] toByteArray(@NonNull InputStream is) throws IOException {
+        final ByteBuffer bytes = toByteBuffer(is);
+        final byte[] array = bytes.array();
+        return array.length == bytes.limit() ? array : Arrays.copyOf(array, bytes.limit());
+    }
+
+    /**
+     * Read the input stream into a byte buffer without copying the bytes once read. The buffer
+     * is backed by an array which may be longer than the content.
+     * <p>
+     * A stream of unknown length is first read into a pooled buffer: a body which fits is
+     * copied out at its exact size, a longer one continues in an array growing from there.
+     *
+     * @param is Source input stream.
+     * @return Buffer with the bytes of the input stream between position 0 and its limit.
+     */
+    @NonNull
+    public static ByteBuffer toByteBuffer(@NonNull InputStream is) throws IOException {
+        try (InputStream in = is) {
+            final long length = announcedLength(in);
+            byte[] array;
+            int count = 0;
+            if (length >= 0) {
+                array = new byte[(int) Math.min(length, MAX_PRESIZE)];
             } else {
-                final StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = buffer.readLine()) != null) {
-                    sb.append(line);
+                final byte[] buffer = BufferPool.acquireBytes();
+                try {
+                    count = fill(in, buffer, 0);
+                    final int next = count == buffer.length ? in.read() : -1;
+                    if (next < 0) {
+                        return ByteBuffer.wrap(Arrays.copyOf(buffer, count));
+                    }
+                    array = grow(buffer);
+                    array[count++] = (byte) next;
+                } finally {
+                    BufferPool.release(buffer);
+                }
+            }
+            while (true) {
+                count = fill(in, array, count);
+                if (count < array.length) {
+                    break;
+                }
+                // Probe before growing, a presized array is usually exact
+                final int next = in.read();
+                if (next < 0) {
+                    break;
                 }
-                return sb.toString();
+                array = grow(array);
+                array[count++] = (byte) next;
             }
+            return ByteBuffer.wrap(array, 0, count);
+        }
+    }
+
+    /**
+     * Decode the input stream into a char sequence without an intermediate string. Malformed
+     * input is replaced.
+     *
+     * @param is      Source input stream.
+     * @param charset Encoding format.
+     * @return Decoded text of the input stream.
+     */
+    @NonNull
+    public static CharSequence toCharSequence(@NonNull InputStream is, @NonNull Charset charset)
+            throws IOException {
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final byte[] bytes = BufferPool.acquireBytes();
+        final char[] chars = BufferPool.acquireChars();
+        try (InputStream in = is) {
+            final long length = announcedLength(in);
+            final StringBuilder text = new StringBuilder(length >= 0 ?
+                    (int) (Math.min(length, MAX_PRESIZE) * decoder.averageCharsPerByte()) :
+                    BufferPool.BUFFER_SIZE);
+            final ByteBuffer input = ByteBuffer.wrap(bytes);
+            final CharBuffer output = CharBuffer.wrap(chars);
+            input.limit(0);
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                input.compact();
+                final int read = in.read(bytes, input.position(), input.remaining());
+                if (read < 0) {
+                    endOfInput = true;
+                } else {
+                    input.position(input.position() + read);
+                }
+                input.flip();
+                CoderResult result;
+                do {
+                    result = decoder.decode(input, output, endOfInput);
+                    text.append(chars, 0, output.position());
+                    output.clear();
+                } while (result.isOverflow());
+            }
+            CoderResult result;
+            do {
+                result = decoder.flush(output);
+                text.append(chars, 0, output.position());
+                output.clear();
+            } while (result.isOverflow());
+            return text;
+        } finally {
+            BufferPool.release(bytes);
+            BufferPool.release(chars);
+        }
+    }
+
+    private static long announcedLength(InputStream is) {
+        return is instanceof SizedInputStream ? ((SizedInputStream) is).getLength() : -1;
+    }
+
+    /**
+     * Reads into the array until it is full or the stream ends.
+     *
+     * @return The number of bytes in the array, less than its length at the end of the stream.
+     */
+    private static int fill(InputStream in, byte[] array, int count) throws IOException {
+        while (count < array.length) {
+            final int read = in.read(array, count, array.length - count);
+            if (read < 0) {
+                break;
+            }
+            count += read;
+        }
+        return count;
+    }
+
+    private static byte[] grow(byte[] array) throws IOException {
+        if (array.length == MAX_ARRAY_SIZE) {
+            throw new IOException("Stream is too large for an array");
         }
+        final int capacity = (int) Math.min(MAX_ARRAY_SIZE,
+                Math.max(BufferPool.BUFFER_SIZE, 2L * array.length));
+        return Arrays.copyOf(array, capacity);
     }
 }
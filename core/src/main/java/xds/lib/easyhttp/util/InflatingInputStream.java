@@ -0,0 +1,269 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decoder of {@code gzip} and {@code deflate} content codings with a pooled inflater and
+ * input buffer, both returned to their pools when the stream is closed.
+ * <p>
+ * Unlike {@link java.util.zip.GZIPInputStream}, nothing is left for the garbage collector to
+ * free. The {@code deflate} decoder accepts zlib-wrapped data, as RFC 9110 specifies, as well
+ * as the raw deflate data some servers send instead.
+ */
+public final class InflatingInputStream extends InputStream {
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final InputStream in;
+    private final boolean gzip;
+    private final CRC32 crc;
+    private Inflater inflater;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private long memberSize;
+    private boolean headerRead;
+    private boolean endOfStream;
+    private boolean closed;
+
+    /**
+     * Create decoder of the {@code gzip} coding.
+     *
+     * @param in The compressed stream, closed with this stream.
+     * @return The stream of decompressed data.
+     */
+    @NonNull
+    public static InflatingInputStream gzip(@NonNull InputStream in) {
+        return new InflatingInputStream(in, true);
+    }
+
+    /**
+     * Create decoder of the {@code deflate} coding.
+     *
+     * @param in The compressed stream, closed with this stream.
+     * @return The stream of decompressed data.
+     */
+    @NonNull
+    public static InflatingInputStream deflate(@NonNull InputStream in) {
+        return new InflatingInputStream(in, false);
+    }
+
+    private InflatingInputStream(InputStream in, boolean gzip) {
+        this.in = in;
+        this.gzip = gzip;
+        this.crc = gzip ? new CRC32() : null;
+        this.inflater = CompressionPool.acquireInflater();
+        this.buffer = BufferPool.acquireBytes();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (endOfStream) {
+            return -1;
+        }
+        if (!headerRead) {
+            readHeader();
+            headerRead = true;
+        }
+        while (true) {
+            final int count;
+            try {
+                count = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+            if (count > 0) {
+                if (crc != null) {
+                    crc.update(b, off, count);
+                }
+                memberSize += count;
+                return count;
+            }
+            if (inflater.finished()) {
+                position = limit - inflater.getRemaining();
+                if (gzip && readTrailer()) {
+                    continue;
+                }
+                endOfStream = true;
+                return -1;
+            }
+            if (inflater.needsDictionary()) {
+                throw new ZipException("Preset dictionary is not supported");
+            }
+            if (inflater.needsInput()) {
+                if (position == limit && !fill()) {
+                    throw new EOFException("Unexpected end of compressed stream");
+                }
+                inflater.setInput(buffer, position, limit - position);
+                position = limit;
+            }
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        return endOfStream ? 0 : 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        CompressionPool.release(inflater);
+        BufferPool.release(buffer);
+        inflater = null;
+        buffer = null;
+        in.close();
+    }
+
+    private void readHeader() throws IOException {
+        if (gzip) {
+            readGzipHeader();
+        } else if (ensure(2)) {
+            final int cmf = buffer[position] & 0xff;
+            final int flg = buffer[position + 1] & 0xff;
+            // A zlib header: deflate method and a check value
+            if ((cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0) {
+                if ((flg & 0x20) != 0) {
+                    throw new ZipException("Preset dictionary is not supported");
+                }
+                position += 2;
+            }
+        }
+    }
+
+    private void readGzipHeader() throws IOException {
+        if (readShort() != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (readByte() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        final int flags = readByte();
+        skip(6); // Modification time, extra flags and OS
+        if ((flags & FEXTRA) != 0) {
+            skip(readShort());
+        }
+        if ((flags & FNAME) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FHCRC) != 0) {
+            skip(2);
+        }
+        crc.reset();
+        memberSize = 0;
+    }
+
+    /**
+     * Checks the trailer of the gzip member and starts the next member, if any.
+     *
+     * @return {@code true} if another member follows.
+     */
+    private boolean readTrailer() throws IOException {
+        final long expectedCrc = readInt();
+        final long expectedSize = readInt();
+        if (expectedCrc != crc.getValue() || expectedSize != (memberSize & 0xffffffffL)) {
+            throw new ZipException("Corrupt GZIP trailer");
+        }
+        // Concatenated members form one stream
+        if (!ensure(2) || ((buffer[position] & 0xff) | (buffer[position + 1] & 0xff) << 8)
+                != GZIP_MAGIC) {
+            return false;
+        }
+        inflater.reset();
+        readGzipHeader();
+        return true;
+    }
+
+    /**
+     * Reads more input into the buffer, keeping the unread bytes.
+     *
+     * @return {@code false} at the end of the input.
+     */
+    private boolean fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        final int count = in.read(buffer, limit, buffer.length - limit);
+        if (count < 0) {
+            return false;
+        }
+        limit += count;
+        return true;
+    }
+
+    /**
+     * Buffers at least the number of bytes.
+     *
+     * @return {@code false} if the input ends before.
+     */
+    private boolean ensure(int count) throws IOException {
+        while (limit - position < count) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if (!ensure(1)) {
+            throw new EOFException("Unexpected end of GZIP stream");
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private int readShort() throws IOException {
+        return readByte() | readByte() << 8;
+    }
+
+    private long readInt() throws IOException {
+        return (readShort() | (long) readShort() << 16) & 0xffffffffL;
+    }
+
+    private void skip(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            readByte();
+        }
+    }
+
+    private void skipZeroTerminated() throws IOException {
+        while (readByte() != 0) {
+            // Skip the string
+        }
+    }
+}
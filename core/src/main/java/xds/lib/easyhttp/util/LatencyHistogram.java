@@ -0,0 +1,157 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies with a bounded relative error, in the manner of
+ * HdrHistogram.
+ * <p>
+ * Latencies are counted in microsecond buckets: one per microsecond below 32, then 16 per
+ * power of two, so a percentile is off by at most 1/16 of its value. The histogram takes
+ * about 4 KB whatever the number of recorded values, and covers latencies up to 71 minutes;
+ * longer ones are counted as 71 minutes.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+    private static final int MAX_VALUE_BITS = 32;
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    private static final int BUCKET_COUNT =
+            SUB_BUCKET_COUNT + (MAX_VALUE_BITS - SUB_BUCKET_BITS) * SUB_BUCKET_HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos the latency in nanoseconds, negative values count as zero.
+     */
+    @AnyThread
+    public void record(long nanos) {
+        final long micros = Math.min(MAX_VALUE, Math.max(0, nanos / 1000));
+        counts.incrementAndGet(indexOf(micros));
+        count.increment();
+        sum.add(micros);
+        if (micros > max.get()) {
+            max.accumulateAndGet(micros, Math::max);
+        }
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     */
+    @AnyThread
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the largest recorded latency.
+     *
+     * @param unit the unit of the result.
+     * @return the latency, 0 if none was recorded.
+     */
+    @AnyThread
+    public long getMax(@NonNull TimeUnit unit) {
+        return unit.convert(max.get(), TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Returns the mean of the recorded latencies.
+     *
+     * @param unit the unit of the result.
+     * @return the mean, 0 if none was recorded.
+     */
+    @AnyThread
+    public long getMean(@NonNull TimeUnit unit) {
+        final long n = count.sum();
+        return n == 0 ? 0 : unit.convert(sum.sum() / n, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Returns the latency which the given percentage of the recorded latencies don't exceed,
+     * as the highest value of its bucket.
+     *
+     * @param percentile the percentage, from 0 to 100, such as 99.9.
+     * @param unit the unit of the result.
+     * @return the latency, 0 if none was recorded.
+     */
+    @AnyThread
+    public long getPercentile(double percentile, @NonNull TimeUnit unit) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile out of range: " + percentile);
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                final long value = Math.min(highestValueOf(i), max.get());
+                return unit.convert(value, TimeUnit.MICROSECONDS);
+            }
+        }
+        return unit.convert(max.get(), TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Clears the recorded latencies. Latencies recorded meanwhile may be partly kept.
+     */
+    @AnyThread
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "n=%d p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                getCount(),
+                getPercentile(50, TimeUnit.MICROSECONDS) / 1000.0,
+                getPercentile(90, TimeUnit.MICROSECONDS) / 1000.0,
+                getPercentile(99, TimeUnit.MICROSECONDS) / 1000.0,
+                getMax(TimeUnit.MICROSECONDS) / 1000.0);
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < SUB_BUCKET_COUNT) {
+            return (int) micros;
+        }
+        // The top bits of the value select the bucket within its power of two
+        final int shift = 64 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        final int subBucket = (int) (micros >>> shift) - SUB_BUCKET_HALF;
+        return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + subBucket;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+        final long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,41 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Destination of the log of requests. Only messages allowed by the {@link LogPolicy} reach the
+ * sink, already formatted. Priorities have the values of {@code android.util.Log}.
+ */
+public interface LogSink {
+
+    /** Priority of debug messages. */
+    int DEBUG = 3;
+    /** Priority of informational messages. */
+    int INFO = 4;
+    /** Priority of warnings. */
+    int WARN = 5;
+    /** Priority of errors. */
+    int ERROR = 6;
+
+    /** Sink writing to {@link System#err}, for JVM builds and tests. */
+    LogSink SYSTEM_ERR = (priority, tag, message, throwable) -> {
+        System.err.println(priority + "/" + tag + ": " + message);
+        if (throwable != null) {
+            throwable.printStackTrace();
+        }
+    };
+
+    /**
+     * Writes the message.
+     *
+     * @param priority the priority of the message, such as {@link #DEBUG}.
+     * @param tag the tag of the message.
+     * @param message the formatted message.
+     * @param throwable the failure to write with the message, or null.
+     */
+    @AnyThread
+    void log(int priority, @NonNull String tag, @NonNull String message,
+            @Nullable Throwable throwable);
+}
@@ -0,0 +1,108 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered output stream with a buffer taken from {@link BufferPool}. Writes at least as long
+ * as the buffer go straight to the underlying stream.
+ * <p>
+ * The buffer is returned to the pool by {@link #close()}, or by {@link #release()} when the
+ * underlying stream must stay open.
+ */
+public final class PooledOutputStream extends FilterOutputStream {
+
+    private byte[] buffer;
+    private int count;
+    private boolean closed;
+
+    /**
+     * Create stream.
+     *
+     * @param out The underlying stream.
+     */
+    public PooledOutputStream(@NonNull OutputStream out) {
+        super(out);
+        buffer = BufferPool.acquireBytes();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if ((off | len | (b.length - off - len)) < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len >= buffer.length) {
+            flushBuffer();
+            out.write(b, off, len);
+            return;
+        }
+        if (len > buffer.length - count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Flushes the buffered bytes and returns the buffer to the pool without closing the
+     * underlying stream. The stream can't be written afterwards.
+     */
+    public void release() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            flushBuffer();
+        } finally {
+            BufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            release();
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-host limit of retries which keeps retry storms from multiplying the load on a
+ * struggling server.
+ * <p>
+ * Every request to a host deposits into the budget of the host and every retry withdraws
+ * from it. Over a sliding window of ten seconds the retries may not exceed
+ * {@code retryRatio} of the requests plus {@code minRetriesPerSecond} per second, so
+ * retries stay a small fraction of the traffic when a whole backend fails, while rare
+ * failures of a quiet client are still retried.
+ * <p>
+ * Time comes from the caller, the {@link xds.lib.easyhttp.HttpClient} passes the time of its
+ * {@link Clock}.
+ */
+public final class RetryBudget {
+
+    private static final int WINDOW_SECONDS = 10;
+    private static final double DEFAULT_RETRY_RATIO = 0.2;
+    private static final int DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+
+    private final double retryRatio;
+    private final int minRetriesPerSecond;
+    private final Map<String, HostBudget> hosts = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Create budget allowing retries of 20% of the requests plus 10 retries per second.
+     */
+    public RetryBudget() {
+        this(DEFAULT_RETRY_RATIO, DEFAULT_MIN_RETRIES_PER_SECOND);
+    }
+
+    /**
+     * Create budget.
+     *
+     * @param retryRatio the ratio of retries to requests allowed per host, such as 0.2.
+     * @param minRetriesPerSecond the retries per second allowed per host regardless of the
+     * number of requests.
+     */
+    public RetryBudget(double retryRatio, int minRetriesPerSecond) {
+        if (retryRatio < 0 || minRetriesPerSecond < 0) {
+            throw new IllegalArgumentException("Negative retry budget");
+        }
+        this.retryRatio = retryRatio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+    }
+
+    /**
+     * Records the request to the host, which deposits into its budget.
+     *
+     * @param host the host of the request.
+     * @param nowMillis the current time of the clock of the client, see
+     * {@link Clock#elapsedRealtime()}.
+     */
+    @AnyThread
+    public void onRequest(@NonNull String host, long nowMillis) {
+        getHostBudget(host).onRequest(toSecond(nowMillis));
+    }
+
+    /**
+     * Withdraws a retry of a request to the host from its budget.
+     *
+     * @param host the host of the request.
+     * @param nowMillis the current time of the clock of the client, see
+     * {@link Clock#elapsedRealtime()}.
+     * @return {@code true} if the request may be retried, {@code false} if the budget is spent.
+     */
+    @AnyThread
+    public boolean tryRetry(@NonNull String host, long nowMillis) {
+        if (getHostBudget(host).tryRetry(toSecond(nowMillis), retryRatio,
+                minRetriesPerSecond * WINDOW_SECONDS)) {
+            return true;
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Returns the number of retries refused because the budget of their host was spent.
+     *
+     * @return The number of refused retries.
+     */
+    @AnyThread
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private HostBudget getHostBudget(String host) {
+        return hosts.computeIfAbsent(host, h -> new HostBudget());
+    }
+
+    private static long toSecond(long millis) {
+        return TimeUnit.MILLISECONDS.toSeconds(millis);
+    }
+
+    /**
+     * Counters of requests and retries of one host, in buckets of a second.
+     */
+    private static final class HostBudget {
+        private final long[] seconds = new long[WINDOW_SECONDS];
+        private final int[] requests = new int[WINDOW_SECONDS];
+        private final int[] retries = new int[WINDOW_SECONDS];
+
+        synchronized void onRequest(long second) {
+            requests[bucket(second)]++;
+        }
+
+        synchronized boolean tryRetry(long second, double retryRatio, int minRetries) {
+            final int bucket = bucket(second);
+            long requestSum = 0;
+            long retrySum = 0;
+            for (int i = 0; i < WINDOW_SECONDS; i++) {
+                if (second - seconds[i] < WINDOW_SECONDS) {
+                    requestSum += requests[i];
+                    retrySum += retries[i];
+                }
+            }
+            if (retrySum + 1 > retryRatio * requestSum + minRetries) {
+                return false;
+            }
+            retries[bucket]++;
+            return true;
+        }
+
+        /**
+         * Returns the bucket of the second, cleared if it held an older second.
+         */
+        private int bucket(long second) {
+            final int bucket = (int) (second % WINDOW_SECONDS);
+            if (seconds[bucket] != second) {
+                seconds[bucket] = second;
+                requests[bucket] = 0;
+                retries[bucket] = 0;
+            }
+            return bucket;
+        }
+    }
+}
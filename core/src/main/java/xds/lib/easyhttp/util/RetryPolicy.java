@@ -1,9 +1,13 @@
 package xds.lib.easyhttp.util;
 
 import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 
 import java.net.HttpURLConnection;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
@@ -11,12 +15,40 @@ import xds.lib.easyhttp.exception.ResponseException;
 
 /**
  * Policy of retry request.
+ * <p>
+ * The policy is immutable: every execution of a request counts its own retries, so a policy
+ * may be shared by requests. The delay before a retry is fixed or grows exponentially with
+ * full jitter, and a {@code Retry-After} header of the error response is honored when the
+ * server asks to wait longer. Requests waiting to retry asynchronously don't hold a thread.
  */
 public final class RetryPolicy {
 
+    /** The status codes of temporary server failures retried by {@link #create50x}. */
+    public static final Predicate<Throwable> SERVER_ERRORS = throwable -> {
+        if (throwable instanceof ResponseException) {
+            final int responseCode = ((ResponseException) throwable).getResponseCode();
+            switch (responseCode) {
+                case HttpURLConnection.HTTP_INTERNAL_ERROR:
+                case HttpURLConnection.HTTP_NOT_IMPLEMENTED:
+                case HttpURLConnection.HTTP_BAD_GATEWAY:
+                case HttpURLConnection.HTTP_UNAVAILABLE:
+                case HttpURLConnection.HTTP_GATEWAY_TIMEOUT:
+                case HttpURLConnection.HTTP_VERSION:
+                    return true;
+            }
+        }
+        return false;
+    };
+
+    /** The longest {@code Retry-After} honored by policies with shorter delays. */
+    private static final long MAX_RETRY_AFTER = TimeUnit.SECONDS.toMillis(30);
+
     private final Predicate<Throwable> predicate;
+    private final int maxRetries;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final boolean exponential;
     private final AtomicInteger count;
-    private final long delay;
 
     /**
      * Create instance if {@code RetryPolicy} with the specified params.
@@ -27,7 +59,7 @@ public final class RetryPolicy {
      * @param delay the delay in milliseconds between retry attempts.
      */
     public static RetryPolicy create(Predicate<Throwable> predicate, int count, long delay) {
-        return new RetryPolicy(predicate, count, delay);
+        return new RetryPolicy(predicate, count, Math.max(0, delay), Math.max(0, delay), false);
     }
 
     /**
@@ -37,53 +69,142 @@ public final class RetryPolicy {
      * @param delay the delay in milliseconds between retry attempts.
      */
     public static RetryPolicy create50x(int count, long delay) {
-        return new RetryPolicy(throwable -> {
-            if (throwable instanceof ResponseException) {
-                final int responseCode = ((ResponseException) throwable).getResponseCode();
-                switch (responseCode) {
-                    case HttpURLConnection.HTTP_INTERNAL_ERROR:
-                    case HttpURLConnection.HTTP_NOT_IMPLEMENTED:
-                    case HttpURLConnection.HTTP_BAD_GATEWAY:
-                    case HttpURLConnection.HTTP_UNAVAILABLE:
-                    case HttpURLConnection.HTTP_GATEWAY_TIMEOUT:
-                    case HttpURLConnection.HTTP_VERSION:
-                        return true;
-                }
-            }
-            return false;
-        }, count, Math.max(0, delay));
+        return create(SERVER_ERRORS, count, delay);
+    }
+
+    /**
+     * Create instance if {@code RetryPolicy} with exponential back-off and full jitter: the
+     * delay before the retry {@code n} is random between 0 and
+     * {@code min(maxDelay, baseDelay * 2^n)}, so clients which failed together don't retry
+     * together.
+     *
+     * @param predicate the predicate used to determine whether a retry should be attempted based
+     * on the given throwable.
+     * @param count the maximum number of retry attempts.
+     * @param baseDelay the upper bound of the first delay in milliseconds.
+     * @param maxDelay the upper bound of any delay in milliseconds.
+     */
+    public static RetryPolicy createExponential(Predicate<Throwable> predicate, int count,
+            long baseDelay, long maxDelay) {
+        if (baseDelay <= 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("Invalid back-off delays");
+        }
+        return new RetryPolicy(predicate, count, baseDelay, maxDelay, true);
+    }
+
+    /**
+     * Create instance if {@code RetryPolicy} with the 500x status code, exponential back-off
+     * and full jitter.
+     *
+     * @param count the maximum number of retry attempts.
+     * @param baseDelay the upper bound of the first delay in milliseconds.
+     * @param maxDelay the upper bound of any delay in milliseconds.
+     * @see #createExponential(Predicate, int, long, long)
+     */
+    public static RetryPolicy createExponential50x(int count, long baseDelay, long maxDelay) {
+        return createExponential(SERVER_ERRORS, count, baseDelay, maxDelay);
     }
 
-    private RetryPolicy(Predicate<Throwable> predicate, int count, long delay) {
+    private RetryPolicy(Predicate<Throwable> predicate, int maxRetries, long baseDelay,
+            long maxDelay, boolean exponential) {
         this.predicate = predicate;
-        this.count = new AtomicInteger(count);
-        this.delay = delay;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.exponential = exponential;
+        this.count = new AtomicInteger(this.maxRetries);
     }
 
-    @WorkerThread
-    public boolean checkNeedToRetry(Throwable throwable) {
-        if (!predicate.test(throwable)) {
-            return false;
+    /**
+     * Returns the delay before retrying the failed attempt.
+     *
+     * @param throwable the failure of the attempt.
+     * @param retryCount the number of retries already made by this execution.
+     * @return the delay in milliseconds, or a negative value if the request must not be retried.
+     */
+    @AnyThread
+    public long getRetryDelay(@NonNull Throwable throwable, int retryCount) {
+        if (retryCount >= maxRetries || !predicate.test(throwable)) {
+            return -1;
         }
-        if (count.getAndDecrement() > 0) {
-            return prepare();
+        long delay = baseDelay;
+        if (exponential) {
+            final long ceiling = retryCount >= Long.numberOfLeadingZeros(baseDelay) - 1 ?
+                    maxDelay : Math.min(maxDelay, baseDelay << retryCount);
+            delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
         }
-        return false;
+        final long retryAfter = getRetryAfter(throwable);
+        if (retryAfter > Math.max(maxDelay, MAX_RETRY_AFTER)) {
+            // The server is not expected back soon enough
+            return -1;
+        }
+        return Math.max(delay, retryAfter);
     }
 
+    /**
+     * Returns the maximum number of retries of an execution.
+     */
     @AnyThread
-    public int getCount() {
-        return count.get();
+    public int getMaxRetries() {
+        return maxRetries;
     }
 
+    /**
+     * Checks the failure and sleeps before the retry, counting retries for the lifetime of
+     * the policy.
+     *
+     * @deprecated The count is shared by every execution of the policy and the thread is
+     * blocked during the delay; use {@link #getRetryDelay(Throwable, int)}.
+     */
+    @Deprecated
     @WorkerThread
-    private boolean prepare() {
+    public boolean checkNeedToRetry(Throwable throwable) {
+        final int remaining = count.getAndDecrement();
+        if (remaining <= 0) {
+            return false;
+        }
+        final long delay = getRetryDelay(throwable, maxRetries - remaining);
+        if (delay < 0) {
+            count.incrementAndGet();
+            return false;
+        }
         try {
             Thread.sleep(delay);
             return true;
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             count.set(0);
             return false;
         }
     }
+
+    /**
+     * @deprecated The remaining retries of {@link #checkNeedToRetry(Throwable)}.
+     */
+    @Deprecated
+    @AnyThread
+    public int getCount() {
+        return count.get();
+    }
+
+    /**
+     * Returns the delay asked by the {@code Retry-After} header of the error response.
+     *
+     * @return The delay in milliseconds, 0 if there is no such header.
+     */
+    private static long getRetryAfter(Throwable throwable) {
+        if (!(throwable instanceof ResponseException)) {
+            return 0;
+        }
+        final String value = ((ResponseException) throwable).getHeaderField("Retry-After");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            final Date date = HttpDate.parse(value);
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : 0;
+        }
+    }
 }
@@ -0,0 +1,44 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timer of the library, such as call deadlines, retry back-off and connection pool cleanup.
+ * Tasks run on a single thread: they must not block, hand work over to an executor instead.
+ * <p>
+ * The scheduler is shared by the whole process, so it has no lifecycle: pending tasks are
+ * cancelled through their {@link ScheduledFuture}.
+ */
+public interface Scheduler {
+
+    /**
+     * Run the task once after the delay.
+     *
+     * @param task the task.
+     * @param delay the delay.
+     * @param unit the time unit of {@code delay}.
+     * @return the future cancelling the task.
+     */
+    @NonNull
+    @AnyThread
+    ScheduledFuture<?> schedule(@NonNull Runnable task, long delay, @NonNull TimeUnit unit);
+
+    /**
+     * Run the task repeatedly, with the delay between the end of one run and the start of the
+     * next one.
+     *
+     * @param task the task.
+     * @param initialDelay the delay of the first run.
+     * @param delay the delay between the runs.
+     * @param unit the time unit of the delays.
+     * @return the future cancelling the task.
+     */
+    @NonNull
+    @AnyThread
+    ScheduledFuture<?> scheduleWithFixedDelay(@NonNull Runnable task, long initialDelay,
+            long delay, @NonNull TimeUnit unit);
+}
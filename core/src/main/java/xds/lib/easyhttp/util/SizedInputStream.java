@@ -0,0 +1,33 @@
+package xds.lib.easyhttp.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.FilterInputStream;
+import java.io.InputStream;
+
+/**
+ * Input stream of a body whose length is announced by its {@code Content-Length} header.
+ * {@link IOUtils} reads such a stream into an output allocated at the right size at once.
+ */
+public final class SizedInputStream extends FilterInputStream {
+
+    private final long length;
+
+    /**
+     * Create stream.
+     *
+     * @param in The body stream.
+     * @param length The announced length of the body in bytes.
+     */
+    public SizedInputStream(@NonNull InputStream in, long length) {
+        super(in);
+        this.length = length;
+    }
+
+    /**
+     * Returns the announced length of the body; the actual body may be shorter or longer.
+     */
+    public long getLength() {
+        return length;
+    }
+}
@@ -1,7 +1,5 @@
 package xds.lib.easyhttp.util;
 
-import android.util.Log;
-
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
@@ -10,7 +8,7 @@ import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.X509TrustManager;
 
-import xds.lib.easyhttp.BuildConfig;
+import xds.lib.easyhttp.Platform;
 
 public final class TrustUtils {
 
@@ -35,8 +33,9 @@ public final class TrustUtils {
             }}, new SecureRandom());
             HttpsURLConnection.setDefaultSSLSocketFactory(sslContext.getSocketFactory());
         } catch (Exception e) {
-            if (BuildConfig.DEBUG) {
-                Log.e(TAG, "Enable trust everyone error.", e);
+            final Platform platform = Platform.get();
+            if (platform.isDebugBuild()) {
+                platform.getLogSink().log(LogSink.ERROR, TAG, "Enable trust everyone error.", e);
             }
         }
     }
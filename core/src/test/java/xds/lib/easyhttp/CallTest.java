@@ -0,0 +1,184 @@
+package xds.lib.easyhttp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.async.ResponseListener;
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.util.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Cancels calls, or lets them reach their deadline, while they are blocked: waiting for a
+ * connection of the pool or reading the body. The worker thread must be released right away.
+ */
+public class CallTest extends TransportTestBase {
+
+    /** Longer than any test waits, so a call still blocked on it fails the test. */
+    private static final long HOLD_MILLIS = 5000;
+
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final ExecutorService holder = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        worker.shutdownNow();
+        holder.shutdownNow();
+    }
+
+    @Test
+    public void cancelWhileWaitingForConnection() throws Exception {
+        final HttpClient single = singleConnectionClient();
+        holdConnection(single);
+
+        final Call call = request(single, "/text", 0)
+                .executeAsync(worker, null, new FailingListener());
+        Thread.sleep(200);
+        assertFalse(call.isDone());
+
+        call.cancel();
+
+        assertWorkerFree();
+        assertTrue(call.isCancelled());
+        assertFalse(call.isTimedOut());
+    }
+
+    @Test
+    public void deadlineWhileWaitingForConnection() throws Exception {
+        final HttpClient single = singleConnectionClient();
+        holdConnection(single);
+
+        final long start = System.nanoTime();
+        try {
+            request(single, "/text", 300).execute();
+            fail("Expected RequestException");
+        } catch (RequestException e) {
+            assertEquals("Call timed out", e.getMessage());
+        }
+        assertTrue(elapsedMillis(start) < HOLD_MILLIS / 2);
+    }
+
+    @Test
+    public void cancelWhileReadingBody() throws Exception {
+        final Call call = request(client, "/drip", 0)
+                .executeAsync(worker, null, new FailingListener());
+        Thread.sleep(300);
+        assertFalse(call.isDone());
+
+        call.cancel();
+
+        assertWorkerFree();
+        assertTrue(call.isCancelled());
+    }
+
+    @Test
+    public void deadlineWhileReadingBody() throws Exception {
+        final long start = System.nanoTime();
+        try {
+            request(client, "/drip", 300).execute();
+            fail("Expected RequestException");
+        } catch (RequestException e) {
+            assertEquals("Call timed out", e.getMessage());
+        }
+        assertTrue(elapsedMillis(start) < TestServer.DRIP_SIZE * 100 / 2);
+    }
+
+    @Test
+    public void blockedAbortDoesNotDelayOtherDeadlines() throws Exception {
+        final CountDownLatch closed = new CountDownLatch(1);
+        final Call blocked = new Call(50, EventListener.NONE, Clock.MONOTONIC);
+        // Closing blocks, as HttpURLConnection.disconnect() does while another thread reads
+        blocked.attach(() -> {
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            final Call other = new Call(100, EventListener.NONE, Clock.MONOTONIC);
+            final long start = System.nanoTime();
+            while (!other.isTimedOut()) {
+                assertTrue(elapsedMillis(start) < HOLD_MILLIS / 2);
+                Thread.sleep(10);
+            }
+            assertTrue(blocked.isTimedOut());
+        } finally {
+            closed.countDown();
+        }
+    }
+
+    @Test
+    public void deadlineIsNotReachedByFastCall() throws Exception {
+        assertEquals("hello /text", new String(request(client, "/text", 5000).execute(),
+                "UTF-8"));
+    }
+
+    private HttpClient singleConnectionClient() {
+        return client.newBuilder()
+                .connectionPool(new ConnectionPool(1, 1, TimeUnit.MINUTES, 1))
+                .build();
+    }
+
+    /**
+     * Leases the only connection of the client for {@link #HOLD_MILLIS}, returning once the
+     * server received the request holding it.
+     */
+    private void holdConnection(HttpClient single) throws InterruptedException {
+        final int requests = server.getRequestCount();
+        request(single, "/slow?ms=" + HOLD_MILLIS, 0).executeFuture(holder);
+        final long start = System.nanoTime();
+        while (server.getRequestCount() == requests) {
+            assertTrue(elapsedMillis(start) < HOLD_MILLIS / 2);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Asserts the call released the thread of {@link #worker} soon after being aborted.
+     */
+    private void assertWorkerFree() throws Exception {
+        final CompletableFuture<Boolean> next =
+                CompletableFuture.supplyAsync(() -> true, worker);
+        assertTrue(next.get(HOLD_MILLIS / 2, TimeUnit.MILLISECONDS));
+    }
+
+    private static TestRequest request(HttpClient client, String path, long callTimeout) {
+        return new TestRequest(client, server.url(path)) {
+            @Override
+            protected long getCallTimeout() {
+                return callTimeout;
+            }
+        };
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Listener of a call which is cancelled, so it is never notified.
+     */
+    private static final class FailingListener implements ResponseListener<byte[]> {
+
+        @Override
+        public void onSuccess(byte[] response, String requestId) {
+            fail("Cancelled call delivered " + response.length + " bytes");
+        }
+
+        @Override
+        public void onFailed(Throwable throwable, String requestId) {
+            fail("Cancelled call delivered " + throwable);
+        }
+    }
+}
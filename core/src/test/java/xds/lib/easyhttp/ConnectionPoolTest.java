@@ -0,0 +1,175 @@
+package xds.lib.easyhttp;
+
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionPoolTest {
+
+    private static final String ROUTE = ConnectionPool.routeOf("http", "a.test", 80);
+    private static final String OTHER_ROUTE = ConnectionPool.routeOf("http", "b.test", 80);
+
+    private long now = 1000;
+
+    @Test
+    public void reusesIdleConnection() throws Exception {
+        final ConnectionPool pool = newPool(5, 2);
+        final FakeConnection connection = new FakeConnection();
+        final ConnectionPool.Lease lease = pool.acquire(ROUTE);
+        lease.attach(connection);
+        pool.release(lease, true);
+
+        final ConnectionPool.Lease reused = pool.acquire(ROUTE);
+
+        assertTrue(reused.isReused());
+        assertSame(connection, reused.getConnection());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.getReusedConnectionCount());
+        assertEquals(1, pool.getConnectionCount());
+    }
+
+    @Test
+    public void slotWithoutConnectionIsNotReusedConnection() throws Exception {
+        final ConnectionPool pool = newPool(5, 2);
+        pool.release(pool.acquire(ROUTE), true);
+
+        assertTrue(pool.acquire(ROUTE).isReused());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getReusedConnectionCount());
+    }
+
+    @Test
+    public void expiredIdleConnectionEvicted() throws Exception {
+        final ConnectionPool pool = newPool(5, 2);
+        final FakeConnection connection = new FakeConnection();
+        final ConnectionPool.Lease lease = pool.acquire(ROUTE);
+        lease.attach(connection);
+        pool.release(lease, true);
+
+        now += TimeUnit.MINUTES.toMillis(1) - 1;
+        final ConnectionPool.Lease fresh = pool.acquire(ROUTE);
+        assertTrue(fresh.isReused());
+        pool.release(fresh, true);
+
+        now += TimeUnit.MINUTES.toMillis(1);
+        final ConnectionPool.Lease expired = pool.acquire(ROUTE);
+        assertFalse(expired.isReused());
+        assertTrue(connection.closed);
+        assertEquals(1, pool.getEvictionCount());
+        assertEquals(1, pool.getConnectionCount());
+    }
+
+    @Test
+    public void brokenConnectionClosed() throws Exception {
+        final ConnectionPool pool = newPool(5, 2);
+        final FakeConnection connection = new FakeConnection();
+        final ConnectionPool.Lease lease = pool.acquire(ROUTE);
+        lease.attach(connection);
+
+        pool.release(lease, false);
+
+        assertTrue(connection.closed);
+        assertEquals(0, pool.getConnectionCount());
+        assertFalse(pool.acquire(ROUTE).isReused());
+    }
+
+    @Test
+    public void idleConnectionsCappedPerRoute() throws Exception {
+        final ConnectionPool pool = newPool(1, 4);
+        final ConnectionPool.Lease first = pool.acquire(ROUTE);
+        final ConnectionPool.Lease second = pool.acquire(ROUTE);
+        final FakeConnection secondConnection = new FakeConnection();
+        second.attach(secondConnection);
+
+        pool.release(first, true);
+        pool.release(second, true);
+
+        assertTrue(secondConnection.closed);
+        assertEquals(1, pool.getIdleConnectionCount());
+    }
+
+    @Test
+    public void eldestIdleEvictedAtCap() throws Exception {
+        final ConnectionPool pool = newPool(5, 1);
+        final FakeConnection connection = new FakeConnection();
+        final ConnectionPool.Lease lease = pool.acquire(ROUTE);
+        lease.attach(connection);
+        pool.release(lease, true);
+
+        final ConnectionPool.Lease other = pool.acquire(OTHER_ROUTE);
+
+        assertFalse(other.isReused());
+        assertTrue(connection.closed);
+        assertEquals(1, pool.getConnectionCount());
+    }
+
+    @Test
+    public void acquireWaitsForReleaseAtCap() throws Exception {
+        final ConnectionPool pool = newPool(5, 1);
+        final ConnectionPool.Lease lease = pool.acquire(ROUTE);
+        final AtomicReference<ConnectionPool.Lease> waited = new AtomicReference<>();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread thread = new Thread(() -> {
+            try {
+                waited.set(pool.acquire(ROUTE));
+            } catch (Exception ignored) {
+                // Fails the assertions below
+            }
+            acquired.countDown();
+        });
+        thread.start();
+
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        pool.release(lease, true);
+
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertSame(lease, waited.get());
+    }
+
+    @Test
+    public void evictAllClosesIdleConnections() throws Exception {
+        final ConnectionPool pool = newPool(5, 4);
+        final FakeConnection idle = new FakeConnection();
+        final FakeConnection leased = new FakeConnection();
+        final ConnectionPool.Lease idleLease = pool.acquire(ROUTE);
+        idleLease.attach(idle);
+        pool.acquire(OTHER_ROUTE).attach(leased);
+        pool.release(idleLease, true);
+
+        pool.evictAll();
+
+        assertTrue(idle.closed);
+        assertFalse(leased.closed);
+        assertEquals(1, pool.getConnectionCount());
+        assertEquals(0, pool.getIdleConnectionCount());
+    }
+
+    @Test
+    public void routeIsCaseInsensitive() {
+        assertEquals("https://example.com:443", ConnectionPool.routeOf("HTTPS", "Example.COM", 443));
+    }
+
+    private ConnectionPool newPool(int maxIdlePerRoute, int maxConnections) {
+        return new ConnectionPool(maxIdlePerRoute, 1, TimeUnit.MINUTES, maxConnections,
+                () -> now);
+    }
+
+    private static final class FakeConnection implements Closeable {
+
+        volatile boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
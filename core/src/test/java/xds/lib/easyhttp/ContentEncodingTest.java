@@ -0,0 +1,119 @@
+package xds.lib.easyhttp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import xds.lib.easyhttp.body.RequestBody;
+import xds.lib.easyhttp.util.ContentCodings;
+import xds.lib.easyhttp.util.IOUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Negotiates the content codings of request and response bodies with the {@link TestServer}
+ * and checks the {@link TransferStats} of the exchange.
+ */
+public class ContentEncodingTest extends TransportTestBase {
+
+    private static final byte[] TEXT = TestServer.gzipText().getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void decodesGzipResponse() throws Exception {
+        final TestRequest request = request("/gzip");
+
+        assertArrayEquals(TEXT, request.execute());
+
+        assertEquals("gzip, deflate", request.header("X-Accept-Encoding"));
+        final TransferStats stats = request.getTransferStats();
+        assertEquals("gzip", stats.getResponseEncoding());
+        assertEquals(TEXT.length, stats.getResponseBodyBytes());
+        assertTrue(stats.toString(), stats.getResponseWireBytes() < TEXT.length / 4);
+        assertEquals(TEXT.length - stats.getResponseWireBytes(), stats.getSavedBytes());
+    }
+
+    @Test
+    public void identityWithoutCodings() throws Exception {
+        client = client.newBuilder()
+                .contentCodings(new ContentCodings.Builder().build())
+                .build();
+        final TestRequest request = request("/gzip");
+
+        assertArrayEquals(TEXT, request.execute());
+
+        assertEquals("identity", request.header("X-Accept-Encoding"));
+        final TransferStats stats = request.getTransferStats();
+        assertNull(stats.getResponseEncoding());
+        assertEquals(TEXT.length, stats.getResponseWireBytes());
+        assertEquals(0, stats.getSavedBytes());
+    }
+
+    @Test
+    public void encodesRequestBody() throws Exception {
+        final TestRequest request = new EncodingRequest("gzip");
+        request.body(RequestBody.create(TEXT, "text/plain"));
+
+        final byte[] echoed = request.execute();
+
+        assertEquals("gzip", request.header("X-Content-Encoding"));
+        assertEquals("chunked", request.header("X-Transfer-Encoding"));
+        assertArrayEquals(TEXT, IOUtils.toByteArray(new GZIPInputStream(
+                new ByteArrayInputStream(echoed))));
+        final TransferStats stats = request.getTransferStats();
+        assertEquals("gzip", stats.getRequestEncoding());
+        assertEquals(TEXT.length, stats.getRequestBodyBytes());
+        assertEquals(echoed.length, stats.getRequestWireBytes());
+    }
+
+    @Test
+    public void shortRequestBodyIsNotEncoded() throws Exception {
+        final byte[] body = "short".getBytes(StandardCharsets.UTF_8);
+        final TestRequest request = new EncodingRequest("gzip");
+        request.body(RequestBody.create(body, "text/plain"));
+
+        assertArrayEquals(body, request.execute());
+
+        assertEquals("", request.header("X-Content-Encoding"));
+        assertNull(request.getTransferStats().getRequestEncoding());
+    }
+
+    @Test
+    public void writtenRequestBodyIsEncoded() throws Exception {
+        final TestRequest request = new EncodingRequest("deflate") {
+            @Override
+            protected void writeRequestBody(OutputStream os) throws IOException {
+                os.write(TEXT);
+            }
+        }.method("POST");
+
+        request.execute();
+
+        assertEquals("deflate", request.header("X-Content-Encoding"));
+        assertTrue(request.getTransferStats().getRequestWireBytes() < TEXT.length / 4);
+    }
+
+    /**
+     * Request to {@code /echo} compressing its body with the coding.
+     */
+    private class EncodingRequest extends TestRequest {
+
+        private final String coding;
+
+        EncodingRequest(String coding) {
+            super(client, server.url("/echo"));
+            this.coding = coding;
+        }
+
+        @Override
+        protected String getRequestContentEncoding() {
+            return coding;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package xds.lib.easyhttp;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import xds.lib.easyhttp.body.RequestBody;
+import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.util.RetryPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks the order of the events of executions. Connection events differ between the
+ * transports, so most tests compare the events which all transports deliver.
+ */
+public class EventListenerTest extends TransportTestBase {
+
+    private final RecordingListener listener = new RecordingListener();
+
+    @Before
+    public void setUpListener() {
+        client = client.newBuilder().eventListener(listener).build();
+    }
+
+    @Test
+    public void eventsOfExecution() throws Exception {
+        request("/text").execute();
+
+        assertEquals(Arrays.asList(
+                "callStart " + TestRequest.class.getName() + " " + server.url("/text"),
+                "requestHeadersStart",
+                "responseHeadersEnd 200",
+                "parseStart",
+                "parseEnd",
+                "responseBodyEnd 11 11",
+                "callEnd"), listener.common());
+    }
+
+    @Test
+    public void connectionEventsOnlyForNewConnections() throws Exception {
+        request("/text").execute();
+        final List<String> first = listener.take();
+        request("/text").execute();
+        final List<String> second = listener.take();
+
+        assertTrue(first.toString(), first.contains("connectionAcquired false"));
+        assertTrue(first.indexOf("connectStart") < first.indexOf("connectEnd"));
+        assertTrue(first.indexOf("connectEnd") < first.indexOf("responseHeadersEnd 200"));
+        assertTrue(second.toString(), second.contains("connectionAcquired true"));
+        assertFalse(second.toString(), second.contains("connectStart"));
+        assertFalse(second.toString(), second.contains("dnsStart"));
+    }
+
+    @Test
+    public void bodySizes() throws Exception {
+        request("/echo").body(RequestBody.create("hello", "text/plain")).execute();
+
+        final List<String> events = listener.take();
+        assertTrue(events.toString(), events.contains("requestBodyEnd 5 5"));
+        assertTrue(events.toString(), events.contains("responseBodyEnd 5 5"));
+        assertTrue(events.indexOf("requestBodyEnd 5 5")
+                < events.indexOf("responseHeadersEnd 200"));
+    }
+
+    @Test
+    public void redirectHops() throws Exception {
+        // Requests with a body are redirected by the client with every transport
+        request("/redirect").body(RequestBody.create("hello", "text/plain")).execute();
+
+        final List<String> events = listener.common();
+        assertEquals(Arrays.asList(
+                "requestHeadersStart",
+                "requestBodyEnd 5 5",
+                "responseHeadersEnd 302",
+                "redirect " + server.url("/text"),
+                "requestHeadersStart",
+                "requestBodyEnd 5 5",
+                "responseHeadersEnd 200"), events.subList(1, 8));
+        assertEquals("callEnd", events.get(events.size() - 1));
+    }
+
+    @Test
+    public void retriesThenFailure() throws Exception {
+        final TestRequest request = new TestRequest(client, server.url("/status/503")) {
+            @Override
+            protected RetryPolicy createRetryPolicy() {
+                return RetryPolicy.create(e -> true, 1, 0);
+            }
+        };
+
+        try {
+            request.execute();
+            fail("Expected ResponseException");
+        } catch (ResponseException expected) {
+            // Every attempt failed
+        }
+
+        final List<String> events = listener.common();
+        assertEquals(Arrays.asList(
+                "requestHeadersStart",
+                "responseHeadersEnd 503",
+                "responseBodyEnd 5 5",
+                "retry 1",
+                "requestHeadersStart",
+                "responseHeadersEnd 503",
+                "responseBodyEnd 5 5",
+                "callFailed ResponseException"), events.subList(1, events.size()));
+    }
+
+    /**
+     * Listener keeping the events as strings, with their main arguments.
+     */
+    static class RecordingListener extends EventListener {
+
+        /** Events which depend on the transport. */
+        private static final List<String> CONNECTION_EVENTS = Arrays.asList("connectionAcquired",
+                "dnsStart", "dnsEnd", "connectStart", "secureConnectStart", "secureConnectEnd",
+                "connectEnd", "connectFailed");
+
+        private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * Returns the events and forgets them.
+         */
+        List<String> take() {
+            synchronized (events) {
+                final List<String> taken = new ArrayList<>(events);
+                events.clear();
+                return taken;
+            }
+        }
+
+        /**
+         * Returns the events without the connection events, and forgets them.
+         */
+        List<String> common() {
+            final List<String> common = new ArrayList<>();
+            for (String event : take()) {
+                if (!CONNECTION_EVENTS.contains(event.split(" ")[0])) {
+                    common.add(event);
+                }
+            }
+            return common;
+        }
+
+        @Override
+        public void callStart(Call call, String requestId, String url) {
+            events.add("callStart " + requestId + " " + url);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, String route, boolean reused) {
+            events.add("connectionAcquired " + reused);
+        }
+
+        @Override
+        public void dnsStart(Call call, String host) {
+            events.add("dnsStart");
+        }
+
+        @Override
+        public void dnsEnd(Call call, String host, List<InetAddress> addresses) {
+            events.add("dnsEnd");
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address) {
+            events.add("connectStart");
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address) {
+            events.add("connectEnd");
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress address, IOException e) {
+            events.add("connectFailed");
+        }
+
+        @Override
+        public void requestHeadersStart(Call call, RawRequest request) {
+            events.add("requestHeadersStart");
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long bodyBytes, long wireBytes) {
+            events.add("requestBodyEnd " + bodyBytes + " " + wireBytes);
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, int responseCode,
+                Map<String, List<String>> headers) {
+            events.add("responseHeadersEnd " + responseCode);
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long bodyBytes, long wireBytes) {
+            events.add("responseBodyEnd " + bodyBytes + " " + wireBytes);
+        }
+
+        @Override
+        public void parseStart(Call call) {
+            events.add("parseStart");
+        }
+
+        @Override
+        public void parseEnd(Call call) {
+            events.add("parseEnd");
+        }
+
+        @Override
+        public void retry(Call call, int retryCount, long delayMillis, Exception cause) {
+            events.add("retry " + retryCount);
+        }
+
+        @Override
+        public void redirect(Call call, String location) {
+            events.add("redirect " + location);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            events.add("callEnd");
+        }
+
+        @Override
+        public void callFailed(Call call, Exception e) {
+            events.add("callFailed " + e.getClass().getSimpleName());
+        }
+    }
+}
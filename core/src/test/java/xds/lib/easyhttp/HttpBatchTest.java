@@ -0,0 +1,111 @@
+package xds.lib.easyhttp;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import xds.lib.easyhttp.async.ResponseListener;
+import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.transport.NioTransport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs batches through every {@link Transport}: pipelined by {@link NioTransport}, one by one
+ * by the others.
+ */
+public class HttpBatchTest extends TransportTestBase {
+
+    @Test
+    public void resultsInRequestOrder() {
+        final HttpBatch.Builder builder = new HttpBatch.Builder().client(client);
+        for (int i = 0; i < 12; i++) {
+            // A large body in the middle of the pipeline
+            builder.add(request(i == 5 ? "/big" : "/text?i=" + i));
+        }
+
+        final List<HttpBatch.Result<?>> results = builder.build().execute();
+
+        assertEquals(12, results.size());
+        for (int i = 0; i < 12; i++) {
+            assertTrue(results.get(i).isSuccessful());
+            if (i == 5) {
+                assertEquals(TestServer.BIG_SIZE, ((byte[]) results.get(i).getValue()).length);
+            } else {
+                assertEquals("hello /text?i=" + i, text(results.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void errorStatusFailsOnlyItsRequest() {
+        final List<HttpBatch.Result<?>> results = new HttpBatch.Builder().client(client)
+                .add(request("/text?i=0"))
+                .add(request("/status/404"))
+                .add(request("/text?i=2"))
+                .build()
+                .execute();
+
+        assertEquals("hello /text?i=0", text(results.get(0)));
+        assertFalse(results.get(1).isSuccessful());
+        assertEquals(404, ((ResponseException) results.get(1).getError()).getResponseCode());
+        assertEquals("hello /text?i=2", text(results.get(2)));
+    }
+
+    @Test
+    public void listenersNotifiedInOrder() {
+        final List<String> notified = new ArrayList<>();
+        final HttpBatch.Builder builder = new HttpBatch.Builder().client(client);
+        for (int i = 0; i < 6; i++) {
+            builder.add(request("/text?i=" + i), new ResponseListener<byte[]>() {
+                @Override
+                public void onSuccess(byte[] response, String requestId) {
+                    notified.add(new String(response, StandardCharsets.UTF_8));
+                }
+
+                @Override
+                public void onFailed(Throwable throwable, String requestId) {
+                    notified.add(throwable.toString());
+                }
+            });
+        }
+
+        builder.build().execute();
+
+        final List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            expected.add("hello /text?i=" + i);
+        }
+        assertEquals(expected, notified);
+    }
+
+    @Test
+    public void spreadOverMaxConnections() {
+        final List<TestRequest> requests = new ArrayList<>();
+        final HttpBatch.Builder builder = new HttpBatch.Builder().client(client)
+                .maxConnections(2);
+        for (int i = 0; i < 16; i++) {
+            final TestRequest request = request("/text?i=" + i);
+            requests.add(request);
+            builder.add(request);
+        }
+
+        builder.build().execute();
+
+        final Set<String> ports = new HashSet<>();
+        for (TestRequest request : requests) {
+            ports.add(request.header("X-Remote-Port"));
+        }
+        assertTrue(ports.toString(), ports.size() <= 2);
+    }
+
+    private static String text(HttpBatch.Result<?> result) {
+        return new String((byte[]) result.getValue(), StandardCharsets.UTF_8);
+    }
+}
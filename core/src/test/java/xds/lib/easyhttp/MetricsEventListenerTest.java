@@ -0,0 +1,122 @@
+package xds.lib.easyhttp;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.body.RequestBody;
+import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.util.RetryPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MetricsEventListenerTest {
+
+    private static final String HOST = "127.0.0.1";
+
+    private static TestServer server;
+
+    private final MetricsEventListener metrics = new MetricsEventListener(2);
+    private final HttpClient client = new HttpClient.Builder().eventListener(metrics).build();
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new TestServer();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void recordsPerHostAndRequestId() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            request("/text", "text").execute();
+        }
+
+        final MetricsEventListener.Metrics host = metrics.getHostMetrics(HOST);
+        assertEquals(3, host.getCallLatency().getCount());
+        assertEquals(3, host.getHeadersLatency().getCount());
+        assertEquals(3, host.getParseLatency().getCount());
+        // The connection is kept alive
+        assertEquals(1, host.getConnectLatency().getCount());
+        assertEquals(0, host.getFailureCount());
+        assertEquals(3, metrics.getRequestMetrics("text").getCallLatency().getCount());
+        assertTrue(host.getCallLatency().getMax(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    public void failuresRetriesAndRedirects() throws Exception {
+        final TestRequest failing = new TestRequest(client, server.url("/status/503")) {
+            @Override
+            protected RetryPolicy createRetryPolicy() {
+                return RetryPolicy.create(e -> true, 1, 0);
+            }
+        };
+        try {
+            failing.execute();
+            fail("Expected ResponseException");
+        } catch (ResponseException expected) {
+            // Both attempts failed
+        }
+        request("/redirect", "redirect").body(RequestBody.create("hello", "text/plain"))
+                .execute();
+
+        final MetricsEventListener.Metrics host = metrics.getHostMetrics(HOST);
+        assertEquals(2, host.getCallLatency().getCount());
+        assertEquals(1, host.getFailureCount());
+        assertEquals(1, host.getRetryCount());
+        assertEquals(1, host.getRedirectCount());
+        // Two attempts, then the redirect and its hop
+        assertEquals(4, host.getHeadersLatency().getCount());
+    }
+
+    @Test
+    public void requestIdsBeyondLimitShareMetrics() throws Exception {
+        request("/text", "a").execute();
+        request("/text", "b").execute();
+        request("/text", "c").execute();
+        request("/text", "d").execute();
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", MetricsEventListener.OTHER)),
+                metrics.getRequestIds());
+        assertNull(metrics.getRequestMetrics("c"));
+        assertEquals(2, metrics.getRequestMetrics(MetricsEventListener.OTHER)
+                .getCallLatency().getCount());
+    }
+
+    @Test
+    public void reset() throws Exception {
+        request("/text", "text").execute();
+
+        metrics.reset();
+
+        assertTrue(metrics.getHosts().isEmpty());
+        assertTrue(metrics.getRequestIds().isEmpty());
+        request("/text", "text").execute();
+        assertEquals(1, metrics.getHostMetrics(HOST).getCallLatency().getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxKeysMustBePositive() {
+        new MetricsEventListener(0);
+    }
+
+    private TestRequest request(String path, String requestId) {
+        return new TestRequest(client, server.url(path)) {
+            @Override
+            public String getRequestId() {
+                return requestId;
+            }
+        };
+    }
+}
@@ -0,0 +1,139 @@
+package xds.lib.easyhttp;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.async.CallbackDispatcher;
+import xds.lib.easyhttp.async.ResponseListener;
+import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.util.Clock;
+import xds.lib.easyhttp.util.LogSink;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the platform of a plain JVM and the dispatch of the callbacks of asynchronous
+ * requests.
+ */
+public class PlatformTest {
+
+    private static TestServer server;
+
+    private final HttpClient client = new HttpClient.Builder().build();
+    private final ExecutorService worker =
+            Executors.newSingleThreadExecutor(task -> new Thread(task, "worker"));
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new TestServer();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @After
+    public void tearDown() {
+        worker.shutdownNow();
+    }
+
+    @Test
+    public void jvmPlatform() {
+        final Platform platform = Platform.get();
+
+        assertSame(Platform.class, platform.getClass());
+        assertSame(Clock.MONOTONIC, platform.getClock());
+        assertSame(CallbackDispatcher.DIRECT, platform.getCallbackDispatcher());
+        assertSame(LogSink.SYSTEM_ERR, platform.getLogSink());
+        assertFalse(platform.isDebugBuild());
+    }
+
+    @Test
+    public void defaultDispatcherRunsCallbacksOnWorker() throws Exception {
+        final RecordingListener listener = new RecordingListener();
+
+        new TestRequest(client, server.url("/text")).executeAsync(worker, listener);
+
+        assertEquals("onSuccess hello /text on worker", listener.get());
+    }
+
+    @Test
+    public void dispatcherRunsCallbacks() throws Exception {
+        final BlockingQueue<Runnable> callbacks = new LinkedBlockingQueue<>();
+        final RecordingListener listener = new RecordingListener();
+
+        new TestRequest(client, server.url("/text"))
+                .executeAsync(worker, callbacks::add, listener);
+
+        final Runnable callback = callbacks.poll(10, TimeUnit.SECONDS);
+        assertFalse(listener.result.isDone());
+        callback.run();
+        assertEquals("onSuccess hello /text on " + Thread.currentThread().getName(),
+                listener.get());
+    }
+
+    @Test
+    public void dispatcherRunsFailureCallbacks() throws Exception {
+        final BlockingQueue<Runnable> callbacks = new LinkedBlockingQueue<>();
+        final RecordingListener listener = new RecordingListener();
+
+        new TestRequest(client, server.url("/status/500"))
+                .executeAsync(worker, callbacks::add, listener);
+
+        callbacks.poll(10, TimeUnit.SECONDS).run();
+        assertTrue(listener.get(), listener.get().startsWith("onFailed "
+                + ResponseException.class.getSimpleName()));
+    }
+
+    @Test
+    public void cancelledCallIsNotDelivered() throws Exception {
+        final BlockingQueue<Runnable> callbacks = new LinkedBlockingQueue<>();
+        final RecordingListener listener = new RecordingListener();
+
+        final Call call = new TestRequest(client, server.url("/text"))
+                .executeAsync(worker, callbacks::add, listener);
+        final Runnable callback = callbacks.poll(10, TimeUnit.SECONDS);
+        call.cancel();
+        callback.run();
+
+        assertFalse(listener.result.isDone());
+    }
+
+    /**
+     * Listener keeping the callback it received and its thread.
+     */
+    private static class RecordingListener implements ResponseListener<byte[]> {
+
+        final CompletableFuture<String> result = new CompletableFuture<>();
+
+        String get() throws Exception {
+            return result.get(10, TimeUnit.SECONDS);
+        }
+
+        @Override
+        public void onSuccess(byte[] response, String requestId) {
+            result.complete("onSuccess " + new String(response, StandardCharsets.UTF_8)
+                    + " on " + Thread.currentThread().getName());
+        }
+
+        @Override
+        public void onFailed(Throwable exception, String requestId) {
+            result.complete("onFailed " + exception.getClass().getSimpleName());
+        }
+    }
+}
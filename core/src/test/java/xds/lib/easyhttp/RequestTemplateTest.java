@@ -0,0 +1,180 @@
+package xds.lib.easyhttp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that a {@link TemplateRequest} sends the same URL as the {@link HttpRequest} it
+ * replaces, and that the template encodes as {@link URLEncoder} does.
+ */
+public class RequestTemplateTest {
+
+    private static final String BASE_URL = "http://example.com/v1/poll";
+    private static final String[] VALUES = {
+            "", "plain", "with space", "a+b=c&d", "100%", "~tilde'quote\"", "slash/?#[]@",
+            "caf\u00e9", "\u65e5\u672c", "emoji \ud83d\ude00", "mixed\u00e9 & \u00fc", "*._-",
+    };
+
+    @Test
+    public void encodesAsUrlEncoder() throws Exception {
+        final StringBuilder ascii = new StringBuilder();
+        for (char c = 0; c < 0x80; c++) {
+            ascii.append(c);
+        }
+        assertEncoded(ascii.toString());
+        for (String value : VALUES) {
+            assertEncoded(value);
+        }
+    }
+
+    @Test
+    public void templateUrlMatchesBuildRequestUrl() throws IOException {
+        final RequestTemplate.Builder builder = new RequestTemplate.Builder(BASE_URL);
+        final Map<String, String> allParameters = new LinkedHashMap<>();
+        for (int i = 0; i < VALUES.length; i++) {
+            builder.queryParameter("static " + i, VALUES[i]);
+            allParameters.put("static " + i, VALUES[i]);
+        }
+        final Map<String, String> dynamicParameters = new LinkedHashMap<>();
+        for (int i = 0; i < VALUES.length; i++) {
+            dynamicParameters.put("dynamic " + i, VALUES[VALUES.length - 1 - i]);
+        }
+        allParameters.putAll(dynamicParameters);
+
+        final RequestTemplate template = builder.build();
+        final String templateUrl = new Templated(template, dynamicParameters)
+                .buildRequestUrl(template.getUrl());
+        final String plainUrl = new Plain(BASE_URL, allParameters).buildRequestUrl(BASE_URL);
+
+        assertEquals(plainUrl, templateUrl);
+    }
+
+    @Test
+    public void baseUrlWithQuery() throws IOException {
+        final RequestTemplate template = new RequestTemplate.Builder(BASE_URL + "?v=1")
+                .queryParameter("client", "android")
+                .build();
+        final Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put("cursor", "a b");
+
+        assertEquals(BASE_URL + "?v=1&client=android", template.getUrl());
+        assertEquals(BASE_URL + "?v=1&client=android&cursor=a+b",
+                new Templated(template, parameters).buildRequestUrl(template.getUrl()));
+    }
+
+    @Test
+    public void urlWithoutParametersIsNotRebuilt() throws IOException {
+        final RequestTemplate template = new RequestTemplate.Builder(BASE_URL)
+                .queryParameter("client", "android")
+                .build();
+
+        assertSame(template.getUrl(),
+                new Templated(template, null).buildRequestUrl(template.getUrl()));
+        assertSame(template.toUrl(template.getUrl()), template.toUrl(template.getUrl()));
+        assertEquals("example.com", template.getHost());
+    }
+
+    @Test
+    public void methodInUpperCase() {
+        assertEquals("POST", new RequestTemplate.Builder(BASE_URL).method("post").build()
+                .getMethod());
+    }
+
+    @Test
+    public void requestHeaders() {
+        final RequestTemplate template = new RequestTemplate.Builder(BASE_URL)
+                .header("Accept", "application/json")
+                .header("accept", "text/plain")
+                .build();
+
+        final Map<String, String> headers = template.getRequestHeaders("gzip");
+
+        assertEquals(2, headers.size());
+        assertEquals("gzip", headers.get("Accept-Encoding"));
+        assertEquals("text/plain", headers.get("accept"));
+        assertFalse(headers.containsKey("Accept"));
+        assertSame(headers, template.getRequestHeaders("gzip"));
+        assertEquals("br, gzip", template.getRequestHeaders("br, gzip").get("Accept-Encoding"));
+    }
+
+    @Test
+    public void staticAcceptEncodingWins() {
+        final RequestTemplate template = new RequestTemplate.Builder(BASE_URL)
+                .header("accept-encoding", "identity")
+                .build();
+
+        final Map<String, String> headers = template.getRequestHeaders("gzip");
+
+        assertEquals(1, headers.size());
+        assertEquals("identity", headers.get("accept-encoding"));
+    }
+
+    private static void assertEncoded(String value) throws Exception {
+        final StringBuilder encoded = new StringBuilder();
+        RequestTemplate.appendEncoded(encoded, value);
+        assertEquals(value, URLEncoder.encode(value, StandardCharsets.UTF_8.name()),
+                encoded.toString());
+    }
+
+    private static final class Templated extends TemplateRequest<String> {
+
+        private final RequestTemplate template;
+        private final Map<String, String> queryParameters;
+
+        Templated(RequestTemplate template, Map<String, String> queryParameters) {
+            this.template = template;
+            this.queryParameters = queryParameters;
+        }
+
+        @Override
+        protected RequestTemplate getRequestTemplate() {
+            return template;
+        }
+
+        @Override
+        protected Map<String, String> getQueryParameters() {
+            return queryParameters;
+        }
+
+        @Override
+        protected String parseResponse(InputStream inputStream, String contentType) {
+            return null;
+        }
+    }
+
+    private static final class Plain extends HttpRequest<String> {
+
+        private final String url;
+        private final Map<String, String> queryParameters;
+
+        Plain(String url, Map<String, String> queryParameters) {
+            this.url = url;
+            this.queryParameters = queryParameters;
+        }
+
+        @Override
+        protected String getUrl() {
+            return url;
+        }
+
+        @Override
+        protected Map<String, String> getQueryParameters() {
+            return queryParameters;
+        }
+
+        @Override
+        protected String parseResponse(InputStream inputStream, String contentType) {
+            return null;
+        }
+    }
+}
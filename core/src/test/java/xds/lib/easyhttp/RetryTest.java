@@ -0,0 +1,108 @@
+package xds.lib.easyhttp;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.body.RequestBody;
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.util.RetryPolicy;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks which failures of an execution are passed to the {@link RetryPolicy}.
+ */
+public class RetryTest extends TransportTestBase {
+
+    @Test
+    public void retriesRequestException() throws Exception {
+        try {
+            tooManyRedirects(2).execute();
+            fail("Expected RequestException");
+        } catch (RequestException e) {
+            assertEquals("Too many redirects", e.getMessage());
+        }
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void retriesRequestExceptionAsync() throws Exception {
+        try {
+            tooManyRedirects(2).executeFuture().get(10, TimeUnit.SECONDS);
+            fail("Expected RequestException");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof RequestException);
+        }
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void noRetryWithoutPolicy() throws Exception {
+        try {
+            tooManyRedirects(0).execute();
+            fail("Expected RequestException");
+        } catch (RequestException expected) {
+            // Expected
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void coalescedRetryHoldsNoThread() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final HttpClient coalescing = client.newBuilder().coalesceRequests(true).build();
+            final TestRequest failing = new TestRequest(coalescing, server.url("/status/503")) {
+                @Override
+                protected RetryPolicy createRetryPolicy() {
+                    return RetryPolicy.create50x(1, 1000);
+                }
+            };
+            final CompletableFuture<byte[]> retried = failing.executeFuture(executor);
+
+            // The only thread of the executor is free during the back-off
+            final String text = new String(new TestRequest(coalescing, server.url("/text"))
+                    .executeFuture(executor).get(500, TimeUnit.MILLISECONDS), UTF_8);
+            assertEquals("hello /text", text);
+            assertFalse(retried.isDone());
+            try {
+                retried.get(5, TimeUnit.SECONDS);
+                fail("Expected ResponseException");
+            } catch (ExecutionException e) {
+                assertTrue(String.valueOf(e.getCause()),
+                        e.getCause() instanceof ResponseException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns a request failing with a {@link RequestException} on every attempt, retried on
+     * request failures. The request has a body, so no transport follows the redirect itself.
+     */
+    private TestRequest tooManyRedirects(int retries) {
+        return new TestRequest(client, server.url("/redirect")) {
+            @Override
+            protected RetryPolicy createRetryPolicy() {
+                return retries > 0 ?
+                        RetryPolicy.create(e -> e instanceof RequestException, retries, 0) : null;
+            }
+
+            @Override
+            protected int getMaxRedirects() {
+                return 0;
+            }
+        }.body(RequestBody.create(new byte[] {1}, null));
+    }
+}
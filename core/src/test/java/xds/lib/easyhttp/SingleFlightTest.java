@@ -0,0 +1,285 @@
+package xds.lib.easyhttp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.util.Clock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    private static final int FOLLOWERS = 4;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final CountDownLatch leaderStarted = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void followersShareResult() throws Exception {
+        final Future<String> leader = submit(newCall(), () -> {
+            leaderStarted.countDown();
+            awaitRelease();
+            return "result " + runs.incrementAndGet();
+        });
+        final List<Future<String>> followers = submitFollowers();
+
+        release.countDown();
+
+        assertEquals("result 1", leader.get(5, TimeUnit.SECONDS));
+        for (Future<String> follower : followers) {
+            assertEquals("result 1", follower.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, singleFlight.getExecutedCount());
+        assertEquals(FOLLOWERS, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void followersShareFailure() throws Exception {
+        final ResponseException failure = new ResponseException("Unavailable", 503);
+        final Future<String> leader = submit(newCall(), () -> {
+            leaderStarted.countDown();
+            awaitRelease();
+            runs.incrementAndGet();
+            throw failure;
+        });
+        final List<Future<String>> followers = submitFollowers();
+
+        release.countDown();
+
+        assertSame(failure, causeOf(leader));
+        for (Future<String> follower : followers) {
+            assertSame(failure, causeOf(follower));
+        }
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void cancelledLeaderHandsOver() throws Exception {
+        final Call leaderCall = newCall();
+        final Future<String> leader = submit(leaderCall, () -> {
+            leaderStarted.countDown();
+            awaitRelease();
+            runs.incrementAndGet();
+            throw new RequestException("Canceled");
+        });
+        final CountDownLatch handedOver = new CountDownLatch(1);
+        leaderStarted.await(5, TimeUnit.SECONDS);
+        final List<Future<String>> followers = new ArrayList<>();
+        for (int i = 0; i < FOLLOWERS; i++) {
+            followers.add(submit(newCall(), () -> {
+                try {
+                    handedOver.await();
+                } catch (InterruptedException e) {
+                    throw new RequestException("Interrupted", e);
+                }
+                return "result " + runs.incrementAndGet();
+            }));
+        }
+        Thread.sleep(200);
+
+        leaderCall.cancel();
+        release.countDown();
+        assertEquals(RequestException.class, causeOf(leader).getClass());
+        // Let the followers wait for the one which took over
+        Thread.sleep(200);
+        handedOver.countDown();
+
+        // One follower ran the action again, the others shared its result
+        for (Future<String> follower : followers) {
+            assertEquals("result 2", follower.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(2, runs.get());
+        assertEquals(2, singleFlight.getExecutedCount());
+        assertEquals(FOLLOWERS - 1, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void sequentialCallsRunAgain() throws Exception {
+        assertEquals("1", singleFlight.execute("key", newCall(),
+                () -> String.valueOf(runs.incrementAndGet())));
+        assertEquals("2", singleFlight.execute("key", newCall(),
+                () -> String.valueOf(runs.incrementAndGet())));
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void keysAreIndependent() throws Exception {
+        final Future<String> leader = submit(newCall(), () -> {
+            leaderStarted.countDown();
+            awaitRelease();
+            return "key";
+        });
+        leaderStarted.await(5, TimeUnit.SECONDS);
+
+        assertEquals("other", singleFlight.execute("other", newCall(), () -> "other"));
+
+        release.countDown();
+        assertEquals("key", leader.get(5, TimeUnit.SECONDS));
+        assertEquals(2, singleFlight.getExecutedCount());
+    }
+
+    @Test
+    public void cancelledFollowerStopsWaiting() throws Exception {
+        final Future<String> leader = submit(newCall(), () -> {
+            leaderStarted.countDown();
+            awaitRelease();
+            return "result";
+        });
+        leaderStarted.await(5, TimeUnit.SECONDS);
+        final Call followerCall = newCall();
+        final Future<String> follower = submit(followerCall, () -> "follower");
+        Thread.sleep(200);
+
+        followerCall.cancel();
+
+        assertEquals("Canceled", causeOf(follower).getMessage());
+        release.countDown();
+        assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void followerDeadline() throws Exception {
+        final Future<String> leader = submit(newCall(), () -> {
+            leaderStarted.countDown();
+            awaitRelease();
+            return "result";
+        });
+        leaderStarted.await(5, TimeUnit.SECONDS);
+
+        final Future<String> follower = submit(newCall(200), () -> "follower");
+
+        assertEquals("Call timed out", causeOf(follower).getMessage());
+        release.countDown();
+        assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void asyncFollowersHoldNoThread() {
+        final AtomicReference<BiConsumer<String, Exception>> leader = new AtomicReference<>();
+        final List<String> results = new CopyOnWriteArrayList<>();
+        singleFlight.<String>executeAsync("key", newCall(), leader::set,
+                (result, error) -> fail("The leader shared its own result"));
+        for (int i = 0; i < FOLLOWERS; i++) {
+            singleFlight.<String>executeAsync("key", newCall(),
+                    completion -> fail("A follower ran"), (result, error) -> results.add(result));
+        }
+        assertEquals(0, results.size());
+
+        leader.get().accept("result", null);
+
+        assertEquals(Collections.nCopies(FOLLOWERS, "result"), results);
+        assertEquals(1, singleFlight.getExecutedCount());
+        assertEquals(FOLLOWERS, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void asyncCancelledLeaderHandsOver() {
+        final Call leaderCall = newCall();
+        final List<BiConsumer<String, Exception>> started = new ArrayList<>();
+        final List<String> results = new CopyOnWriteArrayList<>();
+        singleFlight.<String>executeAsync("key", leaderCall, started::add,
+                (result, error) -> fail("The leader shared its own result"));
+        for (int i = 0; i < FOLLOWERS; i++) {
+            singleFlight.<String>executeAsync("key", newCall(), started::add,
+                    (result, error) -> results.add(result));
+        }
+
+        leaderCall.cancel();
+        started.get(0).accept(null, new RequestException("Canceled"));
+
+        // One follower runs the action again, the others wait for it
+        assertEquals(2, started.size());
+        assertEquals(0, results.size());
+        started.get(1).accept("result", null);
+        assertEquals(Collections.nCopies(FOLLOWERS - 1, "result"), results);
+        assertEquals(2, singleFlight.getExecutedCount());
+    }
+
+    @Test
+    public void asyncCancelledFollowerStopsWaiting() {
+        final AtomicReference<BiConsumer<String, Exception>> leader = new AtomicReference<>();
+        final List<Exception> failures = new CopyOnWriteArrayList<>();
+        singleFlight.<String>executeAsync("key", newCall(), leader::set,
+                (result, error) -> fail("The leader shared its own result"));
+        final Call followerCall = newCall();
+        singleFlight.<String>executeAsync("key", followerCall,
+                completion -> fail("The follower ran"), (result, error) -> failures.add(error));
+
+        followerCall.cancel();
+        leader.get().accept("result", null);
+
+        assertEquals(1, failures.size());
+        assertEquals("Canceled", failures.get(0).getMessage());
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    private Future<String> submit(Call call, SingleFlight.Action<String> action) {
+        return executor.submit(() -> singleFlight.execute("key", call, action));
+    }
+
+    /**
+     * Starts the followers once the leader runs, and lets them reach the flight.
+     */
+    private List<Future<String>> submitFollowers() throws InterruptedException {
+        leaderStarted.await(5, TimeUnit.SECONDS);
+        final List<Future<String>> followers = new ArrayList<>();
+        for (int i = 0; i < FOLLOWERS; i++) {
+            followers.add(submit(newCall(), () -> "result " + runs.incrementAndGet()));
+        }
+        Thread.sleep(200);
+        return followers;
+    }
+
+    private void awaitRelease() throws RequestException {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            throw new RequestException("Interrupted", e);
+        }
+    }
+
+    private static Throwable causeOf(Future<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("Expected a failure");
+        return null;
+    }
+
+    private static Call newCall() {
+        return newCall(0);
+    }
+
+    private static Call newCall(long timeoutMillis) {
+        return new Call(timeoutMillis, EventListener.NONE, Clock.MONOTONIC);
+    }
+}
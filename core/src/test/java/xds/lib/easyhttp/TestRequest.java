@@ -0,0 +1,128 @@
+package xds.lib.easyhttp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import xds.lib.easyhttp.body.RequestBody;
+
+/**
+ * Request of the tests returning the raw response body and keeping the response headers.
+ */
+public class TestRequest extends HttpRequest<byte[]> {
+
+    private final HttpClient client;
+    private final String url;
+    private String method = METHOD_GET;
+    private RequestBody body;
+    private int readTimeout = 10_000;
+    private volatile Map<String, List<String>> headers;
+
+    public TestRequest(HttpClient client, String url) {
+        this.client = client;
+        this.url = url;
+    }
+
+    /**
+     * Set the request method, GET by default or POST with a body.
+     */
+    public TestRequest method(String method) {
+        this.method = method;
+        return this;
+    }
+
+    /**
+     * Set the request body, which makes the request a POST unless a method was set.
+     */
+    public TestRequest body(RequestBody body) {
+        this.body = body;
+        if (METHOD_GET.equals(method)) {
+            method = METHOD_POST;
+        }
+        return this;
+    }
+
+    public TestRequest readTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * Returns the first value of the response header, or null.
+     */
+    public String header(String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Execute the request and decode the body as UTF-8.
+     */
+    public String text() throws Exception {
+        return new String(execute(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates the wire-level request of the request, without a call.
+     */
+    public static RawRequest newRawRequest(HttpRequest<?> request, String url)
+            throws IOException {
+        return request.newRawRequest(request.buildRequestUrl(url), null);
+    }
+
+    /**
+     * Read the stream to the end.
+     */
+    public static byte[] read(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    protected HttpClient getHttpClient() {
+        return client;
+    }
+
+    @Override
+    protected String getUrl() {
+        return url;
+    }
+
+    @Override
+    protected String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    protected RequestBody getRequestBody() {
+        return body;
+    }
+
+    @Override
+    protected int getReadTimeout() {
+        return readTimeout;
+    }
+
+    @Override
+    protected void onResponseHeaders(int statusCode, Map<String, List<String>> headers) {
+        this.headers = headers;
+    }
+
+    @Override
+    protected byte[] parseResponse(InputStream inputStream, String contentType)
+            throws IOException {
+        return read(inputStream);
+    }
+}
@@ -0,0 +1,308 @@
+package xds.lib.easyhttp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * HTTP/1.1 server on the loopback interface for the tests.
+ * <p>
+ * Every response carries the port of the client in {@code X-Remote-Port}, so tests can tell
+ * whether a connection was reused. Routes:
+ * <ul>
+ * <li>{@code /text}: "hello " followed by the request URI.</li>
+ * <li>{@code /echo}: the request body, with the request {@code Transfer-Encoding},
+ * {@code Content-Length}, {@code Content-Type} and {@code Content-Encoding} in the same
+ * headers prefixed with {@code X-}.</li>
+ * <li>{@code /big}: {@link #BIG_SIZE} bytes of {@link #contentByte(long)}, chunked.</li>
+ * <li>{@code /content}: {@link #CONTENT_SIZE} bytes of {@link #contentByte(long)}, with
+ * byte ranges unless the query has {@code ranges=false}. With {@code truncate=<n>}, the first
+ * n GET responses with this query end in the middle.</li>
+ * <li>{@code /gzip}: {@link #gzipText()}, gzip-encoded if the request accepts it, with the
+ * request {@code Accept-Encoding} in {@code X-Accept-Encoding}.</li>
+ * <li>{@code /status/<code>}: the status code with a short body.</li>
+ * <li>{@code /redirect}: a redirect to {@code /text}.</li>
+ * <li>{@code /slow}: {@code /text} after a second, or after {@code ms=<n>} milliseconds.</li>
+ * <li>{@code /drip}: {@link #DRIP_SIZE} bytes of {@link #contentByte(long)}, one every 100
+ * milliseconds, or every {@code ms=<n>} milliseconds.</li>
+ * </ul>
+ */
+public final class TestServer implements AutoCloseable {
+
+    public static final int BIG_SIZE = 1024 * 1024;
+    public static final int CONTENT_SIZE = 4 * 1024 * 1024;
+    public static final int DRIP_SIZE = 100;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private final AtomicInteger truncatedCount = new AtomicInteger();
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+
+    public TestServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the URL of the path on the server.
+     */
+    public String url(String path) {
+        return "http://127.0.0.1:" + getPort() + path;
+    }
+
+    /**
+     * Returns the number of requests received.
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Returns the {@code Range} headers of the requests to {@code /content}.
+     */
+    public List<String> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * Reset the request count, the recorded ranges and the truncated responses.
+     */
+    public void reset() {
+        requestCount.set(0);
+        truncatedCount.set(0);
+        ranges.clear();
+    }
+
+    /**
+     * Returns the byte at the offset of the {@code /big} and {@code /content} bodies.
+     */
+    public static byte contentByte(long offset) {
+        return (byte) (offset % 251);
+    }
+
+    /**
+     * Returns the text of the {@code /gzip} route, which compresses well.
+     */
+    public static String gzipText() {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 10_000; i++) {
+            text.append("line ").append(i % 10).append(" of the compressible text\n");
+        }
+        return text.toString();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        try {
+            exchange.getResponseHeaders().add("X-Remote-Port",
+                    String.valueOf(exchange.getRemoteAddress().getPort()));
+            final String path = exchange.getRequestURI().getPath();
+            // Read on every route, an unread body would reset the kept-alive connection
+            final byte[] requestBody = readAll(exchange.getRequestBody());
+            if (path.equals("/echo")) {
+                echo(exchange, requestBody);
+            } else if (path.equals("/big")) {
+                exchange.sendResponseHeaders(200, 0);
+                writeContent(exchange.getResponseBody(), 0, BIG_SIZE);
+            } else if (path.equals("/content")) {
+                content(exchange);
+            } else if (path.equals("/gzip")) {
+                gzip(exchange);
+            } else if (path.startsWith("/status/")) {
+                send(exchange, Integer.parseInt(path.substring("/status/".length())), "error");
+            } else if (path.equals("/drip")) {
+                drip(exchange);
+            } else if (path.equals("/redirect")) {
+                exchange.getResponseHeaders().add("Location", url("/text"));
+                exchange.sendResponseHeaders(302, -1);
+            } else {
+                if (path.equals("/slow")) {
+                    final String query = exchange.getRequestURI().getQuery();
+                    try {
+                        Thread.sleep(query != null && query.startsWith("ms=") ?
+                                Long.parseLong(query.substring("ms=".length())) : 1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                send(exchange, 200, "hello " + exchange.getRequestURI());
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void echo(HttpExchange exchange, byte[] body) throws IOException {
+        final String transferEncoding =
+                exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+        final String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        exchange.getResponseHeaders().add("X-Transfer-Encoding",
+                transferEncoding != null ? transferEncoding : "");
+        exchange.getResponseHeaders().add("X-Content-Length",
+                contentLength != null ? contentLength : "");
+        for (String name : new String[] {"Content-Type", "Content-Encoding"}) {
+            final String value = exchange.getRequestHeaders().getFirst(name);
+            exchange.getResponseHeaders().add("X-" + name, value != null ? value : "");
+        }
+        exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void gzip(HttpExchange exchange) throws IOException {
+        final String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        exchange.getResponseHeaders().add("X-Accept-Encoding",
+                acceptEncoding != null ? acceptEncoding : "");
+        final byte[] text = gzipText().getBytes(StandardCharsets.UTF_8);
+        if (acceptEncoding == null || !acceptEncoding.contains("gzip")) {
+            exchange.sendResponseHeaders(200, text.length);
+            exchange.getResponseBody().write(text);
+            return;
+        }
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(text);
+        }
+        exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(200, compressed.size());
+        compressed.writeTo(exchange.getResponseBody());
+    }
+
+    private void content(HttpExchange exchange) throws IOException {
+        final String query = exchange.getRequestURI().getQuery();
+        final boolean acceptRanges = !"false".equals(parameter(query, "ranges"));
+        final String truncateParameter = parameter(query, "truncate");
+        final int truncate = truncateParameter != null ? Integer.parseInt(truncateParameter) : 0;
+        if (acceptRanges) {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        }
+        exchange.getResponseHeaders().add("ETag", "\"content\"");
+        final boolean head = "HEAD".equals(exchange.getRequestMethod());
+        final String range = acceptRanges ? exchange.getRequestHeaders().getFirst("Range") : null;
+        if (range == null) {
+            if (head) {
+                exchange.getResponseHeaders().add("Content-Length",
+                        String.valueOf(CONTENT_SIZE));
+                exchange.sendResponseHeaders(200, -1);
+            } else {
+                exchange.sendResponseHeaders(200, CONTENT_SIZE);
+                final boolean truncated =
+                        truncate > 0 && truncatedCount.getAndIncrement() < truncate;
+                writeContent(exchange.getResponseBody(), 0,
+                        truncated ? CONTENT_SIZE / 2 : CONTENT_SIZE);
+            }
+            return;
+        }
+        ranges.add(range);
+        // Single "bytes=first-last" or "bytes=first-" range
+        final String spec = range.substring("bytes=".length());
+        final int dash = spec.indexOf('-');
+        final long first = Long.parseLong(spec.substring(0, dash));
+        final long last = dash == spec.length() - 1 ?
+                CONTENT_SIZE - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)),
+                CONTENT_SIZE - 1);
+        exchange.getResponseHeaders().add("Content-Range",
+                "bytes " + first + "-" + last + "/" + CONTENT_SIZE);
+        exchange.sendResponseHeaders(206, last - first + 1);
+        if (truncate > 0 && truncatedCount.getAndIncrement() < truncate) {
+            // Closing the exchange short of its length drops the connection
+            writeContent(exchange.getResponseBody(), first, first + (last - first + 1) / 2);
+            return;
+        }
+        writeContent(exchange.getResponseBody(), first, last + 1);
+    }
+
+    private static void drip(HttpExchange exchange) throws IOException {
+        final String query = exchange.getRequestURI().getQuery();
+        final long delay = query != null && query.startsWith("ms=") ?
+                Long.parseLong(query.substring("ms=".length())) : 100;
+        exchange.sendResponseHeaders(200, DRIP_SIZE);
+        final OutputStream body = exchange.getResponseBody();
+        for (int i = 0; i < DRIP_SIZE; i++) {
+            body.write(contentByte(i));
+            body.flush();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the value of the parameter of the query, or null.
+     */
+    private static String parameter(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static void send(HttpExchange exchange, int code, String text) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(code, -1);
+            return;
+        }
+        final byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static void writeContent(OutputStream os, long from, long to) throws IOException {
+        final byte[] buffer = new byte[8192];
+        for (long offset = from; offset < to; ) {
+            final int length = (int) Math.min(buffer.length, to - offset);
+            for (int i = 0; i < length; i++) {
+                buffer[i] = contentByte(offset + i);
+            }
+            os.write(buffer, 0, length);
+            offset += length;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
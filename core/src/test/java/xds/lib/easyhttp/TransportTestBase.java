@@ -0,0 +1,81 @@
+package xds.lib.easyhttp;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import xds.lib.easyhttp.transport.NioTransport;
+import xds.lib.easyhttp.transport.UrlConnectionTransport;
+
+/**
+ * Base of the tests running once per {@link Transport} against the {@link TestServer} of the
+ * class. Every test gets a new client and transport, and the server counters start at zero.
+ */
+@RunWith(Parameterized.class)
+public abstract class TransportTestBase {
+
+    protected static TestServer server;
+
+    @Parameterized.Parameter
+    public String transportName;
+
+    protected Transport transport;
+    protected HttpClient client;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<String> transports() {
+        return Arrays.asList("UrlConnectionTransport", "NioTransport");
+    }
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new TestServer();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Before
+    public void setUpClient() {
+        server.reset();
+        transport = transportName.equals("NioTransport") ?
+                new NioTransport() : new UrlConnectionTransport();
+        client = new HttpClient.Builder().transport(transport).build();
+    }
+
+    @After
+    public void tearDownClient() throws IOException {
+        client.getConnectionPool().evictAll();
+        if (transport instanceof Closeable) {
+            ((Closeable) transport).close();
+        }
+    }
+
+    /**
+     * Returns a request of the path on the server.
+     */
+    protected TestRequest request(String path) {
+        return new TestRequest(client, server.url(path));
+    }
+
+    /**
+     * Returns the first bytes of the {@code /big} and {@code /content} bodies.
+     */
+    protected static byte[] content(int length) {
+        final byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = TestServer.contentByte(i);
+        }
+        return content;
+    }
+}
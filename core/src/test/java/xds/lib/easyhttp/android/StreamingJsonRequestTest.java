@@ -0,0 +1,231 @@
+package xds.lib.easyhttp.android;
+
+import android.util.JsonReader;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.HttpClient;
+import xds.lib.easyhttp.TestServer;
+import xds.lib.easyhttp.body.RequestBody;
+import xds.lib.easyhttp.exception.ParseException;
+import xds.lib.easyhttp.util.RetryPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Streams the JSON arrays the {@link TestServer} echoes. {@link JsonReader} is only
+ * implemented on Android, so the test runs with Robolectric.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class StreamingJsonRequestTest {
+
+    private static TestServer server;
+
+    private final HttpClient client = new HttpClient.Builder().build();
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new TestServer();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void deliversElementsInOrder() throws Exception {
+        final NumbersRequest request = new NumbersRequest("[1, 2, 3]");
+
+        assertEquals(Integer.valueOf(3), request.execute());
+        assertEquals(Arrays.asList(1, 2, 3), request.elements);
+    }
+
+    @Test
+    public void emptyArray() throws Exception {
+        final NumbersRequest request = new NumbersRequest("[]");
+
+        assertEquals(Integer.valueOf(0), request.execute());
+        assertTrue(request.elements.isEmpty());
+    }
+
+    @Test
+    public void arrayInsideObject() throws Exception {
+        final NumbersRequest request = new NumbersRequest("{\"total\": 2, \"items\": [4, 5]}") {
+            @Override
+            protected void beginArray(JsonReader reader) throws IOException {
+                reader.beginObject();
+                while (!"items".equals(reader.nextName())) {
+                    reader.skipValue();
+                }
+                reader.beginArray();
+            }
+        };
+
+        assertEquals(Integer.valueOf(2), request.execute());
+        assertEquals(Arrays.asList(4, 5), request.elements);
+    }
+
+    @Test
+    public void malformedJson() throws Exception {
+        try {
+            new NumbersRequest("{\"items\": []}").execute();
+            fail("Expected ParseException");
+        } catch (ParseException expected) {
+            // An object instead of the array
+        }
+    }
+
+    @Test
+    public void failureAfterFirstElementIsNotRetried() throws Exception {
+        final int requests = server.getRequestCount();
+        final NumbersRequest request = new NumbersRequest("[1, 2, 3") {
+            @Override
+            protected RetryPolicy createRetryPolicy() {
+                return RetryPolicy.create(e -> true, 3, 0);
+            }
+        };
+
+        try {
+            request.execute();
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertEquals("Response failed after 3 elements", e.getMessage());
+        }
+        assertEquals(Arrays.asList(1, 2, 3), request.elements);
+        assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void iterate() throws Exception {
+        final NumbersRequest request = new NumbersRequest(array(1000));
+
+        final List<Integer> elements = new ArrayList<>();
+        try (StreamingJsonRequest.ElementIterator<Integer> iterator = request.iterate()) {
+            iterator.forEachRemaining(elements::add);
+        }
+
+        assertEquals(1000, elements.size());
+        assertEquals(Integer.valueOf(999), elements.get(999));
+        // Elements of an iteration don't go to onElement
+        assertTrue(request.elements.isEmpty());
+    }
+
+    @Test
+    public void concurrentIterationsOfOneRequest() throws Exception {
+        final NumbersRequest request = new NumbersRequest(array(500));
+
+        final List<CompletableFuture<Integer>> sums = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final StreamingJsonRequest.ElementIterator<Integer> iterator = request.iterate();
+            sums.add(CompletableFuture.supplyAsync(() -> {
+                int sum = 0;
+                while (iterator.hasNext()) {
+                    sum += iterator.next();
+                }
+                return sum;
+            }));
+        }
+
+        for (CompletableFuture<Integer> sum : sums) {
+            assertEquals(Integer.valueOf(499 * 500 / 2), sum.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void iterationFailure() {
+        final StreamingJsonRequest.ElementIterator<Integer> iterator =
+                new NumbersRequest("[1, oops]").iterate();
+
+        assertEquals(Integer.valueOf(1), iterator.next());
+        try {
+            iterator.hasNext();
+            fail("Expected CompletionException");
+        } catch (CompletionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ParseException);
+        }
+    }
+
+    @Test
+    public void closedIterationEnds() {
+        final NumbersRequest request = new NumbersRequest(array(10_000)) {
+            @Override
+            protected int getQueueCapacity() {
+                return 1;
+            }
+        };
+        final StreamingJsonRequest.ElementIterator<Integer> iterator = request.iterate();
+
+        assertEquals(Integer.valueOf(0), iterator.next());
+        iterator.close();
+
+        assertFalse(iterator.hasNext());
+    }
+
+    private static String array(int count) {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            json.append(i == 0 ? "" : ",").append(i);
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * Request of the integers of the JSON, which {@code /echo} sends back.
+     */
+    private class NumbersRequest extends StreamingJsonRequest<Integer> {
+
+        final List<Integer> elements = Collections.synchronizedList(new ArrayList<>());
+        private final String json;
+
+        NumbersRequest(String json) {
+            this.json = json;
+        }
+
+        @Override
+        protected HttpClient getHttpClient() {
+            return client;
+        }
+
+        @Override
+        protected String getUrl() {
+            return server.url("/echo");
+        }
+
+        @Override
+        protected String getRequestMethod() {
+            return METHOD_POST;
+        }
+
+        @Override
+        protected RequestBody getRequestBody() {
+            return RequestBody.create(json, "application/json");
+        }
+
+        @Override
+        protected Integer parseElement(JsonReader reader) throws IOException {
+            return reader.nextInt();
+        }
+
+        @Override
+        protected void onElement(Integer element) {
+            elements.add(element);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package xds.lib.easyhttp.body;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import xds.lib.easyhttp.TestRequest;
+import xds.lib.easyhttp.Transport;
+import xds.lib.easyhttp.TransportTestBase;
+import xds.lib.easyhttp.exception.RequestException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Sends every kind of {@link RequestBody} through every {@link Transport} to a server which
+ * echoes it, and checks the bytes and the framing.
+ */
+public class RequestBodyTest extends TransportTestBase {
+
+    /** Larger than the bodies NioTransport sends in one write. */
+    private static final int LARGE_SIZE = 4 * 1024 * 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void bytes() throws Exception {
+        final byte[] content = content(1000);
+        final TestRequest request = echo(RequestBody.create(content, "text/plain"));
+
+        assertArrayEquals(content, request.execute());
+        assertEquals("1000", request.header("X-Content-Length"));
+        assertEquals("text/plain", request.header("X-Content-Type"));
+    }
+
+    @Test
+    public void largeFixedLength() throws Exception {
+        final byte[] content = content(LARGE_SIZE);
+        final TestRequest request = echo(RequestBody.create(
+                os -> os.write(content), LARGE_SIZE, null));
+
+        assertArrayEquals(content, request.execute());
+        assertEquals(String.valueOf(LARGE_SIZE), request.header("X-Content-Length"));
+        assertEquals("", request.header("X-Transfer-Encoding"));
+    }
+
+    @Test
+    public void largeChunked() throws Exception {
+        final byte[] content = content(LARGE_SIZE);
+        final TestRequest request = echo(RequestBody.create(os -> {
+            for (int i = 0; i < content.length; i++) {
+                os.write(content[i]);
+            }
+        }, -1, null));
+
+        assertArrayEquals(content, request.execute());
+        assertEquals("chunked", request.header("X-Transfer-Encoding"));
+    }
+
+    @Test
+    public void file() throws Exception {
+        final byte[] content = content(300_000);
+        final File file = folder.newFile();
+        Files.write(file.toPath(), content);
+
+        assertArrayEquals(content, echo(RequestBody.create(file, null)).execute());
+    }
+
+    @Test
+    public void channelOfUnknownLength() throws Exception {
+        final byte[] content = content(300_000);
+        final TestRequest request = echo(RequestBody.create(
+                Channels.newChannel(new ByteArrayInputStream(content)), -1, null));
+
+        assertArrayEquals(content, request.execute());
+        assertEquals("chunked", request.header("X-Transfer-Encoding"));
+    }
+
+    @Test
+    public void gzip() throws Exception {
+        final byte[] content = content(300_000);
+        final TestRequest request = echo(RequestBody.gzip(
+                RequestBody.create(content, "application/octet-stream")));
+
+        final byte[] echoed = request.execute();
+
+        assertEquals("gzip", request.header("X-Content-Encoding"));
+        assertEquals("chunked", request.header("X-Transfer-Encoding"));
+        assertArrayEquals(content,
+                TestRequest.read(new GZIPInputStream(new ByteArrayInputStream(echoed))));
+    }
+
+    @Test
+    public void multipart() throws Exception {
+        final MultipartBody body = new MultipartBody.Builder()
+                .boundary("test-boundary")
+                .addFormField("name", "value")
+                .addFormData("file", "content.bin",
+                        RequestBody.create(content(100_000), "application/octet-stream"))
+                .build();
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        body.writeTo(expected);
+        final TestRequest request = echo(body);
+
+        assertArrayEquals(expected.toByteArray(), request.execute());
+        assertEquals(String.valueOf(body.getContentLength()), request.header("X-Content-Length"));
+        assertEquals("multipart/form-data; boundary=test-boundary",
+                request.header("X-Content-Type"));
+    }
+
+    @Test
+    public void legacyWriteRequestBody() throws Exception {
+        final byte[] content = content(200_000);
+        final TestRequest request = new TestRequest(client, server.url("/echo")) {
+            @Override
+            protected void writeRequestBody(OutputStream os) throws IOException {
+                os.write(content);
+            }
+        }.method("POST");
+
+        assertArrayEquals(content, request.execute());
+        assertEquals("200000", request.header("X-Content-Length"));
+    }
+
+    @Test
+    public void shorterThanDeclaredLength() throws Exception {
+        final TestRequest request = echo(RequestBody.create(
+                os -> os.write(content(1000)), 2000, null));
+        try {
+            request.execute();
+            fail("Expected RequestException");
+        } catch (RequestException expected) {
+            // Expected
+        }
+        // The connection of the failed exchange is not reused
+        assertArrayEquals(content(10), echo(RequestBody.create(content(10), null))
+                .execute());
+    }
+
+    private TestRequest echo(RequestBody body) {
+        return request("/echo").body(body);
+    }
+}
@@ -0,0 +1,329 @@
+package xds.lib.easyhttp.cache;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.HttpRequest;
+import xds.lib.easyhttp.RawRequest;
+import xds.lib.easyhttp.TestRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CacheStrategyTest {
+
+    private static final String URL = "http://example.com/resource";
+    /** Wall-clock time the cached response was received. */
+    private static final long RECEIVED = 1_700_000_000_000L;
+
+    @Test
+    public void networkWithoutCachedEntry() throws IOException {
+        final RawRequest request = request();
+
+        final CacheStrategy strategy = CacheStrategy.compute(request, null, RECEIVED);
+
+        assertSame(request, strategy.networkRequest);
+        assertNull(strategy.cacheEntry);
+    }
+
+    @Test
+    public void freshByMaxAge() throws IOException {
+        final CacheEntry cached = cached("Cache-Control", "max-age=60");
+
+        final CacheStrategy strategy = CacheStrategy.compute(request(), cached, at(59));
+
+        assertNull(strategy.networkRequest);
+        assertSame(cached, strategy.cacheEntry);
+    }
+
+    @Test
+    public void staleRevalidatedWithETag() throws IOException {
+        final CacheEntry cached = cached("Cache-Control", "max-age=60", "ETag", "\"v1\"",
+                "Last-Modified", date(-3600));
+
+        final CacheStrategy strategy = CacheStrategy.compute(request(), cached, at(60));
+
+        assertEquals("\"v1\"", strategy.networkRequest.getHeaders().get("If-None-Match"));
+        assertNull(strategy.networkRequest.getHeaders().get("If-Modified-Since"));
+        assertSame(cached, strategy.cacheEntry);
+    }
+
+    @Test
+    public void staleRevalidatedWithLastModified() throws IOException {
+        final CacheEntry cached = cached("Cache-Control", "max-age=60",
+                "Last-Modified", date(-3600));
+
+        final CacheStrategy strategy = CacheStrategy.compute(request(), cached, at(120));
+
+        assertEquals(date(-3600), strategy.networkRequest.getHeaders().get("If-Modified-Since"));
+        assertSame(cached, strategy.cacheEntry);
+    }
+
+    @Test
+    public void staleWithoutValidatorGoesToNetwork() throws IOException {
+        final RawRequest request = request();
+        final CacheEntry cached = cached("Cache-Control", "max-age=60");
+
+        final CacheStrategy strategy = CacheStrategy.compute(request, cached, at(120));
+
+        assertSame(request, strategy.networkRequest);
+        assertNull(strategy.cacheEntry);
+    }
+
+    @Test
+    public void freshByExpires() throws IOException {
+        final CacheEntry cached = cached("Date", date(0), "Expires", date(300));
+
+        assertNull(CacheStrategy.compute(request(), cached, at(299)).networkRequest);
+        assertEquals(date(0), CacheStrategy.compute(request(), cached, at(300))
+                .networkRequest.getHeaders().get("If-Modified-Since"));
+    }
+
+    @Test
+    public void invalidExpiresIsStale() throws IOException {
+        final CacheEntry cached = cached("Date", date(0), "Expires", "0", "ETag", "\"v1\"");
+
+        assertEquals("\"v1\"", CacheStrategy.compute(request(), cached, at(0))
+                .networkRequest.getHeaders().get("If-None-Match"));
+    }
+
+    @Test
+    public void heuristicFreshnessFromLastModified() throws IOException {
+        // Modified ten days before it was served: fresh for a day
+        final CacheEntry cached = cached("Date", date(0),
+                "Last-Modified", date(-TimeUnit.DAYS.toSeconds(10)));
+
+        assertNull(CacheStrategy.compute(request(), cached,
+                at(TimeUnit.HOURS.toSeconds(23))).networkRequest);
+        assertEquals(date(-TimeUnit.DAYS.toSeconds(10)), CacheStrategy.compute(request(), cached,
+                at(TimeUnit.HOURS.toSeconds(25))).networkRequest.getHeaders()
+                .get("If-Modified-Since"));
+    }
+
+    @Test
+    public void noHeuristicFreshnessWithQuery() throws IOException {
+        final CacheEntry cached = CacheEntry.of(request(URL + "?q=1"), 200,
+                headers("Date", date(0), "Last-Modified", date(-TimeUnit.DAYS.toSeconds(10))),
+                RECEIVED, RECEIVED);
+
+        assertTrue(CacheStrategy.compute(request(URL + "?q=1"), cached, at(1))
+                .networkRequest.getHeaders().containsKey("If-Modified-Since"));
+    }
+
+    @Test
+    public void ageHeaderCounts() throws IOException {
+        final CacheEntry cached = cached("Cache-Control", "max-age=60", "Age", "50",
+                "ETag", "\"v1\"");
+
+        assertNull(CacheStrategy.compute(request(), cached, at(9)).networkRequest);
+        assertEquals("\"v1\"", CacheStrategy.compute(request(), cached, at(10))
+                .networkRequest.getHeaders().get("If-None-Match"));
+    }
+
+    @Test
+    public void responseNoCacheAlwaysRevalidates() throws IOException {
+        final CacheEntry cached = cached("Cache-Control", "max-age=60, no-cache",
+                "ETag", "\"v1\"");
+
+        final CacheStrategy strategy = CacheStrategy.compute(request(), cached, at(0));
+
+        assertEquals("\"v1\"", strategy.networkRequest.getHeaders().get("If-None-Match"));
+        assertSame(cached, strategy.cacheEntry);
+    }
+
+    @Test
+    public void requestNoCacheSkipsCache() throws IOException {
+        final RawRequest request = request(URL, "Cache-Control", "no-cache");
+        final CacheEntry cached = cached("Cache-Control", "max-age=60", "ETag", "\"v1\"");
+
+        final CacheStrategy strategy = CacheStrategy.compute(request, cached, at(0));
+
+        assertSame(request, strategy.networkRequest);
+        assertNull(strategy.cacheEntry);
+    }
+
+    @Test
+    public void conditionalRequestOfCallerSkipsCache() throws IOException {
+        final RawRequest request = request(URL, "If-None-Match", "\"v0\"");
+        final CacheEntry cached = cached("Cache-Control", "max-age=60", "ETag", "\"v1\"");
+
+        final CacheStrategy strategy = CacheStrategy.compute(request, cached, at(0));
+
+        assertEquals("\"v0\"", strategy.networkRequest.getHeaders().get("If-None-Match"));
+        assertNull(strategy.cacheEntry);
+    }
+
+    @Test
+    public void requestMaxAgeShortensFreshness() throws IOException {
+        final CacheEntry cached = cached("Cache-Control", "max-age=600", "ETag", "\"v1\"");
+
+        assertNull(CacheStrategy.compute(request(URL, "Cache-Control", "max-age=30"), cached,
+                at(29)).networkRequest);
+        assertEquals("\"v1\"", CacheStrategy.compute(request(URL, "Cache-Control", "max-age=30"),
+                cached, at(30)).networkRequest.getHeaders().get("If-None-Match"));
+    }
+
+    @Test
+    public void requestMinFresh() throws IOException {
+        final CacheEntry cached = cached("Cache-Control", "max-age=60", "ETag", "\"v1\"");
+
+        assertNull(CacheStrategy.compute(request(URL, "Cache-Control", "min-fresh=20"), cached,
+                at(39)).networkRequest);
+        assertEquals("\"v1\"", CacheStrategy.compute(request(URL, "Cache-Control", "min-fresh=20"),
+                cached, at(40)).networkRequest.getHeaders().get("If-None-Match"));
+    }
+
+    @Test
+    public void requestMaxStale() throws IOException {
+        final CacheEntry cached = cached("Cache-Control", "max-age=60", "ETag", "\"v1\"");
+
+        assertNull(CacheStrategy.compute(request(URL, "Cache-Control", "max-stale=30"), cached,
+                at(89)).networkRequest);
+        assertEquals("\"v1\"", CacheStrategy.compute(request(URL, "Cache-Control", "max-stale=30"),
+                cached, at(90)).networkRequest.getHeaders().get("If-None-Match"));
+        // Without a value any staleness is accepted
+        assertNull(CacheStrategy.compute(request(URL, "Cache-Control", "max-stale"), cached,
+                at(TimeUnit.DAYS.toSeconds(365))).networkRequest);
+    }
+
+    @Test
+    public void mustRevalidateIgnoresMaxStale() throws IOException {
+        final CacheEntry cached = cached("Cache-Control", "max-age=60, must-revalidate",
+                "ETag", "\"v1\"");
+
+        final CacheStrategy strategy = CacheStrategy.compute(
+                request(URL, "Cache-Control", "max-stale=3600"), cached, at(61));
+
+        assertEquals("\"v1\"", strategy.networkRequest.getHeaders().get("If-None-Match"));
+    }
+
+    @Test
+    public void onlyIfCached() throws IOException {
+        final CacheEntry cached = cached("Cache-Control", "max-age=60", "ETag", "\"v1\"");
+        final RawRequest request = request(URL, "Cache-Control", "only-if-cached");
+
+        final CacheStrategy fresh = CacheStrategy.compute(request, cached, at(0));
+        assertNull(fresh.networkRequest);
+        assertSame(cached, fresh.cacheEntry);
+
+        final CacheStrategy stale = CacheStrategy.compute(request, cached, at(60));
+        assertNull(stale.networkRequest);
+        assertNull(stale.cacheEntry);
+    }
+
+    @Test
+    public void varyMismatchGoesToNetwork() throws IOException {
+        final CacheEntry cached = CacheEntry.of(request(URL, "Accept-Language", "en"), 200,
+                headers("Cache-Control", "max-age=60", "Vary", "Accept-Language"),
+                RECEIVED, RECEIVED);
+
+        assertNull(CacheStrategy.compute(request(URL, "Accept-Language", "en"), cached, at(0))
+                .networkRequest);
+        assertNull(CacheStrategy.compute(request(URL, "Accept-Language", "fr"), cached, at(0))
+                .cacheEntry);
+    }
+
+    @Test
+    public void isCacheable() throws IOException {
+        final RawRequest request = request();
+
+        assertTrue(CacheStrategy.isCacheable(200, headers("Cache-Control", "max-age=60"),
+                request));
+        assertTrue(CacheStrategy.isCacheable(203, headers("ETag", "\"v1\""), request));
+        assertFalse(CacheStrategy.isCacheable(404, headers("Cache-Control", "max-age=60"),
+                request));
+        assertFalse(CacheStrategy.isCacheable(200, headers("Cache-Control",
+                "max-age=60, no-store"), request));
+        assertFalse(CacheStrategy.isCacheable(200, headers("Cache-Control", "max-age=60"),
+                request(URL, "Cache-Control", "no-store")));
+        assertFalse(CacheStrategy.isCacheable(200, headers("Cache-Control", "max-age=60",
+                "Vary", "*"), request));
+        // Neither fresh nor revalidatable
+        assertFalse(CacheStrategy.isCacheable(200, headers("Content-Type", "text/plain"),
+                request));
+    }
+
+    @Test
+    public void cacheControl() {
+        final Map<String, String> directives = CacheStrategy.cacheControl(
+                "Max-Age=60, no-cache , private=\"Set-Cookie\",,");
+
+        assertEquals(3, directives.size());
+        assertEquals("60", directives.get("max-age"));
+        assertEquals("", directives.get("no-cache"));
+        assertEquals("Set-Cookie", directives.get("private"));
+        assertTrue(CacheStrategy.cacheControl(null).isEmpty());
+    }
+
+    /**
+     * Returns the wall-clock time seconds after the response was received.
+     */
+    private static long at(long seconds) {
+        return RECEIVED + TimeUnit.SECONDS.toMillis(seconds);
+    }
+
+    /**
+     * Returns the HTTP date seconds after the response was received.
+     */
+    private static String date(long seconds) {
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(at(seconds)));
+    }
+
+    private static Map<String, List<String>> headers(String... namesAndValues) {
+        final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            headers.put(namesAndValues[i], Collections.singletonList(namesAndValues[i + 1]));
+        }
+        return headers;
+    }
+
+    private static CacheEntry cached(String... headers) throws IOException {
+        return CacheEntry.of(request(), 200, headers(headers), RECEIVED, RECEIVED);
+    }
+
+    private static RawRequest request() throws IOException {
+        return request(URL);
+    }
+
+    private static RawRequest request(String url, String... headers) throws IOException {
+        final Map<String, String> requestHeaders = new LinkedHashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            requestHeaders.put(headers[i], headers[i + 1]);
+        }
+        final HttpRequest<Void> request = new HttpRequest<Void>() {
+            @Override
+            protected String getUrl() {
+                return url;
+            }
+
+            @Override
+            protected Map<String, String> getHeaders() {
+                return requestHeaders;
+            }
+
+            @Override
+            protected Void parseResponse(InputStream inputStream, String contentType) {
+                return null;
+            }
+        };
+        return TestRequest.newRawRequest(request, url);
+    }
+}
@@ -0,0 +1,287 @@
+package xds.lib.easyhttp.cache;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import xds.lib.easyhttp.Dns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CachingDnsTest {
+
+    private static final String HOST = "a.test";
+
+    private final Map<String, List<InetAddress>> zone = new ConcurrentHashMap<>();
+    private final AtomicInteger queries = new AtomicInteger();
+    /** Resolver answering from the zone. */
+    private final Dns resolver = host -> {
+        queries.incrementAndGet();
+        final List<InetAddress> addresses = zone.get(host);
+        if (addresses == null) {
+            throw new UnknownHostException(host);
+        }
+        return addresses;
+    };
+    /** Background lookups, run by the test. */
+    private final List<Runnable> tasks = new ArrayList<>();
+    private long now = 1000;
+
+    private final CachingDns dns = new CachingDns.Builder()
+            .delegate(resolver)
+            .ttl(60, TimeUnit.SECONDS)
+            .negativeTtl(5, TimeUnit.SECONDS)
+            .maxHosts(3)
+            .executor(tasks::add)
+            .clock(() -> now)
+            .build();
+
+    @Test
+    public void cachedForTtl() throws Exception {
+        zone.put(HOST, addresses("127.0.0.1"));
+
+        final List<InetAddress> first = dns.lookup(HOST);
+        now += TimeUnit.SECONDS.toMillis(44);
+        assertSame(first, dns.lookup(HOST));
+        assertEquals(1, queries.get());
+        assertEquals(1, dns.getHitCount());
+        assertEquals(1, dns.getMissCount());
+
+        now += TimeUnit.SECONDS.toMillis(16);
+        dns.lookup(HOST);
+        assertEquals(2, queries.get());
+        assertEquals(2, dns.getMissCount());
+    }
+
+    @Test
+    public void refreshedInLastQuarterOfTtl() throws Exception {
+        zone.put(HOST, addresses("127.0.0.1"));
+        dns.lookup(HOST);
+        zone.put(HOST, addresses("127.0.0.2"));
+
+        now += TimeUnit.SECONDS.toMillis(45);
+        // The cached addresses are returned while the refresh runs
+        assertEquals(addresses("127.0.0.1"), dns.lookup(HOST));
+        assertEquals(1, dns.getRefreshCount());
+        assertEquals(1, tasks.size());
+        // A single refresh at a time
+        dns.lookup(HOST);
+        assertEquals(1, tasks.size());
+
+        runTasks();
+        assertEquals(2, queries.get());
+        assertEquals(addresses("127.0.0.2"), dns.lookup(HOST));
+
+        // The refreshed addresses live for a whole TTL from the refresh
+        now += TimeUnit.SECONDS.toMillis(44);
+        assertEquals(addresses("127.0.0.2"), dns.lookup(HOST));
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void failedRefreshKeepsAddresses() throws Exception {
+        zone.put(HOST, addresses("127.0.0.1"));
+        dns.lookup(HOST);
+        zone.remove(HOST);
+
+        now += TimeUnit.SECONDS.toMillis(50);
+        dns.lookup(HOST);
+        runTasks();
+
+        now += TimeUnit.SECONDS.toMillis(9);
+        assertEquals(addresses("127.0.0.1"), dns.lookup(HOST));
+        // Expired, the failure is now cached
+        now += TimeUnit.SECONDS.toMillis(1);
+        assertUnknown(HOST);
+    }
+
+    @Test
+    public void failuresCachedForNegativeTtl() throws Exception {
+        final UnknownHostException first = assertUnknown("missing.test");
+        final UnknownHostException second = assertUnknown("missing.test");
+
+        assertEquals(1, queries.get());
+        // Each caller gets its own exception, caused by the cached one
+        assertNotNull(second.getCause());
+        assertSame(first.getCause(), second.getCause());
+
+        now += TimeUnit.SECONDS.toMillis(5);
+        assertUnknown("missing.test");
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void failuresNotCachedWithoutNegativeTtl() throws Exception {
+        final CachingDns dns = new CachingDns.Builder()
+                .delegate(resolver)
+                .negativeTtl(0, TimeUnit.SECONDS)
+                .clock(() -> now)
+                .build();
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                dns.lookup("missing.test");
+                fail("Expected UnknownHostException");
+            } catch (UnknownHostException expected) {
+                // Expected
+            }
+        }
+        assertEquals(3, queries.get());
+    }
+
+    @Test
+    public void emptyResultIsFailure() throws Exception {
+        zone.put(HOST, Collections.emptyList());
+
+        assertUnknown(HOST);
+        assertUnknown(HOST);
+        assertEquals(1, queries.get());
+    }
+
+    @Test
+    public void resolverErrorNotCached() throws Exception {
+        final CachingDns dns = new CachingDns.Builder()
+                .delegate(host -> {
+                    queries.incrementAndGet();
+                    throw new IllegalStateException("resolver bug");
+                })
+                .clock(() -> now)
+                .build();
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                dns.lookup(HOST);
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException expected) {
+                // Expected
+            }
+        }
+        assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void concurrentLookupsShareQuery() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CachingDns dns = new CachingDns.Builder()
+                .delegate(host -> {
+                    queries.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return addresses("127.0.0.1");
+                })
+                .clock(() -> now)
+                .build();
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<List<InetAddress>>> lookups = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                lookups.add(executor.submit(() -> dns.lookup(HOST)));
+            }
+            // Let every lookup reach the cache before the query completes
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<List<InetAddress>> lookup : lookups) {
+                assertEquals(addresses("127.0.0.1"), lookup.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, queries.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedHostsEvicted() throws Exception {
+        for (String host : new String[] {"a.test", "b.test", "c.test", "d.test"}) {
+            zone.put(host, addresses("127.0.0.1"));
+        }
+        dns.lookup("a.test");
+        dns.lookup("b.test");
+        dns.lookup("c.test");
+        dns.lookup("a.test");
+
+        dns.lookup("d.test");
+
+        assertEquals(3, dns.size());
+        dns.lookup("a.test");
+        assertEquals(4, queries.get());
+        dns.lookup("b.test");
+        assertEquals(5, queries.get());
+    }
+
+    @Test
+    public void prefetch() throws Exception {
+        zone.put(HOST, addresses("127.0.0.1"));
+
+        dns.prefetch(HOST, HOST);
+        assertEquals(1, tasks.size());
+        runTasks();
+
+        dns.lookup(HOST);
+        assertEquals(1, queries.get());
+        assertEquals(1, dns.getHitCount());
+
+        // Cached and fresh hosts are not looked up again
+        dns.prefetch(HOST);
+        assertEquals(0, tasks.size());
+    }
+
+    @Test
+    public void removeAndEvictAll() throws Exception {
+        zone.put(HOST, addresses("127.0.0.1"));
+        zone.put("b.test", addresses("127.0.0.2"));
+        dns.lookup(HOST);
+        dns.lookup("b.test");
+
+        dns.remove(HOST);
+        assertEquals(1, dns.size());
+        dns.evictAll();
+        assertEquals(0, dns.size());
+
+        dns.lookup("b.test");
+        assertEquals(3, queries.get());
+    }
+
+    private void runTasks() {
+        final List<Runnable> pending = new ArrayList<>(tasks);
+        tasks.clear();
+        for (Runnable task : pending) {
+            task.run();
+        }
+    }
+
+    private UnknownHostException assertUnknown(String host) {
+        try {
+            dns.lookup(host);
+        } catch (UnknownHostException e) {
+            return e;
+        }
+        throw new AssertionError("Expected UnknownHostException for " + host);
+    }
+
+    private static List<InetAddress> addresses(String... literals) throws UnknownHostException {
+        final List<InetAddress> addresses = new ArrayList<>();
+        for (String literal : literals) {
+            addresses.add(InetAddress.getByName(literal));
+        }
+        return addresses;
+    }
+}
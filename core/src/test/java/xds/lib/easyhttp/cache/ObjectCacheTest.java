@@ -0,0 +1,168 @@
+package xds.lib.easyhttp.cache;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.HttpClient;
+import xds.lib.easyhttp.TestRequest;
+import xds.lib.easyhttp.TestServer;
+import xds.lib.easyhttp.body.RequestBody;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ObjectCacheTest {
+
+    /** Level of {@code ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW}. */
+    private static final int TRIM_MEMORY_RUNNING_LOW = 10;
+    /** Level of {@code ComponentCallbacks2.TRIM_MEMORY_BACKGROUND}. */
+    private static final int TRIM_MEMORY_BACKGROUND = 40;
+
+    private static TestServer server;
+
+    private long now = 1000;
+    private final ObjectCache cache = new ObjectCache.Builder()
+            .maxWeight(4)
+            .defaultTtl(1, TimeUnit.SECONDS)
+            .clock(() -> now)
+            .build();
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new TestServer();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        final Object value = new Object();
+        cache.put("key", value);
+
+        assertSame(value, cache.get("key"));
+        assertNull(cache.get("other"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void expiresAfterTtl() {
+        cache.put("default", "value");
+        cache.put("longer", "value", 5000);
+
+        now += 1000;
+
+        assertNull(cache.get("default"));
+        assertEquals("value", cache.get("longer"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.getWeight());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        for (int i = 0; i < 4; i++) {
+            cache.put("key" + i, i);
+        }
+        cache.get("key0");
+
+        cache.put("key4", 4);
+
+        assertEquals(0, cache.get("key0"));
+        assertNull(cache.get("key1"));
+        assertEquals(4, cache.get("key4"));
+        assertEquals(4, cache.getWeight());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void skipsHeavierThanMaximum() {
+        final ObjectCache weighted = new ObjectCache.Builder()
+                .maxWeight(10)
+                .weigher((key, value) -> ((String) value).length())
+                .build();
+        weighted.put("small", "12345");
+        weighted.put("large", "12345678901");
+
+        assertEquals("12345", weighted.get("small"));
+        assertNull(weighted.get("large"));
+        assertEquals(5, weighted.getWeight());
+    }
+
+    @Test
+    public void trimMemory() {
+        for (int i = 0; i < 4; i++) {
+            cache.put("key" + i, i);
+        }
+
+        cache.trimMemory(TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(2, cache.getWeight());
+        // The most recently used values are kept
+        assertEquals(3, cache.get("key3"));
+
+        cache.trimMemory(TRIM_MEMORY_BACKGROUND);
+        assertEquals(0, cache.getWeight());
+        assertNull(cache.get("key3"));
+    }
+
+    @Test
+    public void trimMemoryDropsExpiredValuesOnly() {
+        cache.put("expired", "value");
+        now += 500;
+        cache.put("live", "value");
+        now += 500;
+
+        cache.trimMemory(0);
+
+        assertEquals(1, cache.getWeight());
+        assertEquals("value", cache.get("live"));
+    }
+
+    @Test
+    public void requestSkipsNetwork() throws Exception {
+        final HttpClient client = new HttpClient.Builder().build();
+        final byte[] first = new CachedRequest(client, "/text").execute();
+        final int requests = server.getRequestCount();
+
+        assertArrayEquals(first, new CachedRequest(client, "/text").execute());
+        assertEquals(requests, server.getRequestCount());
+    }
+
+    @Test
+    public void requestWithBodyIsNotCached() throws Exception {
+        final HttpClient client = new HttpClient.Builder().build();
+        final byte[] first = new CachedRequest(client, "/echo")
+                .body(RequestBody.create(bytes("first"), null)).execute();
+        final byte[] second = new CachedRequest(client, "/echo")
+                .body(RequestBody.create(bytes("second"), null)).execute();
+
+        assertArrayEquals(bytes("first"), first);
+        assertArrayEquals(bytes("second"), second);
+        assertEquals(0, cache.getWeight());
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private final class CachedRequest extends TestRequest {
+
+        CachedRequest(HttpClient client, String path) {
+            super(client, server.url(path));
+        }
+
+        @Override
+        protected ObjectCache getObjectCache() {
+            return cache;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package xds.lib.easyhttp.download;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import xds.lib.easyhttp.HttpClient;
+import xds.lib.easyhttp.TestServer;
+import xds.lib.easyhttp.TransportTestBase;
+import xds.lib.easyhttp.exception.ParseException;
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.util.RetryPolicy;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadRequestTest extends TransportTestBase {
+
+    private static final long HALF = TestServer.CONTENT_SIZE / 2;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    /** Policy of the downloads, read while the request is constructed. */
+    private RetryPolicy retryPolicy;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "downloads/content.bin");
+    }
+
+    @Test
+    public void downloadsIntoFile() throws Exception {
+        final Download<File> download = new Download<>(server.url("/content"),
+                new FileSink(file));
+
+        assertEquals(file, download.execute());
+
+        assertContent(Files.readAllBytes(file.toPath()));
+        assertTrue(server.getRanges().isEmpty());
+        assertEquals(Long.valueOf(TestServer.CONTENT_SIZE),
+                download.progress.get(download.progress.size() - 1));
+    }
+
+    @Test
+    public void downloadsIntoByteBuffer() throws Exception {
+        final ByteBuffer buffer = new Download<>(server.url("/content"), new ByteBufferSink())
+                .execute();
+
+        assertEquals(0, buffer.position());
+        final byte[] content = new byte[buffer.remaining()];
+        buffer.get(content);
+        assertContent(content);
+    }
+
+    @Test
+    public void retryAsksForMissingBytes() throws Exception {
+        retryPolicy = RetryPolicy.create(e -> e instanceof IOException, 1, 0);
+        final Download<File> download = new Download<>(server.url("/content?truncate=1"),
+                new FileSink(file));
+
+        download.execute();
+
+        assertContent(Files.readAllBytes(file.toPath()));
+        assertEquals(Collections.singletonList("bytes=" + HALF + "-"), server.getRanges());
+    }
+
+    @Test
+    public void executeAgainResumes() throws Exception {
+        final Download<File> download = new Download<>(server.url("/content?truncate=1"),
+                new FileSink(file));
+        try {
+            download.execute();
+            fail("Expected RequestException");
+        } catch (RequestException expected) {
+            // The body was cut short
+        }
+        assertEquals(HALF, file.length());
+
+        download.execute();
+
+        assertContent(Files.readAllBytes(file.toPath()));
+        assertEquals(Collections.singletonList("bytes=" + HALF + "-"), server.getRanges());
+    }
+
+    @Test
+    public void restartsWithoutRanges() throws Exception {
+        retryPolicy = RetryPolicy.create(e -> e instanceof IOException, 1, 0);
+        final Download<File> download = new Download<>(
+                server.url("/content?ranges=false&truncate=1"), new FileSink(file));
+
+        download.execute();
+
+        assertContent(Files.readAllBytes(file.toPath()));
+        assertTrue(server.getRanges().isEmpty());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void digestSpansResumedAttempts() throws Exception {
+        retryPolicy = RetryPolicy.create(e -> e instanceof IOException, 1, 0);
+        final byte[] expected = sha256(expectedContent());
+        final Download<File> download = new Download<File>(server.url("/content?truncate=1"),
+                new FileSink(file)) {
+            @Override
+            protected MessageDigest createDigest() {
+                return newSha256();
+            }
+
+            @Override
+            protected byte[] getExpectedDigest() {
+                return expected;
+            }
+        };
+
+        download.execute();
+
+        assertArrayEquals(expected, download.getDigest());
+    }
+
+    @Test
+    public void digestMismatch() throws Exception {
+        final Download<File> download = new Download<File>(server.url("/content"),
+                new FileSink(file)) {
+            @Override
+            protected MessageDigest createDigest() {
+                return newSha256();
+            }
+
+            @Override
+            protected byte[] getExpectedDigest() {
+                return new byte[32];
+            }
+        };
+
+        try {
+            download.execute();
+            fail("Expected ParseException");
+        } catch (ParseException e) {
+            assertEquals("Digest of the downloaded content doesn't match", e.getMessage());
+        }
+    }
+
+    @Test
+    public void failedAttemptClosesSink() throws Exception {
+        final ClosingSink sink = new ClosingSink();
+        final Download<ByteBuffer> download = new Download<>(server.url("/content?truncate=1"),
+                sink);
+
+        try {
+            download.execute();
+            fail("Expected RequestException");
+        } catch (RequestException expected) {
+            // The body was cut short
+        }
+
+        assertEquals(1, sink.opened);
+        assertEquals(1, sink.closed);
+    }
+
+    @Test
+    public void errorStatusDoesNotOpenSink() throws Exception {
+        final ClosingSink sink = new ClosingSink();
+
+        try {
+            new Download<>(server.url("/status/404"), sink).execute();
+            fail("Expected ResponseException");
+        } catch (ResponseException e) {
+            assertEquals(404, e.getResponseCode());
+        }
+        assertEquals(0, sink.opened);
+    }
+
+    @Test
+    public void parsesContentRange() {
+        assertArrayEquals(new long[] {100, 1000},
+                DownloadRequest.parseContentRange("bytes 100-999/1000"));
+        assertArrayEquals(new long[] {0, -1}, DownloadRequest.parseContentRange("bytes 0-9/*"));
+        assertEquals(null, DownloadRequest.parseContentRange("bytes */1000"));
+        assertEquals(null, DownloadRequest.parseContentRange("items 0-9/10"));
+        assertEquals(null, DownloadRequest.parseContentRange(null));
+    }
+
+    private static byte[] expectedContent() {
+        final byte[] content = new byte[TestServer.CONTENT_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = TestServer.contentByte(i);
+        }
+        return content;
+    }
+
+    private static void assertContent(byte[] content) {
+        assertEquals(TestServer.CONTENT_SIZE, content.length);
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] != TestServer.contentByte(i)) {
+                fail("Wrong byte at " + i);
+            }
+        }
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] sha256(byte[] content) {
+        return newSha256().digest(content);
+    }
+
+    private class Download<T> extends DownloadRequest<T> {
+
+        final List<Long> progress = new ArrayList<>();
+
+        Download(String url, DownloadSink<T> sink) {
+            super(url, sink);
+        }
+
+        @Override
+        protected HttpClient getHttpClient() {
+            return client;
+        }
+
+        @Override
+        protected RetryPolicy createRetryPolicy() {
+            return retryPolicy;
+        }
+
+        @Override
+        protected void onProgress(long bytesReceived, long totalBytes) {
+            assertEquals(TestServer.CONTENT_SIZE, totalBytes);
+            progress.add(bytesReceived);
+        }
+    }
+
+    /**
+     * Sink counting how often it is opened and closed.
+     */
+    private static final class ClosingSink implements DownloadSink<ByteBuffer> {
+
+        private final ByteBufferSink sink = new ByteBufferSink();
+        int opened;
+        int closed;
+
+        @Override
+        public void open(long offset, long totalLength) throws IOException {
+            opened++;
+            sink.open(offset, totalLength);
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            sink.write(src);
+        }
+
+        @Override
+        public ByteBuffer finish() throws IOException {
+            return sink.finish();
+        }
+
+        @Override
+        public void close() {
+            closed++;
+            sink.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package xds.lib.easyhttp.download;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import xds.lib.easyhttp.TestServer;
+import xds.lib.easyhttp.TransportTestBase;
+import xds.lib.easyhttp.exception.ResponseException;
+import xds.lib.easyhttp.util.RetryPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentedDownloadTest extends TransportTestBase {
+
+    private static final long MIN_SEGMENT_SIZE = 256 * 1024;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "downloads/content.bin");
+    }
+
+    @Test
+    public void downloadsInSegments() throws Exception {
+        final SegmentedDownload download = new SegmentedDownload.Builder(
+                server.url("/content"), file)
+                .client(client)
+                .segments(2, 4)
+                .minSegmentSize(MIN_SEGMENT_SIZE)
+                .build();
+
+        assertEquals(file, download.execute());
+
+        assertContent(file);
+        assertTrue(String.valueOf(download.getSegmentCount()), download.getSegmentCount() >= 2);
+        // The probe and at least a request per chunk
+        assertTrue(String.valueOf(server.getRequestCount()),
+                server.getRequestCount() >= 1 + TestServer.CONTENT_SIZE / (4 * 4 * MIN_SEGMENT_SIZE));
+    }
+
+    @Test
+    public void singleRequestWithoutRanges() throws Exception {
+        final SegmentedDownload download = new SegmentedDownload.Builder(
+                server.url("/content?ranges=false"), file)
+                .client(client)
+                .minSegmentSize(MIN_SEGMENT_SIZE)
+                .build();
+
+        download.execute();
+
+        assertContent(file);
+        assertEquals(1, download.getSegmentCount());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void singleRequestForShortContent() throws Exception {
+        final SegmentedDownload download = new SegmentedDownload.Builder(
+                server.url("/content"), file)
+                .client(client)
+                .minSegmentSize(TestServer.CONTENT_SIZE)
+                .build();
+
+        download.execute();
+
+        assertContent(file);
+        assertEquals(1, download.getSegmentCount());
+    }
+
+    @Test
+    public void retriesOnlyMissingBytes() throws Exception {
+        final SegmentedDownload download = new SegmentedDownload.Builder(
+                server.url("/content?truncate=3"), file)
+                .client(client)
+                .segments(2, 2)
+                .minSegmentSize(MIN_SEGMENT_SIZE)
+                .retryPolicy(RetryPolicy.create(e -> e instanceof IOException, 3, 0))
+                .build();
+
+        download.execute();
+
+        assertContent(file);
+        // Chunks of 512 KB truncated at their half are asked again from there
+        int resumed = 0;
+        for (String range : server.getRanges()) {
+            final long first = Long.parseLong(range.substring("bytes=".length(),
+                    range.indexOf('-')));
+            if (first % (2 * MIN_SEGMENT_SIZE) != 0) {
+                resumed++;
+            }
+        }
+        assertEquals(3, resumed);
+    }
+
+    @Test
+    public void failedChunkDeletesFile() throws Exception {
+        final SegmentedDownload download = new SegmentedDownload.Builder(
+                server.url("/content?truncate=100"), file)
+                .client(client)
+                .minSegmentSize(MIN_SEGMENT_SIZE)
+                .build();
+
+        try {
+            download.execute();
+            fail("Expected the download to fail");
+        } catch (Exception expected) {
+            // Expected
+        }
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void errorStatus() throws Exception {
+        final SegmentedDownload download = new SegmentedDownload.Builder(
+                server.url("/status/404"), file)
+                .client(client)
+                .build();
+
+        try {
+            download.execute();
+            fail("Expected ResponseException");
+        } catch (ResponseException e) {
+            assertEquals(404, e.getResponseCode());
+        }
+        assertFalse(file.exists());
+    }
+
+    private static void assertContent(File file) throws IOException {
+        final byte[] content = Files.readAllBytes(file.toPath());
+        assertEquals(TestServer.CONTENT_SIZE, content.length);
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] != TestServer.contentByte(i)) {
+                fail("Wrong byte at " + i);
+            }
+        }
+    }
+}
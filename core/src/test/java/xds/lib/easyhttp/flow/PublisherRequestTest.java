@@ -0,0 +1,285 @@
+package xds.lib.easyhttp.flow;
+
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.HttpClient;
+import xds.lib.easyhttp.TestServer;
+import xds.lib.easyhttp.TransportTestBase;
+import xds.lib.easyhttp.body.RequestBody;
+import xds.lib.easyhttp.exception.ParseException;
+import xds.lib.easyhttp.util.RetryPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PublisherRequestTest extends TransportTestBase {
+
+    @Test
+    public void publishesRecordsInOrder() throws Exception {
+        final RecordSubscriber<String> subscriber = new RecordSubscriber<>(Long.MAX_VALUE);
+
+        new LinesRequest("a\nb\r\n\nc").subscribe(subscriber);
+
+        subscriber.done.get(10, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("a", "b", "c"), subscriber.records);
+    }
+
+    @Test
+    public void executeWithoutSubscriberCallsOnRecord() throws Exception {
+        final LinesRequest request = new LinesRequest("a\nb\nc\n");
+
+        assertEquals(Long.valueOf(3), request.execute());
+        assertEquals(Arrays.asList("a", "b", "c"), request.records);
+    }
+
+    @Test
+    public void readsOnlyRequestedRecords() throws Exception {
+        final ChunksRequest request = new ChunksRequest("/big");
+        final RecordSubscriber<ByteBuffer> subscriber = new RecordSubscriber<>(2);
+
+        request.subscribe(subscriber);
+
+        subscriber.awaitRecords(2);
+        Thread.sleep(200);
+        assertEquals(2, subscriber.records.size());
+        subscriber.subscription.request(1);
+        subscriber.awaitRecords(3);
+        Thread.sleep(200);
+        assertEquals(3, subscriber.records.size());
+
+        subscriber.subscription.cancel();
+        Thread.sleep(200);
+        // Nothing is signalled after cancel
+        assertEquals(3, subscriber.records.size());
+        assertFalse(subscriber.done.isDone());
+    }
+
+    @Test
+    public void cancelledRequestCanBeSubscribedAgain() throws Exception {
+        final ChunksRequest request = new ChunksRequest("/big");
+        final RecordSubscriber<ByteBuffer> first = new RecordSubscriber<>(1);
+        request.subscribe(first);
+        first.awaitRecords(1);
+        first.subscription.cancel();
+
+        final RecordSubscriber<ByteBuffer> second = new RecordSubscriber<>(Long.MAX_VALUE);
+        request.subscribe(second);
+
+        second.done.get(10, TimeUnit.SECONDS);
+        int length = 0;
+        for (ByteBuffer chunk : second.records) {
+            length += chunk.remaining();
+        }
+        assertEquals(TestServer.BIG_SIZE, length);
+    }
+
+    @Test
+    public void secondSubscriberIsRejected() throws Exception {
+        final ChunksRequest request = new ChunksRequest("/big");
+        final RecordSubscriber<ByteBuffer> first = new RecordSubscriber<>(0);
+        request.subscribe(first);
+
+        final RecordSubscriber<ByteBuffer> second = new RecordSubscriber<>(Long.MAX_VALUE);
+        request.subscribe(second);
+
+        assertFailure(second, IllegalStateException.class);
+        assertTrue(second.records.isEmpty());
+        first.subscription.cancel();
+    }
+
+    @Test
+    public void nonPositiveRequestSignalsError() throws Exception {
+        final RecordSubscriber<String> subscriber = new RecordSubscriber<>(0);
+        new LinesRequest("a\nb").subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+
+        assertFailure(subscriber, IllegalArgumentException.class);
+        assertTrue(subscriber.records.isEmpty());
+    }
+
+    @Test
+    public void failureAfterFirstRecordIsNotRetried() throws Exception {
+        // The first byte arrives at once, the read of the second one times out
+        final ChunksRequest request = new ChunksRequest("/drip?ms=500") {
+            @Override
+            protected RetryPolicy createRetryPolicy() {
+                return RetryPolicy.create(e -> true, 3, 0);
+            }
+
+            @Override
+            protected int getReadTimeout() {
+                return 100;
+            }
+        };
+        final RecordSubscriber<ByteBuffer> subscriber = new RecordSubscriber<>(Long.MAX_VALUE);
+
+        request.subscribe(subscriber);
+
+        final Throwable failure = assertFailure(subscriber, ParseException.class);
+        assertTrue(failure.getMessage(), failure.getMessage().startsWith("Response failed after"));
+        assertFalse(subscriber.records.isEmpty());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void subscriberFailureStopsRequest() throws Exception {
+        final RecordSubscriber<String> subscriber = new RecordSubscriber<String>(Long.MAX_VALUE) {
+            @Override
+            public void onNext(String item) {
+                super.onNext(item);
+                throw new IllegalStateException("Subscriber bug");
+            }
+        };
+
+        new LinesRequest("a\nb\nc").subscribe(subscriber);
+
+        final Throwable failure = assertFailure(subscriber, ParseException.class);
+        assertTrue(failure.getCause() instanceof IllegalStateException);
+        assertEquals(Collections.singletonList("a"), subscriber.records);
+    }
+
+    private static Throwable assertFailure(RecordSubscriber<?> subscriber,
+            Class<? extends Throwable> type) throws Exception {
+        try {
+            subscriber.done.get(10, TimeUnit.SECONDS);
+            fail("Expected " + type.getSimpleName());
+            return null;
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), type.isInstance(e.getCause()));
+            return e.getCause();
+        }
+    }
+
+    /**
+     * Subscriber collecting the records, requesting {@code initial} records when subscribed.
+     */
+    private static class RecordSubscriber<R> implements Flow.Subscriber<R> {
+
+        final List<R> records = Collections.synchronizedList(new ArrayList<>());
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final long initial;
+        volatile Flow.Subscription subscription;
+
+        RecordSubscriber(long initial) {
+            this.initial = initial;
+        }
+
+        void awaitRecords(int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 10_000;
+            while (records.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("Received " + records.size(), records.size() >= count);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initial > 0) {
+                subscription.request(initial);
+            }
+        }
+
+        @Override
+        public void onNext(R item) {
+            records.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(null);
+        }
+    }
+
+    /**
+     * Request of the lines of the text, which {@code /echo} sends back.
+     */
+    private class LinesRequest extends PublisherRequest<String> {
+
+        final List<String> records = new ArrayList<>();
+        private final String text;
+
+        LinesRequest(String text) {
+            this.text = text;
+        }
+
+        @Override
+        protected HttpClient getHttpClient() {
+            return client;
+        }
+
+        @Override
+        protected String getUrl() {
+            return server.url("/echo");
+        }
+
+        @Override
+        protected String getRequestMethod() {
+            return METHOD_POST;
+        }
+
+        @Override
+        protected RequestBody getRequestBody() {
+            return RequestBody.create(text, "text/plain");
+        }
+
+        @Override
+        protected RecordReader<String> newRecordReader(InputStream inputStream,
+                String contentType) {
+            return RecordReader.lines(inputStream, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        protected void onRecord(String record) {
+            records.add(record);
+        }
+    }
+
+    /**
+     * Request of the body of the path in chunks of at most 1 KiB.
+     */
+    private class ChunksRequest extends PublisherRequest<ByteBuffer> {
+
+        private final String path;
+
+        ChunksRequest(String path) {
+            this.path = path;
+        }
+
+        @Override
+        protected HttpClient getHttpClient() {
+            return client;
+        }
+
+        @Override
+        protected String getUrl() {
+            return server.url(path);
+        }
+
+        @Override
+        protected RecordReader<ByteBuffer> newRecordReader(InputStream inputStream,
+                String contentType) {
+            return RecordReader.chunks(inputStream, 1024);
+        }
+    }
+}
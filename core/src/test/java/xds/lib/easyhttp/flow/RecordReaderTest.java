@@ -0,0 +1,92 @@
+package xds.lib.easyhttp.flow;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RecordReaderTest {
+
+    @Test
+    public void events() throws Exception {
+        final RecordReader<ServerSentEvent> reader = RecordReader.events(stream(
+                ": keep-alive\n"
+                        + "data: first\n"
+                        + "\n"
+                        + "event: update\r\n"
+                        + "id: 7\r\n"
+                        + "retry: 3000\r\n"
+                        + "data:line 1\r\n"
+                        + "data: line 2\r\n"
+                        + "\r\n"));
+
+        final ServerSentEvent first = reader.read();
+        assertEquals("message", first.getType());
+        assertEquals("first", first.getData());
+        assertNull(first.getId());
+        assertEquals(-1, first.getRetryMillis());
+
+        final ServerSentEvent second = reader.read();
+        assertEquals("update", second.getType());
+        assertEquals("line 1\nline 2", second.getData());
+        assertEquals("7", second.getId());
+        assertEquals(3000, second.getRetryMillis());
+
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void eventsKeepLastIdAndSkipEventsWithoutData() throws Exception {
+        final RecordReader<ServerSentEvent> reader = RecordReader.events(stream(
+                "id: 1\nevent: ping\n\n"
+                        + "data\n\n"
+                        + "retry: soon\ndata: x\n\n"
+                        + "data: incomplete"));
+
+        final ServerSentEvent empty = reader.read();
+        // The type of the event without data is reset, its ID is kept
+        assertEquals("message", empty.getType());
+        assertEquals("", empty.getData());
+        assertEquals("1", empty.getId());
+
+        final ServerSentEvent last = reader.read();
+        assertEquals("x", last.getData());
+        assertEquals(-1, last.getRetryMillis());
+
+        // The event at the end of the stream has no blank line
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void linesSkipBlankLines() throws Exception {
+        final RecordReader<String> reader =
+                RecordReader.lines(stream("{\"a\":1}\r\n\n{\"b\":2}\r{\"c\":3}"),
+                        StandardCharsets.UTF_8);
+
+        assertEquals("{\"a\":1}", reader.read());
+        assertEquals("{\"b\":2}", reader.read());
+        assertEquals("{\"c\":3}", reader.read());
+        assertNull(reader.read());
+    }
+
+    @Test
+    public void chunksAreNewBuffers() throws Exception {
+        final RecordReader<ByteBuffer> reader = RecordReader.chunks(stream("abcdefg"), 4);
+
+        final ByteBuffer first = reader.read();
+        final ByteBuffer second = reader.read();
+
+        assertEquals("abcd", StandardCharsets.UTF_8.decode(first).toString());
+        assertEquals("efg", StandardCharsets.UTF_8.decode(second).toString());
+        assertNull(reader.read());
+    }
+
+    private static InputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
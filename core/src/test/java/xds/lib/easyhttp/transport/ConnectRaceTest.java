@@ -0,0 +1,234 @@
+package xds.lib.easyhttp.transport;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import xds.lib.easyhttp.Call;
+import xds.lib.easyhttp.Dns;
+import xds.lib.easyhttp.EventListener;
+import xds.lib.easyhttp.HttpClient;
+import xds.lib.easyhttp.HttpRequest;
+import xds.lib.easyhttp.TestServer;
+import xds.lib.easyhttp.exception.RequestException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Connects {@link NioTransport} through a fake {@link Dns} which lists an unreachable IPv6
+ * address before the IPv4 address of the loopback server.
+ */
+public class ConnectRaceTest {
+
+    private static final long ATTEMPT_DELAY_MILLIS = 100;
+
+    private static TestServer server;
+
+    private final Map<String, List<InetAddress>> zone = new ConcurrentHashMap<>();
+    private final Dns dns = host -> {
+        final List<InetAddress> addresses = zone.get(host);
+        if (addresses == null) {
+            throw new UnknownHostException(host);
+        }
+        return addresses;
+    };
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private final EventListener eventListener = new EventListener() {
+        @Override
+        public void connectStart(Call call, InetSocketAddress address) {
+            events.add("start " + address.getAddress().getHostAddress());
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address) {
+            events.add("end " + address.getAddress().getHostAddress());
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress address, IOException e) {
+            events.add("failed " + address.getAddress().getHostAddress());
+        }
+    };
+    private final NioTransport transport = new NioTransport(1, new UrlConnectionTransport(), dns,
+            ATTEMPT_DELAY_MILLIS);
+    private final HttpClient client = new HttpClient.Builder()
+            .transport(transport)
+            .eventListener(eventListener)
+            .build();
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new TestServer();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @After
+    public void tearDown() {
+        client.getConnectionPool().evictAll();
+        transport.close();
+    }
+
+    @Test
+    public void interleavesAddressFamilies() throws UnknownHostException {
+        assertEquals(addresses("::1", "10.0.0.1", "fe80::2", "10.0.0.2", "10.0.0.3"),
+                ConnectRace.interleave(addresses("::1", "fe80::2", "10.0.0.1", "10.0.0.2",
+                        "10.0.0.3")));
+        // The family of the first address goes first
+        assertEquals(addresses("10.0.0.1", "::1", "10.0.0.2", "fe80::2"),
+                ConnectRace.interleave(addresses("10.0.0.1", "10.0.0.2", "::1", "fe80::2")));
+        assertEquals(addresses("10.0.0.1", "10.0.0.2"),
+                ConnectRace.interleave(addresses("10.0.0.1", "10.0.0.2")));
+    }
+
+    @Test
+    public void refusedIpv6FallsBackToIpv4() throws Exception {
+        zone.put("dual.test", addresses("::1", "127.0.0.1"));
+
+        assertEquals("hello /text", get("http://dual.test:" + server.getPort() + "/text"));
+
+        assertEquals(Arrays.asList("start 0:0:0:0:0:0:0:1", "failed 0:0:0:0:0:0:0:1",
+                "start 127.0.0.1", "end 127.0.0.1"), events);
+    }
+
+    @Test
+    public void unresponsiveIpv6RacedAfterAttemptDelay() throws Exception {
+        final List<Socket> backlog = new ArrayList<>();
+        try (ServerSocket blackhole = new ServerSocket()) {
+            // A full accept queue drops new connection attempts without an answer
+            blackhole.bind(new InetSocketAddress("::1", server.getPort()), 1);
+            Assume.assumeTrue("Can't fill the accept queue", fillBacklog(backlog));
+            zone.put("dual.test", addresses("::1", "127.0.0.1"));
+
+            final long start = System.nanoTime();
+            assertEquals("hello /text", get("http://dual.test:" + server.getPort() + "/text"));
+            final long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 2000);
+            assertEquals(Arrays.asList("start 0:0:0:0:0:0:0:1", "start 127.0.0.1",
+                    "end 127.0.0.1"), events);
+        } finally {
+            for (Socket socket : backlog) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void preferredFamilyGoesFirst() throws Exception {
+        zone.put("dual.test", addresses("127.0.0.1", "::1"));
+
+        get("http://dual.test:" + server.getPort() + "/text");
+
+        assertEquals(Arrays.asList("start 127.0.0.1", "end 127.0.0.1"), events);
+    }
+
+    @Test
+    public void failsWhenEveryAddressFails() throws Exception {
+        final int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        }
+        zone.put("dual.test", addresses("::1", "127.0.0.1"));
+
+        try {
+            get("http://dual.test:" + closedPort + "/text");
+            fail("Expected RequestException");
+        } catch (RequestException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ConnectException);
+        }
+        assertEquals(Arrays.asList("start 0:0:0:0:0:0:0:1", "failed 0:0:0:0:0:0:0:1",
+                "start 127.0.0.1", "failed 127.0.0.1"), events);
+    }
+
+    @Test
+    public void unknownHost() throws Exception {
+        try {
+            get("http://missing.test:" + server.getPort() + "/text");
+            fail("Expected RequestException");
+        } catch (RequestException e) {
+            assertTrue(String.valueOf(e.getCause()),
+                    e.getCause() instanceof UnknownHostException);
+        }
+        assertEquals(Collections.emptyList(), events);
+    }
+
+    /**
+     * Connects sockets to the blackhole until one can't connect anymore.
+     */
+    private boolean fillBacklog(List<Socket> backlog) {
+        for (int i = 0; i < 16; i++) {
+            final Socket socket = new Socket();
+            backlog.add(socket);
+            try {
+                socket.connect(new InetSocketAddress("::1", server.getPort()), 300);
+            } catch (IOException e) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String get(String url) throws Exception {
+        return new HttpRequest<String>() {
+            @Override
+            protected HttpClient getHttpClient() {
+                return client;
+            }
+
+            @Override
+            protected String getUrl() {
+                return url;
+            }
+
+            @Override
+            protected int getConnectionTimeout() {
+                return 10_000;
+            }
+
+            @Override
+            protected String parseResponse(InputStream inputStream, String contentType)
+                    throws IOException {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+                return new String(out.toByteArray(), StandardCharsets.UTF_8);
+            }
+        }.execute();
+    }
+
+    private static List<InetAddress> addresses(String... literals) throws UnknownHostException {
+        final List<InetAddress> addresses = new ArrayList<>();
+        for (String literal : literals) {
+            addresses.add(InetAddress.getByName(literal));
+        }
+        return addresses;
+    }
+}
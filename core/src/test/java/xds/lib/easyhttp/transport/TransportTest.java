@@ -0,0 +1,112 @@
+package xds.lib.easyhttp.transport;
+
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+
+import xds.lib.easyhttp.TestRequest;
+import xds.lib.easyhttp.TestServer;
+import xds.lib.easyhttp.Transport;
+import xds.lib.easyhttp.TransportTestBase;
+import xds.lib.easyhttp.body.RequestBody;
+import xds.lib.easyhttp.exception.RequestException;
+import xds.lib.easyhttp.exception.ResponseException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the same exchanges with every {@link Transport} against a loopback server, so the
+ * engines behave the same.
+ */
+public class TransportTest extends TransportTestBase {
+
+    @Test
+    public void get() throws Exception {
+        assertEquals("hello /text?q=1", request("/text?q=1").text());
+    }
+
+    @Test
+    public void postFixedLengthBody() throws Exception {
+        final byte[] body = content(100_000);
+        final TestRequest request = request("/echo")
+                .body(RequestBody.create(body, "application/octet-stream"));
+
+        assertArrayEquals(body, request.execute());
+        assertEquals("100000", request.header("X-Content-Length"));
+        assertEquals("", request.header("X-Transfer-Encoding"));
+    }
+
+    @Test
+    public void postChunkedBody() throws Exception {
+        final byte[] body = content(300_000);
+        final TestRequest request = request("/echo")
+                .body(RequestBody.create(os -> {
+                    // Odd writes, so chunks don't line up with the buffers
+                    for (int i = 0; i < body.length; i += 777) {
+                        os.write(body, i, Math.min(777, body.length - i));
+                    }
+                }, -1, "application/octet-stream"));
+
+        assertArrayEquals(body, request.execute());
+        assertEquals("chunked", request.header("X-Transfer-Encoding"));
+    }
+
+    @Test
+    public void postEmptyChunkedBody() throws Exception {
+        final TestRequest request = request("/echo")
+                .body(RequestBody.create(os -> {}, -1, null));
+
+        assertEquals(0, request.execute().length);
+        assertEquals("chunked", request.header("X-Transfer-Encoding"));
+    }
+
+    @Test
+    public void largeChunkedResponse() throws Exception {
+        assertArrayEquals(content(TestServer.BIG_SIZE), request("/big").execute());
+    }
+
+    @Test
+    public void errorStatus() throws Exception {
+        try {
+            request("/status/503").execute();
+            fail("Expected ResponseException");
+        } catch (ResponseException e) {
+            assertEquals(503, e.getResponseCode());
+        }
+    }
+
+    @Test
+    public void followsRedirect() throws Exception {
+        assertEquals("hello /text", request("/redirect").text());
+    }
+
+    @Test
+    public void reusesConnection() throws Exception {
+        final TestRequest first = request("/text?i=1");
+        first.execute();
+        final TestRequest second = request("/text?i=2");
+        second.execute();
+        final TestRequest third = request("/big");
+        third.execute();
+
+        assertEquals(first.header("X-Remote-Port"), second.header("X-Remote-Port"));
+        assertEquals(first.header("X-Remote-Port"), third.header("X-Remote-Port"));
+    }
+
+    @Test
+    public void readTimeout() throws Exception {
+        final TestRequest request = request("/slow").readTimeout(200);
+        try {
+            request.execute();
+            fail("Expected RequestException");
+        } catch (RequestException e) {
+            assertTrue(String.valueOf(e.getCause()),
+                    e.getCause() instanceof SocketTimeoutException);
+        }
+        // The connection of the timed out exchange is not reused
+        assertEquals("hello /text", request("/text").text());
+    }
+}
@@ -0,0 +1,76 @@
+package xds.lib.easyhttp.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class BufferPoolTest {
+
+    @Test
+    public void reusesReleasedBytes() {
+        final byte[] buffer = BufferPool.acquireBytes();
+        assertEquals(BufferPool.BUFFER_SIZE, buffer.length);
+        BufferPool.release(buffer);
+        final long hits = BufferPool.getHitCount();
+
+        assertSame(buffer, BufferPool.acquireBytes());
+        assertEquals(hits + 1, BufferPool.getHitCount());
+    }
+
+    @Test
+    public void reusesReleasedLargeBytes() {
+        final byte[] buffer = BufferPool.acquireLargeBytes();
+        assertEquals(BufferPool.LARGE_BUFFER_SIZE, buffer.length);
+        BufferPool.release(buffer);
+
+        assertSame(buffer, BufferPool.acquireLargeBytes());
+    }
+
+    @Test
+    public void reusesReleasedChars() {
+        final char[] buffer = BufferPool.acquireChars();
+        assertEquals(BufferPool.BUFFER_SIZE, buffer.length);
+        BufferPool.release(buffer);
+
+        assertSame(buffer, BufferPool.acquireChars());
+    }
+
+    @Test
+    public void ignoresForeignBuffers() {
+        final byte[] bytes = new byte[100];
+        final char[] chars = new char[100];
+        BufferPool.release(bytes);
+        BufferPool.release(chars);
+
+        assertNotSame(bytes, BufferPool.acquireBytes());
+        assertNotSame(bytes, BufferPool.acquireLargeBytes());
+        assertNotSame(chars, BufferPool.acquireChars());
+    }
+
+    @Test
+    public void keepsBoundedNumberOfBuffers() {
+        final List<byte[]> buffers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            buffers.add(new byte[BufferPool.BUFFER_SIZE]);
+        }
+        for (byte[] buffer : buffers) {
+            BufferPool.release(buffer);
+        }
+
+        final long misses = BufferPool.getMissCount();
+        int reused = 0;
+        for (int i = 0; i < buffers.size(); i++) {
+            if (buffers.contains(BufferPool.acquireBytes())) {
+                reused++;
+            }
+        }
+
+        assertEquals(32, reused);
+        assertEquals(misses + buffers.size() - reused, BufferPool.getMissCount());
+    }
+}
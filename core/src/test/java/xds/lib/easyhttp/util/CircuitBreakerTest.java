@@ -0,0 +1,189 @@
+package xds.lib.easyhttp.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import xds.lib.easyhttp.util.CircuitBreaker.State;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class CircuitBreakerTest {
+
+    private static final String HOST = "example.com";
+
+    private long now = 1000;
+
+    private final CircuitBreaker breaker = new CircuitBreaker.Builder()
+            .failureRateThreshold(0.5f)
+            .window(10, 4)
+            .openDuration(30, TimeUnit.SECONDS)
+            .halfOpenCalls(2)
+            .slowCallDuration(5, TimeUnit.SECONDS)
+            .clock(() -> now)
+            .build();
+
+    @Test
+    public void opensAfterMinimumCalls() {
+        fail(3);
+        assertEquals(State.CLOSED, breaker.getState(HOST));
+
+        fail(1);
+        assertEquals(State.OPEN, breaker.getState(HOST));
+    }
+
+    @Test
+    public void staysClosedBelowThreshold() {
+        for (int i = 0; i < 5; i++) {
+            succeed(1);
+            fail(1);
+            succeed(1);
+        }
+        // 4 failures in the last 10 requests
+        assertEquals(State.CLOSED, breaker.getState(HOST));
+    }
+
+    @Test
+    public void oldOutcomesLeaveWindow() {
+        record("SSSFFSSFSS");
+        assertEquals(State.CLOSED, breaker.getState(HOST));
+
+        // The three failures drop out of the window of 10 outcomes
+        record("SSSSSSSS");
+        record("FFF");
+        assertEquals(State.CLOSED, breaker.getState(HOST));
+        record("FF");
+        assertEquals(State.OPEN, breaker.getState(HOST));
+    }
+
+    @Test
+    public void openRejects() {
+        fail(4);
+
+        assertNull(breaker.tryAcquire(HOST));
+        assertNull(breaker.tryAcquire(HOST));
+        assertEquals(2, breaker.getRejectedCount());
+        assertNotNull(breaker.tryAcquire("other.example.com"));
+    }
+
+    @Test
+    public void halfOpenAfterOpenDuration() {
+        fail(4);
+
+        now += TimeUnit.SECONDS.toMillis(30) - 1;
+        assertEquals(State.OPEN, breaker.getState(HOST));
+        now += 1;
+        assertEquals(State.HALF_OPEN, breaker.getState(HOST));
+    }
+
+    @Test
+    public void halfOpenLimitsTrials() {
+        openAndWait();
+
+        final CircuitBreaker.Permit first = breaker.tryAcquire(HOST);
+        final CircuitBreaker.Permit second = breaker.tryAcquire(HOST);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(breaker.tryAcquire(HOST));
+    }
+
+    @Test
+    public void halfOpenClosesAfterTrialSuccesses() {
+        openAndWait();
+
+        succeed(1);
+        assertEquals(State.HALF_OPEN, breaker.getState(HOST));
+        succeed(1);
+        assertEquals(State.CLOSED, breaker.getState(HOST));
+
+        // The window starts empty again
+        fail(3);
+        assertEquals(State.CLOSED, breaker.getState(HOST));
+    }
+
+    @Test
+    public void halfOpenReopensOnFailure() {
+        openAndWait();
+
+        succeed(1);
+        fail(1);
+        assertEquals(State.OPEN, breaker.getState(HOST));
+
+        // The open duration starts again
+        now += TimeUnit.SECONDS.toMillis(30) - 1;
+        assertEquals(State.OPEN, breaker.getState(HOST));
+        now += 1;
+        assertEquals(State.HALF_OPEN, breaker.getState(HOST));
+    }
+
+    @Test
+    public void ignoredTrialFreesItsSlot() {
+        openAndWait();
+
+        breaker.tryAcquire(HOST).onIgnored();
+        breaker.tryAcquire(HOST).onIgnored();
+
+        assertNotNull(breaker.tryAcquire(HOST));
+        assertNotNull(breaker.tryAcquire(HOST));
+        assertNull(breaker.tryAcquire(HOST));
+    }
+
+    @Test
+    public void slowCallsCountAsFailures() {
+        for (int i = 0; i < 4; i++) {
+            final CircuitBreaker.Permit permit = breaker.tryAcquire(HOST);
+            now += TimeUnit.SECONDS.toMillis(5);
+            permit.onSuccess();
+        }
+
+        assertEquals(State.OPEN, breaker.getState(HOST));
+    }
+
+    @Test
+    public void outcomeOfRequestStartedBeforeOpeningIsIgnored() {
+        final CircuitBreaker.Permit late = breaker.tryAcquire(HOST);
+        fail(4);
+
+        late.onSuccess();
+        now += TimeUnit.SECONDS.toMillis(30);
+
+        // The late success was not taken as a trial
+        assertEquals(State.HALF_OPEN, breaker.getState(HOST));
+        succeed(1);
+        assertEquals(State.HALF_OPEN, breaker.getState(HOST));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidThreshold() {
+        new CircuitBreaker.Builder().failureRateThreshold(0);
+    }
+
+    private void openAndWait() {
+        fail(4);
+        now += TimeUnit.SECONDS.toMillis(30);
+    }
+
+    private void record(String outcomes) {
+        for (char outcome : outcomes.toCharArray()) {
+            if (outcome == 'F') {
+                fail(1);
+            } else {
+                succeed(1);
+            }
+        }
+    }
+
+    private void fail(int count) {
+        for (int i = 0; i < count; i++) {
+            breaker.tryAcquire(HOST).onFailure();
+        }
+    }
+
+    private void succeed(int count) {
+        for (int i = 0; i < count; i++) {
+            breaker.tryAcquire(HOST).onSuccess();
+        }
+    }
+}
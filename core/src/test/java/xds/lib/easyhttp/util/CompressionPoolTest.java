@@ -0,0 +1,125 @@
+package xds.lib.easyhttp.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class CompressionPoolTest {
+
+    @Test
+    public void reusesReleasedInflater() {
+        final Inflater inflater = CompressionPool.acquireInflater();
+        CompressionPool.release(inflater);
+        final long hits = CompressionPool.getHitCount();
+
+        assertSame(inflater, CompressionPool.acquireInflater());
+        assertEquals(hits + 1, CompressionPool.getHitCount());
+    }
+
+    @Test
+    public void releasedInflaterIsReset() throws Exception {
+        final byte[] content = "pooled inflater".getBytes("UTF-8");
+        final Inflater inflater = CompressionPool.acquireInflater();
+        inflater.setInput(rawDeflate(content));
+        inflater.inflate(new byte[4]);
+        CompressionPool.release(inflater);
+
+        final Inflater reused = CompressionPool.acquireInflater();
+        reused.setInput(rawDeflate(content));
+        final byte[] inflated = new byte[content.length];
+
+        assertEquals(content.length, reused.inflate(inflated));
+        assertArrayEquals(content, inflated);
+        CompressionPool.release(reused);
+    }
+
+    @Test
+    public void reusedDeflaterTakesNewLevel() {
+        final Deflater deflater = CompressionPool.acquireDeflater(Deflater.BEST_COMPRESSION);
+        CompressionPool.release(deflater);
+
+        final Deflater reused = CompressionPool.acquireDeflater(Deflater.BEST_SPEED);
+        assertSame(deflater, reused);
+        final byte[] content = new byte[10_000];
+        reused.setInput(content);
+        reused.finish();
+        final byte[] compressed = new byte[content.length];
+        int count = 0;
+        while (!reused.finished()) {
+            count += reused.deflate(compressed, count, compressed.length - count);
+        }
+
+        assertEquals(content.length, reused.getBytesRead());
+        assertEquals(count, reused.getBytesWritten());
+        CompressionPool.release(reused);
+    }
+
+    @Test
+    public void endsInflatersBeyondIdleLimit() {
+        final List<Inflater> inflaters = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            inflaters.add(new Inflater(true));
+        }
+        for (Inflater inflater : inflaters) {
+            CompressionPool.release(inflater);
+        }
+
+        int ended = 0;
+        for (Inflater inflater : inflaters) {
+            try {
+                inflater.getBytesRead();
+            } catch (NullPointerException e) {
+                ended++;
+            }
+        }
+        // The pool may have held idle inflaters of other tests already
+        assertFalse(ended < inflaters.size() - 8);
+    }
+
+    @Test
+    public void streamsReturnTheirInflaterAndDeflater() throws IOException {
+        final byte[] content = "streams return what they take".getBytes("UTF-8");
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflatingOutputStream out = DeflatingOutputStream.gzip(compressed,
+                Deflater.DEFAULT_COMPRESSION)) {
+            out.write(content);
+        }
+        final long misses = CompressionPool.getMissCount();
+
+        for (int i = 0; i < 3; i++) {
+            try (DeflatingOutputStream out = DeflatingOutputStream.gzip(
+                    new ByteArrayOutputStream(), Deflater.DEFAULT_COMPRESSION)) {
+                out.write(content);
+            }
+            try (InflatingInputStream in = InflatingInputStream.gzip(
+                    new ByteArrayInputStream(compressed.toByteArray()))) {
+                assertArrayEquals(content, IOUtils.toByteArray(in));
+            }
+        }
+
+        assertEquals(misses, CompressionPool.getMissCount());
+    }
+
+    private static byte[] rawDeflate(byte[] content) {
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        final byte[] buffer = new byte[content.length + 64];
+        final int count = deflater.deflate(buffer);
+        deflater.end();
+        final byte[] compressed = new byte[count];
+        System.arraycopy(buffer, 0, compressed, 0, count);
+        return compressed;
+    }
+}
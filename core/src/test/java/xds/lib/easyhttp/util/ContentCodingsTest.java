@@ -0,0 +1,147 @@
+package xds.lib.easyhttp.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ContentCodingsTest {
+
+    private static final byte[] TEXT = "content coded text".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void defaultCodings() {
+        final ContentCodings codings = ContentCodings.getDefault();
+
+        assertEquals("gzip, deflate", codings.getAcceptEncoding());
+        assertEquals(Arrays.asList("gzip", "deflate"), codings.getNames());
+        assertSame(ContentCodings.GZIP, codings.get(" GZip "));
+        assertNull(codings.get("br"));
+    }
+
+    @Test
+    public void addedCodingsAreAdvertisedInOrder() {
+        final ContentCodings codings = ContentCodings.getDefault().newBuilder()
+                .add(ContentCoding.create("BR", Reversed::new))
+                .remove("deflate")
+                .build();
+
+        assertEquals("gzip, br", codings.getAcceptEncoding());
+        assertEquals("br", codings.get("br").getName());
+        assertEquals("gzip, deflate", ContentCodings.getDefault().getAcceptEncoding());
+    }
+
+    @Test
+    public void noCodingsAcceptIdentity() {
+        final ContentCodings codings = new ContentCodings.Builder().build();
+
+        assertEquals("identity", codings.getAcceptEncoding());
+        assertEquals(Collections.emptyList(), codings.getNames());
+    }
+
+    @Test
+    public void unencodedBodyIsNotWrapped() throws IOException {
+        final InputStream in = new ByteArrayInputStream(TEXT);
+
+        assertSame(in, ContentCodings.getDefault().decode(null, in));
+        assertSame(in, ContentCodings.getDefault().decode("", in));
+        assertSame(in, ContentCodings.getDefault().decode("identity", in));
+    }
+
+    @Test
+    public void decodesLastAppliedCodingFirst() throws IOException {
+        final ContentCodings codings = ContentCodings.getDefault().newBuilder()
+                .add(ContentCoding.create("reversed", Reversed::new))
+                .build();
+        // Reversed, then gzip-compressed
+        final byte[] encoded = gzip(reverse(TEXT));
+
+        try (InputStream in = codings.decode("reversed, identity, GZIP",
+                new ByteArrayInputStream(encoded))) {
+            assertArrayEquals(TEXT, IOUtils.toByteArray(in));
+        }
+    }
+
+    @Test
+    public void unsupportedCoding() throws IOException {
+        try {
+            ContentCodings.getDefault().decode("gzip, br", new ByteArrayInputStream(TEXT));
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Unsupported content coding: br", e.getMessage());
+        }
+    }
+
+    @Test
+    public void encodeLeavesStreamOpen() throws IOException {
+        for (ContentCoding coding : Arrays.asList(ContentCodings.GZIP, ContentCodings.DEFLATE)) {
+            final ClosingOutputStream encoded = new ClosingOutputStream();
+            try (OutputStream out = coding.encode(encoded)) {
+                out.write(TEXT);
+            }
+
+            assertEquals(false, encoded.closed);
+            try (InputStream in = coding.decode(
+                    new ByteArrayInputStream(encoded.toByteArray()))) {
+                assertArrayEquals(coding.getName(), TEXT, IOUtils.toByteArray(in));
+            }
+        }
+    }
+
+    @Test
+    public void decodeOnlyCodingDoesNotEncode() throws IOException {
+        assertNull(ContentCoding.create("reversed", Reversed::new)
+                .encode(new ByteArrayOutputStream()));
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] reverse(byte[] bytes) {
+        final byte[] reversed = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            reversed[i] = bytes[bytes.length - 1 - i];
+        }
+        return reversed;
+    }
+
+    /**
+     * Decoder of a coding which reverses the bytes of the body.
+     */
+    private static final class Reversed extends FilterInputStream {
+
+        Reversed(InputStream in) throws IOException {
+            super(new ByteArrayInputStream(reverse(IOUtils.toByteArray(in))));
+            in.close();
+        }
+    }
+
+    private static final class ClosingOutputStream extends ByteArrayOutputStream {
+
+        boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
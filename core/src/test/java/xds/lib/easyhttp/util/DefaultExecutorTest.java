@@ -0,0 +1,67 @@
+package xds.lib.easyhttp.util;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import xds.lib.easyhttp.ConnectionPool;
+import xds.lib.easyhttp.HttpClient;
+import xds.lib.easyhttp.TestRequest;
+import xds.lib.easyhttp.TestServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs many more calls than connections on the default executor. On JDK 21 that is a virtual
+ * thread per call: the calls waiting for a connection must not hold the carrier threads the
+ * lease holders need to finish their exchanges.
+ */
+public class DefaultExecutorTest {
+
+    private static final int MAX_CONNECTIONS = 8;
+    /** More than the carrier threads the virtual thread scheduler ever adds. */
+    private static final int CALLS = 600;
+
+    private static TestServer server;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = new TestServer();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void moreCallsThanConnections() throws Exception {
+        final ConnectionPool pool = new ConnectionPool(MAX_CONNECTIONS, 1, TimeUnit.MINUTES,
+                MAX_CONNECTIONS);
+        final HttpClient client = new HttpClient.Builder().connectionPool(pool).build();
+        final List<CompletableFuture<byte[]>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLS; i++) {
+            futures.add(new TestRequest(client, server.url("/slow?ms=10")).executeFuture());
+        }
+
+        try {
+            for (CompletableFuture<byte[]> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } catch (TimeoutException e) {
+            fail("The calls stalled, virtual threads waiting for the pool hold the carriers");
+        } finally {
+            pool.evictAll();
+        }
+        assertEquals(CALLS, server.getRequestCount());
+        assertEquals(CALLS, pool.getHitCount() + pool.getMissCount());
+    }
+}
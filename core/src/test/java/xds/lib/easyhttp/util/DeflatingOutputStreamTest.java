@@ -0,0 +1,102 @@
+package xds.lib.easyhttp.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DeflatingOutputStreamTest {
+
+    private static final byte[] CONTENT = InflatingInputStreamTest.content(
+            3 * BufferPool.BUFFER_SIZE + 17);
+
+    @Test
+    public void gzipReadByPlatform() throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflatingOutputStream out = DeflatingOutputStream.gzip(compressed,
+                Deflater.DEFAULT_COMPRESSION)) {
+            writeInChunks(out);
+        }
+
+        assertTrue(compressed.size() < CONTENT.length);
+        assertArrayEquals(CONTENT, IOUtils.toByteArray(new GZIPInputStream(
+                new ByteArrayInputStream(compressed.toByteArray()))));
+    }
+
+    @Test
+    public void zlibDeflateReadByPlatform() throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflatingOutputStream out = DeflatingOutputStream.deflate(compressed,
+                Deflater.BEST_SPEED)) {
+            writeInChunks(out);
+        }
+
+        assertArrayEquals(CONTENT, IOUtils.toByteArray(new InflaterInputStream(
+                new ByteArrayInputStream(compressed.toByteArray()))));
+    }
+
+    @Test
+    public void flushWritesDecodableData() throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final DeflatingOutputStream out = DeflatingOutputStream.deflate(compressed,
+                Deflater.DEFAULT_COMPRESSION);
+        out.write(CONTENT, 0, 1000);
+        out.flush();
+
+        final InflaterInputStream in = new InflaterInputStream(
+                new ByteArrayInputStream(compressed.toByteArray()));
+        final byte[] flushed = new byte[1000];
+        int count = 0;
+        while (count < flushed.length) {
+            count += in.read(flushed, count, flushed.length - count);
+        }
+        out.close();
+
+        assertArrayEquals(Arrays.copyOf(CONTENT, 1000), flushed);
+    }
+
+    @Test
+    public void emptyGzip() throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DeflatingOutputStream.gzip(compressed, Deflater.DEFAULT_COMPRESSION).close();
+
+        assertEquals(0, IOUtils.toByteArray(new GZIPInputStream(
+                new ByteArrayInputStream(compressed.toByteArray()))).length);
+    }
+
+    @Test
+    public void finishKeepsStreamOpen() throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final DeflatingOutputStream out = DeflatingOutputStream.gzip(compressed,
+                Deflater.DEFAULT_COMPRESSION);
+        out.write(CONTENT);
+        out.finish();
+        final int size = compressed.size();
+        compressed.write('!');
+
+        assertEquals(size + 1, compressed.size());
+        try {
+            out.write(1);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Stream closed", e.getMessage());
+        }
+    }
+
+    private static void writeInChunks(DeflatingOutputStream out) throws IOException {
+        out.write(CONTENT[0]);
+        for (int offset = 1; offset < CONTENT.length; offset += 777) {
+            out.write(CONTENT, offset, Math.min(777, CONTENT.length - offset));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package xds.lib.easyhttp.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class IOUtilsTest {
+
+    private static final String LINES = "first line\nsecond line\r\n\nlast line\n";
+
+    @Test
+    public void stringKeepsNewlines() throws IOException {
+        assertEquals(LINES, IOUtils.inputStreamToString(stream(bytes(LINES))));
+    }
+
+    @Test
+    public void charSequenceKeepsNewlines() throws IOException {
+        assertEquals(LINES, IOUtils.toCharSequence(stream(bytes(LINES)),
+                StandardCharsets.UTF_8).toString());
+    }
+
+    @Test
+    public void longTextKeepsNewlines() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 3 * BufferPool.BUFFER_SIZE; i++) {
+            text.append("line ").append(i).append('\n');
+        }
+
+        assertEquals(text.toString(), IOUtils.inputStreamToString(stream(bytes(text))));
+        assertEquals(text.toString(), IOUtils.toCharSequence(stream(bytes(text)),
+                StandardCharsets.UTF_8).toString());
+    }
+
+    @Test
+    public void unknownLengthShorterThanBuffer() throws IOException {
+        final byte[] content = content(100);
+
+        final byte[] read = IOUtils.toByteArray(stream(content));
+
+        assertArrayEquals(content, read);
+    }
+
+    @Test
+    public void unknownLengthOfBuffer() throws IOException {
+        final byte[] content = content(BufferPool.BUFFER_SIZE);
+
+        assertArrayEquals(content, IOUtils.toByteArray(stream(content)));
+    }
+
+    @Test
+    public void unknownLengthLongerThanBuffer() throws IOException {
+        final byte[] content = content(5 * BufferPool.BUFFER_SIZE + 1);
+
+        final ByteBuffer read = IOUtils.toByteBuffer(stream(content));
+
+        assertEquals(0, read.position());
+        assertArrayEquals(content, Arrays.copyOf(read.array(), read.limit()));
+    }
+
+    @Test
+    public void announcedLengthIsExact() throws IOException {
+        final byte[] content = content(20_000);
+
+        final ByteBuffer read = IOUtils.toByteBuffer(
+                new SizedInputStream(stream(content), content.length));
+
+        assertEquals(content.length, read.array().length);
+        assertArrayEquals(content, read.array());
+    }
+
+    @Test
+    public void announcedLengthTooShort() throws IOException {
+        final byte[] content = content(20_000);
+
+        assertArrayEquals(content, IOUtils.toByteArray(
+                new SizedInputStream(stream(content), 1000)));
+    }
+
+    @Test
+    public void emptyStream() throws IOException {
+        assertEquals(0, IOUtils.toByteArray(stream(new byte[0])).length);
+        assertEquals(0, IOUtils.toByteArray(new SizedInputStream(stream(new byte[0]), 0)).length);
+        assertEquals("", IOUtils.inputStreamToString(stream(new byte[0])));
+    }
+
+    private static byte[] bytes(CharSequence text) {
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] content(int length) {
+        final byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    /**
+     * Returns a stream of the bytes which reads at most 1000 bytes at a time, as a socket does.
+     */
+    private static InputStream stream(byte[] bytes) {
+        return new FilterInputStream(new ByteArrayInputStream(bytes)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+    }
+}
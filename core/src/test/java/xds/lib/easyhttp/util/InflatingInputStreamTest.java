@@ -0,0 +1,161 @@
+package xds.lib.easyhttp.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class InflatingInputStreamTest {
+
+    private static final byte[] CONTENT = content(3 * BufferPool.BUFFER_SIZE + 17);
+
+    @Test
+    public void gzip() throws IOException {
+        assertArrayEquals(CONTENT, inflate(InflatingInputStream.gzip(stream(gzip(CONTENT)))));
+    }
+
+    @Test
+    public void gzipWithHeaderFields() throws IOException {
+        final byte[] member = gzip(CONTENT);
+        final ByteArrayOutputStream withFields = new ByteArrayOutputStream();
+        // FEXTRA, FNAME and FCOMMENT set, then the rest of the original header
+        withFields.write(new byte[] {0x1f, (byte) 0x8b, 8, 4 | 8 | 16, 0, 0, 0, 0, 0, 0});
+        withFields.write(new byte[] {3, 0, 'a', 'b', 'c'});
+        withFields.write("name.txt\0comment\0".getBytes("US-ASCII"));
+        withFields.write(member, 10, member.length - 10);
+
+        assertArrayEquals(CONTENT, inflate(InflatingInputStream.gzip(
+                stream(withFields.toByteArray()))));
+    }
+
+    @Test
+    public void concatenatedGzipMembers() throws IOException {
+        final byte[] first = gzip(Arrays.copyOf(CONTENT, 1000));
+        final byte[] second = gzip(Arrays.copyOfRange(CONTENT, 1000, CONTENT.length));
+        final byte[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+
+        assertArrayEquals(CONTENT, inflate(InflatingInputStream.gzip(stream(both))));
+    }
+
+    @Test
+    public void corruptGzipTrailer() throws IOException {
+        final byte[] compressed = gzip(CONTENT);
+        compressed[compressed.length - 5]++;
+
+        try {
+            inflate(InflatingInputStream.gzip(stream(compressed)));
+            fail("Expected ZipException");
+        } catch (ZipException e) {
+            assertEquals("Corrupt GZIP trailer", e.getMessage());
+        }
+    }
+
+    @Test
+    public void truncatedGzip() throws IOException {
+        final byte[] compressed = gzip(CONTENT);
+
+        try {
+            inflate(InflatingInputStream.gzip(stream(Arrays.copyOf(compressed, 100))));
+            fail("Expected EOFException");
+        } catch (EOFException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void notGzip() throws IOException {
+        try {
+            inflate(InflatingInputStream.gzip(stream(CONTENT)));
+            fail("Expected ZipException");
+        } catch (ZipException e) {
+            assertEquals("Not in GZIP format", e.getMessage());
+        }
+    }
+
+    @Test
+    public void zlibDeflate() throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(CONTENT);
+        }
+
+        assertArrayEquals(CONTENT, inflate(InflatingInputStream.deflate(
+                stream(compressed.toByteArray()))));
+    }
+
+    @Test
+    public void rawDeflate() throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+            out.write(CONTENT);
+        } finally {
+            deflater.end();
+        }
+
+        assertArrayEquals(CONTENT, inflate(InflatingInputStream.deflate(
+                stream(compressed.toByteArray()))));
+    }
+
+    @Test
+    public void readAfterClose() throws IOException {
+        final InflatingInputStream in = InflatingInputStream.gzip(stream(gzip(CONTENT)));
+        in.close();
+        in.close();
+
+        try {
+            in.read();
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertEquals("Stream closed", e.getMessage());
+        }
+    }
+
+    static byte[] content(int length) {
+        final byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) ("0123456789abcdef".charAt(i % 16) + i / 1000);
+        }
+        return content;
+    }
+
+    static byte[] gzip(byte[] content) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] inflate(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            return IOUtils.toByteArray(stream);
+        }
+    }
+
+    /**
+     * Returns a stream of the bytes which reads at most 100 bytes at a time, so headers and
+     * trailers span several reads.
+     */
+    private static InputStream stream(byte[] bytes) {
+        return new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 100));
+            }
+        };
+    }
+}
@@ -0,0 +1,83 @@
+package xds.lib.easyhttp.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void empty() {
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax(TimeUnit.MICROSECONDS));
+        assertEquals(0, histogram.getMean(TimeUnit.MICROSECONDS));
+        assertEquals(0, histogram.getPercentile(99, TimeUnit.MICROSECONDS));
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        for (int micros = 1; micros <= 20; micros++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+
+        assertEquals(20, histogram.getCount());
+        assertEquals(10, histogram.getPercentile(50, TimeUnit.MICROSECONDS));
+        assertEquals(20, histogram.getPercentile(100, TimeUnit.MICROSECONDS));
+        assertEquals(1, histogram.getPercentile(0, TimeUnit.MICROSECONDS));
+        assertEquals(10, histogram.getMean(TimeUnit.MICROSECONDS));
+    }
+
+    @Test
+    public void percentilesWithinRelativeError() {
+        for (long micros = 1; micros <= 1_000_000; micros += 7) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+
+        for (double percentile : new double[] {10, 50, 90, 99, 99.9}) {
+            final double expected = percentile / 100 * 1_000_000;
+            final long actual = histogram.getPercentile(percentile, TimeUnit.MICROSECONDS);
+            // The highest value of the bucket, at most 1/16 above
+            assertTrue(percentile + ": " + actual, actual >= expected - 7);
+            assertTrue(percentile + ": " + actual, actual <= expected * (1 + 1.0 / 16) + 7);
+        }
+        assertEquals(1_000_000, histogram.getMax(TimeUnit.MICROSECONDS));
+        assertEquals(1_000_000, histogram.getPercentile(100, TimeUnit.MICROSECONDS));
+    }
+
+    @Test
+    public void percentileNeverExceedsMax() {
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(1000));
+
+        assertEquals(1000, histogram.getPercentile(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        histogram.record(-5);
+        histogram.record(TimeUnit.HOURS.toNanos(2));
+
+        assertEquals(0, histogram.getPercentile(50, TimeUnit.MICROSECONDS));
+        assertEquals(71, histogram.getMax(TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void reset() {
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax(TimeUnit.MICROSECONDS));
+        assertEquals(0, histogram.getPercentile(50, TimeUnit.MICROSECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void percentileOutOfRange() {
+        histogram.getPercentile(100.5, TimeUnit.MICROSECONDS);
+    }
+}
@@ -0,0 +1,79 @@
+package xds.lib.easyhttp.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryBudgetTest {
+
+    private static final String HOST = "example.com";
+
+    @Test
+    public void minRetriesWithoutRequests() {
+        final RetryBudget budget = new RetryBudget(0.2, 1);
+
+        // One retry per second over the ten second window
+        for (int i = 0; i < 10; i++) {
+            assertTrue(budget.tryRetry(HOST, 1000));
+        }
+        assertFalse(budget.tryRetry(HOST, 1000));
+        assertEquals(1, budget.getRejectedCount());
+    }
+
+    @Test
+    public void retryRatioOfRequests() {
+        final RetryBudget budget = new RetryBudget(0.5, 0);
+        for (int i = 0; i < 10; i++) {
+            budget.onRequest(HOST, 1000);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(budget.tryRetry(HOST, 1500));
+        }
+        assertFalse(budget.tryRetry(HOST, 1500));
+
+        budget.onRequest(HOST, 2000);
+        budget.onRequest(HOST, 2000);
+        assertTrue(budget.tryRetry(HOST, 2000));
+        assertFalse(budget.tryRetry(HOST, 2000));
+        assertEquals(2, budget.getRejectedCount());
+    }
+
+    @Test
+    public void windowSlides() {
+        final RetryBudget budget = new RetryBudget(0, 1);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(budget.tryRetry(HOST, 100_000));
+        }
+        assertFalse(budget.tryRetry(HOST, 109_999));
+
+        // The retries of second 100 leave the window at second 110
+        assertTrue(budget.tryRetry(HOST, 110_000));
+    }
+
+    @Test
+    public void requestsLeaveWindow() {
+        final RetryBudget budget = new RetryBudget(1, 0);
+        budget.onRequest(HOST, 100_000);
+
+        assertFalse(budget.tryRetry(HOST, 110_000));
+    }
+
+    @Test
+    public void hostsHaveTheirOwnBudget() {
+        final RetryBudget budget = new RetryBudget(0, 1);
+        for (int i = 0; i < 10; i++) {
+            budget.tryRetry(HOST, 1000);
+        }
+
+        assertFalse(budget.tryRetry(HOST, 1000));
+        assertTrue(budget.tryRetry("other.example.com", 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeBudget() {
+        new RetryBudget(-0.1, 10);
+    }
+}
@@ -0,0 +1,147 @@
+package xds.lib.easyhttp.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import xds.lib.easyhttp.exception.ResponseException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+
+    private static final int SAMPLES = 1000;
+
+    @Test
+    public void fixedDelay() {
+        final RetryPolicy policy = RetryPolicy.create(e -> e instanceof IOException, 3, 100);
+
+        assertEquals(3, policy.getMaxRetries());
+        assertEquals(100, policy.getRetryDelay(new IOException(), 0));
+        assertEquals(100, policy.getRetryDelay(new IOException(), 2));
+        assertEquals(-1, policy.getRetryDelay(new IOException(), 3));
+        assertEquals(-1, policy.getRetryDelay(new IllegalStateException(), 0));
+    }
+
+    @Test
+    public void negativeCountAndDelay() {
+        final RetryPolicy policy = RetryPolicy.create(e -> true, -1, -100);
+
+        assertEquals(0, policy.getMaxRetries());
+        assertEquals(-1, policy.getRetryDelay(new IOException(), 0));
+        assertEquals(0, RetryPolicy.create(e -> true, 1, -100)
+                .getRetryDelay(new IOException(), 0));
+    }
+
+    @Test
+    public void serverErrors() {
+        final RetryPolicy policy = RetryPolicy.create50x(1, 10);
+
+        for (int code : new int[] {500, 501, 502, 503, 504, 505}) {
+            assertEquals(10, policy.getRetryDelay(error(code, null), 0));
+        }
+        assertEquals(-1, policy.getRetryDelay(error(404, null), 0));
+        assertEquals(-1, policy.getRetryDelay(error(429, null), 0));
+        assertEquals(-1, policy.getRetryDelay(new IOException(), 0));
+    }
+
+    @Test
+    public void exponentialDelayWithinCeiling() {
+        final RetryPolicy policy = RetryPolicy.createExponential50x(10, 100, 1000);
+        final long[] ceilings = {100, 200, 400, 800, 1000, 1000};
+
+        for (int retry = 0; retry < ceilings.length; retry++) {
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = 0; i < SAMPLES; i++) {
+                final long delay = policy.getRetryDelay(error(503, null), retry);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            assertTrue("retry " + retry + " min " + min, min >= 0);
+            assertTrue("retry " + retry + " max " + max, max <= ceilings[retry]);
+            // Full jitter spreads the delays over the whole range
+            assertTrue("retry " + retry + " min " + min, min < ceilings[retry] / 4);
+            assertTrue("retry " + retry + " max " + max, max > ceilings[retry] * 3 / 4);
+        }
+    }
+
+    @Test
+    public void exponentialDelayDoesNotOverflow() {
+        final RetryPolicy policy = RetryPolicy.createExponential(e -> true, Integer.MAX_VALUE,
+                3, Long.MAX_VALUE / 2);
+
+        for (int retry : new int[] {60, 61, 62, 63, 64, 100, 10_000}) {
+            for (int i = 0; i < 100; i++) {
+                final long delay = policy.getRetryDelay(new IOException(), retry);
+                assertTrue("retry " + retry + " delay " + delay,
+                        delay >= 0 && delay <= Long.MAX_VALUE / 2);
+            }
+        }
+    }
+
+    @Test
+    public void invalidExponentialDelays() {
+        try {
+            RetryPolicy.createExponential50x(3, 0, 1000);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        try {
+            RetryPolicy.createExponential50x(3, 1000, 100);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void retryAfterSeconds() {
+        final RetryPolicy policy = RetryPolicy.create50x(3, 100);
+
+        assertEquals(5000, policy.getRetryDelay(error(503, "5"), 0));
+        // A shorter wait than the policy keeps the delay of the policy
+        assertEquals(100, policy.getRetryDelay(error(503, "0"), 0));
+        assertEquals(100, policy.getRetryDelay(error(503, "soon"), 0));
+    }
+
+    @Test
+    public void retryAfterTooLong() {
+        assertEquals(-1, RetryPolicy.create50x(3, 100).getRetryDelay(error(503, "31"), 0));
+        // Policies with long delays wait as long as their longest delay
+        final RetryPolicy patient = RetryPolicy.createExponential50x(3, 1000, 60_000);
+        assertEquals(45_000, patient.getRetryDelay(error(503, "45"), 0));
+        assertEquals(-1, patient.getRetryDelay(error(503, "61"), 0));
+    }
+
+    @Test
+    public void retryAfterDate() {
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        final String inTenSeconds = format.format(new Date(System.currentTimeMillis() + 10_000));
+
+        final long delay = RetryPolicy.create50x(3, 100)
+                .getRetryDelay(error(503, inTenSeconds), 0);
+
+        // The date has a precision of a second
+        assertTrue(String.valueOf(delay), delay > 8000 && delay <= 10_000);
+    }
+
+    private static ResponseException error(int code, String retryAfter) {
+        final Map<String, List<String>> headers = retryAfter != null ?
+                Collections.singletonMap("Retry-After", Collections.singletonList(retryAfter)) :
+                null;
+        return new ResponseException("error", code, headers);
+    }
+}